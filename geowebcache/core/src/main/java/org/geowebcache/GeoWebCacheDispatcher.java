@@ -54,8 +54,12 @@ import org.geowebcache.grid.OutsideCoverageException;
 import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.BadTileException;
+import org.geowebcache.layer.RefreshAheadScheduler;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.layer.TileRefresher;
+import org.geowebcache.layer.wms.BackendConcurrencyLimiter;
+import org.geowebcache.layer.wms.BackendConnectionPool;
 import org.geowebcache.mime.ImageMime;
 import org.geowebcache.service.HttpErrorCodeException;
 import org.geowebcache.service.OWSException;
@@ -102,6 +106,10 @@ public class GeoWebCacheDispatcher extends AbstractController {
     private String servletPrefix = null;
 
     private Configuration mainConfiguration;
+
+    private TileRefresher tileRefresher;
+
+    private RefreshAheadScheduler refreshAheadScheduler;
     
     /**
      * Should be invoked through Spring
@@ -135,6 +143,23 @@ public class GeoWebCacheDispatcher extends AbstractController {
         this.defaultStorageFinder = defaultStorageFinder;
     }
 
+    /**
+     * @param tileRefresher
+     *            the refresher of the stale tiles, whose statistics are shown on the home page
+     */
+    public void setTileRefresher(TileRefresher tileRefresher) {
+        this.tileRefresher = tileRefresher;
+    }
+
+    /**
+     * @param refreshAheadScheduler
+     *            the scheduler of the refreshes ahead of expiration, whose statistics are shown on
+     *            the home page when enabled
+     */
+    public void setRefreshAheadScheduler(RefreshAheadScheduler refreshAheadScheduler) {
+        this.refreshAheadScheduler = refreshAheadScheduler;
+    }
+
     /**
      * GeoServer and other solutions that embedded this dispatcher will prepend a path, this is used
      * to remove it.
@@ -475,6 +500,11 @@ public class GeoWebCacheDispatcher extends AbstractController {
         if(storageBroker != null){
             appendInternalCacheStats(str);
         }
+        appendBackendStats(str);
+        appendConnectionPoolStats(str);
+        if (tileRefresher != null) {
+            appendTileRefreshStats(str);
+        }
         str.append("</body></html>\n");
 
         writePage(response, 200, str.toString());
@@ -787,4 +817,103 @@ public class GeoWebCacheDispatcher extends AbstractController {
         // Append to the homepage HTML
         strGlobal.append(str);
     }
+
+    /**
+     * Appends the concurrency limits and times of the requests sent to the WMS backends, if any
+     */
+    private void appendBackendStats(StringBuilder str) {
+        List<BackendConcurrencyLimiter> layerLimiters = BackendConcurrencyLimiter
+                .getLayerLimiters();
+        if (layerLimiters.isEmpty()) {
+            return;
+        }
+        str.append("<h3>Backend Requests</h3>\n");
+        str.append("<table border=\"0\" cellspacing=\"5\" class=\"stats\">");
+        str.append("<tr><th>Layer / Host</th><th>Limit</th><th>In progress</th><th>Waiting</th>"
+                + "<th>Requests</th><th>Rejected</th><th>Failed</th>"
+                + "<th>Avg. queue time (ms)</th><th>Avg. backend time (ms)</th></tr>\n");
+        for (BackendConcurrencyLimiter limiter : layerLimiters) {
+            appendBackendStats(str, limiter);
+        }
+        for (BackendConcurrencyLimiter limiter : BackendConcurrencyLimiter.getHostLimiters()) {
+            appendBackendStats(str, limiter);
+        }
+        str.append("</table>\n");
+    }
+
+    private void appendBackendStats(StringBuilder str, BackendConcurrencyLimiter limiter) {
+        str.append("<tr><td>").append(ServletUtils.disableHTMLTags(limiter.getName()))
+                .append("</td>");
+        str.append("<td>").append(limiter.getLimit()).append(" / ")
+                .append(limiter.getMaxLimit()).append("</td>");
+        str.append("<td>").append(limiter.getInFlight()).append("</td>");
+        str.append("<td>").append(limiter.getWaiting()).append("</td>");
+        str.append("<td>").append(limiter.getRequests()).append("</td>");
+        str.append("<td>").append(limiter.getRejected()).append("</td>");
+        str.append("<td>").append(limiter.getFailures()).append("</td>");
+        str.append("<td>").append(String.format("%.1f", limiter.getAverageQueueTime()))
+                .append("</td>");
+        str.append("<td>").append(String.format("%.1f", limiter.getAverageBackendTime()))
+                .append("</td></tr>\n");
+    }
+
+    /**
+     * Appends the state of the shared backend connection pools, if any
+     */
+    private void appendConnectionPoolStats(StringBuilder str) {
+        List<BackendConnectionPool> pools = BackendConnectionPool.getPools();
+        if (pools.isEmpty()) {
+            return;
+        }
+        str.append("<h3>Backend Connection Pools</h3>\n");
+        str.append("<table border=\"0\" cellspacing=\"5\" class=\"stats\">");
+        str.append("<tr><th>Host</th><th>Open connections</th><th>In use</th><th>Requests</th>"
+                + "<th>Compressed responses</th><th>Streamed meta tiles</th>"
+                + "<th>Received</th></tr>\n");
+        for (BackendConnectionPool pool : pools) {
+            str.append("<tr><td>").append(ServletUtils.disableHTMLTags(pool.getName()))
+                    .append("</td>");
+            str.append("<td>").append(pool.getOpenConnections()).append(" / ")
+                    .append(pool.getMaxConnections()).append("</td>");
+            str.append("<td>").append(pool.getConnectionsInUse()).append("</td>");
+            str.append("<td>").append(pool.getRequests()).append("</td>");
+            str.append("<td>").append(pool.getCompressedResponses()).append("</td>");
+            str.append("<td>").append(pool.getStreamedResponses()).append("</td>");
+            str.append("<td>").append(pool.getBytesReceived() / 1024).append(" KB</td></tr>\n");
+        }
+        str.append("</table>\n");
+    }
+
+    /**
+     * Appends the statistics of the stale tiles served, of their background refreshes, and of the
+     * refreshes ahead of expiration
+     */
+    private void appendTileRefreshStats(StringBuilder str) {
+        str.append("<h3>Tile Refreshes</h3>\n");
+        str.append("<table border=\"0\" cellspacing=\"5\" class=\"stats\">");
+        str.append("<tr><th>Stale tiles served</th><th>Queued</th><th>Pending</th>"
+                + "<th>Submitted</th><th>Deduplicated</th><th>Rejected</th><th>Completed</th>"
+                + "<th>Failed</th></tr>\n");
+        str.append("<tr><td>").append(tileRefresher.getStaleHits()).append("</td>");
+        str.append("<td>").append(tileRefresher.getQueueDepth()).append("</td>");
+        str.append("<td>").append(tileRefresher.getPendingRefreshes()).append("</td>");
+        str.append("<td>").append(tileRefresher.getSubmittedRefreshes()).append("</td>");
+        str.append("<td>").append(tileRefresher.getDeduplicatedRefreshes()).append("</td>");
+        str.append("<td>").append(tileRefresher.getRejectedRefreshes()).append("</td>");
+        str.append("<td>").append(tileRefresher.getCompletedRefreshes()).append("</td>");
+        str.append("<td>").append(tileRefresher.getFailedRefreshes()).append("</td></tr>\n");
+        str.append("</table>\n");
+
+        if (refreshAheadScheduler != null && refreshAheadScheduler.isEnabled()) {
+            str.append("<table border=\"0\" cellspacing=\"5\" class=\"stats\">");
+            str.append("<tr><th>Refresh ahead candidates</th><th>Scheduled</th>"
+                    + "<th>Deferred</th></tr>\n");
+            str.append("<tr><td>").append(refreshAheadScheduler.getCandidates()).append("</td>");
+            str.append("<td>").append(refreshAheadScheduler.getScheduledRefreshes())
+                    .append("</td>");
+            str.append("<td>").append(refreshAheadScheduler.getDeferredRefreshes())
+                    .append("</td></tr>\n");
+            str.append("</table>\n");
+        }
+    }
 }
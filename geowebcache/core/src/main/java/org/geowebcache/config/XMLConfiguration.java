@@ -75,6 +75,7 @@ import org.geowebcache.layer.meta.LayerMetaInformation;
 import org.geowebcache.layer.updatesource.GeoRSSFeedDefinition;
 import org.geowebcache.layer.wms.WMSHttpHelper;
 import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.layer.wms.WMSPooledHttpHelper;
 import org.geowebcache.locks.LockProvider;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.seed.SeedRequest;
@@ -342,16 +343,16 @@ public class XMLConfiguration implements Configuration, InitializingBean {
             final WMSHttpHelper sourceHelper;
 
             if (wl.getHttpUsername() != null) {
-                sourceHelper = new WMSHttpHelper(wl.getHttpUsername(), wl.getHttpPassword(),
+                sourceHelper = createSourceHelper(wl.getHttpUsername(), wl.getHttpPassword(),
                         proxyUrl);
                 log.debug("Using per-layer HTTP credentials for " + wl.getName() + ", "
                         + "username " + wl.getHttpUsername());
             } else if (gwcConfig.getHttpUsername() != null) {
-                sourceHelper = new WMSHttpHelper(gwcConfig.getHttpUsername(),
+                sourceHelper = createSourceHelper(gwcConfig.getHttpUsername(),
                         gwcConfig.getHttpPassword(), proxyUrl);
                 log.debug("Using global HTTP credentials for " + wl.getName());
             } else {
-                sourceHelper = new WMSHttpHelper(null, null, proxyUrl);
+                sourceHelper = createSourceHelper(null, null, proxyUrl);
                 log.debug("Not using HTTP credentials for " + wl.getName());
             }
 
@@ -360,6 +361,17 @@ public class XMLConfiguration implements Configuration, InitializingBean {
         }
     }
 
+    /**
+     * Creates a source helper using the shared backend connection pools if enabled
+     */
+    private static WMSHttpHelper createSourceHelper(String httpUsername, String httpPassword,
+            URL proxyUrl) {
+        if (WMSPooledHttpHelper.isEnabled()) {
+            return new WMSPooledHttpHelper(httpUsername, httpPassword, proxyUrl);
+        }
+        return new WMSHttpHelper(httpUsername, httpPassword, proxyUrl);
+    }
+
     private GeoWebCacheConfiguration loadConfiguration() throws ConfigurationException {
         Assert.isTrue(resourceProvider.hasInput());
         InputStream in;
@@ -477,6 +489,7 @@ public class XMLConfiguration implements Configuration, InitializingBean {
         xs.alias("expirationRule", ExpirationRule.class);
         xs.useAttributeFor(ExpirationRule.class, "minZoom");
         xs.useAttributeFor(ExpirationRule.class, "expiration");
+        xs.useAttributeFor(ExpirationRule.class, "staleWhileRevalidate");
 
         xs.alias("geoRssFeed", GeoRSSFeedDefinition.class);
 
@@ -61,6 +61,8 @@ public class ConveyorTile extends Conveyor implements TileResponseReceiver {
 
     private boolean isMetaTileCacheOnly;
 
+    private boolean stale;
+
     public ConveyorTile(StorageBroker sb, String layerId, HttpServletRequest servletReq,
             HttpServletResponse servletResp) {
         super(layerId, sb, servletReq, servletResp);
@@ -119,6 +121,11 @@ public class ConveyorTile extends Conveyor implements TileResponseReceiver {
 
     public void setTileLayer(TileLayer layer) {
         this.tileLayer = layer;
+        if (layer != null && stObj != null && stObj.getParametersId() == null
+                && fullParameters != null && !fullParameters.isEmpty()) {
+            // the layer remembers the identifier along with the normalized parameters
+            stObj.setParametersId(layer.getParametersId(fullParameters));
+        }
     }
 
     public TileLayer getTileLayer() {
@@ -224,6 +231,21 @@ public class ConveyorTile extends Conveyor implements TileResponseReceiver {
     }
 
     public boolean retrieve(long maxAge) throws GeoWebCacheException {
+        return retrieve(maxAge, 0);
+    }
+
+    /**
+     * Retrieves the tile from the cache, considering it a hit if it is older than {@code maxAge}
+     * by no more than {@code staleWindow}, in which case it is flagged as {@link #isStale() stale}
+     * 
+     * @param maxAge
+     *            maximum age of the tile in milliseconds, or {@code 0} if tiles don't expire
+     * @param staleWindow
+     *            milliseconds an expired tile can still be served while it is being refreshed
+     * @return {@code true} if the tile was found in the cache and is fresh or stale
+     */
+    public boolean retrieve(long maxAge, long staleWindow) throws GeoWebCacheException {
+        this.stale = false;
         try {
             if (isMetaTileCacheOnly) {
                 boolean cached = storageBroker.getTransient((TileObject) stObj);
@@ -233,8 +255,16 @@ public class ConveyorTile extends Conveyor implements TileResponseReceiver {
             boolean ret = storageBroker.get((TileObject) stObj);
 
             // Do we use expiration, and if so, is the tile recent enough ?
-            if (ret && maxAge > 0 && stObj.getCreated() + maxAge < System.currentTimeMillis()) {
-                ret = false;
+            if (ret && maxAge > 0) {
+                final long expires = stObj.getCreated() + maxAge;
+                final long now = System.currentTimeMillis();
+                if (expires < now) {
+                    if (staleWindow > 0 && now <= expires + staleWindow) {
+                        this.stale = true;
+                    } else {
+                        ret = false;
+                    }
+                }
             }
 
             if (ret) {
@@ -286,4 +316,12 @@ public class ConveyorTile extends Conveyor implements TileResponseReceiver {
     public boolean isMetaTileCacheOnly() {
         return isMetaTileCacheOnly;
     }
+
+    /**
+     * @return {@code true} if the last {@link #retrieve(long, long)} found an expired tile still
+     *         within its stale while revalidate window
+     */
+    public boolean isStale() {
+        return stale;
+    }
 }
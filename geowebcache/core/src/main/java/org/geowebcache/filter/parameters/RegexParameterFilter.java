@@ -25,7 +25,10 @@ import javax.annotation.ParametersAreNonnullByDefault;
 
 import org.geowebcache.filter.parameters.CaseNormalizer.Case;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
 @ParametersAreNonnullByDefault
@@ -36,9 +39,24 @@ public class RegexParameterFilter extends CaseNormalizingParameterFilter {
 
     public final static String DEFAULT_EXPRESSION = "";
 
+    /**
+     * Maximum number of distinct raw values whose normalized form is remembered by each filter
+     */
+    static final int MAX_CACHED_VALUES = 1000;
+
     private String regex = DEFAULT_EXPRESSION;
 
-    private transient Pattern pat = compile(regex, getNormalize().getCase());
+    /**
+     * Compiled form of {@link #regex}. {@link Pattern} instances are immutable and safe to share
+     * between threads, only the {@link Matcher}s are not, so a new one is created for each call.
+     */
+    private transient volatile Pattern pat = compile(regex, getNormalize().getCase());
+
+    /**
+     * Recently seen raw values mapped to their normalized form, or to {@link Optional#absent()}
+     * if they are rejected by the filter. Replaced whenever the regex or normalizer change.
+     */
+    private transient volatile Cache<String, Optional<String>> normalizedValues = newValueCache();
 
     public RegexParameterFilter() {
         super();
@@ -46,13 +64,19 @@ public class RegexParameterFilter extends CaseNormalizingParameterFilter {
     
     /**
      * Get a {@link Matcher} for this filter's regexp against the given string.
+     * <p>
+     * The returned matcher is not thread safe and should not be shared.
      * @param value
      * @return
      */
-    public synchronized Matcher getMatcher(String value) {
+    public Matcher getMatcher(String value) {
         return pat.matcher(value);
     }
 
+    static Cache<String, Optional<String>> newValueCache() {
+        return CacheBuilder.newBuilder().maximumSize(MAX_CACHED_VALUES).build();
+    }
+
     static Pattern compile(String regex, Case c) {
         int flags = 0;
         if (c!=Case.NONE) {
@@ -65,7 +89,8 @@ public class RegexParameterFilter extends CaseNormalizingParameterFilter {
     protected RegexParameterFilter readResolve() {
         super.readResolve();
         Preconditions.checkNotNull(regex);
-        this.pat = Pattern.compile(regex);
+        this.pat = compile(regex, getNormalize().getCase());
+        this.normalizedValues = newValueCache();
         return this;
     }
     
@@ -75,8 +100,18 @@ public class RegexParameterFilter extends CaseNormalizingParameterFilter {
             return getDefaultValue();
         }
         
-        if (getMatcher(str).matches()) {
-            return getNormalize().apply(str);
+        final Cache<String, Optional<String>> cache = normalizedValues;
+        Optional<String> normalized = cache.getIfPresent(str);
+        if (normalized == null) {
+            if (getMatcher(str).matches()) {
+                normalized = Optional.of(getNormalize().apply(str));
+            } else {
+                normalized = Optional.absent();
+            }
+            cache.put(str, normalized);
+        }
+        if (normalized.isPresent()) {
+            return normalized.get();
         }
 
         throw new ParameterException(str + " violates filter for parameter " + getKey());
@@ -97,6 +132,10 @@ public class RegexParameterFilter extends CaseNormalizingParameterFilter {
      */
     @Override
     public boolean applies(@Nullable String parameterValue) {
+        Optional<String> normalized = normalizedValues.getIfPresent(parameterValue);
+        if (normalized != null) {
+            return normalized.isPresent();
+        }
         return getMatcher(parameterValue).matches();
     }
 
@@ -115,12 +154,14 @@ public class RegexParameterFilter extends CaseNormalizingParameterFilter {
         if(regex==null) regex = DEFAULT_EXPRESSION;
         this.regex = regex;
         this.pat = compile(this.regex, getNormalize().getCase());
+        this.normalizedValues = newValueCache();
     }
     
     @Override
     public void setNormalize(CaseNormalizer normalize) {
         super.setNormalize(normalize);
         this.pat = compile(this.regex, getNormalize().getCase());
+        this.normalizedValues = newValueCache();
     }
 
     @Override
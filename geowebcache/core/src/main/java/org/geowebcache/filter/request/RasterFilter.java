@@ -19,7 +19,9 @@ package org.geowebcache.filter.request;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +39,9 @@ import org.geowebcache.layer.TileLayer;
  * To conserve memory, the layer bounds are used.
  * 
  * The raster must match the dimensions of the zoomlevel and use 0x000000 for tiles that are valid.
+ * 
+ * Each raster is compiled once loaded into a {@link RasterFilterMatrix}, and the matrices are
+ * replaced as a whole when they're updated, so requests are filtered without locking.
  */
 public abstract class RasterFilter extends RequestFilter {
 
@@ -54,7 +59,11 @@ public abstract class RasterFilter extends RequestFilter {
 
     private Boolean debug;
 
-    public transient Hashtable<String, BufferedImage[]> matrices;
+    /**
+     * By grid set and zoom level compiled matrices. Neither the map nor its arrays are modified
+     * once published, {@link #setMatrix} publishes updated copies instead.
+     */
+    private transient volatile Map<String, RasterFilterMatrix[]> matrices;
 
     public RasterFilter() {
 
@@ -176,8 +185,8 @@ public abstract class RasterFilter extends RequestFilter {
             idx[2] = zoomStop;
         }
 
-        if (matrices == null || matrices.get(gridSetId) == null
-                || matrices.get(gridSetId)[(int) idx[2]] == null) {
+        RasterFilterMatrix matrix = getMatrix(gridSetId, (int) idx[2]);
+        if (matrix == null) {
             try {
                 setMatrix(convTile.getLayer(), gridSetId, (int) idx[2], false);
             } catch (Exception e) {
@@ -187,35 +196,39 @@ public abstract class RasterFilter extends RequestFilter {
                         "Failed while trying to load filter for " + idx[2]
                                 + ", please check the logs");
             }
+            matrix = getMatrix(gridSetId, (int) idx[2]);
         }
 
+        final boolean hasData;
         if (zoomDiff == 0) {
-            if (!lookup(convTile.getGridSubset(), idx)) {
-                if (debug != null && debug) {
-                    throw new GreenTileException(this);
-                } else {
-                    throw new BlankTileException(this);
-                }
-            }
+            hasData = lookup(matrix, convTile.getGridSubset(), idx);
         } else if (zoomDiff > 0) {
-            if (!lookupQuad(convTile.getGridSubset(), idx)) {
-                if (debug != null && debug) {
-                    throw new GreenTileException(this);
-                } else {
-                    throw new BlankTileException(this);
-                }
-            }
-        } else if (zoomDiff < 0) {
-            if (!lookupSubsample(convTile.getGridSubset(), idx, zoomDiff)) {
-                if (debug != null && debug) {
-                    throw new GreenTileException(this);
-                } else {
-                    throw new BlankTileException(this);
-                }
+            hasData = lookupQuad(matrix, convTile.getGridSubset(), idx);
+        } else {
+            hasData = lookupSubsample(matrix, convTile.getGridSubset(), idx, zoomDiff);
+        }
+
+        if (!hasData) {
+            if (debug != null && debug) {
+                throw new GreenTileException(this);
+            } else {
+                throw new BlankTileException(this);
             }
         }
     }
 
+    /**
+     * @return the compiled matrix, or {@code null} if it's not loaded yet
+     */
+    private RasterFilterMatrix getMatrix(String gridSetId, int z) {
+        Map<String, RasterFilterMatrix[]> current = matrices;
+        if (current == null) {
+            return null;
+        }
+        RasterFilterMatrix[] levels = current.get(gridSetId);
+        return levels == null || z >= levels.length ? null : levels[z];
+    }
+
     /**
      * Loops over all the zoom levels and initializes the lookup images.
      */
@@ -239,77 +252,47 @@ public abstract class RasterFilter extends RequestFilter {
     /**
      * Performs a lookup against an internal raster.
      * 
+     * @param matrix
      * @param grid
      * @param idx
      * @return
      */
-    private boolean lookup(GridSubset grid, long[] idx) {
-        BufferedImage mat = matrices.get(grid.getName())[(int) idx[2]];
-
+    private boolean lookup(RasterFilterMatrix matrix, GridSubset grid, long[] idx) {
         long[] gridCoverage = grid.getCoverage((int) idx[2]);
 
         // Changing index to top left hand origin
         long x = idx[0] - gridCoverage[0];
         long y = gridCoverage[3] - idx[1];
 
-        return (mat.getRaster().getSample((int) x, (int) y, 0) == 0);
+        return matrix.hasData((int) x, (int) y);
     }
 
     /**
      * Performs a lookup against an internal raster. The sampling is actually done against 4 pixels,
      * idx should already have been modified to use one level higher than strictly necessary.
      * 
+     * @param matrix
      * @param grid
      * @param idx
      * @return
      */
-    private boolean lookupQuad(GridSubset grid, long[] idx) {
-        BufferedImage mat = matrices.get(grid.getName())[(int) idx[2]];
-
+    private boolean lookupQuad(RasterFilterMatrix matrix, GridSubset grid, long[] idx) {
         long[] gridCoverage = grid.getCoverage((int) idx[2]);
 
         // Changing index to top left hand origin
         int baseX = (int) (idx[0] - gridCoverage[0]);
         int baseY = (int) (gridCoverage[3] - idx[1]);
 
-        int width = mat.getWidth();
-        int height = mat.getHeight();
-
-        int x = baseX;
-        int y = baseY;
-
         // We're checking 4 samples. The base is bottom left hand corner
-        boolean hasData = false;
-
-        // BL, BR, TL, TR
-        int[] xOffsets = { 0, 1, 0, 1 };
-        int[] yOffsets = { 0, 0, 1, 1 };
-
-        // Lock, in case someone wants to replace the matrix
-        synchronized (mat) {
-            try {
-                for (int i = 0; i < 4 && !hasData; i++) {
-                    x = baseX + xOffsets[i];
-                    y = baseY - yOffsets[i];
-
-                    if (x > -1 && x < width && y > -1 && y < height) {
-                        if (mat.getRaster().getSample(x, y, 0) == 0) {
-                            hasData = true;
-                        }
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException aioob) {
-                log.error("x:" + x + "  y:" + y + " (" + mat.getWidth() + " " + mat.getHeight()
-                        + ")");
-            }
-        }
-
-        return hasData;
+        return matrix.hasData(baseX, baseY - 1, baseX + 1, baseY);
     }
 
-    private boolean lookupSubsample(GridSubset grid, long[] idx, int zoomDiff) {
-        BufferedImage mat = matrices.get(grid.getName())[(int) idx[2]];
-
+    /**
+     * Checks all the pixels covered by the tile, idx being the bottom left one at the
+     * {@link #zoomStart} level
+     */
+    private boolean lookupSubsample(RasterFilterMatrix matrix, GridSubset grid, long[] idx,
+            int zoomDiff) {
         int sampleChange = 1 << (-1 * zoomDiff);
 
         long[] gridCoverage = grid.getCoverage((int) idx[2]);
@@ -318,53 +301,7 @@ public abstract class RasterFilter extends RequestFilter {
         int baseX = (int) (idx[0] - gridCoverage[0]);
         int baseY = (int) (gridCoverage[3] - idx[1]);
 
-        int width = mat.getWidth();
-        int height = mat.getHeight();
-
-        int startX = Math.max(0, baseX);
-        int stopX = Math.min(width, baseX + sampleChange);
-        int startY = Math.min(baseY, height - 1);
-        int stopY = Math.max(0, baseY - sampleChange);
-
-        int x = -1;
-        int y = -1;
-
-        // Lock, in case someone wants to replace the matrix
-        synchronized (mat) {
-            try {
-                // Try center and edges first
-                x = (stopX + startX) / 2;
-                y = (startY + stopY) / 2;
-                if (mat.getRaster().getSample(x, y, 0) == 0
-                        || mat.getRaster().getSample(stopX - 1, stopY + 1, 0) == 0
-                        || mat.getRaster().getSample(stopX - 1, startY, 0) == 0
-                        || mat.getRaster().getSample(startX, stopY + 1, 0) == 0) {
-                    return true;
-                }
-
-                // Do the hard work, loop over all pixels
-                x = startX;
-                y = startY;
-
-                // Left to right
-                while (x < stopX) {
-                    // Bottom to top
-                    while (y > stopY) {
-                        if (mat.getRaster().getSample(x, y, 0) == 0) {
-                            return true;
-                        }
-                        y--;
-                    }
-                    x++;
-                    y = startY;
-                }
-            } catch (ArrayIndexOutOfBoundsException aioob) {
-                log.error("x:" + x + "  y:" + y + " (" + mat.getWidth() + " " + mat.getHeight()
-                        + ")");
-            }
-        }
-
-        return false;
+        return matrix.hasData(baseX, baseY - sampleChange + 1, baseX + sampleChange - 1, baseY);
     }
 
     /**
@@ -381,29 +318,31 @@ public abstract class RasterFilter extends RequestFilter {
     public synchronized void setMatrix(TileLayer layer, String gridSetId, int z, boolean replace)
             throws IOException, GeoWebCacheException {
 
-        if (matrices == null) {
-            matrices = new Hashtable<String, BufferedImage[]>();
+        Map<String, RasterFilterMatrix[]> current = matrices;
+        if (current == null) {
+            current = Collections.emptyMap();
         }
 
-        if (matrices.get(gridSetId) == null) {
-            matrices.put(gridSetId, new BufferedImage[zoomStop + 1]);
+        RasterFilterMatrix[] levels = current.get(gridSetId);
+        if (levels != null && levels[z] != null && !replace) {
+            return;
         }
 
-        if (matrices.get(gridSetId)[z] == null) {
-            matrices.get(gridSetId)[z] = loadMatrix(layer, gridSetId, z);
-
-        } else if (replace) {
-            BufferedImage oldImg = matrices.get(gridSetId)[z];
-            BufferedImage[] matArray = matrices.get(gridSetId);
-
-            // Get the replacement
-            BufferedImage newImg = loadMatrix(layer, gridSetId, z);
-
-            // We need to lock it
-            synchronized (oldImg) {
-                matArray[z] = newImg;
-            }
+        BufferedImage img = loadMatrix(layer, gridSetId, z);
+        if (img == null) {
+            throw new GeoWebCacheException("No matrix loaded for " + getName() + ", "
+                    + gridSetId + ", " + z);
         }
+        RasterFilterMatrix matrix = RasterFilterMatrix.compile(img);
+
+        // Publish updated copies, so lookups never see a partial update
+        RasterFilterMatrix[] updatedLevels = levels == null ? new RasterFilterMatrix[zoomStop + 1]
+                : levels.clone();
+        updatedLevels[z] = matrix;
+        Map<String, RasterFilterMatrix[]> updated = new HashMap<String, RasterFilterMatrix[]>(
+                current);
+        updated.put(gridSetId, updatedLevels);
+        matrices = updated;
     }
 
     /**
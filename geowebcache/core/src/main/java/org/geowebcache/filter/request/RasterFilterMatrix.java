@@ -0,0 +1,119 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.filter.request;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+
+/**
+ * The compiled form of a {@link RasterFilter} image for a zoom level: a packed bitset with a bit
+ * per pixel, set where the image has data (a {@code 0} sample).
+ * <p>
+ * Pixels are addressed as in the image, with the origin at the top left corner. Instances are
+ * immutable so they can be looked up concurrently without locking, and replaced as a whole when
+ * the filter is updated.
+ * </p>
+ */
+final class RasterFilterMatrix {
+
+    private final int width;
+
+    private final int height;
+
+    private final int wordsPerRow;
+
+    private final long[] bits;
+
+    private RasterFilterMatrix(final int width, final int height, final long[] bits) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.bits = bits;
+    }
+
+    /**
+     * Reads the first band of the image, pixels with a {@code 0} sample having data
+     */
+    static RasterFilterMatrix compile(final BufferedImage image) {
+        final Raster raster = image.getRaster();
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final int wordsPerRow = (width + 63) >>> 6;
+        final long[] bits = new long[wordsPerRow * height];
+        final int[] samples = new int[width];
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, samples);
+            final int rowOffset = y * wordsPerRow;
+            for (int x = 0; x < width; x++) {
+                if (samples[x] == 0) {
+                    bits[rowOffset + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+        return new RasterFilterMatrix(width, height, bits);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return whether the pixel has data, {@code false} if it's outside the image
+     */
+    boolean hasData(final int x, final int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return false;
+        }
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * @return whether any pixel of the rectangle, bounds included, has data; the rectangle is
+     *         clipped to the image
+     */
+    boolean hasData(int minX, int minY, int maxX, int maxY) {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, width - 1);
+        maxY = Math.min(maxY, height - 1);
+        if (minX > maxX || minY > maxY) {
+            return false;
+        }
+        final int firstWord = minX >>> 6;
+        final int lastWord = maxX >>> 6;
+        final long firstMask = -1L << minX;
+        final long lastMask = -1L >>> (63 - (maxX & 63));
+        for (int y = minY; y <= maxY; y++) {
+            final int rowOffset = y * wordsPerRow;
+            for (int word = firstWord; word <= lastWord; word++) {
+                long mask = -1L;
+                if (word == firstWord) {
+                    mask &= firstMask;
+                }
+                if (word == lastWord) {
+                    mask &= lastMask;
+                }
+                if ((bits[rowOffset + word] & mask) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -93,6 +93,8 @@ public abstract class AbstractTileLayer extends TileLayer {
 
     protected ArrayList<ExpirationRule> expireCacheList;
 
+    protected Integer staleWhileRevalidate;
+
     protected String expireClients;
 
     protected ArrayList<ExpirationRule> expireClientsList;
@@ -246,6 +248,9 @@ public abstract class AbstractTileLayer extends TileLayer {
     @Override
     public final boolean initialize(GridSetBroker gridSetBroker) {
 
+        // the parameter filters may have changed
+        clearParameterFiltersCache();
+
         if (this.expireCacheList == null) {
             this.expireCacheList = new ArrayList<ExpirationRule>(1);
 
@@ -476,22 +481,56 @@ public abstract class AbstractTileLayer extends TileLayer {
         return getExpiration(this.expireCacheList, zoomLevel);
     }
 
-    private int getExpiration(ArrayList<ExpirationRule> list, int zoomLevel) {
-        int retVal;
+    /**
+     * @return the stale while revalidate window of the {@link #expireCacheList expiration rule} of
+     *         the zoom level if it sets one, or the layer one otherwise
+     */
+    @Override
+    public int getStaleWhileRevalidate(int zoomLevel) {
+        Integer window = null;
+        if (expireCacheList != null && !expireCacheList.isEmpty()) {
+            window = getExpirationRule(expireCacheList, zoomLevel).getStaleWhileRevalidate();
+        }
+        if (window == null) {
+            window = staleWhileRevalidate;
+        }
+        return window == null ? 0 : Math.max(0, window.intValue());
+    }
+
+    /**
+     * @return the stale while revalidate window for all zoom levels, in seconds, or {@code null}
+     *         if not set
+     */
+    public Integer getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Sets the number of seconds past the cache expiration during which an expired tile is still
+     * served while it is re-rendered in the background, {@code null} or zero to disable
+     */
+    public void setStaleWhileRevalidate(Integer staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
 
+    private static ExpirationRule getExpirationRule(ArrayList<ExpirationRule> list,
+            int zoomLevel) {
         int length = list.size();
         if (length == 1) {
-            retVal = list.get(0).getExpiration();
-        } else {
-            int i;
-            for (i = 1; i < length;) {
-                if (list.get(i).getMinZoom() > zoomLevel) {
-                    break;
-                }
-                i++;
+            return list.get(0);
+        }
+        int i;
+        for (i = 1; i < length;) {
+            if (list.get(i).getMinZoom() > zoomLevel) {
+                break;
             }
-            retVal = list.get(i - 1).getExpiration();
+            i++;
         }
+        return list.get(i - 1);
+    }
+
+    private int getExpiration(ArrayList<ExpirationRule> list, int zoomLevel) {
+        int retVal = getExpirationRule(list, zoomLevel).getExpiration();
 
         if (retVal == GWCVars.CACHE_USE_WMS_BACKEND_VALUE) {
             return 7200;
@@ -0,0 +1,539 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.Grid;
+import org.geowebcache.grid.GridSet;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.BlobStoreListener;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.util.GWCVars;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Remembers the tiles known to be blank, so that the requests for sparse layers don't lock and
+ * render meta tiles, or read tiles from the blob store, to get the same empty image over and over.
+ * <p>
+ * Only the layers configured to
+ * {@link org.geowebcache.layer.wms.WMSLayer#getCacheBlankTiles() cache their blank tiles} use it. A
+ * meta tile that is fully transparent, or all of the background color for the layers that are not
+ * transparent, is recorded with the encoded tile image, for each of its tiles. The entries are
+ * hierarchical: a blank tile at zoom level {@code z} is taken as meaning that all the tiles it
+ * covers at the higher zoom levels are blank as well, so a lookup walks up the tile ancestors until
+ * it finds an entry. This only goes through the zoom levels of the grid set that split each tile in
+ * four, and assumes the layer doesn't show data at high zoom levels that it leaves out at the
+ * lower ones, which is why layers have to enable it on purpose.
+ * </p>
+ * <p>
+ * A meta tile that is not blank discards the entries for its tiles and their ancestors, and the
+ * entries of a region are discarded when it's truncated or seeded, or its layer deleted. Entries
+ * also follow the layer cache expiration. The maximum number of tiles ({@code 100000} by default)
+ * and the time they're kept are set with the {@code GEOWEBCACHE_BLANK_TILE_CACHE_SIZE} and
+ * {@code GEOWEBCACHE_BLANK_TILE_CACHE_EXPIRE} (in seconds, {@code 3600} by default) system
+ * properties, environment variables, or servlet context parameters, a size of {@code 0} disables
+ * the cache for all the layers.
+ * </p>
+ */
+public class BlankTileCache implements BlobStoreListener {
+
+    private static final Log log = LogFactory.getLog(BlankTileCache.class);
+
+    static final String SIZE_PROPERTY = "GEOWEBCACHE_BLANK_TILE_CACHE_SIZE";
+
+    static final String EXPIRE_PROPERTY = "GEOWEBCACHE_BLANK_TILE_CACHE_EXPIRE";
+
+    private static volatile BlankTileCache instance;
+
+    private static volatile boolean initialized;
+
+    private final Cache<TileKey, Entry> tiles;
+
+    /**
+     * The keys of the entries by region and zoom level, so that discarding the entries of a region
+     * doesn't go through the whole cache
+     */
+    private final ConcurrentHashMap<Region, RegionTiles> regions =
+            new ConcurrentHashMap<Region, RegionTiles>();
+
+    private final Set<StorageBroker> storageBrokers = Collections
+            .newSetFromMap(new ConcurrentHashMap<StorageBroker, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param maxTiles
+     *            maximum number of blank tiles recorded
+     * @param expireSeconds
+     *            seconds a blank tile is kept after being recorded
+     */
+    public BlankTileCache(long maxTiles, long expireSeconds) {
+        this.tiles = CacheBuilder.newBuilder().maximumSize(maxTiles)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .removalListener(new RemovalListener<TileKey, Entry>() {
+                    public void onRemoval(RemovalNotification<TileKey, Entry> notification) {
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            unindex(notification.getKey());
+                        }
+                    }
+                }).build();
+    }
+
+    /**
+     * @return the cache shared by all the layers, or {@code null} if it's disabled
+     */
+    public static BlankTileCache getInstance() {
+        if (!initialized) {
+            synchronized (BlankTileCache.class) {
+                if (!initialized) {
+                    final long size = getLongProperty(SIZE_PROPERTY, 100000);
+                    if (size > 0) {
+                        instance = new BlankTileCache(size, getLongProperty(EXPIRE_PROPERTY,
+                                3600));
+                        log.info("Caching up to " + size + " blank tiles");
+                    }
+                    initialized = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = GeoWebCacheExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + name + " value '" + value + "', using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Looks up the tile and its ancestors
+     *
+     * @return the encoded blank tile, or {@code null} if the tile is not known to be blank
+     */
+    public Resource get(TileLayer layer, ConveyorTile tile) {
+        final Region region = new Region(layer, tile);
+        final RegionTiles regionTiles = regions.get(region);
+        if (regionTiles == null) {
+            return null;
+        }
+        listenTo(tile.getStorageBroker());
+
+        long[] gridLoc = tile.getTileIndex();
+        final int expireCache = layer.getExpireCache((int) gridLoc[2]);
+        if (expireCache == GWCVars.CACHE_DISABLE_CACHE) {
+            return null;
+        }
+        final long minCreated = expireCache > 0 ? System.currentTimeMillis() - expireCache
+                * 1000L : Long.MIN_VALUE;
+
+        final GridSet gridSet = layer.getGridSubset(tile.getGridSetId()).getGridSet();
+        long x = gridLoc[0];
+        long y = gridLoc[1];
+        int z = (int) gridLoc[2];
+        while (true) {
+            if (regionTiles.hasLevel(z)) {
+                Entry entry = tiles.getIfPresent(new TileKey(region, x, y, z));
+                if (entry != null && entry.created >= minCreated) {
+                    hits.incrementAndGet();
+                    return new ByteArrayResource(entry.contents);
+                }
+            }
+            if (z == 0 || !splitsInFour(gridSet, z)) {
+                return null;
+            }
+            x >>= 1;
+            y >>= 1;
+            z--;
+        }
+    }
+
+    /**
+     * Records the tiles of a blank meta tile
+     *
+     * @param tile
+     *            the requested tile the meta tile was rendered for
+     * @param gridPositions
+     *            the meta tile grid positions, those outside of the grid subset coverage are left
+     *            out
+     * @param contents
+     *            the encoded blank tile, it is not copied and must not be modified afterwards
+     */
+    public void put(TileLayer layer, ConveyorTile tile, long[][] gridPositions, byte[] contents) {
+        final Region region = new Region(layer, tile);
+        final GridSubset gridSubset = layer.getGridSubset(tile.getGridSetId());
+        final Entry entry = new Entry(contents, System.currentTimeMillis());
+        listenTo(tile.getStorageBroker());
+
+        RegionTiles regionTiles = regions.get(region);
+        if (regionTiles == null) {
+            RegionTiles existing = regions.putIfAbsent(region,
+                    regionTiles = new RegionTiles(gridSubset.getGridSet()));
+            if (existing != null) {
+                regionTiles = existing;
+            }
+        }
+        for (long[] gridPos : gridPositions) {
+            if (gridSubset.covers(gridPos)) {
+                TileKey key = new TileKey(region, gridPos[0], gridPos[1], (int) gridPos[2]);
+                regionTiles.add(key);
+                tiles.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Discards the entries for the tiles of a meta tile that is not blank, as well as those of
+     * their ancestors
+     */
+    public void invalidate(TileLayer layer, ConveyorTile tile, long[][] gridPositions) {
+        final Region region = new Region(layer, tile);
+        final RegionTiles regionTiles = regions.get(region);
+        if (regionTiles == null) {
+            return;
+        }
+        final GridSet gridSet = layer.getGridSubset(tile.getGridSetId()).getGridSet();
+        for (long[] gridPos : gridPositions) {
+            long x = gridPos[0];
+            long y = gridPos[1];
+            int z = (int) gridPos[2];
+            while (true) {
+                if (regionTiles.hasLevel(z)) {
+                    tiles.invalidate(new TileKey(region, x, y, z));
+                }
+                if (z == 0 || !splitsInFour(gridSet, z)) {
+                    break;
+                }
+                x >>= 1;
+                y >>= 1;
+                z--;
+            }
+        }
+    }
+
+    /**
+     * Discards the entries of a region being truncated or seeded: those of the range tiles, and
+     * those of the lower zoom levels covering some of them, since they'd still be inferred for the
+     * range tiles. Only the entries of the range layer, grid set, format (all of them if the range
+     * has none) and parameters are looked at.
+     */
+    public void invalidate(TileRange range) {
+        final String format = range.getMimeType() == null ? null : range.getMimeType()
+                .getFormat();
+        for (Map.Entry<Region, RegionTiles> e : regions.entrySet()) {
+            Region region = e.getKey();
+            if (region.layerName.equals(range.getLayerName())
+                    && region.gridSetId.equals(range.getGridSetId())
+                    && (format == null || format.equals(region.format))
+                    && Objects.equal(range.getParametersId(), region.parametersId)) {
+                invalidate(e.getValue(), range);
+            }
+        }
+    }
+
+    private void invalidate(RegionTiles regionTiles, TileRange range) {
+        final int zoomStart = range.getZoomStart();
+        final long[] startBounds = startBounds(range);
+        for (Map.Entry<Integer, Set<TileKey>> level : regionTiles.levels.entrySet()) {
+            final int z = level.getKey().intValue();
+            if (z > range.getZoomStop()) {
+                continue;
+            }
+            for (TileKey key : level.getValue()) {
+                if (z >= zoomStart ? range.contains(key.x, key.y, z) : covers(key,
+                        regionTiles.gridSet, zoomStart, startBounds)) {
+                    tiles.invalidate(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the entry of a tile at a lower zoom level than the range is inferred for
+     *         some of the range tiles, that is, whether the tiles it covers at the range first zoom
+     *         level intersect the range bounds
+     */
+    private static boolean covers(TileKey key, GridSet gridSet, int zoomStart, long[] startBounds) {
+        for (int z = key.z + 1; z <= zoomStart; z++) {
+            if (!splitsInFour(gridSet, z)) {
+                return false;
+            }
+        }
+        if (startBounds == null) {
+            return true;
+        }
+        final int shift = zoomStart - key.z;
+        return key.x >= startBounds[0] >> shift && key.x <= startBounds[2] >> shift
+                && key.y >= startBounds[1] >> shift && key.y <= startBounds[3] >> shift;
+    }
+
+    /**
+     * @return the range bounds at its first zoom level, or {@code null} if the range has no
+     *         bounds and covers the whole grid
+     */
+    private static long[] startBounds(TileRange range) {
+        try {
+            return range.rangeBounds(range.getZoomStart());
+        } catch (RuntimeException noBounds) {
+            return null;
+        }
+    }
+
+    /**
+     * Discards all the entries of a layer, or of one of its grid sets if {@code gridSetId} is not
+     * {@code null}
+     */
+    public void invalidate(String layerName, String gridSetId) {
+        for (Iterator<Map.Entry<Region, RegionTiles>> it = regions.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<Region, RegionTiles> e = it.next();
+            Region region = e.getKey();
+            if (region.layerName.equals(layerName)
+                    && (gridSetId == null || region.gridSetId.equals(gridSetId))) {
+                it.remove();
+                for (Set<TileKey> keys : e.getValue().levels.values()) {
+                    tiles.invalidateAll(keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all the entries
+     */
+    public void clear() {
+        regions.clear();
+        tiles.invalidateAll();
+    }
+
+    long size() {
+        return tiles.size();
+    }
+
+    /**
+     * @return the number of requests answered with a blank tile
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Removes an entry discarded from the cache from the region index
+     */
+    private void unindex(TileKey key) {
+        RegionTiles regionTiles = regions.get(key.region);
+        if (regionTiles != null) {
+            regionTiles.remove(key);
+        }
+    }
+
+    /**
+     * Registers for the layer and grid subset deletions of the storage broker the tiles are
+     * stored in
+     */
+    private void listenTo(StorageBroker storageBroker) {
+        if (storageBroker != null && storageBrokers.add(storageBroker)) {
+            storageBroker.addBlobStoreListener(this);
+        }
+    }
+
+    /**
+     * @return whether each tile of zoom level {@code z - 1} covers exactly four tiles of level
+     *         {@code z}, so that tile {@code x,y,z} is inside tile {@code x/2,y/2,z-1}
+     */
+    static boolean splitsInFour(GridSet gridSet, int z) {
+        Grid parent = gridSet.getGrid(z - 1);
+        Grid grid = gridSet.getGrid(z);
+        double ratio = parent.getResolution() / grid.getResolution();
+        return Math.abs(ratio - 2) < 1E-6 && grid.getNumTilesWide() == 2 * parent.getNumTilesWide()
+                && grid.getNumTilesHigh() == 2 * parent.getNumTilesHigh();
+    }
+
+    public void tileStored(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize) {
+        // the meta tiles rendered update the entries themselves
+    }
+
+    public void tileDeleted(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize) {
+        // tiles are deleted one by one by the disk quota, which doesn't change the layer contents
+    }
+
+    public void tileUpdated(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize, long oldSize) {
+        // the meta tiles rendered update the entries themselves
+    }
+
+    public void layerDeleted(String layerName) {
+        invalidate(layerName, null);
+    }
+
+    public void layerRenamed(String oldLayerName, String newLayerName) {
+        invalidate(oldLayerName, null);
+    }
+
+    public void gridSubsetDeleted(String layerName, String gridSetId) {
+        invalidate(layerName, gridSetId);
+    }
+
+    /**
+     * The layer, grid set, format, and parameters a blank tile was rendered for
+     */
+    private static final class Region {
+
+        final String layerName;
+
+        final String gridSetId;
+
+        final String format;
+
+        final String parametersId;
+
+        Region(TileLayer layer, ConveyorTile tile) {
+            this.layerName = layer.getName();
+            this.gridSetId = tile.getGridSetId();
+            this.format = tile.getMimeType().getFormat();
+            this.parametersId = tile.getParametersId();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Region)) {
+                return false;
+            }
+            Region r = (Region) o;
+            return layerName.equals(r.layerName) && gridSetId.equals(r.gridSetId)
+                    && format.equals(r.format) && Objects.equal(parametersId, r.parametersId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(layerName, gridSetId, format, parametersId);
+        }
+    }
+
+    /**
+     * The keys of the entries of a region, by zoom level
+     */
+    private static final class RegionTiles {
+
+        final GridSet gridSet;
+
+        final ConcurrentHashMap<Integer, Set<TileKey>> levels =
+                new ConcurrentHashMap<Integer, Set<TileKey>>();
+
+        RegionTiles(GridSet gridSet) {
+            this.gridSet = gridSet;
+        }
+
+        boolean hasLevel(int z) {
+            Set<TileKey> keys = levels.get(Integer.valueOf(z));
+            return keys != null && !keys.isEmpty();
+        }
+
+        void add(TileKey key) {
+            final Integer z = Integer.valueOf(key.z);
+            Set<TileKey> keys = levels.get(z);
+            if (keys == null) {
+                Set<TileKey> created = Collections
+                        .newSetFromMap(new ConcurrentHashMap<TileKey, Boolean>());
+                keys = levels.putIfAbsent(z, created);
+                if (keys == null) {
+                    keys = created;
+                }
+            }
+            keys.add(key);
+        }
+
+        void remove(TileKey key) {
+            Set<TileKey> keys = levels.get(Integer.valueOf(key.z));
+            if (keys != null) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    private static final class TileKey {
+
+        final Region region;
+
+        final long x;
+
+        final long y;
+
+        final int z;
+
+        TileKey(Region region, long x, long y, int z) {
+            this.region = region;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey k = (TileKey) o;
+            return x == k.x && y == k.y && z == k.z && region.equals(k.region);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = region.hashCode();
+            result = 31 * result + (int) (x ^ (x >>> 32));
+            result = 31 * result + (int) (y ^ (y >>> 32));
+            return 31 * result + z;
+        }
+    }
+
+    private static final class Entry {
+
+        final byte[] contents;
+
+        final long created;
+
+        Entry(byte[] contents, long created) {
+            this.contents = contents;
+            this.created = created;
+        }
+    }
+}
@@ -4,6 +4,8 @@ public class ExpirationRule {
     private int minZoom;
     
     private int expiration;
+
+    private Integer staleWhileRevalidate;
     
     ExpirationRule() {
         // default constructor for XStream
@@ -14,6 +16,18 @@ public class ExpirationRule {
         this.expiration = expiration;
     }
 
+    /**
+     * @param minZoom
+     * @param expiration
+     * @param staleWhileRevalidate
+     *            seconds past the expiration during which the expired tile is still served while it
+     *            is re-rendered in the background, {@code null} to use the layer setting
+     */
+    public ExpirationRule(int minZoom, int expiration, Integer staleWhileRevalidate) {
+        this(minZoom, expiration);
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
     public int getMinZoom() {
         return minZoom;
     }
@@ -21,5 +35,13 @@ public class ExpirationRule {
     public int getExpiration() {
         return expiration;
     }
+
+    /**
+     * @return seconds past the expiration during which the expired tile is still served while it
+     *         is re-rendered in the background, or {@code null} if not set for this rule
+     */
+    public Integer getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
     
 }
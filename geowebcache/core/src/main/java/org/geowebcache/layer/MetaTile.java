@@ -16,9 +16,11 @@
  */
 package org.geowebcache.layer;
 
+import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.ParameterBlock;
 import java.io.IOException;
@@ -123,6 +125,14 @@ public class MetaTile implements TileResponseReceiver {
 
     private List<RenderedImage> disposableImages;
 
+    private boolean detectBlank;
+
+    private Color emptyColor;
+
+    private Boolean blank;
+
+    private byte[] blankTile;
+
     /**
      * The the request format is the format used for the request to the backend.
      * 
@@ -277,6 +287,13 @@ public class MetaTile implements TileResponseReceiver {
         this.metaTileImage = metaTiledImage;
     }
 
+    /**
+     * @return the meta tile image, {@code null} until it's set
+     */
+    public RenderedImage getImage() {
+        return metaTileImage;
+    }
+
     /**
      * Cuts the metaTile into the specified number of tiles, the actual number of tiles is
      * determined by metaX and metaY, not the width and height provided here.
@@ -365,6 +382,17 @@ public class MetaTile implements TileResponseReceiver {
             log.debug("Thread: " + Thread.currentThread().getName() + " writing: " + tileIdx);
         }
         
+        if (blankTile != null) {
+            // all the tiles are the same image, already encoded
+            OutputStream outputStream = target.getOutputStream();
+            try {
+                outputStream.write(blankTile);
+            } finally {
+                outputStream.close();
+            }
+            return true;
+        }
+
         Rectangle tileRegion = tiles[tileIdx];
         RenderedImage tile = createTile(tileRegion.x, tileRegion.y, tileRegion.width,
                 tileRegion.height);
@@ -390,9 +418,98 @@ public class MetaTile implements TileResponseReceiver {
             writer.dispose();
         }
 
+        if (isBlank() && target instanceof ByteArrayResource) {
+            byte[] contents = ((ByteArrayResource) target).getContents();
+            if (contents != null) {
+                blankTile = contents.clone();
+            }
+        }
         return true;
     }
 
+    /**
+     * Makes the meta tile check whether its image is blank once set, which takes a scan of all the
+     * pixels, so it's only done for the layers that {@link BlankTileCache cache their blank tiles}
+     * 
+     * @param emptyColor
+     *            the color the backend fills the empty areas with, or {@code null} if they're
+     *            transparent
+     */
+    public void detectBlankTiles(Color emptyColor) {
+        this.detectBlank = true;
+        this.emptyColor = emptyColor;
+    }
+
+    /**
+     * Checks whether all the pixels of the meta tile, gutter excluded, are either fully
+     * transparent or of the empty color, and have the same value, as it happens for the empty
+     * areas of sparse layers. All the tiles are then the same image, which is only encoded once.
+     * 
+     * @return {@code true} if the meta tile image is blank, {@code false} if it isn't or the
+     *         meta tile was not asked to {@link #detectBlankTiles(Color) detect blank tiles}
+     */
+    public boolean isBlank() {
+        if (!detectBlank || BlankTileCache.getInstance() == null) {
+            return false;
+        }
+        if (blank == null) {
+            blank = Boolean.valueOf(metaTileImage != null && tiles != null
+                    && checkBlank(metaTileImage, tiles, emptyColor));
+        }
+        return blank.booleanValue();
+    }
+
+    private static boolean checkBlank(final RenderedImage image, final Rectangle[] tiles,
+            final Color emptyColor) {
+        Rectangle area = new Rectangle(tiles[0]);
+        for (Rectangle tile : tiles) {
+            area.add(tile);
+        }
+        area = area.intersection(new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight()));
+        if (area.isEmpty()) {
+            return false;
+        }
+        final Raster raster = image instanceof BufferedImage ? ((BufferedImage) image).getRaster()
+                : null;
+        final Raster firstPixel = raster == null ? image.getData(new Rectangle(area.x, area.y, 1,
+                1)) : raster;
+        final int argb = image.getColorModel().getRGB(
+                firstPixel.getDataElements(area.x, area.y, null));
+        if ((argb >>> 24) != 0 && (emptyColor == null || argb != emptyColor.getRGB())) {
+            // neither transparent nor empty, no need to look at the other pixels
+            return false;
+        }
+        final int[] first = firstPixel.getPixel(area.x, area.y, (int[]) null);
+        final int bands = first.length;
+        int[] row = null;
+        for (int y = area.y; y < area.y + area.height; y++) {
+            if (raster == null) {
+                // computes the rows one at a time, so that a non uniform image is detected early
+                row = image.getData(new Rectangle(area.x, y, area.width, 1)).getPixels(area.x, y,
+                        area.width, 1, row);
+            } else {
+                row = raster.getPixels(area.x, y, area.width, 1, row);
+            }
+            for (int i = 0; i < row.length; i += bands) {
+                for (int band = 0; band < bands; band++) {
+                    if (row[i + band] != first[band]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the encoded image of all the tiles if the meta tile {@link #isBlank() is blank} and a
+     *         tile has been written, {@code null} otherwise; not to be modified
+     */
+    public byte[] getBlankTile() {
+        return blankTile;
+    }
+
     private RenderedImage preprocessForWriter(RenderedImage ri, ImageWriter writer) {
         if(ri.getColorModel().hasAlpha() && ri.getSampleModel().getNumBands() == 4 && isJpegWriter(writer)) {
             final int[] bands = new int[3];
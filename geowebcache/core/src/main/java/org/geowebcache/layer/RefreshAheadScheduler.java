@@ -0,0 +1,377 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Re-renders frequently requested tiles shortly before their cache expiration, so that they are
+ * not fetched from the backend on a request once expired.
+ * <p>
+ * Layers report the cache hits on tiles that expire, and the hits are counted per meta tile in a
+ * small frequency sketch, halved every minute so that it follows the current hot spots. A tile hit
+ * in the last part of its lifetime whose meta tile has been hit at least a minimum number of times
+ * becomes a refresh candidate. Once a second, the most frequently hit candidates are handed to the
+ * {@link TileRefresher}, no more than the configured rate and only while the refresher is keeping
+ * up, so that the backend is not loaded beyond the refresh rate.
+ * </p>
+ * <p>
+ * A single scheduler is declared in the application context, which starts and stops it. Refresh
+ * ahead is disabled unless the {@code GEOWEBCACHE_REFRESH_AHEAD_RATE} system property,
+ * environment variable, or servlet context parameter sets the maximum meta tile refreshes per
+ * second. {@code GEOWEBCACHE_REFRESH_AHEAD_MIN_HITS} sets the minimum hits of a meta tile,
+ * {@code 4} by default, and {@code GEOWEBCACHE_REFRESH_AHEAD_WINDOW} the last percent of the tile
+ * lifetime during which it is refreshed, {@code 10} by default.
+ * </p>
+ */
+public class RefreshAheadScheduler {
+
+    private static final Log log = LogFactory.getLog(RefreshAheadScheduler.class);
+
+    static final String RATE_PROPERTY = "GEOWEBCACHE_REFRESH_AHEAD_RATE";
+
+    static final String MIN_HITS_PROPERTY = "GEOWEBCACHE_REFRESH_AHEAD_MIN_HITS";
+
+    static final String WINDOW_PROPERTY = "GEOWEBCACHE_REFRESH_AHEAD_WINDOW";
+
+    /**
+     * Maximum number of refresh candidates kept between two scheduling runs
+     */
+    static final int MAX_CANDIDATES = 10000;
+
+    /**
+     * Number of scheduling runs, of a second each, between two halvings of the sketch counters
+     */
+    static final int DECAY_PERIOD = 60;
+
+    private final TileRefresher refresher;
+
+    private final int rate;
+
+    private final int minHits;
+
+    private final int windowPercent;
+
+    private final FrequencySketch sketch = new FrequencySketch(4096);
+
+    private final ConcurrentHashMap<String, Candidate> candidates =
+            new ConcurrentHashMap<String, Candidate>();
+
+    private final AtomicLong scheduled = new AtomicLong();
+
+    private final AtomicLong deferred = new AtomicLong();
+
+    private int runs;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a scheduler configured with the {@code GEOWEBCACHE_REFRESH_AHEAD_RATE},
+     * {@code GEOWEBCACHE_REFRESH_AHEAD_MIN_HITS} and {@code GEOWEBCACHE_REFRESH_AHEAD_WINDOW}
+     * properties, disabled unless a rate is set
+     * 
+     * @param refresher
+     *            the refresher to re-render the candidate tiles with
+     */
+    public RefreshAheadScheduler(TileRefresher refresher) {
+        this(refresher, Math.max(0, getIntProperty(RATE_PROPERTY, 0)),
+                getIntProperty(MIN_HITS_PROPERTY, 4),
+                Math.max(1, Math.min(100, getIntProperty(WINDOW_PROPERTY, 10))));
+    }
+
+    /**
+     * @param refresher
+     *            the refresher to re-render the candidate tiles with
+     * @param rate
+     *            maximum meta tile refreshes scheduled per second, {@code 0} disables refresh
+     *            ahead
+     * @param minHits
+     *            minimum number of hits of a meta tile to refresh it
+     * @param windowPercent
+     *            last percentage of the tiles lifetime during which they're refreshed
+     */
+    public RefreshAheadScheduler(TileRefresher refresher, int rate, int minHits,
+            int windowPercent) {
+        Preconditions.checkNotNull(refresher, "refresher is null");
+        Preconditions.checkArgument(rate >= 0, "rate can't be negative");
+        Preconditions.checkArgument(windowPercent > 0 && windowPercent <= 100,
+                "windowPercent must be between 1 and 100");
+        this.refresher = refresher;
+        this.rate = rate;
+        this.minHits = Math.max(1, minHits);
+        this.windowPercent = windowPercent;
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = GeoWebCacheExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + name + " value '" + value + "', using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return whether refresh ahead is enabled, that is, the refresh rate is not {@code 0}
+     */
+    public boolean isEnabled() {
+        return rate > 0;
+    }
+
+    /**
+     * Starts scheduling the refreshes once a second, if enabled
+     */
+    public synchronized void start() {
+        if (executor != null || !isEnabled()) {
+            return;
+        }
+        log.info("Refreshing up to " + rate
+                + " hot meta tiles per second ahead of their expiration");
+        CustomizableThreadFactory tf = new CustomizableThreadFactory(
+                "GWC Refresh Ahead Scheduler Thread-");
+        tf.setDaemon(true);
+        executor = new ScheduledThreadPoolExecutor(1, tf);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    scheduleRefreshes();
+                } catch (RuntimeException e) {
+                    log.warn("Error scheduling tile refreshes", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops scheduling refreshes, the ones already handed to the {@link TileRefresher} still run
+     * until it's destroyed as well
+     */
+    public synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        candidates.clear();
+    }
+
+    /**
+     * Records a cache hit on a tile that is still fresh
+     *
+     * @param layer
+     *            the tile layer
+     * @param tile
+     *            the tile retrieved from the cache
+     * @param maxAge
+     *            the cache expiration of the tile, in milliseconds
+     */
+    public void tileHit(final TileLayer layer, final ConveyorTile tile, final long maxAge) {
+        if (maxAge <= 0 || !isEnabled()) {
+            return;
+        }
+        final String key = TileRefresher.metaTileKey(layer, tile);
+        final int hits = sketch.increment(key);
+
+        final long expires = tile.getStorageObject().getCreated() + maxAge;
+        final long refreshFrom = expires - maxAge * windowPercent / 100;
+        final long now = System.currentTimeMillis();
+        if (hits < minHits || now < refreshFrom || now >= expires) {
+            return;
+        }
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            candidate.hits = hits;
+        } else if (candidates.size() < MAX_CANDIDATES) {
+            candidates.putIfAbsent(key, new Candidate(layer, tile, expires, hits));
+        }
+    }
+
+    /**
+     * Hands the most frequently hit candidates to the {@link TileRefresher}, up to the rate and as
+     * long as the refresher has no more than a second worth of refreshes queued
+     */
+    void scheduleRefreshes() {
+        if (++runs % DECAY_PERIOD == 0) {
+            sketch.halve();
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        List<Candidate> ready = new ArrayList<Candidate>(candidates.size());
+        for (Iterator<Candidate> it = candidates.values().iterator(); it.hasNext();) {
+            Candidate candidate = it.next();
+            it.remove();
+            if (candidate.expires > now) {
+                // hits may still be updated by tileHit, sort on a snapshot
+                candidate.rank = candidate.hits;
+                ready.add(candidate);
+            }
+        }
+        Collections.sort(ready, new Comparator<Candidate>() {
+            public int compare(Candidate c1, Candidate c2) {
+                return c2.rank < c1.rank ? -1 : (c2.rank == c1.rank ? 0 : 1);
+            }
+        });
+
+        int permits = rate;
+        for (int i = 0; i < ready.size(); i++) {
+            if (permits == 0 || refresher.getQueueDepth() >= rate) {
+                // dropped, hot tiles will be hit again
+                deferred.addAndGet(ready.size() - i);
+                break;
+            }
+            Candidate candidate = ready.get(i);
+            if (refresher.refresh(candidate.layer, candidate.tile)) {
+                scheduled.incrementAndGet();
+                permits--;
+            }
+        }
+    }
+
+    /**
+     * @return number of meta tiles waiting to be refreshed
+     */
+    public int getCandidates() {
+        return candidates.size();
+    }
+
+    /**
+     * @return number of meta tile refreshes handed to the {@link TileRefresher}
+     */
+    public long getScheduledRefreshes() {
+        return scheduled.get();
+    }
+
+    /**
+     * @return number of candidates not refreshed because of the rate limit
+     */
+    public long getDeferredRefreshes() {
+        return deferred.get();
+    }
+
+    private static final class Candidate {
+
+        final TileLayer layer;
+
+        final ConveyorTile tile;
+
+        final long expires;
+
+        volatile int hits;
+
+        int rank;
+
+        Candidate(TileLayer layer, ConveyorTile tile, long expires, int hits) {
+            this.layer = layer;
+            // don't hold on the request
+            this.tile = new ConveyorTile(tile.getStorageBroker(), layer.getName(),
+                    tile.getGridSetId(), tile.getTileIndex(), tile.getMimeType(),
+                    tile.getFullParameters(), null, null);
+            this.expires = expires;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * Count-min sketch of the meta tile hits, with 16 bit counters
+     */
+    static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private final AtomicIntegerArray counters;
+
+        private final int mask;
+
+        FrequencySketch(int width) {
+            Preconditions.checkArgument(Integer.bitCount(width) == 1,
+                    "width must be a power of two");
+            this.counters = new AtomicIntegerArray(DEPTH * width);
+            this.mask = width - 1;
+        }
+
+        /**
+         * Counts a hit on the key
+         *
+         * @return the estimated number of hits on the key, including this one
+         */
+        int increment(Object key) {
+            final int hash = key.hashCode();
+            int estimate = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                final int index = index(hash, row);
+                int count;
+                do {
+                    count = counters.get(index);
+                } while (count < 0xFFFF && !counters.compareAndSet(index, count, count + 1));
+                estimate = Math.min(estimate, Math.min(count + 1, 0xFFFF));
+            }
+            return estimate;
+        }
+
+        /**
+         * @return the estimated number of hits on the key
+         */
+        int frequency(Object key) {
+            final int hash = key.hashCode();
+            int estimate = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                estimate = Math.min(estimate, counters.get(index(hash, row)));
+            }
+            return estimate;
+        }
+
+        /**
+         * Halves all the counters, so that past hits weigh less than recent ones
+         */
+        void halve() {
+            for (int i = 0; i < counters.length(); i++) {
+                int count;
+                do {
+                    count = counters.get(i);
+                } while (!counters.compareAndSet(i, count, count >>> 1));
+            }
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x27D4EB2D;
+            h ^= h >>> 15;
+            return row * (mask + 1) + (h & mask);
+        }
+    }
+}
@@ -53,9 +53,13 @@ import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.storage.StorageException;
 import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.blobstore.file.FilePathGenerator;
 import org.geowebcache.util.GWCVars;
 import org.geowebcache.util.ServletUtils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * "Pure virtual" base class for Layers.
  * <p>
@@ -74,6 +78,16 @@ public abstract class TileLayer {
     // cached default parameter filter values
     protected transient Map<String, String> defaultParameterFilterValues;
 
+    /**
+     * Maximum number of distinct raw parameter combinations whose normalized form is remembered by
+     * {@link #getModifiableParameters(Map, String)}
+     */
+    static final int MAX_CACHED_PARAMETERS = 1000;
+
+    // cached normalized parameters and their identifiers, keyed by the raw values of each
+    // parameter filter and by the normalized parameters
+    private transient volatile ModifiableParametersCache modifiableParametersCache;
+
     /**
      * Registers a layer listener to be notified of layer events
      * 
@@ -317,6 +331,16 @@ public abstract class TileLayer {
      */
     public abstract int getExpireCache(int zoomLevel);
 
+    /**
+     * Gets for how long past their cache expiration tiles may still be served while they are
+     * re-rendered in the background.
+     * @param zoomLevel integer zoom level at which to consider the expiration rules
+     * @return integer duration in seconds, {@code 0} if expired tiles are re-rendered right away
+     */
+    public int getStaleWhileRevalidate(int zoomLevel) {
+        return 0;
+    }
+
     public abstract List<ParameterFilter> getParameterFilters();
 
     public abstract List<RequestFilter> getRequestFilters();
@@ -505,6 +529,18 @@ public abstract class TileLayer {
         }
     }
 
+    /**
+     * Marks the response as carrying an expired tile being refreshed in the background, so that
+     * clients and proxies revalidate it on their next request
+     * 
+     * @see ConveyorTile#isStale()
+     */
+    public void setStaleHeaders(HttpServletResponse response) {
+        response.setHeader("Cache-Control", "max-age=0, must-revalidate");
+        response.setHeader("Expires", ServletUtils.makeExpiresHeader(0));
+        response.setHeader("Warning", "110 - \"Response is Stale\"");
+    }
+
     /**
      * Loops over all the request filters and applies them successively.
      * 
@@ -562,8 +598,6 @@ public abstract class TileLayer {
             return Collections.emptyMap();
         }
 
-        Map<String, String> fullParameters = new HashMap<String, String>();
-
         final String[] keys = parameterFilters.stream()
                 .map(ParameterFilter::getKey)
                 .toArray(i->new String[i]);
@@ -571,11 +605,93 @@ public abstract class TileLayer {
         final Map<String, String> requestValues;
         requestValues = ServletUtils.selectedStringsFromMap(map, encoding, keys);
 
+        final List<String> rawValues = new ArrayList<String>(keys.length);
+        for (String key : keys) {
+            rawValues.add(requestValues.get(key));
+        }
+
+        final Cache<Object, NormalizedParameters> cache = getModifiableParametersCache(parameterFilters);
+        NormalizedParameters normalized = cache.getIfPresent(rawValues);
+        if (normalized == null) {
+            normalized = getNormalizedParameters(cache,
+                    applyParameterFilters(parameterFilters, rawValues));
+            cache.put(rawValues, normalized);
+        }
+        final Map<String, String> fullParameters = normalized.parameters;
+        if (fullParameters.isEmpty()) {
+            return fullParameters;
+        }
+        // the cached map is shared, callers are free to modify their copy
+        return new HashMap<String, String>(fullParameters);
+    }
+
+    /**
+     * Returns the {@link FilePathGenerator#getParametersId(Map) parameters identifier} of
+     * parameters normalized by {@link #getModifiableParameters(Map, String)}, remembered along
+     * with them so that it's computed once per parameters combination
+     * 
+     * @param parameters
+     *            the normalized parameters
+     * @return the parameters identifier, or {@code null} if there are no parameters
+     */
+    public String getParametersId(Map<String, String> parameters) {
+        if (parameters == null || parameters.isEmpty()) {
+            return null;
+        }
+        final List<ParameterFilter> parameterFilters = getParameterFilters();
+        if (parameterFilters == null) {
+            return FilePathGenerator.getParametersId(parameters);
+        }
+        return getNormalizedParameters(getModifiableParametersCache(parameterFilters),
+                parameters).parametersId;
+    }
+
+    /**
+     * @return the cached entry for the given normalized parameters, creating it if needed
+     */
+    private NormalizedParameters getNormalizedParameters(Cache<Object, NormalizedParameters> cache,
+            Map<String, String> parameters) {
+        NormalizedParameters normalized = cache.getIfPresent(parameters);
+        if (normalized == null) {
+            // copy the key, the caller is free to modify its map afterwards
+            Map<String, String> key = parameters.isEmpty() ? Collections.<String, String> emptyMap()
+                    : Collections.unmodifiableMap(new HashMap<String, String>(parameters));
+            normalized = new NormalizedParameters(key, FilePathGenerator.getParametersId(key));
+            cache.put(key, normalized);
+        }
+        return normalized;
+    }
+
+    /**
+     * Discards the cached default and normalized parameter values, so that changes made to the
+     * parameter filters in place are picked up by the next
+     * {@link #getModifiableParameters(Map, String)} call. Called whenever the layer is
+     * initialized or modified.
+     */
+    public void clearParameterFiltersCache() {
+        defaultParameterFilterValues = null;
+        modifiableParametersCache = null;
+    }
+
+    /**
+     * Runs each parameter filter over the raw value of its parameter
+     * 
+     * @param parameterFilters the layer's parameter filters
+     * @param rawValues the requested value for each filter, in the same order, or {@code null} if
+     *        not requested
+     * @return the normalized parameters, or an empty map if they match the default values
+     */
+    private Map<String, String> applyParameterFilters(List<ParameterFilter> parameterFilters,
+            List<String> rawValues) throws GeoWebCacheException {
+
+        Map<String, String> fullParameters = new HashMap<String, String>();
+
         final Map<String, String> defaultValues = getDefaultParameterFilters();
 
+        int i = 0;
         for (ParameterFilter parameterFilter : parameterFilters) {
             String key = parameterFilter.getKey().toUpperCase();
-            String value = requestValues.get(key);
+            String value = rawValues.get(i++);
             value = decodeDimensionValue(value);
 
             String defaultValue = defaultValues.get(key);
@@ -593,6 +709,57 @@ public abstract class TileLayer {
         return fullParameters;
     }
 
+    /**
+     * @return the cache of normalized parameters for the given parameter filters, discarding the
+     *         current one if the filters have changed since it was created. The entries are keyed
+     *         both by the raw values of the parameter filters and by the normalized parameters.
+     */
+    private Cache<Object, NormalizedParameters> getModifiableParametersCache(
+            List<ParameterFilter> parameterFilters) {
+        ModifiableParametersCache current = modifiableParametersCache;
+        if (current != null && current.parameterFilters != parameterFilters) {
+            if (current.parameterFilters.equals(parameterFilters)) {
+                // same configuration in a new list, avoid comparing again on the next call
+                current = new ModifiableParametersCache(parameterFilters, current.cache);
+            } else {
+                current = null;
+            }
+            modifiableParametersCache = current;
+        }
+        if (current == null) {
+            Cache<Object, NormalizedParameters> cache = CacheBuilder.newBuilder()
+                    .maximumSize(2 * MAX_CACHED_PARAMETERS).build();
+            current = new ModifiableParametersCache(parameterFilters, cache);
+            modifiableParametersCache = current;
+        }
+        return current.cache;
+    }
+
+    private static class ModifiableParametersCache {
+
+        final List<ParameterFilter> parameterFilters;
+
+        final Cache<Object, NormalizedParameters> cache;
+
+        ModifiableParametersCache(List<ParameterFilter> parameterFilters,
+                Cache<Object, NormalizedParameters> cache) {
+            this.parameterFilters = parameterFilters;
+            this.cache = cache;
+        }
+    }
+
+    private static class NormalizedParameters {
+
+        final Map<String, String> parameters;
+
+        final String parametersId;
+
+        NormalizedParameters(Map<String, String> parameters, String parametersId) {
+            this.parameters = parameters;
+            this.parametersId = parametersId;
+        }
+    }
+
     protected static String decodeDimensionValue(String value) {
         if (value != null && value.startsWith("_")) {
             if (value.equals("_null")) {
@@ -686,6 +853,7 @@ public abstract class TileLayer {
                         TileObject tile = TileObject.createCompleteTileObject(this.getName(), idx,
                                 tileProto.getGridSetId(), tileProto.getMimeType().getFormat(),
                                 tileProto.getParameters(), resource);
+                        tile.setParametersId(tileProto.getParametersId());
                         tile.setCreated(requestTime);
 
                         try {
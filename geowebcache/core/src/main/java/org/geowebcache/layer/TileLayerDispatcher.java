@@ -33,6 +33,7 @@ import org.geowebcache.config.meta.ServiceInformation;
 import org.geowebcache.grid.GridSet;
 import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.wms.BackendConcurrencyLimiter;
 import org.geowebcache.util.CompositeIterable;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.Assert;
@@ -235,6 +236,7 @@ public class TileLayerDispatcher implements DisposableBean {
             throws IllegalArgumentException {
         for (Configuration config : configs) {
             if (config.removeLayer(layerName)) {
+                BackendConcurrencyLimiter.removeLayer(layerName);
                 return config;
             }
         }
@@ -273,6 +275,8 @@ public class TileLayerDispatcher implements DisposableBean {
     public synchronized Configuration modify(final TileLayer tl) throws IllegalArgumentException {
         Configuration config = getConfiguration(tl);
         config.modifyLayer(tl);
+        // the parameter filters may have been modified in place
+        tl.clearParameterFiltersCache();
         return config;
     }
 
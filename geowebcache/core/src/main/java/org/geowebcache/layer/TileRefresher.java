@@ -0,0 +1,237 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Re-renders tiles in the background, on a small bounded thread pool shared by all the layers.
+ * <p>
+ * Refreshes are deduplicated by meta tile: while the refresh of a meta tile is pending, requests
+ * to refresh any of its tiles are ignored. When the queue is full refreshes are rejected rather
+ * than blocking the requesting thread, the tile will be scheduled again on a later request.
+ * </p>
+ * <p>
+ * A single refresher is declared in the application context, which stops its threads when it's
+ * closed. The pool size and queue capacity are set with the
+ * {@code GEOWEBCACHE_TILE_REFRESH_THREADS} and {@code GEOWEBCACHE_TILE_REFRESH_QUEUE_SIZE} system
+ * properties, environment variables, or servlet context parameters.
+ * </p>
+ *
+ * @see TileLayer#getStaleWhileRevalidate(int)
+ */
+public class TileRefresher {
+
+    private static final Log log = LogFactory.getLog(TileRefresher.class);
+
+    static final String THREADS_PROPERTY = "GEOWEBCACHE_TILE_REFRESH_THREADS";
+
+    static final String QUEUE_SIZE_PROPERTY = "GEOWEBCACHE_TILE_REFRESH_QUEUE_SIZE";
+
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong staleHits = new AtomicLong();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a refresher sized after the {@code GEOWEBCACHE_TILE_REFRESH_THREADS} and
+     * {@code GEOWEBCACHE_TILE_REFRESH_QUEUE_SIZE} properties, 2 threads and 1000 refreshes by
+     * default
+     */
+    public TileRefresher() {
+        this(getIntProperty(THREADS_PROPERTY, 2), getIntProperty(QUEUE_SIZE_PROPERTY, 1000));
+    }
+
+    /**
+     * @param threads
+     *            number of refresh threads
+     * @param queueSize
+     *            maximum number of refreshes waiting for a thread
+     */
+    public TileRefresher(int threads, int queueSize) {
+        CustomizableThreadFactory tf = new CustomizableThreadFactory("GWC Tile Refresh Thread-");
+        tf.setDaemon(true);
+        tf.setThreadPriority(Thread.NORM_PRIORITY - 1);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), tf);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = GeoWebCacheExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                int intValue = Integer.parseInt(value.trim());
+                if (intValue > 0) {
+                    return intValue;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            log.warn("Invalid " + name + " value '" + value + "', using " + defaultValue);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Accounts for an expired tile served while it is being refreshed
+     */
+    public void staleHit() {
+        staleHits.incrementAndGet();
+    }
+
+    /**
+     * Schedules the re-rendering of the meta tile the requested tile belongs to, unless it is
+     * already scheduled
+     *
+     * @param layer
+     *            the tile layer
+     * @param tile
+     *            the requested tile, only its identifiers are used
+     * @return {@code true} if the refresh was scheduled, {@code false} if it was already pending
+     *         or the queue is full
+     */
+    public boolean refresh(final TileLayer layer, final ConveyorTile tile) {
+        final String key = metaTileKey(layer, tile);
+        if (!pending.add(key)) {
+            deduplicated.incrementAndGet();
+            return false;
+        }
+        final ConveyorTile refreshTile = new ConveyorTile(tile.getStorageBroker(),
+                layer.getName(), tile.getGridSetId(), tile.getTileIndex(), tile.getMimeType(),
+                tile.getFullParameters(), null, null);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        layer.seedTile(refreshTile, false);
+                        completed.incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        log.warn("Error refreshing " + refreshTile + ": " + e.getMessage());
+                    } finally {
+                        pending.remove(key);
+                        if (layer instanceof WMSLayer) {
+                            ((WMSLayer) layer).cleanUpThreadLocals();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            rejected.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Tile refresh queue full, not refreshing " + tile);
+            }
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    static String metaTileKey(TileLayer layer, ConveyorTile tile) {
+        final long[] index = tile.getTileIndex();
+        final int[] metaFactors = layer.getMetaTilingFactors();
+        final int metaX = metaFactors == null ? 1 : Math.max(1, metaFactors[0]);
+        final int metaY = metaFactors == null ? 1 : Math.max(1, metaFactors[1]);
+        StringBuilder key = new StringBuilder(layer.getName()).append('_')
+                .append(tile.getGridSetId()).append('_').append(index[0] / metaX).append('_')
+                .append(index[1] / metaY).append('_').append(index[2]).append('_')
+                .append(tile.getMimeType().getFormat());
+        if (tile.getParametersId() != null) {
+            key.append('_').append(tile.getParametersId());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return number of expired tiles served while being refreshed
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * @return number of refreshes waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of meta tiles scheduled or being refreshed
+     */
+    public int getPendingRefreshes() {
+        return pending.size();
+    }
+
+    public long getSubmittedRefreshes() {
+        return submitted.get();
+    }
+
+    /**
+     * @return number of refresh requests ignored because the meta tile refresh was pending
+     */
+    public long getDeduplicatedRefreshes() {
+        return deduplicated.get();
+    }
+
+    /**
+     * @return number of refresh requests dropped because the queue was full
+     */
+    public long getRejectedRefreshes() {
+        return rejected.get();
+    }
+
+    public long getCompletedRefreshes() {
+        return completed.get();
+    }
+
+    public long getFailedRefreshes() {
+        return failed.get();
+    }
+
+    /**
+     * Stops the refresh threads, discarding the pending refreshes
+     */
+    public void destroy() {
+        executor.shutdownNow();
+        pending.clear();
+    }
+}
@@ -38,6 +38,8 @@ public class GeoRSSFeedDefinition extends UpdateSourceDefinition {
 
     private Integer maxMaskLevel;
 
+    private Integer streamingBatchSize;
+
     /**
      * The maximum zoom level which to create a backing tile mask for to track the tiles affected by
      * the feed geometries; defaults to {@code 10}
@@ -52,6 +54,21 @@ public class GeoRSSFeedDefinition extends UpdateSourceDefinition {
         this.maxMaskLevel = level;
     }
 
+    /**
+     * Number of feed entries after which the tiles they affect are truncated and seeded while the
+     * rest of the feed is still being read; {@code 0} if not set, meaning the whole feed is read
+     * before processing the affected tiles
+     * 
+     * @return
+     */
+    public int getStreamingBatchSize() {
+        return streamingBatchSize == null ? 0 : streamingBatchSize.intValue();
+    }
+
+    void setStreamingBatchSize(final int batchSize) {
+        this.streamingBatchSize = batchSize;
+    }
+
     public GWCTask.TYPE getOperation() {
         if(operation == null || operation.equalsIgnoreCase("truncate")) {
             return GWCTask.TYPE.TRUNCATE;
@@ -136,6 +153,7 @@ public class GeoRSSFeedDefinition extends UpdateSourceDefinition {
         sb.append(", operation: ").append(operation);
         sb.append(", seeding threads: ").append(seedingThreads);
         sb.append(", max masking level: ").append(maxMaskLevel);
+        sb.append(", streaming batch size: ").append(streamingBatchSize);
         return sb.append("]").toString();
     }
 
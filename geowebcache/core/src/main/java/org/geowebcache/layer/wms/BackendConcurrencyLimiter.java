@@ -0,0 +1,419 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Limits the number of concurrent requests to a WMS backend, so that a burst of cache misses on a
+ * layer doesn't pile up threads on the HTTP connection pool and starve the other layers.
+ * <p>
+ * The limiters are shared, one per layer, allowing as many concurrent requests as the layer
+ * concurrency, and one per backend host if {@code GEOWEBCACHE_BACKEND_HOST_CONCURRENCY} is set,
+ * the hosts being unbounded otherwise. Requests wait for a permit no longer than the given timeout.
+ * </p>
+ * <p>
+ * If {@code GEOWEBCACHE_BACKEND_ADAPTIVE_CONCURRENCY} is {@code true} the limit adapts to the
+ * backend response (additive increase, multiplicative decrease): it starts at its maximum, grows
+ * by one every {@code limit} successful requests while the permits are in use, and is reduced by
+ * 10% when a request fails, times out, or takes more than twice the usual backend latency, at most
+ * once per usual latency so that a batch of concurrent slow requests counts as a single one. The
+ * usual latency is a moving average of the successful requests. Adaptive limiters also reject
+ * requests right away when as many requests as the maximum limit are already waiting.
+ * </p>
+ */
+public class BackendConcurrencyLimiter {
+
+    private static final Log log = LogFactory.getLog(BackendConcurrencyLimiter.class);
+
+    static final String HOST_CONCURRENCY_PROPERTY = "GEOWEBCACHE_BACKEND_HOST_CONCURRENCY";
+
+    static final String ADAPTIVE_PROPERTY = "GEOWEBCACHE_BACKEND_ADAPTIVE_CONCURRENCY";
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final ConcurrentHashMap<String, BackendConcurrencyLimiter> layerLimiters =
+            new ConcurrentHashMap<String, BackendConcurrencyLimiter>();
+
+    private static final ConcurrentHashMap<String, BackendConcurrencyLimiter> hostLimiters =
+            new ConcurrentHashMap<String, BackendConcurrencyLimiter>();
+
+    private static volatile Integer hostConcurrency;
+
+    private static volatile Boolean adaptiveLimits;
+
+    private final String name;
+
+    private final boolean adaptive;
+
+    private int maxLimit;
+
+    private double limit;
+
+    private int inFlight;
+
+    private int waiting;
+
+    private long baselineLatency;
+
+    private long lastDecrease;
+
+    private long requests;
+
+    private long completed;
+
+    private long rejected;
+
+    private long failures;
+
+    private long queueNanos;
+
+    private long backendNanos;
+
+    /**
+     * Creates a limiter with a fixed limit
+     * 
+     * @param name
+     *            the layer or backend host name
+     * @param maxLimit
+     *            maximum number of concurrent requests
+     */
+    public BackendConcurrencyLimiter(String name, int maxLimit) {
+        this(name, maxLimit, false);
+    }
+
+    /**
+     * @param name
+     *            the layer or backend host name
+     * @param maxLimit
+     *            maximum number of concurrent requests
+     * @param adaptive
+     *            whether the limit adapts to the backend response
+     */
+    public BackendConcurrencyLimiter(String name, int maxLimit, boolean adaptive) {
+        Preconditions.checkArgument(maxLimit > 0, "maxLimit must be a positive integer");
+        this.name = name;
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return the limiter for the backend requests of a layer
+     */
+    public static BackendConcurrencyLimiter forLayer(String layerName, int concurrency) {
+        BackendConcurrencyLimiter limiter = layerLimiters.get(layerName);
+        if (limiter == null) {
+            BackendConcurrencyLimiter created = new BackendConcurrencyLimiter(layerName,
+                    Math.max(1, concurrency), isAdaptive());
+            limiter = layerLimiters.putIfAbsent(layerName, created);
+            if (limiter == null) {
+                return created;
+            }
+        }
+        // the layer configuration may have changed
+        limiter.setMaxLimit(Math.max(1, concurrency));
+        return limiter;
+    }
+
+    /**
+     * Drops the limiter of a layer that has been removed
+     */
+    public static void removeLayer(String layerName) {
+        layerLimiters.remove(layerName);
+    }
+
+    /**
+     * @return the limiter for the requests to the host of a backend URL, or {@code null} if the
+     *         requests to the backend hosts are not limited
+     */
+    public static BackendConcurrencyLimiter forHost(URL url) {
+        final int concurrency = getHostConcurrency();
+        return concurrency == 0 ? null : forHost(url, concurrency);
+    }
+
+    static BackendConcurrencyLimiter forHost(URL url, int concurrency) {
+        final String host = hostKey(url);
+        BackendConcurrencyLimiter limiter = hostLimiters.get(host);
+        if (limiter == null) {
+            BackendConcurrencyLimiter created = new BackendConcurrencyLimiter(host, concurrency,
+                    isAdaptive());
+            limiter = hostLimiters.putIfAbsent(host, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * @return the {@code host:port} a backend URL points to
+     */
+    static String hostKey(URL url) {
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getHost() + ":" + port;
+    }
+
+    /**
+     * @return the maximum number of concurrent requests to a backend host, or {@code 0} if they
+     *         are not limited
+     */
+    static int getHostConcurrency() {
+        if (hostConcurrency == null) {
+            int concurrency = 0;
+            String value = GeoWebCacheExtensions.getProperty(HOST_CONCURRENCY_PROPERTY);
+            if (value != null) {
+                try {
+                    concurrency = Math.max(1, Integer.parseInt(value.trim()));
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid " + HOST_CONCURRENCY_PROPERTY + " value '" + value
+                            + "', the backend hosts won't be limited");
+                }
+            }
+            hostConcurrency = concurrency;
+        }
+        return hostConcurrency;
+    }
+
+    /**
+     * @return whether the limits adapt to the backend response
+     */
+    static boolean isAdaptive() {
+        if (adaptiveLimits == null) {
+            adaptiveLimits = Boolean.valueOf(
+                    GeoWebCacheExtensions.getProperty(ADAPTIVE_PROPERTY));
+        }
+        return adaptiveLimits;
+    }
+
+    /**
+     * @return the layer limiters, sorted by name
+     */
+    public static List<BackendConcurrencyLimiter> getLayerLimiters() {
+        return sorted(layerLimiters);
+    }
+
+    /**
+     * @return the backend host limiters, sorted by name
+     */
+    public static List<BackendConcurrencyLimiter> getHostLimiters() {
+        return sorted(hostLimiters);
+    }
+
+    private static List<BackendConcurrencyLimiter> sorted(
+            ConcurrentHashMap<String, BackendConcurrencyLimiter> limiters) {
+        List<BackendConcurrencyLimiter> list = new ArrayList<BackendConcurrencyLimiter>(
+                limiters.values());
+        Collections.sort(list, new Comparator<BackendConcurrencyLimiter>() {
+            public int compare(BackendConcurrencyLimiter l1, BackendConcurrencyLimiter l2) {
+                return l1.getName().compareTo(l2.getName());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Waits for a permit to send a request to the backend, which has to be
+     * {@link #release(long, boolean) released} once the response is read
+     *
+     * @param timeoutMillis
+     *            maximum time to wait for a permit
+     * @return {@code false} if no permit was obtained in time, or too many requests were waiting
+     *         already
+     */
+    public synchronized boolean acquire(long timeoutMillis) throws InterruptedException {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            requests++;
+            return true;
+        }
+        if (adaptive && waiting >= maxLimit) {
+            rejected++;
+            return false;
+        }
+        final long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        waiting++;
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    rejected++;
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+                        - (System.nanoTime() - start);
+            }
+            inFlight++;
+            requests++;
+            queueNanos += System.nanoTime() - start;
+            return true;
+        } finally {
+            waiting--;
+        }
+    }
+
+    /**
+     * Returns a permit and adapts the limit to the outcome of the request
+     *
+     * @param latencyNanos
+     *            the time the backend took to answer
+     * @param failed
+     *            whether the request failed or timed out, or the backend reported an internal
+     *            error
+     */
+    public synchronized void release(long latencyNanos, boolean failed) {
+        final int usedPermits = inFlight;
+        inFlight--;
+        completed++;
+        backendNanos += latencyNanos;
+        if (failed) {
+            failures++;
+        }
+        if (adaptive) {
+            adapt(latencyNanos, failed, usedPermits);
+        }
+        notifyAll();
+    }
+
+    private void adapt(long latencyNanos, boolean failed, int usedPermits) {
+        if (failed) {
+            decrease();
+            return;
+        }
+        final long usualLatency = baselineLatency;
+        if (baselineLatency == 0) {
+            baselineLatency = latencyNanos;
+        } else {
+            baselineLatency += (latencyNanos - baselineLatency) / 16;
+        }
+        if (usualLatency > 0 && latencyNanos > LATENCY_TOLERANCE * usualLatency) {
+            decrease();
+        } else if (usedPermits * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Reduces the limit, unless it was reduced less than a usual latency ago, as the requests
+     * still being answered were sent before that
+     */
+    private void decrease() {
+        final long now = nanoTime();
+        if (lastDecrease == 0 || now - lastDecrease >= baselineLatency) {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+            lastDecrease = now;
+        }
+    }
+
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns a permit that wasn't used to send a request
+     */
+    public synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized void setMaxLimit(int maxLimit) {
+        if (this.maxLimit != maxLimit) {
+            this.maxLimit = maxLimit;
+            this.limit = Math.min(limit, maxLimit);
+            notifyAll();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether the limit adapts to the backend response
+     */
+    public boolean isAdaptiveLimit() {
+        return adaptive;
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return the number of requests that got a permit
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests that didn't get a permit
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of requests that failed
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the average time the requests waited for a permit, in milliseconds
+     */
+    public synchronized double getAverageQueueTime() {
+        return requests == 0 ? 0 : queueNanos / 1000000d / requests;
+    }
+
+    /**
+     * @return the average time the backend took to answer, in milliseconds
+     */
+    public synchronized double getAverageBackendTime() {
+        return completed == 0 ? 0 : backendNanos / 1000000d / completed;
+    }
+}
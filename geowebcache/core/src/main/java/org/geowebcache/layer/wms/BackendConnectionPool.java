@@ -0,0 +1,193 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.geowebcache.util.HttpClientBuilder;
+
+/**
+ * A pool of keep-alive HTTP connections to a WMS backend host, shared by the
+ * {@link WMSPooledHttpHelper pooled source helpers} of all the layers fetching from that host, so
+ * that connections are reused across layers instead of each layer keeping its own.
+ * <p>
+ * A pool holds up to {@code GEOWEBCACHE_BACKEND_HOST_CONCURRENCY} connections, the same as the
+ * {@link BackendConcurrencyLimiter host concurrency limit}, or {@code 64} if the hosts are not
+ * limited, and closes the connections left idle for more than a minute.
+ * </p>
+ */
+public class BackendConnectionPool {
+
+    static final long IDLE_TIMEOUT = 60 * 1000;
+
+    static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    private static final ConcurrentHashMap<String, BackendConnectionPool> pools =
+            new ConcurrentHashMap<String, BackendConnectionPool>();
+
+    private static IdleConnectionTimeoutThread idleConnectionCloser;
+
+    private final String name;
+
+    private final MultiThreadedHttpConnectionManager connectionManager;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicInteger connectionsInUse = new AtomicInteger();
+
+    private final AtomicLong compressedResponses = new AtomicLong();
+
+    private final AtomicLong streamedResponses = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    BackendConnectionPool(String name, MultiThreadedHttpConnectionManager connectionManager) {
+        this.name = name;
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * @param url
+     *            a backend URL
+     * @param backendTimeout
+     *            the connection timeout in seconds, used if the pool is created
+     * @return the pool of connections to the host of the URL
+     */
+    public static BackendConnectionPool forHost(URL url, int backendTimeout) {
+        final String host = BackendConcurrencyLimiter.hostKey(url);
+        BackendConnectionPool pool = pools.get(host);
+        if (pool == null) {
+            final int hostConcurrency = BackendConcurrencyLimiter.getHostConcurrency();
+            HttpClientBuilder builder = new HttpClientBuilder(null, backendTimeout, null, null,
+                    null, hostConcurrency == 0 ? DEFAULT_MAX_CONNECTIONS : hostConcurrency);
+            BackendConnectionPool created = new BackendConnectionPool(host,
+                    builder.buildConnectionManager());
+            pool = pools.putIfAbsent(host, created);
+            if (pool == null) {
+                pool = created;
+                closeWhenIdle(created.connectionManager);
+            } else {
+                created.connectionManager.shutdown();
+            }
+        }
+        return pool;
+    }
+
+    private static synchronized void closeWhenIdle(MultiThreadedHttpConnectionManager manager) {
+        if (idleConnectionCloser == null) {
+            idleConnectionCloser = new IdleConnectionTimeoutThread();
+            idleConnectionCloser.setName("GWC backend idle connection closer");
+            idleConnectionCloser.setConnectionTimeout(IDLE_TIMEOUT);
+            idleConnectionCloser.setTimeoutInterval(IDLE_TIMEOUT / 4);
+            idleConnectionCloser.start();
+        }
+        idleConnectionCloser.addConnectionManager(manager);
+    }
+
+    /**
+     * @return the pools, sorted by host name
+     */
+    public static List<BackendConnectionPool> getPools() {
+        List<BackendConnectionPool> list = new ArrayList<BackendConnectionPool>(pools.values());
+        Collections.sort(list, new Comparator<BackendConnectionPool>() {
+            public int compare(BackendConnectionPool p1, BackendConnectionPool p2) {
+                return p1.getName().compareTo(p2.getName());
+            }
+        });
+        return list;
+    }
+
+    MultiThreadedHttpConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    void requestSent() {
+        requests.incrementAndGet();
+        connectionsInUse.incrementAndGet();
+    }
+
+    void connectionReleased() {
+        connectionsInUse.decrementAndGet();
+    }
+
+    void responseReceived(long bytes, boolean compressed, boolean streamed) {
+        bytesReceived.addAndGet(bytes);
+        if (compressed) {
+            compressedResponses.incrementAndGet();
+        }
+        if (streamed) {
+            streamedResponses.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the backend {@code host:port}
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConnections() {
+        return connectionManager.getParams().getMaxTotalConnections();
+    }
+
+    /**
+     * @return the number of open connections, in use or idle
+     */
+    public int getOpenConnections() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    /**
+     * @return the number of connections sending a request or reading a response
+     */
+    public int getConnectionsInUse() {
+        return connectionsInUse.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of responses sent with a gzip or deflate content encoding
+     */
+    public long getCompressedResponses() {
+        return compressedResponses.get();
+    }
+
+    /**
+     * @return the number of meta tile images decoded as they were received
+     */
+    public long getStreamedResponses() {
+        return streamedResponses.get();
+    }
+
+    /**
+     * @return the number of bytes received, before decompression
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+import org.geowebcache.GeoWebCacheException;
+
+/**
+ * Thrown when a request is not sent to the backend because too many requests are in progress
+ * already
+ * 
+ * @see BackendConcurrencyLimiter
+ */
+public class BackendSaturatedException extends GeoWebCacheException {
+
+    private static final long serialVersionUID = -3196468410352911306L;
+
+    public BackendSaturatedException(String msg) {
+        super(msg);
+    }
+}
@@ -77,8 +77,7 @@ public class WMSHttpHelper extends WMSSourceHelper {
                     return client;
                 }
                 
-                HttpClientBuilder builder = new HttpClientBuilder(null, getBackendTimeout(), httpUsername,
-                        httpPassword, proxyUrl, getConcurrency());    
+                HttpClientBuilder builder = createClientBuilder();
                 doAuthentication = builder.isDoAuthentication();
                 client = builder.buildClient();
             }
@@ -87,6 +86,15 @@ public class WMSHttpHelper extends WMSSourceHelper {
         return client;
     }
 
+    /**
+     * @return a builder for clients with the credentials, proxy, timeout and concurrency of this
+     *         helper
+     */
+    HttpClientBuilder createClientBuilder() {
+        return new HttpClientBuilder(null, getBackendTimeout(), httpUsername, httpPassword,
+                proxyUrl, getConcurrency());
+    }
+
     /**
      * Loops over the different backends, tries the request
      * 
@@ -106,28 +114,70 @@ public class WMSHttpHelper extends WMSSourceHelper {
         URL wmsBackendUrl = null;
 
         final Integer backendTimeout = layer.getBackendTimeout();
+        final long queueTimeout = 1000L * (backendTimeout == null ? 120 : backendTimeout);
+        final BackendConcurrencyLimiter layerLimiter = BackendConcurrencyLimiter.forLayer(
+                layer.getName(), getConcurrency());
+        acquire(layerLimiter, queueTimeout);
+
         int backendTries = 0; // keep track of how many backends we have tried
+        int saturatedBackends = 0;
+        boolean backendFailed = false;
+        boolean received = false;
         GeoWebCacheException fetchException = null;
-        while (target.getSize() == 0 && backendTries < layer.getWMSurl().length) {
-            String requestUrl = layer.nextWmsURL();
+        final long start = System.nanoTime();
+        try {
+            while (!received && backendTries < layer.getWMSurl().length) {
+                String requestUrl = layer.nextWmsURL();
 
-            try {
-                wmsBackendUrl = new URL(requestUrl);
-            } catch (MalformedURLException maue) {
-                throw new GeoWebCacheException("Malformed URL: " + requestUrl + " "
-                        + maue.getMessage());
+                try {
+                    wmsBackendUrl = new URL(requestUrl);
+                } catch (MalformedURLException maue) {
+                    throw new GeoWebCacheException("Malformed URL: " + requestUrl + " "
+                            + maue.getMessage());
+                }
+                backendTries++;
+
+                final BackendConcurrencyLimiter hostLimiter = BackendConcurrencyLimiter
+                        .forHost(wmsBackendUrl);
+                if (hostLimiter != null) {
+                    try {
+                        acquire(hostLimiter, queueTimeout);
+                    } catch (BackendSaturatedException e) {
+                        // try the next backend, if any
+                        fetchException = e;
+                        saturatedBackends++;
+                        continue;
+                    }
+                }
+                final long requestStart = System.nanoTime();
+                backendFailed = false;
+                try {
+                    received = connectAndCheckHeaders(tileRespRecv, wmsBackendUrl, wmsParams,
+                            expectedMimeType, backendTimeout, target);
+                } catch (GeoWebCacheException e) {
+                    fetchException = e;
+                    backendFailed = e.getCause() instanceof IOException
+                            || tileRespRecv.getStatus() >= 500;
+                } finally {
+                    if (hostLimiter != null) {
+                        hostLimiter.release(System.nanoTime() - requestStart, backendFailed);
+                    }
+                }
             }
-            try {
-                connectAndCheckHeaders(tileRespRecv, wmsBackendUrl, wmsParams, expectedMimeType,
-                        backendTimeout, target);
-            } catch (GeoWebCacheException e) {
-                fetchException = e;
+        } finally {
+            if (saturatedBackends == backendTries) {
+                // no backend was reached, nothing to learn from
+                layerLimiter.cancel();
+            } else {
+                layerLimiter.release(System.nanoTime() - start, !received && backendFailed);
             }
+        }
 
-            backendTries++;
+        if (!received && saturatedBackends == backendTries) {
+            throw (BackendSaturatedException) fetchException;
         }
 
-        if (target.getSize() == 0) {
+        if (!received) {
             String msg = "All backends (" + backendTries + ") failed.";
             if (fetchException != null) {
                 msg += " Reason: " + fetchException.getMessage() + ". ";
@@ -143,6 +193,19 @@ public class WMSHttpHelper extends WMSSourceHelper {
         }
     }
 
+    private static void acquire(BackendConcurrencyLimiter limiter, long timeoutMillis)
+            throws GeoWebCacheException {
+        try {
+            if (!limiter.acquire(timeoutMillis)) {
+                throw new BackendSaturatedException("Too many concurrent requests to the backend of "
+                        + limiter.getName() + ", limited to " + limiter.getLimit());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException(e);
+        }
+    }
+
     /**
      * Executes the actual HTTP request, checks the response headers (status and MIME) and
      * 
@@ -150,16 +213,17 @@ public class WMSHttpHelper extends WMSSourceHelper {
      * @param wmsBackendUrl
      * @param data
      * @param wmsparams
-     * @return
+     * @return whether a response body was received
      * @throws GeoWebCacheException
      */
-    private void connectAndCheckHeaders(TileResponseReceiver tileRespRecv, URL wmsBackendUrl,
+    private boolean connectAndCheckHeaders(TileResponseReceiver tileRespRecv, URL wmsBackendUrl,
             Map<String, String> wmsParams, MimeType requestMimeType, Integer backendTimeout,
             Resource target) throws GeoWebCacheException {
 
         GetMethod getMethod = null;
         final int responseCode;
         final int responseLength;
+        long bytesRead = 0;
 
         try { // finally
             try {
@@ -233,21 +297,9 @@ public class WMSHttpHelper extends WMSSourceHelper {
             // Read the actual data
             if (responseCode != 204) {
                 try {
-                    InputStream inStream = getMethod.getResponseBodyAsStream();
-                    if( inStream == null ){
-                    	String uri = getMethod.getURI().getURI();
-                    	log.error( "No response for "+getMethod.getName() +" " + uri );
-                    }
-                    else {
-	                    ReadableByteChannel channel = Channels.newChannel(inStream);
-	                    try {
-	                        target.transferFrom(channel);
-	                    } finally {
-	                        channel.close();
-	                    }
-                    }
+                    bytesRead = readResponse(tileRespRecv, getMethod, requestMimeType, target);
                     if (responseLength > 0) {
-                        int readAccu = (int) target.getSize();
+                        int readAccu = (int) bytesRead;
                         if (readAccu != responseLength) {
                             tileRespRecv.setError();
                             throw new GeoWebCacheException("Responseheader advertised "
@@ -267,6 +319,36 @@ public class WMSHttpHelper extends WMSSourceHelper {
                 getMethod.releaseConnection();
             }
         }
+        return bytesRead > 0;
+    }
+
+    /**
+     * Reads the body of a successful response into the target resource
+     * 
+     * @param tileRespRecv
+     * @param getMethod
+     *            the executed request
+     * @param requestMimeType
+     *            the requested format
+     * @param target
+     * @return the number of bytes of the response body
+     * @throws IOException
+     */
+    protected long readResponse(TileResponseReceiver tileRespRecv, GetMethod getMethod,
+            MimeType requestMimeType, Resource target) throws IOException {
+        InputStream inStream = getMethod.getResponseBodyAsStream();
+        if (inStream == null) {
+            String uri = getMethod.getURI().getURI();
+            log.error("No response for " + getMethod.getName() + " " + uri);
+            return 0;
+        }
+        ReadableByteChannel channel = Channels.newChannel(inStream);
+        try {
+            target.transferFrom(channel);
+        } finally {
+            channel.close();
+        }
+        return target.getSize();
     }
 
     /**
@@ -289,6 +371,18 @@ public class WMSHttpHelper extends WMSSourceHelper {
         
         // prepare the request
         GetMethod getMethod = new GetMethod(url.toString());
+        setQueryString(getMethod, queryParams);
+        getMethod.setDoAuthentication(doAuthentication);
+
+        // fire!
+        if (log.isDebugEnabled()) {
+        	log.trace( getMethod.getURI().getURI() );
+        }
+        httpClient.executeMethod(getMethod);
+        return getMethod;
+    }
+
+    static void setQueryString(GetMethod getMethod, Map<String, String> queryParams) {
         if (queryParams != null && queryParams.size() > 0) {
             NameValuePair[] params = new NameValuePair[queryParams.size()];
             int i = 0;
@@ -298,13 +392,5 @@ public class WMSHttpHelper extends WMSSourceHelper {
             }
             getMethod.setQueryString(params);
         }
-        getMethod.setDoAuthentication(doAuthentication);
-
-        // fire!
-        if (log.isDebugEnabled()) {
-        	log.trace( getMethod.getURI().getURI() );
-        }
-        httpClient.executeMethod(getMethod);
-        return getMethod;
     }
-}
\ No newline at end of file
+}
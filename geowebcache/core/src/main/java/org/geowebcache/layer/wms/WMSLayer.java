@@ -17,6 +17,7 @@
 
 package org.geowebcache.layer.wms;
 
+import java.awt.Color;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -33,6 +34,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.GeoWebCacheExtensions;
 import org.geowebcache.config.XMLGridSubset;
 import org.geowebcache.conveyor.Conveyor.CacheResult;
 import org.geowebcache.conveyor.ConveyorTile;
@@ -46,8 +48,11 @@ import org.geowebcache.grid.SRS;
 import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.io.Resource;
 import org.geowebcache.layer.AbstractTileLayer;
+import org.geowebcache.layer.BlankTileCache;
 import org.geowebcache.layer.ExpirationRule;
 import org.geowebcache.layer.ProxyLayer;
+import org.geowebcache.layer.RefreshAheadScheduler;
+import org.geowebcache.layer.TileRefresher;
 import org.geowebcache.layer.meta.LayerMetaInformation;
 import org.geowebcache.layer.meta.MetadataURL;
 import org.geowebcache.locks.LockProvider;
@@ -106,6 +111,8 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
 
     private Integer concurrency;
 
+    private Boolean cacheBlankTiles;
+
     // private transient int expireCacheInt = -1;
 
     // private transient int expireClientsInt = -1;
@@ -118,6 +125,14 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
 
     private transient LockProvider lockProvider;
 
+    private transient TileRefresher tileRefresher;
+
+    private transient volatile boolean tileRefresherLookedUp;
+
+    private transient RefreshAheadScheduler refreshAheadScheduler;
+
+    private transient volatile boolean refreshAheadSchedulerLookedUp;
+
     WMSLayer() {
         //default constructor for XStream
     }
@@ -296,12 +311,25 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
 
         tile.setMetaTileCacheOnly(!gridSubset.shouldCacheAtZoom(gridLoc[2]));
         try {
-            if (tryCacheFetch(tile)) {
+            if (tryBlankTileFetch(tile)) {
+                returnTile = finalizeTile(tile);
+            } else if (tryCacheFetch(tile)) {
                 returnTile = finalizeTile(tile);
-            } else if (mime.supportsTiling()) { // Okay, so we need to go to the backend
-                returnTile = getMetatilingReponse(tile, true);
             } else {
-                returnTile = getNonMetatilingReponse(tile, true);
+                // Okay, so we need to go to the backend
+                try {
+                    if (mime.supportsTiling()) {
+                        returnTile = getMetatilingReponse(tile, true);
+                    } else {
+                        returnTile = getNonMetatilingReponse(tile, true);
+                    }
+                } catch (BackendSaturatedException e) {
+                    if (!tryExpiredCacheFetch(tile)) {
+                        throw e;
+                    }
+                    log.debug("Serving an expired tile, " + e.getMessage());
+                    returnTile = finalizeTile(tile);
+                }
             }
         } finally {
             cleanUpThreadLocals();
@@ -356,6 +384,12 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
                 this.getFormatModifier(tile.getMimeType()), gridLoc, metaWidthHeight[0],
                 metaWidthHeight[1], fullParameters);
 
+        final BlankTileCache blankTiles = getCacheBlankTiles() ? BlankTileCache.getInstance()
+                : null;
+        if (blankTiles != null) {
+            metaTile.detectBlankTiles(getEmptyColor(getFormatModifier(mimeType)));
+        }
+
         // Leave a hint to save expiration, if necessary
         if (saveExpirationHeaders) {
             metaTile.setExpiresHeader(GWCVars.CACHE_USE_WMS_BACKEND_VALUE);
@@ -397,10 +431,22 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
                 saveExpirationInformation((int) (tile.getExpiresHeader() / 1000));
             }
 
-            metaTile.setImageBytes(buffer);
+            if (metaTile.getImage() == null) {
+                // not decoded while being received already
+                metaTile.setImageBytes(buffer);
+            }
 
             saveTiles(metaTile, tile, requestTime);
 
+            if (blankTiles != null) {
+                if (metaTile.isBlank() && metaTile.getBlankTile() != null) {
+                    blankTiles.put(this, tile, metaTile.getTilesGridPositions(),
+                            metaTile.getBlankTile());
+                } else {
+                    blankTiles.invalidate(this, tile, metaTile.getTilesGridPositions());
+                }
+            }
+
             /** ****************** Return lock and response ****** */
         } finally {
             if(lock != null) {
@@ -491,11 +537,46 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         return finalizeTile(tile);
     }
 
+    /**
+     * Answers the request without locking nor going to the cache if the tile is known to be blank
+     * 
+     * @see BlankTileCache
+     */
+    private boolean tryBlankTileFetch(ConveyorTile tile) {
+        BlankTileCache blankTiles = getCacheBlankTiles() ? BlankTileCache.getInstance() : null;
+        if (blankTiles == null || tile.getMimeType() == null
+                || !tile.getMimeType().supportsTiling()) {
+            return false;
+        }
+        Resource blankTile = blankTiles.get(this, tile);
+        if (blankTile == null) {
+            return false;
+        }
+        tile.setBlob(blankTile);
+        tile.setCacheResult(CacheResult.HIT);
+        return true;
+    }
+
     public boolean tryCacheFetch(ConveyorTile tile) {
-        int expireCache = this.getExpireCache((int) tile.getTileIndex()[2]);
+        final int zoomLevel = (int) tile.getTileIndex()[2];
+        int expireCache = this.getExpireCache(zoomLevel);
         if (expireCache != GWCVars.CACHE_DISABLE_CACHE) {
             try {
-                return tile.retrieve(expireCache * 1000L);
+                boolean hit = tile.retrieve(expireCache * 1000L,
+                        getStaleWhileRevalidate(zoomLevel) * 1000L);
+                if (hit && tile.isStale()) {
+                    TileRefresher refresher = getTileRefresher();
+                    if (refresher != null) {
+                        refresher.staleHit();
+                        refresher.refresh(this, tile);
+                    }
+                } else if (hit && expireCache > 0 && !tile.isMetaTileCacheOnly()) {
+                    RefreshAheadScheduler scheduler = getRefreshAheadScheduler();
+                    if (scheduler != null && scheduler.isEnabled()) {
+                        scheduler.tileHit(this, tile, expireCache * 1000L);
+                    }
+                }
+                return hit;
             } catch (GeoWebCacheException gwce) {
                 log.error(gwce.getMessage());
                 tile.setErrorMsg(gwce.getMessage());
@@ -505,6 +586,26 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         return false;
     }
 
+    /**
+     * Looks for the tile in the cache regardless of its age, so that an expired one is served,
+     * flagged as {@link ConveyorTile#isStale() stale}, rather than an error when the backend is
+     * saturated
+     */
+    private boolean tryExpiredCacheFetch(ConveyorTile tile) {
+        final int expireCache = this.getExpireCache((int) tile.getTileIndex()[2]);
+        if (expireCache <= 0) {
+            // the tile doesn't expire, it's just not cached
+            return false;
+        }
+        try {
+            // an expired tile of any age will do
+            return tile.retrieve(expireCache * 1000L, Long.MAX_VALUE / 2);
+        } catch (GeoWebCacheException gwce) {
+            log.error(gwce.getMessage());
+            return false;
+        }
+    }
+
     public ConveyorTile doNonMetatilingRequest(ConveyorTile tile) throws GeoWebCacheException {
         tile.setTileLayer(this);
 
@@ -526,6 +627,9 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
 
         if (tile.servletResp != null) {
             setExpirationHeader(tile.servletResp, (int) tile.getTileIndex()[2]);
+            if (tile.isStale()) {
+                setStaleHeaders(tile.servletResp);
+            }
         }
 
         return tile;
@@ -752,6 +856,47 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         this.transparent = transparent;
     }
 
+    /**
+     * @return whether the blank tiles of the layer are kept in the {@link BlankTileCache}
+     */
+    public boolean getCacheBlankTiles() {
+        return cacheBlankTiles != null && cacheBlankTiles;
+    }
+
+    public void setCacheBlankTiles(boolean cacheBlankTiles) {
+        this.cacheBlankTiles = cacheBlankTiles;
+    }
+
+    /**
+     * @return the color the backend fills the empty areas of the images with, as set by the
+     *         {@code TRANSPARENT} and {@code BGCOLOR} parameters of the requests, or {@code null}
+     *         if they're transparent
+     */
+    private Color getEmptyColor(FormatModifier mod) {
+        Boolean tmpTransparent = transparent;
+        if (mod != null && mod.getTransparent() != null) {
+            tmpTransparent = mod.getTransparent();
+        }
+        if (tmpTransparent == null || tmpTransparent) {
+            return null;
+        }
+
+        String tmpBgColor = bgColor;
+        if (mod != null && mod.getBgColor() != null) {
+            tmpBgColor = mod.getBgColor();
+        }
+        if (tmpBgColor == null || tmpBgColor.length() == 0) {
+            // the WMS default
+            return Color.WHITE;
+        }
+        try {
+            return Color.decode(tmpBgColor);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid bgColor " + tmpBgColor + " for layer " + getName());
+            return null;
+        }
+    }
+
     public int[] getBackgroundColor() {
         if (bgColor == null || transparent != null && transparent) {
             return null;
@@ -807,6 +952,42 @@ public class WMSLayer extends AbstractTileLayer implements ProxyLayer {
         this.lockProvider = lockProvider;
     }
 
+    /**
+     * @return the refresher of the stale tiles served, looked up in the application context
+     *         unless {@link #setTileRefresher(TileRefresher) set}, or {@code null} if there's none
+     */
+    TileRefresher getTileRefresher() {
+        if (!tileRefresherLookedUp) {
+            tileRefresher = GeoWebCacheExtensions.bean(TileRefresher.class);
+            tileRefresherLookedUp = true;
+        }
+        return tileRefresher;
+    }
+
+    public void setTileRefresher(TileRefresher tileRefresher) {
+        this.tileRefresher = tileRefresher;
+        this.tileRefresherLookedUp = true;
+    }
+
+    /**
+     * @return the scheduler of the refreshes of the hot tiles about to expire, looked up in the
+     *         application context unless
+     *         {@link #setRefreshAheadScheduler(RefreshAheadScheduler) set}, or {@code null} if
+     *         there's none
+     */
+    RefreshAheadScheduler getRefreshAheadScheduler() {
+        if (!refreshAheadSchedulerLookedUp) {
+            refreshAheadScheduler = GeoWebCacheExtensions.bean(RefreshAheadScheduler.class);
+            refreshAheadSchedulerLookedUp = true;
+        }
+        return refreshAheadScheduler;
+    }
+
+    public void setRefreshAheadScheduler(RefreshAheadScheduler refreshAheadScheduler) {
+        this.refreshAheadScheduler = refreshAheadScheduler;
+        this.refreshAheadSchedulerLookedUp = true;
+    }
+
     public void proxyRequest(ConveyorTile tile) throws GeoWebCacheException {
         String queryStr = tile.servletReq.getQueryString();
         String serverStr = getWMSurl()[0];
@@ -0,0 +1,235 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.layer.wms;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.io.Resource;
+import org.geowebcache.layer.TileResponseReceiver;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.util.HttpClientBuilder;
+
+/**
+ * A {@link WMSHttpHelper} sending the requests through the {@link BackendConnectionPool connection
+ * pools} shared by all the layers fetching from the same backend host, keeping the connections
+ * alive between requests.
+ * <p>
+ * Non image responses, such as feature info and KML, are requested with a gzip or deflate content
+ * encoding, and meta tile images are decoded as they are received rather than buffered first.
+ * </p>
+ * <p>
+ * Used instead of the plain {@link WMSHttpHelper} when the
+ * {@code GEOWEBCACHE_BACKEND_SHARED_POOL} property is {@code true}.
+ * </p>
+ */
+public class WMSPooledHttpHelper extends WMSHttpHelper {
+
+    private static Log log = LogFactory.getLog(WMSPooledHttpHelper.class);
+
+    static final String SHARED_POOL_PROPERTY = "GEOWEBCACHE_BACKEND_SHARED_POOL";
+
+    private final ConcurrentHashMap<BackendConnectionPool, HttpClient> clients =
+            new ConcurrentHashMap<BackendConnectionPool, HttpClient>();
+
+    private volatile boolean doAuthentication;
+
+    public WMSPooledHttpHelper() {
+        this(null, null, null);
+    }
+
+    public WMSPooledHttpHelper(String httpUsername, String httpPassword, URL proxyUrl) {
+        super(httpUsername, httpPassword, proxyUrl);
+    }
+
+    /**
+     * @return whether the shared connection pools are enabled
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(GeoWebCacheExtensions.getProperty(SHARED_POOL_PROPERTY));
+    }
+
+    /**
+     * @return the client sending requests through the given pool, with the credentials and proxy
+     *         of this helper
+     */
+    HttpClient getHttpClient(BackendConnectionPool pool) {
+        HttpClient client = clients.get(pool);
+        if (client == null) {
+            HttpClientBuilder builder = createClientBuilder();
+            doAuthentication = builder.isDoAuthentication();
+            HttpClient created = builder.buildClient(pool.getConnectionManager());
+            client = clients.putIfAbsent(pool, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    @Override
+    public GetMethod executeRequest(final URL url, final Map<String, String> queryParams,
+            final Integer backendTimeout) throws HttpException, IOException {
+        final BackendConnectionPool pool = BackendConnectionPool.forHost(url,
+                getBackendTimeout());
+        HttpClient httpClient = getHttpClient(pool);
+
+        PooledGetMethod getMethod = new PooledGetMethod(url.toString(), pool);
+        setQueryString(getMethod, queryParams);
+        getMethod.setDoAuthentication(doAuthentication);
+        if (backendTimeout != null) {
+            // the pool is shared with layers that may have other timeouts
+            getMethod.getParams().setSoTimeout(backendTimeout.intValue() * 1000);
+        }
+        if (acceptsCompression(queryParams)) {
+            getMethod.setRequestHeader("Accept-Encoding", "gzip, deflate");
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace(getMethod.getURI().getURI());
+        }
+        pool.requestSent();
+        try {
+            httpClient.executeMethod(getMethod);
+        } catch (IOException e) {
+            getMethod.releaseConnection();
+            throw e;
+        }
+        return getMethod;
+    }
+
+    /**
+     * Images are compressed already, asking for a content encoding would only cost CPU time
+     */
+    static boolean acceptsCompression(Map<String, String> queryParams) {
+        if (queryParams == null) {
+            return false;
+        }
+        String format = queryParams.get("INFO_FORMAT");
+        if (format == null) {
+            format = queryParams.get("FORMAT");
+        }
+        return format != null && !format.toLowerCase().startsWith("image/");
+    }
+
+    @Override
+    protected long readResponse(TileResponseReceiver tileRespRecv, GetMethod getMethod,
+            MimeType requestMimeType, Resource target) throws IOException {
+        if (!(getMethod instanceof PooledGetMethod)) {
+            return super.readResponse(tileRespRecv, getMethod, requestMimeType, target);
+        }
+        InputStream stream = getMethod.getResponseBodyAsStream();
+        if (stream == null) {
+            return super.readResponse(tileRespRecv, getMethod, requestMimeType, target);
+        }
+
+        // count the bytes sent by the backend, to check them against the content length
+        final CountingInputStream received = new CountingInputStream(stream);
+        InputStream body = received;
+        boolean compressed = false;
+        Header encoding = getMethod.getResponseHeader("Content-Encoding");
+        if (encoding != null) {
+            String value = encoding.getValue().trim().toLowerCase();
+            if (value.equals("gzip") || value.equals("x-gzip")) {
+                body = new GZIPInputStream(received);
+                compressed = true;
+            } else if (value.equals("deflate")) {
+                body = new InflaterInputStream(received);
+                compressed = true;
+            }
+        }
+
+        boolean streamed = false;
+        try {
+            if (tileRespRecv instanceof WMSMetaTile && !tileRespRecv.getError()
+                    && requestMimeType instanceof ImageMime) {
+                decode((WMSMetaTile) tileRespRecv, body);
+                streamed = true;
+            } else {
+                ReadableByteChannel channel = Channels.newChannel(body);
+                target.transferFrom(channel);
+            }
+            // image decoders may stop before the end of the response, read it all so that the
+            // connection can be reused
+            byte[] buffer = new byte[4096];
+            while (received.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            body.close();
+        }
+
+        final long bytes = received.getByteCount();
+        ((PooledGetMethod) getMethod).pool.responseReceived(bytes, compressed, streamed);
+        return bytes;
+    }
+
+    private void decode(WMSMetaTile metaTile, InputStream body) throws IOException {
+        // read closes the image stream, not the response one
+        RenderedImage image = ImageIO.read(new MemoryCacheImageInputStream(body));
+        if (image == null) {
+            throw new IOException("Unable to decode the " + metaTile.getRequestFormat()
+                    + " meta tile image");
+        }
+        metaTile.setImage(image);
+    }
+
+    /**
+     * Keeps track of the pool the request is sent through
+     */
+    private static class PooledGetMethod extends GetMethod {
+
+        private final BackendConnectionPool pool;
+
+        private boolean released;
+
+        PooledGetMethod(String uri, BackendConnectionPool pool) {
+            super(uri);
+            this.pool = pool;
+        }
+
+        @Override
+        public void releaseConnection() {
+            try {
+                super.releaseConnection();
+            } finally {
+                if (!released) {
+                    released = true;
+                    pool.connectionReleased();
+                }
+            }
+        }
+    }
+}
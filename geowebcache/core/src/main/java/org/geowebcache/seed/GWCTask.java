@@ -16,6 +16,8 @@
  */
 package org.geowebcache.seed;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
@@ -65,6 +67,8 @@ public abstract class GWCTask {
 
     private long groupStartTime;
 
+    private final CountDownLatch finished = new CountDownLatch(1);
+
     /**
      * Marks this task as active in the group by incrementing the shared counter, delegates to
      * {@link #doActionInternal()}, and makes sure to remove this task from the group count.
@@ -82,9 +86,26 @@ public abstract class GWCTask {
                 log.info("Thread group finished " + parsedType + " task after "
                         + groupTotalTimeSecs + " seconds");
             }
+            finished.countDown();
         }
     }
 
+    /**
+     * Waits for {@link #doAction()} to return, either normally or abnormally
+     * 
+     * @return {@code true} if the task finished, {@code false} if the timeout elapsed first
+     */
+    public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Waits for {@link #doAction()} to return, either normally or abnormally
+     */
+    public void awaitFinished() throws InterruptedException {
+        finished.await();
+    }
+
     protected abstract void dispose();
 
     /**
@@ -28,6 +28,7 @@ import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.conveyor.ConveyorTile;
 import org.geowebcache.filter.request.RequestFilter;
+import org.geowebcache.layer.BlankTileCache;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.wms.WMSLayer;
 import org.geowebcache.storage.StorageBroker;
@@ -109,6 +110,12 @@ class SeedTask extends GWCTask {
 
         TileRange tr = trIter.getTileRange();
 
+        // the region is being seeded, forget which of its tiles were blank
+        BlankTileCache blankTiles = BlankTileCache.getInstance();
+        if (blankTiles != null) {
+            blankTiles.invalidate(tr);
+        }
+
         checkInterrupted();
         // TODO move to TileRange object, or distinguish between thread and task
         super.tilesTotal = tileCount(tr);
@@ -129,6 +136,7 @@ class SeedTask extends GWCTask {
 
             ConveyorTile tile = new ConveyorTile(storageBroker, layerName, tr.getGridSetId(), gridLoc,
                     tr.getMimeType(), fullParameters, null, null);
+            tile.setTileLayer(tl);
 
             for (int fetchAttempt = 0; fetchAttempt <= tileFailureRetryCount; fetchAttempt++) {
                 try {
@@ -23,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheException;
 import org.geowebcache.filter.request.RequestFilter;
+import org.geowebcache.layer.BlankTileCache;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.TileRange;
@@ -54,6 +55,10 @@ class TruncateTask extends GWCTask {
         checkInterrupted();
         try {
             storageBroker.delete(tr);
+            BlankTileCache blankTiles = BlankTileCache.getInstance();
+            if (blankTiles != null) {
+                blankTiles.invalidate(tr);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             super.state = GWCTask.STATE.DEAD;
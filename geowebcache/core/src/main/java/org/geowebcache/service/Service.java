@@ -114,12 +114,13 @@ public abstract class Service {
 
         response.setStatus((int) conv.getStatus());
 
+        // the layer sets the headers of stale tiles already
         TileLayer layer = conv.getLayer();
-        if (layer != null) {
+        if (layer != null && !conv.isStale()) {
             layer.setExpirationHeader(conv.servletResp, (int) conv.getTileIndex()[2]);
         }
 
-        if (writeExpiration) {
+        if (writeExpiration && !conv.isStale()) {
             conv.getLayer().setExpirationHeader(response, (int) conv.getTileIndex()[2]);
         }
 
@@ -88,19 +88,25 @@ public class DefaultStorageBroker implements StorageBroker {
     }
 
     public boolean getTransient(TileObject tile) {
-        String key = TransientCache.computeTransientKey(tile);
         Resource resource;
-        synchronized (transientCache) {
-            resource = transientCache.get(key);
+        if (transientCache.isThreadSafe()) {
+            resource = transientCache.get(tile);
+        } else {
+            synchronized (transientCache) {
+                resource = transientCache.get(tile);
+            }
         }
         tile.setBlob(resource); 
         return resource != null;
     }
 
     public void putTransient(TileObject tile) {
-        String key = TransientCache.computeTransientKey(tile);
-        synchronized (transientCache) {
-            transientCache.put(key, tile.getBlob());
+        if (transientCache.isThreadSafe()) {
+            transientCache.put(tile);
+        } else {
+            synchronized (transientCache) {
+                transientCache.put(tile);
+            }
         }
     }
 
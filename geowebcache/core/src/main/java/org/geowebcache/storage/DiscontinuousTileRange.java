@@ -48,6 +48,13 @@ public class DiscontinuousTileRange extends TileRange {
         this.mask = rasterMask;
     }
 
+    /**
+     * @return the mask filtering the tiles of the range
+     */
+    public TileRangeMask getMask() {
+        return mask;
+    }
+
     @Override
     public boolean contains(long x, long y, int z) {
         if (super.contains(x, y, z)) {
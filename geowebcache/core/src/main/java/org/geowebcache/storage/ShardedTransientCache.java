@@ -0,0 +1,306 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.blobstore.file.FilePathGenerator;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Thread safe {@link TransientCache} splitting its entries across independently locked shards,
+ * so that concurrent requests to meta tile cache only layers don't serialize on a single lock.
+ * <p>
+ * The max tiles, max storage and expire delay limits apply to the cache as a whole, as with
+ * {@link TransientCache}: when a put exceeds them the oldest entries of the shard the put went to
+ * are evicted first, then the oldest of the other shards, so eviction is first in first out per
+ * shard and approximately so across the cache.
+ * </p>
+ * <p>
+ * Tiles are keyed by their layer, grid set, format, parameters id and index rather than by their
+ * {@link #computeTransientKey(TileObject) path}, and their contents are copied once straight into
+ * an array of the exact size, which is handed out as is on {@link #get(TileObject)}.
+ * </p>
+ */
+public class ShardedTransientCache extends TransientCache {
+
+    private static final int DEFAULT_SHARDS = 16;
+
+    private final int maxTiles;
+
+    private final long maxStorage;
+
+    private final long expireDelay;
+
+    private final Shard[] shards;
+
+    private final int shardMask;
+
+    private final AtomicInteger tileCount = new AtomicInteger();
+
+    private final AtomicLong currentStorage = new AtomicLong();
+
+    /**
+     * @param maxTiles Maximum number of tiles in cache
+     * @param maxStorageKB Maximum size of cached data in KiB
+     * @param expireDelay Duration for which the cached resource is valid in ms
+     */
+    public ShardedTransientCache(int maxTiles, int maxStorageKB, long expireDelay) {
+        this(maxTiles, maxStorageKB, expireDelay, DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param maxTiles Maximum number of tiles in cache
+     * @param maxStorageKB Maximum size of cached data in KiB
+     * @param expireDelay Duration for which the cached resource is valid in ms
+     * @param shards Number of shards, rounded up to a power of two
+     */
+    public ShardedTransientCache(int maxTiles, int maxStorageKB, long expireDelay, int shards) {
+        super(maxTiles, maxStorageKB, expireDelay);
+        Preconditions.checkArgument(shards > 0, "shards must be a positive integer");
+        this.maxTiles = maxTiles;
+        this.maxStorage = maxStorageKB * 1024L;
+        this.expireDelay = expireDelay;
+        int count = Integer.highestOneBit(shards);
+        if (count < shards) {
+            count <<= 1;
+        }
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.shardMask = count - 1;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return tileCount.get();
+    }
+
+    @Override
+    public long storageSize() {
+        return currentStorage.get();
+    }
+
+    @Override
+    public void put(TileObject tile) {
+        put(new TileKey(tile), tile.getBlob());
+    }
+
+    @Override
+    public Resource get(TileObject tile) {
+        return get(new TileKey(tile));
+    }
+
+    @Override
+    public void put(String key, Resource r) {
+        put((Object) key, r);
+    }
+
+    @Override
+    public Resource get(String key) {
+        return get((Object) key);
+    }
+
+    private void put(final Object key, final Resource r) {
+        final CachedResource cached = new CachedResource(copy(r), currentTime());
+        final int index = shardIndex(key);
+        final Shard shard = shards[index];
+        synchronized (shard) {
+            CachedResource previous = shard.entries.put(key, cached);
+            if (previous != null) {
+                released(previous);
+            }
+            tileCount.incrementAndGet();
+            currentStorage.addAndGet(cached.size);
+        }
+        evict(index);
+    }
+
+    private Resource get(final Object key) {
+        final Shard shard = shards[shardIndex(key)];
+        final CachedResource cached;
+        synchronized (shard) {
+            cached = shard.entries.remove(key);
+            if (cached == null) {
+                return null;
+            }
+            released(cached);
+        }
+        if (cached.time + expireDelay < currentTime()) {
+            return null;
+        }
+        return cached.content;
+    }
+
+    private void released(final CachedResource cached) {
+        tileCount.decrementAndGet();
+        currentStorage.addAndGet(-cached.size);
+    }
+
+    /**
+     * Evicts the oldest entries while the cache exceeds its limits, starting with the given shard
+     * and holding a single shard lock at a time
+     */
+    private void evict(final int startIndex) {
+        for (int i = 0; i < shards.length && overLimits(); i++) {
+            final Shard shard = shards[(startIndex + i) & shardMask];
+            synchronized (shard) {
+                Iterator<CachedResource> items = shard.entries.values().iterator();
+                while (items.hasNext() && overLimits()) {
+                    CachedResource cached = items.next();
+                    items.remove();
+                    released(cached);
+                }
+            }
+        }
+    }
+
+    private boolean overLimits() {
+        return currentStorage.get() > maxStorage || tileCount.get() > maxTiles;
+    }
+
+    private int shardIndex(final Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & shardMask;
+    }
+
+    /**
+     * Copies the resource contents once into an array of the exact size. The resource can't be
+     * retained as is, tile layers reuse their encoding buffers.
+     */
+    private static ByteArrayResource copy(final Resource r) {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) r.getSize());
+        try {
+            r.transferTo(new WritableByteChannel() {
+
+                public boolean isOpen() {
+                    return true;
+                }
+
+                public void close() {
+                }
+
+                public int write(ByteBuffer src) {
+                    int remaining = src.remaining();
+                    buffer.put(src);
+                    return remaining;
+                }
+            });
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return new ByteArrayResource(buffer.array());
+    }
+
+    private static final class Shard {
+        final LinkedHashMap<Object, CachedResource> entries =
+                new LinkedHashMap<Object, CachedResource>();
+    }
+
+    private static final class CachedResource {
+        final Resource content;
+
+        final long size;
+
+        final long time;
+
+        CachedResource(Resource content, long time) {
+            this.content = content;
+            this.size = content.getSize();
+            this.time = time;
+        }
+    }
+
+    /**
+     * Compact tile key sharing the tile identifier strings instead of building its path
+     */
+    static final class TileKey {
+
+        private final String layerName;
+
+        private final String gridSetId;
+
+        private final String format;
+
+        private final String parametersId;
+
+        private final long x;
+
+        private final long y;
+
+        private final long z;
+
+        private final int hash;
+
+        TileKey(TileObject tile) {
+            this.layerName = tile.getLayerName();
+            this.gridSetId = tile.getGridSetId();
+            this.format = tile.getBlobFormat();
+            String parametersId = tile.getParametersId();
+            Map<String, String> parameters = tile.getParameters();
+            if (parametersId == null && parameters != null && !parameters.isEmpty()) {
+                parametersId = FilePathGenerator.getParametersId(parameters);
+                tile.setParametersId(parametersId);
+            }
+            this.parametersId = parametersId;
+            long[] xyz = tile.getXYZ();
+            this.x = xyz[0];
+            this.y = xyz[1];
+            this.z = xyz[2];
+            int h = Objects.hashCode(layerName, gridSetId, format, parametersId);
+            h = 31 * h + (int) (x ^ (x >>> 32));
+            h = 31 * h + (int) (y ^ (y >>> 32));
+            this.hash = 31 * h + (int) z;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey k = (TileKey) o;
+            return hash == k.hash && x == k.x && y == k.y && z == k.z
+                    && layerName.equals(k.layerName) && Objects.equal(gridSetId, k.gridSetId)
+                    && Objects.equal(format, k.format)
+                    && Objects.equal(parametersId, k.parametersId);
+        }
+    }
+}
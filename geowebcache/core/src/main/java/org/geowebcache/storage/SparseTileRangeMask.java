@@ -0,0 +1,679 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link TileRangeMask} keeping the set tiles of each zoom level in a sparse bitset, made of
+ * blocks of 64x64 tiles that are only allocated once one of their tiles is set.
+ * <p>
+ * Unlike {@link RasterMask}, memory use depends on the number of areas set rather than on the
+ * size of the grid, so deep levels can be masked. As with {@link RasterMask}, levels past the
+ * {@code maxMaskLevel} are not stored, their lookups are answered from the last masked level.
+ * </p>
+ * <p>
+ * Each block picks the most compact of three containers, much like roaring bitmaps do: a sorted
+ * array of the set tiles when there are few, a bitmap with a long per row otherwise, and a single
+ * shared instance for the blocks whose tiles are all set. The set tiles can be walked in row-major
+ * order with {@link #nextSetRow} and {@link #nextSetColumn}, which {@link TileRangeIterator} uses
+ * to skip the empty areas of a {@link DiscontinuousTileRange} instead of looking up every tile.
+ * </p>
+ * <p>
+ * The mask is meant to be filled by a single thread and then handed to the seeding tasks, which
+ * may look it up concurrently as long as it is no longer modified.
+ * </p>
+ */
+public class SparseTileRangeMask implements TileRangeMask {
+
+    static final int BLOCK_SHIFT = 6;
+
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    /**
+     * Number of tiles up to which a block is kept as an array, past it the array would take more
+     * memory than the bitmap
+     */
+    static final int ARRAY_MAX = BLOCK_SIZE * BLOCK_SIZE / 16;
+
+    private final long[][] fullCoverage;
+
+    private final int maxMaskLevel;
+
+    /**
+     * By zoom level blocks of tiles, keyed by their {@link #blockKey(long, long) block key}
+     */
+    private final Map<Long, Block>[] levels;
+
+    /**
+     * By zoom level block keys in ascending, hence row-major, order, computed on demand
+     */
+    private final long[][] sortedKeys;
+
+    /**
+     * Bounds of the set tiles, computed on demand and read without locking by {@link #lookup},
+     * never handed out to the callers
+     */
+    private volatile long[][] coveredBounds;
+
+    /**
+     * @param fullCoverage
+     *            the grid subset coverages, as {@code minx, miny, maxx, maxy, z} per zoom level
+     * @param maxMaskLevel
+     *            the last zoom level masked, deeper levels are looked up at this level
+     */
+    @SuppressWarnings("unchecked")
+    public SparseTileRangeMask(final long[][] fullCoverage, final int maxMaskLevel) {
+        Preconditions.checkNotNull(fullCoverage, "fullCoverage is null");
+        Preconditions.checkArgument(maxMaskLevel >= 0, "maxMaskLevel shall be >= 0");
+        this.fullCoverage = fullCoverage;
+        this.maxMaskLevel = Math.min(maxMaskLevel, fullCoverage.length - 1);
+        this.levels = new Map[this.maxMaskLevel + 1];
+        this.sortedKeys = new long[this.maxMaskLevel + 1][];
+        for (int z = 0; z <= this.maxMaskLevel; z++) {
+            levels[z] = new HashMap<Long, Block>();
+        }
+    }
+
+    /**
+     * @return the last zoom level masked
+     */
+    public int getMaxMaskLevel() {
+        return maxMaskLevel;
+    }
+
+    /**
+     * @return the grid subset coverages the mask was created for
+     */
+    public long[][] getFullCoverage() {
+        return fullCoverage;
+    }
+
+    /**
+     * Blocks are keyed by row first so that sorting the keys sorts the blocks in row-major order
+     */
+    private static long blockKey(long blockX, long blockY) {
+        return (blockY << 32) | (blockX & 0xFFFFFFFFL);
+    }
+
+    private static long blockY(long key) {
+        return key >> 32;
+    }
+
+    private static long blockX(long key) {
+        return (int) key;
+    }
+
+    private synchronized void modified(final int z) {
+        sortedKeys[z] = null;
+        coveredBounds = null;
+    }
+
+    private synchronized long[] sortedKeys(final int z) {
+        if (sortedKeys[z] == null) {
+            long[] keys = new long[levels[z].size()];
+            int i = 0;
+            for (Long key : levels[z].keySet()) {
+                keys[i++] = key.longValue();
+            }
+            Arrays.sort(keys);
+            sortedKeys[z] = keys;
+        }
+        return sortedKeys[z];
+    }
+
+    /**
+     * Sets a tile of a masked zoom level, tiles outside the level coverage are ignored
+     */
+    public void set(final long x, final long y, final int z) {
+        setRange(x, x, y, z);
+    }
+
+    /**
+     * Sets the tiles of a row of a masked zoom level, from {@code minX} to {@code maxX} inclusive,
+     * clipping them to the level coverage
+     */
+    public void setRange(long minX, long maxX, final long y, final int z) {
+        Preconditions.checkArgument(z <= maxMaskLevel, "level %s is not masked", z);
+        final long[] coverage = fullCoverage[z];
+        minX = Math.max(minX, coverage[0]);
+        maxX = Math.min(maxX, coverage[2]);
+        if (minX > maxX || y < coverage[1] || y > coverage[3]) {
+            return;
+        }
+        final Map<Long, Block> blocks = levels[z];
+        final long blockY = y >> BLOCK_SHIFT;
+        final int row = (int) (y & BLOCK_MASK);
+        for (long blockX = minX >> BLOCK_SHIFT; blockX <= maxX >> BLOCK_SHIFT; blockX++) {
+            final long blockMinX = blockX << BLOCK_SHIFT;
+            final int from = (int) (Math.max(minX, blockMinX) - blockMinX);
+            final int to = (int) (Math.min(maxX, blockMinX + BLOCK_MASK) - blockMinX);
+            final long bits = (-1L >>> (BLOCK_MASK - to + from)) << from;
+
+            final Long key = Long.valueOf(blockKey(blockX, blockY));
+            final Block block = blocks.get(key);
+            final Block updated = block == null ? new ArrayBlock(row, bits) : block.add(row, bits);
+            if (updated != block) {
+                blocks.put(key, updated);
+            }
+        }
+        modified(z);
+    }
+
+    private boolean isSet(final long x, final long y, final int z) {
+        final Block block = levels[z].get(Long.valueOf(blockKey(x >> BLOCK_SHIFT,
+                y >> BLOCK_SHIFT)));
+        return block != null && block.contains((int) (x & BLOCK_MASK), (int) (y & BLOCK_MASK));
+    }
+
+    public boolean lookup(final long x, final long y, final int z) {
+        long[][] covered = coveredBounds;
+        if (covered == null) {
+            covered = coveredBounds();
+        }
+        final long[] bounds = covered[z];
+        if (x < bounds[0] || x > bounds[2] || y < bounds[1] || y > bounds[3]) {
+            return false;
+        }
+        if (z <= maxMaskLevel) {
+            return isSet(x, y, z);
+        }
+        // downsample as RasterMask does
+        return isSet(downsample(x, z, 0), downsample(y, z, 1), maxMaskLevel);
+    }
+
+    /**
+     * Returns the first row at or after {@code fromY} with a set tile. Deeper levels than the
+     * {@link #getMaxMaskLevel() max mask level} are answered from it, returning the first row that
+     * downsamples to a row with set tiles.
+     *
+     * @return the row index, or {@code -1} if there are no more rows with set tiles
+     */
+    public long nextSetRow(final long fromY, final int z) {
+        if (z <= maxMaskLevel) {
+            return nextSetRowMasked(fromY, z);
+        }
+        for (long y = fromY; y <= fullCoverage[z][3];) {
+            final long low = downsample(y, z, 1);
+            final long next = nextSetRowMasked(low, maxMaskLevel);
+            if (next < 0) {
+                return -1;
+            }
+            if (next == low) {
+                return y;
+            }
+            y = Math.max(y + 1, upsample(next, z, 1));
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first column at or after {@code fromX} with a set tile on row {@code y}. Deeper
+     * levels than the {@link #getMaxMaskLevel() max mask level} are answered from it, returning
+     * the first column that downsamples to a set tile.
+     *
+     * @return the column index, or {@code -1} if there are no more set tiles on the row
+     */
+    public long nextSetColumn(final long fromX, final long y, final int z) {
+        if (z <= maxMaskLevel) {
+            return nextSetColumnMasked(fromX, y, z);
+        }
+        final long lowY = downsample(y, z, 1);
+        for (long x = fromX; x <= fullCoverage[z][2];) {
+            final long low = downsample(x, z, 0);
+            final long next = nextSetColumnMasked(low, lowY, maxMaskLevel);
+            if (next < 0) {
+                return -1;
+            }
+            if (next == low) {
+                return x;
+            }
+            x = Math.max(x + 1, upsample(next, z, 0));
+        }
+        return -1;
+    }
+
+    private long nextSetRowMasked(final long fromY, final int z) {
+        final long[] keys = sortedKeys(z);
+        final long fromBlockY = fromY >> BLOCK_SHIFT;
+        int i = lowerBound(keys, blockKey(0, fromBlockY));
+        while (i < keys.length) {
+            // rows set on any of the blocks of the same block row
+            final long blockY = blockY(keys[i]);
+            long rows = 0;
+            for (; i < keys.length && blockY(keys[i]) == blockY; i++) {
+                rows |= levels[z].get(Long.valueOf(keys[i])).rows();
+            }
+            if (blockY == fromBlockY) {
+                rows &= -1L << (fromY & BLOCK_MASK);
+            }
+            if (rows != 0) {
+                return (blockY << BLOCK_SHIFT) + Long.numberOfTrailingZeros(rows);
+            }
+        }
+        return -1;
+    }
+
+    private long nextSetColumnMasked(final long fromX, final long y, final int z) {
+        final long[] keys = sortedKeys(z);
+        final long blockY = y >> BLOCK_SHIFT;
+        final int row = (int) (y & BLOCK_MASK);
+        final long fromBlockX = fromX >> BLOCK_SHIFT;
+        for (int i = lowerBound(keys, blockKey(fromBlockX, blockY)); i < keys.length
+                && blockY(keys[i]) == blockY; i++) {
+            final long blockX = blockX(keys[i]);
+            long bits = levels[z].get(Long.valueOf(keys[i])).row(row);
+            if (blockX == fromBlockX) {
+                bits &= -1L << (fromX & BLOCK_MASK);
+            }
+            if (bits != 0) {
+                return (blockX << BLOCK_SHIFT) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first key greater than or equal to {@code key}
+     */
+    private static int lowerBound(final long[] keys, final long key) {
+        int i = Arrays.binarySearch(keys, key);
+        return i < 0 ? -(i + 1) : i;
+    }
+
+    /**
+     * Ratio of the extent of the last masked level to the one of the given level, along the
+     * given axis
+     */
+    private double ratio(final int z, final int axis) {
+        final double requested = fullCoverage[z][axis + 2] - fullCoverage[z][axis];
+        final double available = fullCoverage[maxMaskLevel][axis + 2]
+                - fullCoverage[maxMaskLevel][axis];
+        return requested == 0 ? 0 : available / requested;
+    }
+
+    private long downsample(final long index, final int z, final int axis) {
+        return Math.round(index * ratio(z, axis));
+    }
+
+    /**
+     * @return the first index of level {@code z} that downsamples to {@code index}, or past it
+     */
+    private long upsample(final long index, final int z, final int axis) {
+        final double ratio = ratio(z, axis);
+        return ratio == 0 ? Long.MAX_VALUE : (long) Math.ceil((index - 0.5) / ratio);
+    }
+
+    /**
+     * @return {@code true} if no tile is set
+     */
+    public boolean isEmpty() {
+        for (Map<Long, Block> blocks : levels) {
+            if (!blocks.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of tiles set on the masked levels
+     */
+    public long cardinality() {
+        long count = 0;
+        for (Map<Long, Block> blocks : levels) {
+            for (Block block : blocks.values()) {
+                count += block.cardinality();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets all the tiles set on the other mask, which shall have the same masked levels
+     */
+    public void addAll(final SparseTileRangeMask other) {
+        Preconditions.checkArgument(other.maxMaskLevel == maxMaskLevel,
+                "masks have different masked levels");
+        for (int z = 0; z <= maxMaskLevel; z++) {
+            for (Map.Entry<Long, Block> e : other.levels[z].entrySet()) {
+                final Block block = levels[z].get(e.getKey());
+                final long[] bits = e.getValue().toBits();
+                if (block != null) {
+                    for (int row = 0; row < BLOCK_SIZE; row++) {
+                        bits[row] |= block.row(row);
+                    }
+                }
+                levels[z].put(e.getKey(), Block.valueOf(bits));
+            }
+            modified(z);
+        }
+    }
+
+    /**
+     * Clears all the tiles set on the other mask, which shall have the same masked levels
+     */
+    public void removeAll(final SparseTileRangeMask other) {
+        Preconditions.checkArgument(other.maxMaskLevel == maxMaskLevel,
+                "masks have different masked levels");
+        for (int z = 0; z <= maxMaskLevel; z++) {
+            for (Iterator<Map.Entry<Long, Block>> it = levels[z].entrySet().iterator(); it
+                    .hasNext();) {
+                Map.Entry<Long, Block> e = it.next();
+                final Block otherBlock = other.levels[z].get(e.getKey());
+                if (otherBlock == null) {
+                    continue;
+                }
+                final long[] bits = e.getValue().toBits();
+                for (int row = 0; row < BLOCK_SIZE; row++) {
+                    bits[row] &= ~otherBlock.row(row);
+                }
+                final Block remaining = Block.valueOf(bits);
+                if (remaining == null) {
+                    it.remove();
+                } else {
+                    e.setValue(remaining);
+                }
+            }
+            modified(z);
+        }
+    }
+
+    /**
+     * @return by zoom level bounds of the set tiles as {@code minx, miny, maxx, maxy, z}; the
+     *         levels with no tile set get an empty range, whose max is lower than its min, so
+     *         that a {@link DiscontinuousTileRange} still has bounds for all of them. The
+     *         arrays are a copy the caller is free to modify.
+     */
+    public long[][] getGridCoverages() {
+        final long[][] covered = coveredBounds();
+        final long[][] copy = new long[covered.length][];
+        for (int z = 0; z < covered.length; z++) {
+            copy[z] = covered[z].clone();
+        }
+        return copy;
+    }
+
+    private synchronized long[][] coveredBounds() {
+        if (coveredBounds == null) {
+            coveredBounds = computeCoveredBounds();
+        }
+        return coveredBounds;
+    }
+
+    private long[][] computeCoveredBounds() {
+        final long[][] bounds = new long[fullCoverage.length][];
+        for (int z = 0; z <= maxMaskLevel; z++) {
+            long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE;
+            long maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+            for (Map.Entry<Long, Block> e : levels[z].entrySet()) {
+                final long blockMinX = blockX(e.getKey().longValue()) << BLOCK_SHIFT;
+                final long blockMinY = blockY(e.getKey().longValue()) << BLOCK_SHIFT;
+                final Block block = e.getValue();
+                final long rows = block.rows();
+                long columns = 0;
+                for (int row = 0; row < BLOCK_SIZE; row++) {
+                    columns |= block.row(row);
+                }
+                minX = Math.min(minX, blockMinX + Long.numberOfTrailingZeros(columns));
+                maxX = Math.max(maxX, blockMinX + BLOCK_MASK - Long.numberOfLeadingZeros(columns));
+                minY = Math.min(minY, blockMinY + Long.numberOfTrailingZeros(rows));
+                maxY = Math.max(maxY, blockMinY + BLOCK_MASK - Long.numberOfLeadingZeros(rows));
+            }
+            bounds[z] = minX <= maxX ? new long[] { minX, minY, maxX, maxY, z } : emptyBounds(z);
+        }
+        final long[] last = bounds[maxMaskLevel];
+        for (int z = maxMaskLevel + 1; z < fullCoverage.length; z++) {
+            if (last[0] > last[2]) {
+                bounds[z] = emptyBounds(z);
+            } else {
+                // the tiles that downsample to the last masked level bounds
+                bounds[z] = new long[] { upsampleMin(last[0], z, 0), upsampleMin(last[1], z, 1),
+                        upsampleMax(last[2], z, 0), upsampleMax(last[3], z, 1), z };
+            }
+        }
+        return bounds;
+    }
+
+    private long[] emptyBounds(final int z) {
+        final long[] coverage = fullCoverage[z];
+        return new long[] { coverage[0], coverage[1], coverage[0] - 1, coverage[1] - 1, z };
+    }
+
+    private long upsampleMin(final long index, final int z, final int axis) {
+        final double ratio = ratio(z, axis);
+        long min = ratio == 0 ? fullCoverage[z][axis] : upsample(index, z, axis);
+        return Math.max(min, fullCoverage[z][axis]);
+    }
+
+    private long upsampleMax(final long index, final int z, final int axis) {
+        final double ratio = ratio(z, axis);
+        long max = ratio == 0 ? fullCoverage[z][axis + 2] : upsample(index + 1, z, axis) - 1;
+        return Math.min(max, fullCoverage[z][axis + 2]);
+    }
+
+    /**
+     * The set tiles of a block of 64x64 tiles, addressed by column and row within the block
+     */
+    abstract static class Block {
+
+        /**
+         * @return the tiles set on a row, column {@code i} being bit {@code i}
+         */
+        abstract long row(int row);
+
+        abstract int cardinality();
+
+        /**
+         * Sets the given columns of a row
+         *
+         * @return the block holding the result, which may be this same one or a new container
+         */
+        abstract Block add(int row, long columns);
+
+        boolean contains(int column, int row) {
+            return (row(row) & (1L << column)) != 0;
+        }
+
+        /**
+         * @return the rows with tiles set, row {@code i} being bit {@code i}
+         */
+        long rows() {
+            long rows = 0;
+            for (int row = 0; row < BLOCK_SIZE; row++) {
+                if (row(row) != 0) {
+                    rows |= 1L << row;
+                }
+            }
+            return rows;
+        }
+
+        /**
+         * @return a new array with a long per row
+         */
+        long[] toBits() {
+            long[] bits = new long[BLOCK_SIZE];
+            for (int row = 0; row < BLOCK_SIZE; row++) {
+                bits[row] = row(row);
+            }
+            return bits;
+        }
+
+        /**
+         * @return the most compact container for the given rows, or {@code null} if no tile is set
+         */
+        static Block valueOf(final long[] bits) {
+            int cardinality = 0;
+            for (long row : bits) {
+                cardinality += Long.bitCount(row);
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            if (cardinality == BLOCK_SIZE * BLOCK_SIZE) {
+                return FullBlock.INSTANCE;
+            }
+            if (cardinality <= ARRAY_MAX) {
+                return new ArrayBlock(bits, cardinality);
+            }
+            return new BitmapBlock(bits, cardinality);
+        }
+    }
+
+    /**
+     * A block with few tiles set, kept as the sorted {@code row * 64 + column} offsets of the set
+     * tiles
+     */
+    static final class ArrayBlock extends Block {
+
+        private final short[] offsets;
+
+        ArrayBlock(final int row, final long columns) {
+            offsets = new short[Long.bitCount(columns)];
+            int i = 0;
+            for (long bits = columns; bits != 0; bits &= bits - 1) {
+                offsets[i++] = (short) ((row << BLOCK_SHIFT) + Long.numberOfTrailingZeros(bits));
+            }
+        }
+
+        ArrayBlock(final long[] bits, final int cardinality) {
+            offsets = new short[cardinality];
+            int i = 0;
+            for (int row = 0; row < BLOCK_SIZE; row++) {
+                for (long columns = bits[row]; columns != 0; columns &= columns - 1) {
+                    offsets[i++] = (short) ((row << BLOCK_SHIFT) + Long
+                            .numberOfTrailingZeros(columns));
+                }
+            }
+        }
+
+        @Override
+        long row(final int row) {
+            final short first = (short) (row << BLOCK_SHIFT);
+            int i = Arrays.binarySearch(offsets, first);
+            long columns = 0;
+            for (i = i < 0 ? -(i + 1) : i; i < offsets.length
+                    && offsets[i] >> BLOCK_SHIFT == row; i++) {
+                columns |= 1L << (offsets[i] & BLOCK_MASK);
+            }
+            return columns;
+        }
+
+        @Override
+        boolean contains(final int column, final int row) {
+            return Arrays.binarySearch(offsets, (short) ((row << BLOCK_SHIFT) + column)) >= 0;
+        }
+
+        @Override
+        long rows() {
+            long rows = 0;
+            for (short offset : offsets) {
+                rows |= 1L << (offset >> BLOCK_SHIFT);
+            }
+            return rows;
+        }
+
+        @Override
+        int cardinality() {
+            return offsets.length;
+        }
+
+        @Override
+        Block add(final int row, final long columns) {
+            if ((row(row) | columns) == row(row)) {
+                return this;
+            }
+            long[] bits = toBits();
+            bits[row] |= columns;
+            return valueOf(bits);
+        }
+    }
+
+    /**
+     * A block with many tiles set, kept as a long per row
+     */
+    static final class BitmapBlock extends Block {
+
+        private final long[] bits;
+
+        private int cardinality;
+
+        BitmapBlock(final long[] bits, final int cardinality) {
+            this.bits = bits;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        long row(final int row) {
+            return bits[row];
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Block add(final int row, final long columns) {
+            final long updated = bits[row] | columns;
+            cardinality += Long.bitCount(updated) - Long.bitCount(bits[row]);
+            bits[row] = updated;
+            return cardinality == BLOCK_SIZE * BLOCK_SIZE ? FullBlock.INSTANCE : this;
+        }
+    }
+
+    /**
+     * A block with all of its tiles set, shared by all such blocks
+     */
+    static final class FullBlock extends Block {
+
+        static final FullBlock INSTANCE = new FullBlock();
+
+        private FullBlock() {
+        }
+
+        @Override
+        long row(final int row) {
+            return -1L;
+        }
+
+        @Override
+        boolean contains(final int column, final int row) {
+            return true;
+        }
+
+        @Override
+        long rows() {
+            return -1L;
+        }
+
+        @Override
+        int cardinality() {
+            return BLOCK_SIZE * BLOCK_SIZE;
+        }
+
+        @Override
+        Block add(final int row, final long columns) {
+            return this;
+        }
+    }
+}
@@ -25,6 +25,12 @@ public class TileRangeIterator {
 
     final private DiscontinuousTileRange dtr;
 
+    /**
+     * The mask of {@link #dtr} if it can tell where its next set tiles are, so that the empty
+     * areas are skipped instead of checking every location
+     */
+    final private SparseTileRangeMask sparseMask;
+
     final private int metaX;
 
     final private int metaY;
@@ -52,6 +58,11 @@ public class TileRangeIterator {
         } else {
             dtr = null;
         }
+        if (dtr != null && dtr.getMask() instanceof SparseTileRangeMask) {
+            sparseMask = (SparseTileRangeMask) dtr.getMask();
+        } else {
+            sparseMask = null;
+        }
     }
 
     /**
@@ -100,7 +111,19 @@ public class TileRangeIterator {
         // Loop over any remaining zoom levels
         for (; z <= tr.getZoomStop(); z++) {
             for (; y <= levelBounds[3]; y += metaY) {
+                if (sparseMask != null && x == levelBounds[0]) {
+                    y = skipToNextSetRow(y, z, levelBounds);
+                    if (y > levelBounds[3]) {
+                        break;
+                    }
+                }
                 for (; x <= levelBounds[2]; x += metaX) {
+                    if (sparseMask != null) {
+                        x = skipToNextSetColumn(x, y, z, levelBounds);
+                        if (x > levelBounds[2]) {
+                            break;
+                        }
+                    }
 
                     gridLoc[0] = x;
                     gridLoc[1] = y;
@@ -130,6 +153,46 @@ public class TileRangeIterator {
         return null;
     }
 
+    /**
+     * Returns the first meta tile row at or after {@code y} with set tiles, accounting the tiles
+     * of the rows skipped
+     * 
+     * @return the meta tile row, or a row past the level bounds if there are no more set tiles
+     */
+    private long skipToNextSetRow(final long y, final int z, final long[] levelBounds) {
+        long next = sparseMask.nextSetRow(y, z);
+        if (next < 0 || next > levelBounds[3]) {
+            next = levelBounds[3] + 1;
+        }
+        final long metaRow = y + ((next - y) / metaY) * metaY;
+        tilesSkippedCount.addAndGet((1 + levelBounds[2] - levelBounds[0])
+                * (Math.min(metaRow, levelBounds[3] + 1) - y));
+        return metaRow;
+    }
+
+    /**
+     * Returns the first meta tile at or after column {@code x} on the meta tile row starting at
+     * {@code y} with set tiles, accounting the tiles of the meta tiles skipped
+     * 
+     * @return the meta tile column, or a column past the level bounds if there are no more set
+     *         tiles on the meta tile row
+     */
+    private long skipToNextSetColumn(final long x, final long y, final int z,
+            final long[] levelBounds) {
+        final long maxRow = Math.min(y + metaY - 1, levelBounds[3]);
+        long next = levelBounds[2] + 1;
+        for (long row = y; row <= maxRow; row++) {
+            long column = sparseMask.nextSetColumn(x, row, z);
+            if (column >= 0 && column < next) {
+                next = column;
+            }
+        }
+        final long metaColumn = x + ((next - x) / metaX) * metaX;
+        tilesSkippedCount.addAndGet((Math.min(metaColumn, levelBounds[2] + 1) - x)
+                * (1 + maxRow - y));
+        return metaColumn;
+    }
+
     /**
      * Calculates the number of tiles covered by the meta tile for this grid location.
      * 
@@ -136,6 +136,32 @@ public class TransientCache {
         return null;
     }
     
+    /**
+     * Store the resource of a tile under its {@link #computeTransientKey(TileObject) key}
+     * @param tile the tile whose blob to cache
+     */
+    public void put(TileObject tile) {
+        put(computeTransientKey(tile), tile.getBlob());
+    }
+
+    /**
+     * Retrieve the resource of a tile
+     * @param tile
+     * @return The resource cached for the tile, or null if no resource is cached.
+     */
+    public Resource get(TileObject tile) {
+        return get(computeTransientKey(tile));
+    }
+
+    /**
+     * Whether the cache can be used concurrently without external synchronization.  This one
+     * can't.
+     * @return
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * A timestamp in milliseconds
      * @return
@@ -490,6 +490,7 @@ public class MemoryBlobStore implements BlobStore, ApplicationContextAware {
         // Creation of a new Resource
         TileObject cached = TileObject.createCompleteTileObject(obj.getLayerName(), obj.getXYZ(),
                 obj.getGridSetId(), obj.getBlobFormat(), obj.getParameters(), finalBlob);
+        cached.setParametersId(obj.getParametersId());
         return cached;
     }
 
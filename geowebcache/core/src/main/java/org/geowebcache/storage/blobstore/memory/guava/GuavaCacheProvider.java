@@ -17,7 +17,6 @@ package org.geowebcache.storage.blobstore.memory.guava;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -34,6 +33,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Logger;
 import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.blobstore.file.FilePathGenerator;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration;
 import org.geowebcache.storage.blobstore.memory.CacheConfiguration.EvictionPolicy;
 import org.geowebcache.storage.blobstore.memory.CacheProvider;
@@ -492,17 +492,19 @@ public class GuavaCacheProvider implements CacheProvider {
      * @return {@link TileObject} key
      */
     public static String generateTileKey(TileObject obj) {
-        Map<String, String> parameters = obj.getParameters();
+        String parametersId = obj.getParametersId();
+        if (parametersId == null) {
+            // not known by the layer, e.g. a tile to remove
+            parametersId = FilePathGenerator.getParametersId(obj.getParameters());
+        }
         
         StringBuilder builder = new StringBuilder(obj.getLayerName()).append(SEPARATOR).append(obj.getGridSetId())
                 .append(SEPARATOR).append(Arrays.toString(obj.getXYZ())).append(SEPARATOR)
                 .append(obj.getBlobFormat());
         
         // If parameters are present they must be handled
-        if(parameters != null && !parameters.isEmpty()){
-            for(String key : parameters.keySet()){
-                builder.append(SEPARATOR).append(key).append(SEPARATOR).append(parameters.get(key));
-            }
+        if (parametersId != null) {
+            builder.append(SEPARATOR).append(parametersId);
         }
         
         return builder.toString();
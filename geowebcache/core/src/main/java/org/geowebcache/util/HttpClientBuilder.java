@@ -149,7 +149,17 @@ public class HttpClientBuilder {
      * @return the generated HttpClient
      */
     public HttpClient buildClient() {
-        HttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        return buildClient(buildConnectionManager());
+    }
+
+    /**
+     * Builds a connection manager allowing as many connections as the builder concurrency,
+     * with the builder timeouts
+     * 
+     * @return the connection manager, not shared with any client yet
+     */
+    public MultiThreadedHttpConnectionManager buildConnectionManager() {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
 
         HttpConnectionManagerParams params = new HttpConnectionManagerParams();
         params.setSoTimeout(backendTimeoutMillis);
@@ -161,7 +171,17 @@ public class HttpClientBuilder {
         }
         
         connectionManager.setParams(params);
+        return connectionManager;
+    }
 
+    /**
+     * Uses the configuration of this builder to generate a HttpClient on top of the given
+     * connection manager, which may be shared with other clients
+     * 
+     * @param connectionManager
+     * @return the generated HttpClient
+     */
+    public HttpClient buildClient(HttpConnectionManager connectionManager) {
         HttpClient httpClient = new HttpClient(connectionManager);
         
         if (authscope != null && httpcredentials != null) {
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import junit.framework.TestCase;
 
@@ -68,6 +69,26 @@ public class FilePathGeneratorTest extends TestCase {
         testParameterId(path, sha1, "?style=polygon");
     }
 
+    public void testParametersIdRepeated() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("style", "population");
+        params.put("cql_filter", "persons > 1000000");
+        String expected = DigestUtils.shaHex("?cql_filter=persons > 1000000&style=population");
+        
+        assertEquals(expected, FilePathGenerator.getParametersId(params));
+        assertEquals(expected, FilePathGenerator.getParametersId(new TreeMap<String, String>(params)));
+        
+        // modifying the map after the id was computed must not leak into the memoized ids
+        params.put("style", "polygon");
+        assertEquals(DigestUtils.shaHex("?cql_filter=persons > 1000000&style=polygon"),
+                FilePathGenerator.getParametersId(params));
+        params.remove("cql_filter");
+        assertEquals(DigestUtils.shaHex("?style=polygon"), FilePathGenerator.getParametersId(params));
+        
+        assertNull(FilePathGenerator.getParametersId(new HashMap<String, String>()));
+        assertNull(FilePathGenerator.getParametersId(null));
+    }
+
     private void testParameterId(File path, String parameterId, String parameterKvp) throws IOException {
         File expected = new File(testRoot, "states/EPSG_2163_00_" + parameterId + "/0_0/00_00.png");
         assertEquals(expected.getPath(), path.getPath());
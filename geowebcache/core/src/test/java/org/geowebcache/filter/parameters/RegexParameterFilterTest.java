@@ -25,8 +25,14 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.custommonkey.xmlunit.XMLAssert;
 import org.geowebcache.config.XMLConfiguration;
@@ -295,4 +301,63 @@ public class RegexParameterFilterTest {
         assertThat(clone.getNormalize().getConfiguredLocale(), equalTo(filter.getNormalize().getConfiguredLocale()));
         assertThat(clone.getNormalize().getCase(), equalTo(filter.getNormalize().getCase()));
     }
+    
+    @Test
+    public void testRepeatedValuesAfterChange() throws Exception {
+        // Prime the cache of normalized values
+        assertThat(filter.apply("foo"), equalTo("foo"));
+        assertThat(filter.applies("qux"), is(false));
+        
+        filter.setRegex("qux");
+        assertThat(filter.applies("foo"), is(false));
+        assertThat(filter.apply("qux"), equalTo("qux"));
+        
+        filter.setNormalize(new CaseNormalizer(Case.UPPER, Locale.ENGLISH));
+        assertThat(filter.apply("qux"), equalTo("QUX"));
+        assertThat(filter.apply("Qux"), equalTo("QUX"));
+    }
+    
+    @Test
+    public void testFromXMLCaseInsensitiveMatching() throws Exception {
+        RegexParameterFilter o = (RegexParameterFilter) xs.fromXML(
+            "<regexParameterFilter>\n"+
+            "  <key>TEST</key>\n"+
+            "  <defaultValue>Default</defaultValue>\n"+
+            "  <normalize>\n"+
+            "    <case>UPPER</case>\n"+
+            "    <locale>en_CA</locale>\n"+
+            "  </normalize>\n"+
+            "  <regex>foo|Bar|BAZ</regex>\n"+
+            "</regexParameterFilter>");
+        
+        assertThat(o.applies("bar"), is(true));
+        assertThat(o.apply("bar"), equalTo("BAR"));
+        assertThat(o.applies("fooo"), is(false));
+    }
+    
+    @Test
+    public void testConcurrentApply() throws Exception {
+        filter.setNormalize(new CaseNormalizer(Case.UPPER, Locale.ENGLISH));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            assertThat(filter.apply("bAr"), equalTo("BAR"));
+                            assertThat(filter.applies("baz" + j), is(false));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package org.geowebcache.filter.request;
+
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.ImageMime;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RasterFilterTest {
+
+    private GridSubset gridSubset;
+
+    private TileLayer layer;
+
+    private TestRasterFilter filter;
+
+    /**
+     * Loads the image set on {@link #image}, counting the loads
+     */
+    private static class TestRasterFilter extends RasterFilter {
+
+        private static final long serialVersionUID = 1L;
+
+        BufferedImage image;
+
+        int loads;
+
+        @Override
+        protected BufferedImage loadMatrix(TileLayer layer, String gridSetId, int zoomLevel)
+                throws IOException, GeoWebCacheException {
+            loads++;
+            return image;
+        }
+
+        public boolean update(TileLayer layer, String gridSetId) {
+            return false;
+        }
+
+        public void update(TileLayer layer, String gridSetId, int zoomStart, int zoomStop) {
+        }
+
+        public void update(byte[] filterData, TileLayer layer, String gridSetId, int z) {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        gridSubset = GridSubsetFactory.createGridSubSet(new GridSetBroker(false, false).WORLD_EPSG4326);
+        layer = createMock(TileLayer.class);
+        expect(layer.getGridSubset(gridSubset.getName())).andReturn(gridSubset).anyTimes();
+        replay(layer);
+
+        filter = new TestRasterFilter();
+        filter.setZoomStart(0);
+        filter.setZoomStop(2);
+        // level 2 is 8x4 tiles, only the second tile of the bottom row has data
+        filter.image = image(8, 4, 1, 3);
+    }
+
+    /**
+     * @return a white image, but for the black pixel at x, y
+     */
+    private static BufferedImage image(int width, int height, int x, int y) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        image.getRaster().setSample(x, y, 0, 0);
+        return image;
+    }
+
+    private boolean passes(long x, long y, long z) throws Exception {
+        ConveyorTile tile = new ConveyorTile(null, "layer", gridSubset.getName(), new long[] { x,
+                y, z }, ImageMime.png, null, null, null);
+        tile.setTileLayer(layer);
+        try {
+            filter.apply(tile);
+            return true;
+        } catch (BlankTileException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testMatrix() throws Exception {
+        BufferedImage image = image(130, 3, 129, 1);
+        image.getRaster().setSample(64, 2, 0, 0);
+        RasterFilterMatrix matrix = RasterFilterMatrix.compile(image);
+        assertEquals(130, matrix.getWidth());
+        assertEquals(3, matrix.getHeight());
+
+        assertTrue(matrix.hasData(129, 1));
+        assertTrue(matrix.hasData(64, 2));
+        assertFalse(matrix.hasData(128, 1));
+        assertFalse(matrix.hasData(130, 1));
+        assertFalse(matrix.hasData(-1, 0));
+
+        assertTrue(matrix.hasData(0, 0, 200, 10));
+        assertTrue(matrix.hasData(65, 0, 129, 1));
+        assertFalse(matrix.hasData(65, 0, 128, 2));
+        assertTrue(matrix.hasData(63, 2, 64, 2));
+        assertFalse(matrix.hasData(0, 0, 63, 2));
+        assertFalse(matrix.hasData(10, 2, 5, 2));
+    }
+
+    @Test
+    public void testApply() throws Exception {
+        assertTrue(passes(1, 0, 2));
+        assertFalse(passes(2, 0, 2));
+        assertFalse(passes(1, 1, 2));
+
+        // deeper levels are looked up at the zoom stop
+        assertTrue(passes(2, 1, 3));
+        assertTrue(passes(3, 0, 3));
+        assertFalse(passes(6, 6, 3));
+
+        // the matrix is compiled once
+        assertEquals(1, filter.loads);
+    }
+
+    @Test
+    public void testReplaceMatrix() throws Exception {
+        assertTrue(passes(1, 0, 2));
+
+        filter.image = image(8, 4, 7, 0);
+        filter.setMatrix(layer, gridSubset.getName(), 2, false);
+        assertEquals(1, filter.loads);
+        assertTrue(passes(1, 0, 2));
+
+        filter.setMatrix(layer, gridSubset.getName(), 2, true);
+        assertEquals(2, filter.loads);
+        assertFalse(passes(1, 0, 2));
+        assertTrue(passes(7, 3, 2));
+    }
+}
@@ -0,0 +1,156 @@
+package org.geowebcache.layer;
+
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.TileRange;
+import org.geowebcache.util.GWCVars;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlankTileCacheTest {
+
+    private static final byte[] BLANK = { 1, 2, 3 };
+
+    private GridSubset gridSubset;
+
+    private BlankTileCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        GridSetBroker gridSetBroker = new GridSetBroker(false, false);
+        gridSubset = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326);
+        cache = new BlankTileCache(1000, 3600);
+    }
+
+    private TileLayer createLayer(int expireCache) {
+        TileLayer layer = EasyMock.createMock(TileLayer.class);
+        expect(layer.getName()).andReturn("layer").anyTimes();
+        expect(layer.getGridSubset(gridSubset.getName())).andReturn(gridSubset).anyTimes();
+        expect(layer.getExpireCache(anyInt())).andReturn(expireCache).anyTimes();
+        replay(layer);
+        return layer;
+    }
+
+    private ConveyorTile tile(long x, long y, long z, MimeType mimeType) {
+        return new ConveyorTile(null, "layer", gridSubset.getName(), new long[] { x, y, z },
+                mimeType, (Map<String, String>) null, null, null);
+    }
+
+    private boolean isBlank(TileLayer layer, long x, long y, long z) {
+        Resource blank = cache.get(layer, tile(x, y, z, ImageMime.png));
+        if (blank == null) {
+            return false;
+        }
+        assertArrayEquals(BLANK, ((ByteArrayResource) blank).getContents());
+        return true;
+    }
+
+    @Test
+    public void testHierarchicalLookup() throws Exception {
+        TileLayer layer = createLayer(0);
+        cache.put(layer, tile(0, 0, 1, ImageMime.png), new long[][] { { 0, 0, 1 }, { 1, 0, 1 } },
+                BLANK);
+        assertEquals(2, cache.size());
+
+        assertTrue(isBlank(layer, 0, 0, 1));
+        assertTrue(isBlank(layer, 1, 0, 1));
+        // children of the blank tiles
+        assertTrue(isBlank(layer, 1, 1, 2));
+        assertTrue(isBlank(layer, 7, 3, 3));
+        assertTrue(isBlank(layer, 15, 7, 4));
+        assertEquals(5, cache.getHits());
+
+        // neither the other tiles, nor the parent, nor other formats
+        assertFalse(isBlank(layer, 2, 0, 1));
+        assertFalse(isBlank(layer, 8, 0, 3));
+        assertFalse(isBlank(layer, 0, 0, 0));
+        assertNull(cache.get(layer, tile(0, 0, 1, ImageMime.jpeg)));
+    }
+
+    @Test
+    public void testRenderedTileInvalidatesAncestors() throws Exception {
+        TileLayer layer = createLayer(0);
+        cache.put(layer, tile(0, 0, 1, ImageMime.png), new long[][] { { 0, 0, 1 }, { 1, 0, 1 } },
+                BLANK);
+        cache.invalidate(layer, tile(1, 1, 3, ImageMime.png), new long[][] { { 1, 1, 3 } });
+
+        assertFalse(isBlank(layer, 0, 0, 1));
+        assertFalse(isBlank(layer, 0, 0, 2));
+        assertTrue(isBlank(layer, 1, 0, 1));
+        assertTrue(isBlank(layer, 4, 0, 3));
+    }
+
+    @Test
+    public void testTruncateInvalidatesRegion() throws Exception {
+        TileLayer layer = createLayer(0);
+        cache.put(layer, tile(0, 0, 2, ImageMime.png), new long[][] { { 0, 0, 2 }, { 1, 0, 2 },
+                { 0, 1, 2 }, { 1, 1, 2 } }, BLANK);
+        cache.put(layer, tile(8, 0, 5, ImageMime.png), new long[][] { { 8, 0, 5 } }, BLANK);
+        cache.put(layer, tile(0, 0, 1, ImageMime.png), new long[][] { { 0, 0, 1 }, { 1, 0, 1 } },
+                BLANK);
+        cache.put(layer, tile(1, 0, 2, ImageMime.jpeg), new long[][] { { 1, 0, 2 } }, BLANK);
+        assertEquals(8, cache.size());
+
+        TileRange range = new TileRange("layer", gridSubset.getName(), 2, 2,
+                new long[][] { { 1, 0, 1, 1, 2 } }, ImageMime.png, (Map<String, String>) null);
+        cache.invalidate(range);
+
+        assertTrue(isBlank(layer, 0, 0, 2));
+        assertTrue(isBlank(layer, 0, 1, 2));
+        assertFalse(isBlank(layer, 1, 0, 2));
+        assertFalse(isBlank(layer, 1, 1, 2));
+        // the ancestor covering the range is gone, not the other one
+        assertFalse(isBlank(layer, 0, 0, 1));
+        assertTrue(isBlank(layer, 1, 0, 1));
+        // higher zoom levels are not part of the range
+        assertTrue(isBlank(layer, 8, 0, 5));
+        // nor the other formats
+        assertNotNull(cache.get(layer, tile(1, 0, 2, ImageMime.jpeg)));
+        assertEquals(5, cache.size());
+
+        cache.layerDeleted("layer");
+        assertFalse(isBlank(layer, 0, 0, 2));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTruncateOtherParameters() throws Exception {
+        TileLayer layer = createLayer(0);
+        cache.put(layer, tile(0, 0, 1, ImageMime.png), new long[][] { { 0, 0, 1 } }, BLANK);
+
+        TileRange range = new TileRange("layer", gridSubset.getName(), 0, 3, null,
+                ImageMime.png, Collections.singletonMap("STYLES", "other"));
+        cache.invalidate(range);
+        assertTrue(isBlank(layer, 0, 0, 1));
+
+        // no bounds, the whole zoom levels
+        range = new TileRange("layer", gridSubset.getName(), 1, 3, null, null,
+                (Map<String, String>) null);
+        cache.invalidate(range);
+        assertFalse(isBlank(layer, 0, 0, 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLayerExpiration() throws Exception {
+        TileLayer layer = createLayer(GWCVars.CACHE_DISABLE_CACHE);
+        cache.put(layer, tile(0, 0, 1, ImageMime.png), new long[][] { { 0, 0, 1 } }, BLANK);
+        assertFalse(isBlank(layer, 0, 0, 1));
+
+        layer = createLayer(3600);
+        assertTrue(isBlank(layer, 0, 0, 1));
+    }
+}
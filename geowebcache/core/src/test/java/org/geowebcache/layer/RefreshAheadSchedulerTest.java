@@ -0,0 +1,122 @@
+package org.geowebcache.layer;
+
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.layer.RefreshAheadScheduler.FrequencySketch;
+import org.geowebcache.mime.ImageMime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefreshAheadSchedulerTest {
+
+    private static final long MAX_AGE = 100 * 1000;
+
+    private TileLayer layer;
+
+    private TileRefresher refresher;
+
+    private RefreshAheadScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        layer = EasyMock.createMock(TileLayer.class);
+        expect(layer.getName()).andReturn("layer").anyTimes();
+        expect(layer.getMetaTilingFactors()).andReturn(new int[] { 1, 1 }).anyTimes();
+        refresher = new TileRefresher(1, 10);
+        // rate of 2 refreshes per run, 3 hits minimum, last 10% of the tile lifetime
+        scheduler = new RefreshAheadScheduler(refresher, 2, 3, 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.destroy();
+        refresher.destroy();
+    }
+
+    /**
+     * Reports hits on a tile created the given number of seconds ago
+     */
+    private void hit(long x, int ageSeconds, int hits) {
+        for (int i = 0; i < hits; i++) {
+            ConveyorTile tile = new ConveyorTile(null, "layer", "EPSG:4326", new long[] { x, 0,
+                    10 }, ImageMime.png, null, null, null);
+            tile.getStorageObject().setCreated(System.currentTimeMillis() - ageSeconds * 1000L);
+            scheduler.tileHit(layer, tile, MAX_AGE);
+        }
+    }
+
+    @Test
+    public void testHottestExpiringTilesRefreshed() throws Exception {
+        layer.seedTile((ConveyorTile) anyObject(), eq(false));
+        expectLastCall().times(2);
+        replay(layer);
+
+        hit(0, 95, 5);
+        // not hit often enough
+        hit(1, 95, 2);
+        // not close enough to its expiration
+        hit(2, 10, 10);
+        // already expired
+        hit(3, 120, 10);
+        hit(4, 95, 4);
+        hit(5, 95, 3);
+        assertEquals(3, scheduler.getCandidates());
+
+        scheduler.scheduleRefreshes();
+        assertEquals(0, scheduler.getCandidates());
+        assertEquals(2, scheduler.getScheduledRefreshes());
+        assertEquals(1, scheduler.getDeferredRefreshes());
+
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (refresher.getCompletedRefreshes() < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, refresher.getCompletedRefreshes());
+        verify(layer);
+    }
+
+    @Test
+    public void testRateLimitedByRefresherBacklog() throws Exception {
+        replay(layer);
+        TileRefresher busy = EasyMock.createMock(TileRefresher.class);
+        expect(busy.getQueueDepth()).andReturn(2).anyTimes();
+        replay(busy);
+        scheduler = new RefreshAheadScheduler(busy, 2, 1, 10);
+
+        hit(0, 95, 1);
+        scheduler.scheduleRefreshes();
+        assertEquals(0, scheduler.getScheduledRefreshes());
+        assertEquals(1, scheduler.getDeferredRefreshes());
+        verify(busy);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        replay(layer);
+        scheduler = new RefreshAheadScheduler(refresher, 0, 1, 10);
+        assertFalse(scheduler.isEnabled());
+        scheduler.start();
+
+        hit(0, 95, 5);
+        assertEquals(0, scheduler.getCandidates());
+    }
+
+    @Test
+    public void testSketch() throws Exception {
+        FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency("a"));
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, sketch.increment("a"));
+        }
+        assertEquals(1, sketch.increment("b"));
+        assertEquals(10, sketch.frequency("a"));
+
+        sketch.halve();
+        assertEquals(5, sketch.frequency("a"));
+        assertEquals(0, sketch.frequency("b"));
+    }
+}
@@ -0,0 +1,166 @@
+package org.geowebcache.layer;
+
+import static org.easymock.classextension.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.TestHelpers;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.util.MockWMSSourceHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class TileRefresherTest {
+
+    private StorageBroker storageBroker;
+
+    private TileRefresher refresher;
+
+    @Before
+    public void setUp() throws Exception {
+        storageBroker = EasyMock.createMock(StorageBroker.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (refresher != null) {
+            refresher.destroy();
+        }
+    }
+
+    /**
+     * Makes the storage broker return tiles created the given number of seconds ago
+     */
+    private void expectTilesAged(final int ageSeconds) throws Exception {
+        expect(storageBroker.get((TileObject) anyObject())).andAnswer(new IAnswer<Boolean>() {
+            public Boolean answer() throws Throwable {
+                TileObject tile = (TileObject) getCurrentArguments()[0];
+                tile.setCreated(System.currentTimeMillis() - ageSeconds * 1000L);
+                tile.setBlob(new ByteArrayResource(new byte[] { 1 }));
+                return true;
+            }
+        }).anyTimes();
+    }
+
+    private ConveyorTile tile(TileLayer layer, long x, long y, long z) {
+        return new ConveyorTile(storageBroker, layer.getName(),
+                layer.getGridSubsets().iterator().next(), new long[] { x, y, z },
+                ImageMime.png, null, new MockHttpServletRequest(), new MockHttpServletResponse());
+    }
+
+    @Test
+    public void testRetrieveWithinStaleWindow() throws Exception {
+        expectTilesAged(120);
+        replay(storageBroker);
+        WMSLayer layer = TestHelpers.createWMSLayer("image/png");
+
+        ConveyorTile tile = tile(layer, 0, 0, 0);
+        assertTrue(tile.retrieve(60 * 1000L, 3600 * 1000L));
+        assertTrue(tile.isStale());
+
+        // expired past the stale window
+        tile = tile(layer, 0, 0, 0);
+        assertFalse(tile.retrieve(60 * 1000L, 30 * 1000L));
+        assertFalse(tile.isStale());
+
+        // no stale window
+        tile = tile(layer, 0, 0, 0);
+        assertFalse(tile.retrieve(60 * 1000L));
+        assertFalse(tile.isStale());
+
+        // fresh
+        tile = tile(layer, 0, 0, 0);
+        assertTrue(tile.retrieve(600 * 1000L, 3600 * 1000L));
+        assertFalse(tile.isStale());
+    }
+
+    @Test
+    public void testStaleTileServedAndRefreshed() throws Exception {
+        expectTilesAged(120);
+        Capture<TileObject> stored = new Capture<TileObject>(CaptureType.ALL);
+        expect(storageBroker.put(capture(stored))).andReturn(true).anyTimes();
+        replay(storageBroker);
+
+        WMSLayer layer = TestHelpers.createWMSLayer("image/png");
+        layer.setSourceHelper(new MockWMSSourceHelper());
+        layer.expireCacheList = new ArrayList<ExpirationRule>();
+        layer.expireCacheList.add(new ExpirationRule(0, 60, 3600));
+        assertEquals(3600, layer.getStaleWhileRevalidate(0));
+
+        refresher = new TileRefresher(1, 10);
+        layer.setTileRefresher(refresher);
+
+        ConveyorTile tile = layer.getTile(tile(layer, 0, 0, 0));
+        assertTrue(tile.isStale());
+        assertEquals(200, tile.getStatus());
+        MockHttpServletResponse response = (MockHttpServletResponse) tile.servletResp;
+        assertEquals("max-age=0, must-revalidate", response.getHeader("Cache-Control"));
+        assertEquals("110 - \"Response is Stale\"", response.getHeader("Warning"));
+        assertEquals(1, refresher.getStaleHits());
+
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (refresher.getCompletedRefreshes() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, refresher.getCompletedRefreshes());
+        // the whole meta tile was rendered again
+        assertFalse(stored.getValues().isEmpty());
+        verify(storageBroker);
+    }
+
+    @Test
+    public void testRefreshesDeduplicatedByMetaTile() throws Exception {
+        replay(storageBroker);
+        final CountDownLatch release = new CountDownLatch(1);
+        TileLayer layer = EasyMock.createMock(TileLayer.class);
+        expect(layer.getName()).andReturn("layer").anyTimes();
+        expect(layer.getMetaTilingFactors()).andReturn(new int[] { 4, 4 }).anyTimes();
+        expect(layer.getGridSubsets()).andReturn(Collections.singleton("EPSG:4326")).anyTimes();
+        layer.seedTile((ConveyorTile) anyObject(), eq(false));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).times(2);
+        replay(layer);
+
+        refresher = new TileRefresher(1, 1);
+        assertTrue(refresher.refresh(layer, tile(layer, 0, 0, 5)));
+        // same meta tile
+        assertFalse(refresher.refresh(layer, tile(layer, 3, 2, 5)));
+        assertTrue(refresher.refresh(layer, tile(layer, 4, 0, 5)));
+        assertEquals(2, refresher.getPendingRefreshes());
+        assertEquals(1, refresher.getDeduplicatedRefreshes());
+
+        // one refresh running and one queued, the queue is full
+        assertFalse(refresher.refresh(layer, tile(layer, 0, 4, 5)));
+        assertEquals(1, refresher.getRejectedRefreshes());
+
+        release.countDown();
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (refresher.getPendingRefreshes() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, refresher.getPendingRefreshes());
+        assertEquals(2, refresher.getSubmittedRefreshes());
+        assertEquals(2, refresher.getCompletedRefreshes());
+        verify(layer);
+    }
+}
@@ -0,0 +1,222 @@
+package org.geowebcache.layer.wms;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class BackendConcurrencyLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testAcquireAndTimeout() throws Exception {
+        BackendConcurrencyLimiter limiter = new BackendConcurrencyLimiter("test", 2);
+        assertTrue(limiter.acquire(0));
+        assertTrue(limiter.acquire(0));
+        assertEquals(2, limiter.getInFlight());
+
+        // no permit left
+        assertFalse(limiter.acquire(10));
+        assertEquals(1, limiter.getRejected());
+
+        limiter.cancel();
+        assertTrue(limiter.acquire(0));
+        assertEquals(3, limiter.getRequests());
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        final BackendConcurrencyLimiter limiter = new BackendConcurrencyLimiter("test", 1);
+        assertTrue(limiter.acquire(0));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+        Thread waiter = new Thread() {
+            public void run() {
+                started.countDown();
+                try {
+                    acquired.set(limiter.acquire(10000));
+                } catch (InterruptedException e) {
+                    // test fails
+                }
+            }
+        };
+        waiter.start();
+        started.await();
+        while (limiter.getWaiting() == 0 && waiter.isAlive()) {
+            Thread.sleep(5);
+        }
+        limiter.release(10 * MS, false);
+        waiter.join(10000);
+        assertTrue(acquired.get());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    @Test
+    public void testRejectWhenQueueFull() throws Exception {
+        final BackendConcurrencyLimiter limiter = new BackendConcurrencyLimiter("test", 1, true);
+        assertTrue(limiter.acquire(0));
+
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    limiter.acquire(10000);
+                } catch (InterruptedException e) {
+                    // expected
+                }
+            }
+        };
+        waiter.start();
+        while (limiter.getWaiting() == 0) {
+            Thread.sleep(5);
+        }
+        // as many waiting as the max limit, fail fast even with a long timeout
+        long start = System.currentTimeMillis();
+        assertFalse(limiter.acquire(10000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        waiter.interrupt();
+        waiter.join(10000);
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    @Test
+    public void testFixedLimit() throws Exception {
+        BackendConcurrencyLimiter limiter = new BackendConcurrencyLimiter("test", 2);
+        assertFalse(limiter.isAdaptiveLimit());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0));
+            limiter.release(i * 100 * MS, i % 2 == 0);
+        }
+        assertEquals(2, limiter.getLimit());
+        assertEquals(5, limiter.getFailures());
+    }
+
+    @Test
+    public void testDecreaseOnFailureAndLatency() throws Exception {
+        TestLimiter limiter = new TestLimiter(20);
+
+        // sets the usual latency
+        assertTrue(limiter.acquire(0));
+        limiter.release(10 * MS, false);
+        assertEquals(20, limiter.getLimit());
+
+        // a batch of concurrent failures reduces the limit once
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0));
+        }
+        limiter.now += MS;
+        for (int i = 0; i < 10; i++) {
+            limiter.release(10 * MS, true);
+        }
+        assertEquals(18, limiter.getLimit());
+        assertEquals(10, limiter.getFailures());
+
+        // so does a batch of slow responses, once the previous decrease is a latency old
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0));
+        }
+        limiter.now += 5 * MS;
+        limiter.release(100 * MS, false);
+        assertEquals(18, limiter.getLimit());
+        limiter.now += 20 * MS;
+        for (int i = 0; i < 9; i++) {
+            limiter.release(100 * MS, false);
+        }
+        assertEquals(16, limiter.getLimit());
+
+        // mixed response times don't look slow to the moving average
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.acquire(0));
+            limiter.now += 30 * MS;
+            limiter.release((i % 2 == 0 ? 10 : 40) * MS, false);
+        }
+        assertEquals(16, limiter.getLimit());
+
+        // a backend failing for long goes down to one request at a time, never below
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.acquire(0));
+            limiter.now += 1000 * MS;
+            limiter.release(MS, true);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testIncreaseUnderLoad() throws Exception {
+        BackendConcurrencyLimiter limiter = new TestLimiter(4);
+        assertTrue(limiter.acquire(0));
+        limiter.release(10 * MS, true);
+        assertEquals(3, limiter.getLimit());
+
+        // a single request in flight doesn't use the limit, no increase
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0));
+            limiter.release(10 * MS, false);
+        }
+        assertEquals(3, limiter.getLimit());
+
+        // all the permits in use
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.acquire(0));
+            assertTrue(limiter.acquire(0));
+            assertTrue(limiter.acquire(0));
+            limiter.release(10 * MS, false);
+            limiter.cancel();
+            limiter.cancel();
+        }
+        // up to the max limit only
+        assertEquals(4, limiter.getLimit());
+        assertEquals(10.0, limiter.getAverageBackendTime(), 0.001);
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        BackendConcurrencyLimiter limiter = BackendConcurrencyLimiter.forLayer(
+                "limiterTestLayer", 4);
+        assertSame(limiter, BackendConcurrencyLimiter.forLayer("limiterTestLayer", 2));
+        assertEquals(2, limiter.getMaxLimit());
+        assertTrue(BackendConcurrencyLimiter.getLayerLimiters().contains(limiter));
+
+        // a removed layer doesn't keep its limiter
+        BackendConcurrencyLimiter.removeLayer("limiterTestLayer");
+        assertFalse(BackendConcurrencyLimiter.getLayerLimiters().contains(limiter));
+        assertNotSame(limiter, BackendConcurrencyLimiter.forLayer("limiterTestLayer", 2));
+        BackendConcurrencyLimiter.removeLayer("limiterTestLayer");
+
+        // the hosts are not limited by default
+        assertNull(BackendConcurrencyLimiter.forHost(new URL(
+                "http://limitertest.example.com/wms?")));
+
+        BackendConcurrencyLimiter host = BackendConcurrencyLimiter.forHost(new URL(
+                "http://limitertest.example.com/wms?"), 64);
+        assertSame(host, BackendConcurrencyLimiter.forHost(new URL(
+                "http://limitertest.example.com:80/geoserver/wms"), 64));
+        assertEquals("limitertest.example.com:80", host.getName());
+        assertNotSame(host, BackendConcurrencyLimiter.forHost(new URL(
+                "http://limitertest.example.com:8080/wms"), 64));
+    }
+
+    /**
+     * An adaptive limiter with a clock set by the test
+     */
+    private static class TestLimiter extends BackendConcurrencyLimiter {
+
+        long now = MS;
+
+        TestLimiter(int maxLimit) {
+            super("test", maxLimit, true);
+        }
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+    }
+}
@@ -19,6 +19,7 @@ import org.geowebcache.grid.BoundingBox;
 import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.io.ByteArrayResource;
 import org.geowebcache.layer.MetaTile;
 import org.geowebcache.mime.ApplicationMime;
 import org.geowebcache.mime.ImageMime;
@@ -261,6 +262,55 @@ public class MetaTileTest extends TestCase {
         return layer;
     }
 
+    public void testBlankMetaTile() throws Exception {
+        BoundingBox boundingBox = new BoundingBox(-180, -90, 180, 90);
+        GridSubset grid = GridSubsetFactory.createGridSubSet(gridSetBroker.WORLD_EPSG4326,
+                boundingBox, 0, 21);
+        long[] gridPos = { 0, 0, 1 };
+        BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+
+        // not looked for unless asked
+        MetaTile metaTile = new MetaTile(grid, ImageMime.png, null, gridPos, 2, 2, null);
+        metaTile.setImage(image);
+        assertFalse(metaTile.isBlank());
+
+        metaTile = new MetaTile(grid, ImageMime.png, null, gridPos, 2, 2, null);
+        metaTile.detectBlankTiles(null);
+        metaTile.setImage(image);
+        assertTrue(metaTile.isBlank());
+        assertNull(metaTile.getBlankTile());
+        ByteArrayResource first = new ByteArrayResource();
+        ByteArrayResource last = new ByteArrayResource();
+        assertTrue(metaTile.writeTileToStream(0, first));
+        assertNotNull(metaTile.getBlankTile());
+        assertTrue(metaTile.writeTileToStream(3, last));
+        assertTrue(Arrays.equals(first.getContents(), last.getContents()));
+        assertTrue(Arrays.equals(first.getContents(), metaTile.getBlankTile()));
+
+        image.setRGB(300, 10, Color.RED.getRGB());
+        metaTile = new MetaTile(grid, ImageMime.png, null, gridPos, 2, 2, null);
+        metaTile.detectBlankTiles(null);
+        metaTile.setImage(image);
+        assertFalse(metaTile.isBlank());
+        assertTrue(metaTile.writeTileToStream(0, new ByteArrayResource()));
+        assertNull(metaTile.getBlankTile());
+
+        // uniform and opaque, blank only if that's the empty color
+        BufferedImage opaque = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = opaque.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 512, 512);
+        graphics.dispose();
+        metaTile = new MetaTile(grid, ImageMime.png, null, gridPos, 2, 2, null);
+        metaTile.detectBlankTiles(null);
+        metaTile.setImage(opaque);
+        assertFalse(metaTile.isBlank());
+        metaTile = new MetaTile(grid, ImageMime.png, null, gridPos, 2, 2, null);
+        metaTile.detectBlankTiles(Color.WHITE);
+        metaTile.setImage(opaque);
+        assertTrue(metaTile.isBlank());
+    }
+
     // Testing the create tile operation with a meta tile buffer image
     public void testCreateTileFromMetaTileBufferImage() throws Exception {
         // creating the meta tile image
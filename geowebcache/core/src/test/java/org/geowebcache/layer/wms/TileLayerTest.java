@@ -7,6 +7,7 @@ import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -15,9 +16,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.filter.parameters.ParameterException;
 import org.geowebcache.filter.parameters.ParameterFilter;
 import org.geowebcache.filter.parameters.StringParameterFilter;
 import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.storage.blobstore.file.FilePathGenerator;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -64,5 +69,78 @@ public abstract class TileLayerTest {
         
     }
 
+    @Test
+    public void testGetModifiableParametersRepeated() throws Exception {
+        List<ParameterFilter> filters = new LinkedList<>();
+        {
+            StringParameterFilter filter = new StringParameterFilter();
+            filter.setKey("FILTER1");
+            filter.setValues(Arrays.asList("foo", "bar"));
+            filters.add(filter);
+        }
+        
+        TileLayer layer = getLayerWithFilters(filters);
+        
+        Map<String, Object> rawParams = new HashMap<>();
+        rawParams.put("filter1", new String[]{"bar"});
+        Map<String, String> first = layer.getModifiableParameters(rawParams, "UTF-8");
+        assertThat(first, hasEntry(equalToIgnoringCase("FILTER1"), equalTo("bar")));
+        
+        rawParams.put("filter1", new String[]{"foo"});
+        Map<String, String> second = layer.getModifiableParameters(rawParams, "UTF-8");
+        assertThat(second, hasEntry(equalToIgnoringCase("FILTER1"), equalTo("foo")));
+        
+        rawParams.put("filter1", new String[]{"bar"});
+        assertThat(layer.getModifiableParameters(rawParams, "UTF-8"), equalTo(first));
+        
+        // the parameters identifier is remembered along with the parameters
+        assertThat(layer.getParametersId(first),
+                equalTo(FilePathGenerator.getParametersId(first)));
+        ConveyorTile tile = new ConveyorTile(null, layer.getName(), "EPSG:4326",
+                new long[] { 0, 0, 0 }, ImageMime.png, second, null, null);
+        tile.setTileLayer(layer);
+        assertThat(tile.getParametersId(), equalTo(FilePathGenerator.getParametersId(second)));
+        
+        // callers get their own copy of the cached parameters
+        first.put("FILTER1", "foo");
+        assertThat(layer.getModifiableParameters(rawParams, "UTF-8"),
+                hasEntry(equalToIgnoringCase("FILTER1"), equalTo("bar")));
+        
+        // Illegal values are rejected every time
+        rawParams.put("filter1", new String[]{"baz"});
+        for (int i = 0; i < 2; i++) {
+            try {
+                layer.getModifiableParameters(rawParams, "UTF-8");
+                fail("Expected ParameterException");
+            } catch (ParameterException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testClearParameterFiltersCache() throws Exception {
+        List<ParameterFilter> filters = new LinkedList<>();
+        {
+            StringParameterFilter filter = new StringParameterFilter();
+            filter.setKey("FILTER1");
+            filter.setValues(Arrays.asList("foo", "bar"));
+            filter.setDefaultValue("foo");
+            filters.add(filter);
+        }
+        
+        TileLayer layer = getLayerWithFilters(filters);
+        
+        Map<String, Object> rawParams = new HashMap<>();
+        rawParams.put("filter1", new String[]{"foo"});
+        assertThat(layer.getModifiableParameters(rawParams, "UTF-8").isEmpty(), equalTo(true));
+        
+        // the filter is modified in place, as done by the configuration
+        layer.getParameterFilters().get(0).setDefaultValue("bar");
+        layer.clearParameterFiltersCache();
+        assertThat(layer.getModifiableParameters(rawParams, "UTF-8"),
+                hasEntry(equalToIgnoringCase("FILTER1"), equalTo("foo")));
+    }
+
     protected abstract TileLayer getLayerWithFilters(Collection<ParameterFilter> filters) throws Exception;
 }
\ No newline at end of file
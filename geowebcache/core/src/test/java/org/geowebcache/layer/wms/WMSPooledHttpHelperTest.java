@@ -0,0 +1,181 @@
+package org.geowebcache.layer.wms;
+
+import static org.geowebcache.TestHelpers.createWMSLayer;
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.grid.GridSubsetFactory;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.mime.ImageMime;
+import org.geowebcache.mime.XMLMime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class WMSPooledHttpHelperTest {
+
+    private static final String FEATURE_INFO = "<FeatureInfo><feature id=\"1\"/></FeatureInfo>";
+
+    private HttpServer server;
+
+    private Set<Integer> clientPorts;
+
+    private WMSLayer layer;
+
+    private WMSPooledHttpHelper helper;
+
+    @Before
+    public void setUp() throws Exception {
+        final byte[] png = encodePng(new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB));
+        clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/wms", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                String query = exchange.getRequestURI().getQuery();
+                byte[] body;
+                if (query.contains("INFO_FORMAT")) {
+                    exchange.getResponseHeaders().add("Content-Type", XMLMime.gml.getMimeType());
+                    body = FEATURE_INFO.getBytes("UTF-8");
+                    String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                    if (accepted != null && accepted.contains("gzip")) {
+                        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        GZIPOutputStream gzip = new GZIPOutputStream(out);
+                        gzip.write(body);
+                        gzip.close();
+                        body = out.toByteArray();
+                    }
+                } else {
+                    exchange.getResponseHeaders().add("Content-Type", "image/png");
+                    body = png;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        layer = createWMSLayer("image/png");
+        layer.setWMSurl(new String[] { "http://localhost:" + server.getAddress().getPort()
+                + "/wms?" });
+        helper = new WMSPooledHttpHelper();
+        layer.setSourceHelper(helper);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private BackendConnectionPool getPool() throws Exception {
+        return BackendConnectionPool.forHost(new URL(layer.getWMSurl()[0]), 120);
+    }
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("REQUEST", "GetFeatureInfo");
+        params.put("FORMAT", "image/png");
+        params.put("INFO_FORMAT", XMLMime.gml.getMimeType());
+        WMSMetaTile receiver = createMetaTile();
+        ByteArrayResource target = new ByteArrayResource();
+        helper.makeRequest(receiver, layer, params, XMLMime.gml, target);
+
+        assertFalse(receiver.getError());
+        assertEquals(FEATURE_INFO, IOUtils.toString(target.getInputStream(), "UTF-8"));
+        assertNull(receiver.getImage());
+        assertEquals(1, getPool().getCompressedResponses());
+    }
+
+    @Test
+    public void testStreamedMetaTile() throws Exception {
+        WMSMetaTile metaTile = createMetaTile();
+        ByteArrayResource target = new ByteArrayResource();
+        helper.makeRequest(metaTile, layer,
+                Collections.singletonMap("FORMAT", "image/png"), ImageMime.png, target);
+
+        // decoded as received, not buffered
+        assertFalse(metaTile.getError());
+        assertEquals(0, target.getSize());
+        assertNotNull(metaTile.getImage());
+        assertEquals(256, metaTile.getImage().getWidth());
+        assertEquals(1, getPool().getStreamedResponses());
+        assertEquals(0, getPool().getCompressedResponses());
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            WMSMetaTile metaTile = createMetaTile();
+            helper.makeRequest(metaTile, layer,
+                    Collections.singletonMap("FORMAT", "image/png"), ImageMime.png,
+                    new ByteArrayResource());
+            assertNotNull(metaTile.getImage());
+        }
+        // a second layer on the same host shares the pool
+        WMSPooledHttpHelper otherHelper = new WMSPooledHttpHelper();
+        WMSLayer otherLayer = createWMSLayer("image/png");
+        otherLayer.setWMSurl(layer.getWMSurl());
+        otherLayer.setSourceHelper(otherHelper);
+        otherHelper.makeRequest(createMetaTile(), otherLayer,
+                Collections.singletonMap("FORMAT", "image/png"), ImageMime.png,
+                new ByteArrayResource());
+
+        assertEquals(1, clientPorts.size());
+        assertEquals(6, getPool().getRequests());
+        assertEquals(1, getPool().getOpenConnections());
+        assertEquals(0, getPool().getConnectionsInUse());
+    }
+
+    @Test
+    public void testAcceptsCompression() {
+        Map<String, String> params = new HashMap<String, String>();
+        assertFalse(WMSPooledHttpHelper.acceptsCompression(params));
+        params.put("FORMAT", "image/png");
+        assertFalse(WMSPooledHttpHelper.acceptsCompression(params));
+        params.put("FORMAT", "application/vnd.google-earth.kml+xml");
+        assertTrue(WMSPooledHttpHelper.acceptsCompression(params));
+        params.put("FORMAT", "image/png");
+        params.put("INFO_FORMAT", "text/html");
+        assertTrue(WMSPooledHttpHelper.acceptsCompression(params));
+    }
+
+    private WMSMetaTile createMetaTile() {
+        GridSubset grid = GridSubsetFactory.createGridSubSet(
+                new GridSetBroker(false, false).WORLD_EPSG4326, new BoundingBox(0, 0, 180, 90),
+                0, 30);
+        return new WMSMetaTile(null, grid, ImageMime.png, null, new long[] { 0, 0, 0 }, 1, 1,
+                Collections.singletonMap("test", "test1"));
+    }
+}
@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -142,10 +143,12 @@ public class SeedTaskTest extends TestCase {
          */
         Thread.currentThread().setName("pool-fake-thread-1");
 
+        assertFalse(seedTask.awaitFinished(0, TimeUnit.MILLISECONDS));
         /*
          * Call the seed process
          */
         seedTask.doAction();
+        assertTrue(seedTask.awaitFinished(0, TimeUnit.MILLISECONDS));
 
         final long expectedWmsRequestsCount = 3; // due to metatiling
         final long wmsRequestCount = wmsRequestsCounter.get();
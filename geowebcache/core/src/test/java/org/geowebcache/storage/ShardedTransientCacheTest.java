@@ -0,0 +1,177 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.geowebcache.storage;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedTransientCacheTest {
+
+    public static final boolean RUN_PERFORMANCE_TESTS = false;
+
+    ShardedTransientCache transCache;
+
+    TransientCacheTest.TestTicker ticker;
+
+    final public static long EXPIRE_TIME = 2000;
+
+    final public static int MAX_TILES = 5;
+
+    final public static int MAX_SPACE_KiB = 5;
+
+    @Before
+    public void setUp() throws Exception {
+        transCache = new ShardedTransientCache(MAX_TILES, MAX_SPACE_KiB, EXPIRE_TIME, 4);
+        ticker = new TransientCacheTest.TestTicker(System.nanoTime());
+        transCache.setTicker(ticker);
+    }
+
+    private static TileObject tile(long x, String parameter, Resource blob) {
+        return TileObject.createCompleteTileObject("layer", new long[] { x, 0, 3 }, "EPSG:4326",
+                "image/png", parameter == null ? null : Collections.singletonMap("STYLES",
+                        parameter), blob);
+    }
+
+    @Test
+    public void testHitRemovesAndReturnsACopy() throws Exception {
+        ByteArrayResource r = new ByteArrayResource(new byte[] { 1, 2, 3 });
+        transCache.put(tile(0, null, r));
+        // the caller may reuse its buffer
+        r.truncate();
+
+        ticker.advanceMilli(EXPIRE_TIME - 1);
+        Resource result = transCache.get(tile(0, null, null));
+        assertThat(result, notNullValue());
+        try (InputStream is = result.getInputStream();) {
+            assertThat(is.read(), equalTo(1));
+            assertThat(is.read(), equalTo(2));
+            assertThat(is.read(), equalTo(3));
+            assertThat(is.read(), equalTo(-1));
+        }
+        assertThat(transCache.get(tile(0, null, null)), nullValue());
+        assertThat(transCache.size(), equalTo(0));
+        assertThat(transCache.storageSize(), equalTo(0L));
+    }
+
+    @Test
+    public void testKeysIncludeParameters() throws Exception {
+        transCache.put(tile(0, "a", new ByteArrayResource(new byte[] { 1 })));
+        assertThat(transCache.get(tile(0, "b", null)), nullValue());
+        assertThat(transCache.get(tile(0, null, null)), nullValue());
+        assertThat(transCache.get(tile(1, "a", null)), nullValue());
+        assertThat(transCache.get(tile(0, "a", null)), notNullValue());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        transCache.put(tile(0, null, new ByteArrayResource(new byte[] { 1 })));
+        ticker.advanceMilli(EXPIRE_TIME + 1);
+        assertThat(transCache.get(tile(0, null, null)), nullValue());
+        assertThat(transCache.size(), equalTo(0));
+    }
+
+    @Test
+    public void testMaxTiles() throws Exception {
+        for (int i = 0; i < MAX_TILES * 3; i++) {
+            transCache.put(tile(i, null, new ByteArrayResource(new byte[] { 1 })));
+            assertThat(transCache.size(), equalTo(Math.min(i + 1, MAX_TILES)));
+        }
+        int hits = 0;
+        for (int i = 0; i < MAX_TILES * 3; i++) {
+            if (transCache.get(tile(i, null, null)) != null) {
+                hits++;
+            }
+        }
+        assertThat(hits, equalTo(MAX_TILES));
+    }
+
+    @Test
+    public void testMaxStorage() throws Exception {
+        for (int i = 0; i < MAX_TILES; i++) {
+            transCache.put(tile(i, null, new ByteArrayResource(new byte[2 * 1024])));
+            assertThat(transCache.storageSize() <= MAX_SPACE_KiB * 1024, is(true));
+        }
+        assertThat(transCache.size(), equalTo(2));
+        // the last one is always kept
+        assertThat(transCache.get(tile(MAX_TILES - 1, null, null)), notNullValue());
+    }
+
+    @Test
+    public void testStringKeys() throws Exception {
+        transCache.put("foo", new ByteArrayResource(new byte[] { 1, 2, 3 }));
+        assertThat(transCache.storageSize(), equalTo(3L));
+        assertThat(transCache.get("foo"), notNullValue());
+        assertThat(transCache.get("foo"), nullValue());
+    }
+
+    /**
+     * Contention benchmark of the transient cache access made by {@link DefaultStorageBroker},
+     * comparing the synchronized {@link TransientCache} against the sharded one
+     */
+    @Test
+    public void testContention() throws Exception {
+        if (!RUN_PERFORMANCE_TESTS) {
+            return;
+        }
+        final int threads = 2 * Runtime.getRuntime().availableProcessors();
+        final int tilesPerThread = 200000;
+        for (int run = 0; run < 3; run++) {
+            runContention("synchronized", new TransientCache(1000, 16 * 1024, 2000), threads,
+                    tilesPerThread);
+            runContention("sharded", new ShardedTransientCache(1000, 16 * 1024, 2000), threads,
+                    tilesPerThread);
+        }
+    }
+
+    private void runContention(final String name, final TransientCache cache, final int threads,
+            final int tilesPerThread) throws Exception {
+        final StorageBroker broker = new DefaultStorageBroker(null, cache);
+        final ByteArrayResource blob = new ByteArrayResource(new byte[4096]);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < tilesPerThread; i++) {
+                        long x = thread * (long) tilesPerThread + i;
+                        broker.putTransient(tile(x, null, blob));
+                        broker.getTransient(tile(x, null, null));
+                    }
+                }
+            };
+        }
+        long start = System.currentTimeMillis();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        long operations = 2L * threads * tilesPerThread;
+        System.out.println(name + ": " + operations + " operations by " + threads + " threads in "
+                + millis + "ms (" + (operations * 1000 / millis) + " ops/s)");
+    }
+}
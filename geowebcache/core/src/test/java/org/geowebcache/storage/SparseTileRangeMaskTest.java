@@ -0,0 +1,170 @@
+package org.geowebcache.storage;
+
+import static org.junit.Assert.*;
+
+import org.geowebcache.storage.SparseTileRangeMask.ArrayBlock;
+import org.geowebcache.storage.SparseTileRangeMask.BitmapBlock;
+import org.geowebcache.storage.SparseTileRangeMask.Block;
+import org.geowebcache.storage.SparseTileRangeMask.FullBlock;
+import org.junit.Test;
+
+public class SparseTileRangeMaskTest {
+
+    /**
+     * A world wide grid, from 2x1 tiles at level 0 up to 4096x2048 at level 11
+     */
+    private static long[][] coverages() {
+        long[][] coverages = new long[12][];
+        for (int z = 0; z < coverages.length; z++) {
+            coverages[z] = new long[] { 0, 0, (2L << z) - 1, (1L << z) - 1, z };
+        }
+        return coverages;
+    }
+
+    @Test
+    public void testSetAndLookup() throws Exception {
+        SparseTileRangeMask mask = new SparseTileRangeMask(coverages(), 11);
+        assertTrue(mask.isEmpty());
+        assertArrayEquals(new long[] { 0, 0, -1, -1, 11 }, mask.getGridCoverages()[11]);
+
+        // a span crossing three blocks
+        mask.setRange(60, 200, 1000, 11);
+        mask.set(4095, 2047, 11);
+        // outside the coverage, ignored
+        mask.set(4096, 0, 11);
+        mask.setRange(-10, -1, 0, 11);
+
+        assertEquals(141 + 1, mask.cardinality());
+        assertFalse(mask.lookup(59, 1000, 11));
+        assertTrue(mask.lookup(60, 1000, 11));
+        assertTrue(mask.lookup(63, 1000, 11));
+        assertTrue(mask.lookup(64, 1000, 11));
+        assertTrue(mask.lookup(200, 1000, 11));
+        assertFalse(mask.lookup(201, 1000, 11));
+        assertFalse(mask.lookup(100, 999, 11));
+        assertTrue(mask.lookup(4095, 2047, 11));
+        assertFalse(mask.lookup(0, 0, 11));
+
+        assertArrayEquals(new long[] { 60, 1000, 4095, 2047, 11 }, mask.getGridCoverages()[11]);
+        assertArrayEquals(new long[] { 0, 0, -1, -1, 10 }, mask.getGridCoverages()[10]);
+    }
+
+    @Test
+    public void testDownsampling() throws Exception {
+        SparseTileRangeMask mask = new SparseTileRangeMask(coverages(), 3);
+        mask.set(8, 4, 3);
+
+        // levels past the max mask level are looked up at it
+        assertArrayEquals(new long[] { 8, 4, 8, 4, 3 }, mask.getGridCoverages()[3]);
+        long[] bounds = mask.getGridCoverages()[5];
+        assertNotNull(bounds);
+        assertTrue(mask.lookup(bounds[0], bounds[1], 5));
+        assertTrue(mask.lookup(bounds[2], bounds[3], 5));
+        assertTrue(mask.lookup(32, 16, 5));
+        assertFalse(mask.lookup(bounds[0] - 1, bounds[1], 5));
+        assertFalse(mask.lookup(bounds[0], bounds[3] + 1, 5));
+        assertFalse(mask.lookup(0, 0, 5));
+    }
+
+    @Test
+    public void testGridCoveragesAreCopied() throws Exception {
+        SparseTileRangeMask mask = new SparseTileRangeMask(coverages(), 3);
+        mask.set(8, 4, 3);
+
+        long[][] coverages = mask.getGridCoverages();
+        coverages[3][0] = 9;
+        assertTrue(mask.lookup(8, 4, 3));
+        assertArrayEquals(new long[] { 8, 4, 8, 4, 3 }, mask.getGridCoverages()[3]);
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        SparseTileRangeMask mask = new SparseTileRangeMask(coverages(), 8);
+        mask.setRange(0, 127, 5, 8);
+
+        SparseTileRangeMask other = new SparseTileRangeMask(coverages(), 8);
+        other.setRange(64, 200, 5, 8);
+
+        SparseTileRangeMask union = new SparseTileRangeMask(coverages(), 8);
+        union.addAll(mask);
+        union.addAll(other);
+        assertEquals(201, union.cardinality());
+
+        mask.removeAll(other);
+        assertEquals(64, mask.cardinality());
+        assertArrayEquals(new long[] { 0, 5, 63, 5, 8 }, mask.getGridCoverages()[8]);
+        assertFalse(mask.lookup(64, 5, 8));
+
+        mask.removeAll(union);
+        assertTrue(mask.isEmpty());
+        assertArrayEquals(new long[] { 0, 0, -1, -1, 8 }, mask.getGridCoverages()[8]);
+        assertArrayEquals(new long[] { 0, 0, -1, -1, 11 }, mask.getGridCoverages()[11]);
+    }
+
+    @Test
+    public void testContainers() throws Exception {
+        long[] bits = new long[SparseTileRangeMask.BLOCK_SIZE];
+        bits[3] = 0x5L;
+        Block block = Block.valueOf(bits);
+        assertTrue(block instanceof ArrayBlock);
+        assertTrue(block.contains(0, 3));
+        assertFalse(block.contains(1, 3));
+        assertEquals(0x5L, block.row(3));
+        assertEquals(1L << 3, block.rows());
+
+        // grows into a bitmap past ARRAY_MAX tiles, then into the shared full block
+        for (int row = 0; row < 4; row++) {
+            block = block.add(row, -1L);
+        }
+        assertTrue(block instanceof ArrayBlock);
+        block = block.add(4, -1L);
+        assertTrue(block instanceof BitmapBlock);
+        assertEquals(5 * 64, block.cardinality());
+        for (int row = 5; row < 64; row++) {
+            block = block.add(row, -1L);
+        }
+        assertSame(FullBlock.INSTANCE, block);
+        assertNull(Block.valueOf(new long[SparseTileRangeMask.BLOCK_SIZE]));
+    }
+
+    @Test
+    public void testNextSetTile() throws Exception {
+        SparseTileRangeMask mask = new SparseTileRangeMask(coverages(), 11);
+        mask.setRange(10, 20, 100, 11);
+        mask.set(3000, 100, 11);
+        mask.setRange(0, 4095, 1500, 11);
+
+        assertEquals(100, mask.nextSetRow(0, 11));
+        assertEquals(100, mask.nextSetRow(100, 11));
+        assertEquals(1500, mask.nextSetRow(101, 11));
+        assertEquals(-1, mask.nextSetRow(1501, 11));
+
+        assertEquals(10, mask.nextSetColumn(0, 100, 11));
+        assertEquals(15, mask.nextSetColumn(15, 100, 11));
+        assertEquals(3000, mask.nextSetColumn(21, 100, 11));
+        assertEquals(-1, mask.nextSetColumn(3001, 100, 11));
+        assertEquals(-1, mask.nextSetColumn(0, 101, 11));
+        assertEquals(4000, mask.nextSetColumn(4000, 1500, 11));
+    }
+
+    @Test
+    public void testNextSetTileDownsampled() throws Exception {
+        SparseTileRangeMask mask = new SparseTileRangeMask(coverages(), 3);
+        mask.set(8, 4, 3);
+
+        // level 5 tiles looked up at level 3, check against lookup
+        long row = mask.nextSetRow(0, 5);
+        assertTrue(row > 0);
+        long column = mask.nextSetColumn(0, row, 5);
+        assertTrue(column > 0);
+        assertTrue(mask.lookup(column, row, 5));
+        for (long y = 0; y < row; y++) {
+            for (long x = 0; x < 64; x++) {
+                assertFalse(mask.lookup(x, y, 5));
+            }
+        }
+        for (long x = 0; x < column; x++) {
+            assertFalse(mask.lookup(x, row, 5));
+        }
+    }
+}
@@ -7,8 +7,10 @@ import static org.easymock.classextension.EasyMock.replay;
 import static org.easymock.classextension.EasyMock.verify;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -179,6 +181,51 @@ public class TileRangeIteratorTest extends TestCase {
         verify(rasterMask);
     }
 
+    /**
+     * With a {@link SparseTileRangeMask} the iterator skips the empty areas, but shall return the
+     * same locations than when looking up every one of them
+     */
+    public void testSparseMaskSkipsEmptyAreas() throws Exception {
+        final SparseTileRangeMask sparseMask = new SparseTileRangeMask(gridCoverages, 6);
+        for (int z = 0; z <= 6; z++) {
+            long[] coverage = gridCoverages[z];
+            sparseMask.set(coverage[2], coverage[3], z);
+            sparseMask.setRange(coverage[0] + 1, coverage[2] / 2, coverage[3] / 2, z);
+        }
+        sparseMask.setRange(100, 170, 40, 6);
+
+        // same mask, but looking up every location
+        TileRangeMask plainMask = new TileRangeMask() {
+            public long[][] getGridCoverages() {
+                return sparseMask.getGridCoverages();
+            }
+
+            public boolean lookup(long x, long y, int z) {
+                return sparseMask.lookup(x, y, z);
+            }
+        };
+
+        for (int[] metaTilingFactors : new int[][] { { 1, 1 }, { 3, 3 }, { 4, 2 } }) {
+            List<String> expected = traverseLocations(plainMask, metaTilingFactors);
+            List<String> actual = traverseLocations(sparseMask, metaTilingFactors);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, actual);
+        }
+    }
+
+    private List<String> traverseLocations(TileRangeMask mask, int[] metaTilingFactors) {
+        DiscontinuousTileRange tileRange = new DiscontinuousTileRange("layer", "gridset",
+                gridSubSet.getZoomStart(), gridSubSet.getZoomStop(), mask, mimeType,
+                (Map<String, String>) null);
+        TileRangeIterator tri = new TileRangeIterator(tileRange, metaTilingFactors);
+        List<String> locations = new ArrayList<String>();
+        long[] gridLoc = new long[3];
+        while (null != (gridLoc = tri.nextMetaGridLocation(gridLoc))) {
+            locations.add(Arrays.toString(gridLoc));
+        }
+        return locations;
+    }
+
     /**
      * @return
      */
@@ -138,7 +138,7 @@ public class TransientCacheTest {
         assertThat(result2, notNullValue()); // Should still be cached
     }
     
-    static private class TestTicker extends Ticker {
+    static class TestTicker extends Ticker {
         long time;
 
         
@@ -20,7 +20,6 @@ import static org.geowebcache.diskquota.DiskQuotaMonitor.GWC_DISKQUOTA_DISABLED;
 
 import java.io.File;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -46,6 +45,7 @@ import org.geowebcache.diskquota.storage.PageStoreConfig;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
 import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.diskquota.storage.TileSetVisitor;
 import org.geowebcache.storage.DefaultStorageFinder;
@@ -686,6 +686,24 @@ public class BDBQuotaStore implements QuotaStore {
         }
     }
 
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#accept(org.geowebcache.diskquota.storage.TilePageVisitor)
+     */
+    public void accept(TilePageVisitor visitor) {
+        EntityCursor<PageStats> cursor = this.pageStatsById.entities();
+        try {
+            PageStats pageStats;
+            while ((pageStats = cursor.next()) != null) {
+                TilePage page = pageById.get(pageStats.getPageId());
+                if (page != null) {
+                    visitor.visit(page, pageStats);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * @see org.geowebcache.diskquota.QuotaStore#getTilePageCalculator()
      */
@@ -744,7 +762,7 @@ public class BDBQuotaStore implements QuotaStore {
                         }
 
                         final byte level = page.getZoomLevel();
-                        final BigInteger tilesPerPage = tilePageCalculator.getTilesPerPage(tileSet,
+                        final long tilesPerPage = tilePageCalculator.getTilesPerPageCount(tileSet,
                                 level);
                         final int tilesAdded = payload.getNumTiles();
 
@@ -932,6 +950,13 @@ public class BDBQuotaStore implements QuotaStore {
         return issueSync(new TruncatePage(tilePage));
     }
 
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#setTruncated(java.util.Collection)
+     */
+    public void setTruncated(final Collection<TilePage> tilePages) throws InterruptedException {
+        issueSync(new TruncatePages(tilePages));
+    }
+
     private class TruncatePage implements Callable<PageStats> {
         private final TilePage tilePage;
 
@@ -942,11 +967,7 @@ public class BDBQuotaStore implements QuotaStore {
         public PageStats call() throws Exception {
             Transaction tx = entityStore.getEnvironment().beginTransaction(null, null);
             try {
-                PageStats pageStats = pageStatsByPageId.get(tx, tilePage.getId(), null);
-                if (pageStats != null) {
-                    pageStats.setFillFactor(0f);
-                    pageStatsById.putNoReturn(tx, pageStats);
-                }
+                PageStats pageStats = truncate(tx, tilePage);
                 tx.commit();
                 return pageStats;
             } catch (Exception e) {
@@ -956,4 +977,41 @@ public class BDBQuotaStore implements QuotaStore {
         }
     }
 
+    private class TruncatePages implements Callable<Void> {
+        private final Collection<TilePage> tilePages;
+
+        public TruncatePages(Collection<TilePage> tilePages) {
+            this.tilePages = tilePages;
+        }
+
+        public Void call() throws Exception {
+            Transaction tx = entityStore.getEnvironment().beginTransaction(null, null);
+            try {
+                for (TilePage tilePage : tilePages) {
+                    truncate(tx, tilePage);
+                }
+                tx.commit();
+                return null;
+            } catch (Exception e) {
+                tx.abort();
+                throw e;
+            }
+        }
+    }
+
+    private PageStats truncate(final Transaction tx, final TilePage tilePage) {
+        long pageId = tilePage.getId();
+        if (pageId == 0) {
+            // not a stored page instance, e.g. one built by the page expiration index
+            TilePage storedPage = pageByKey.get(tx, tilePage.getKey(), null);
+            pageId = storedPage == null ? 0 : storedPage.getId();
+        }
+        PageStats pageStats = pageStatsByPageId.get(tx, pageId, null);
+        if (pageStats != null) {
+            pageStats.setFillFactor(0f);
+            pageStatsById.putNoReturn(tx, pageStats);
+        }
+        return pageStats;
+    }
+
 }
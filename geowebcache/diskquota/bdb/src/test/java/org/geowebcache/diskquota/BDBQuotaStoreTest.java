@@ -445,7 +445,77 @@ public class BDBQuotaStoreTest extends TestCase {
         PageStats pageStats = store.setTruncated(page);
         assertEquals(0f, pageStats.getFillFactor());
     }
+
+    public void testSetTruncatedBatch() throws Exception {
+        final Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        TilePage page1 = new TilePage(testTileSet.getId(), 0, 1, 2);
+        TilePage page2 = new TilePage(testTileSet.getId(), 1, 1, 2);
+
+        PageStatsPayload payload1 = new PageStatsPayload(page1, testTileSet);
+        PageStatsPayload payload2 = new PageStatsPayload(page2, testTileSet);
+        payload1.setNumTiles(1);
+        payload2.setNumTiles(1);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB),
+                Arrays.asList(payload1, payload2));
+        payload1.setNumHits(100);
+        payload2.setNumHits(10);
+        store.addHitsAndSetAccesTime(Arrays.asList(payload1, payload2)).get();
+        assertEquals(page2, store.getLeastFrequentlyUsedPage(layerNames));
+
+        store.setTruncated(Arrays.asList(page1, page2));
+        assertNull(store.getLeastFrequentlyUsedPage(layerNames));
+        assertNull(store.getLeastRecentlyUsedPage(layerNames));
+    }
     
+    public void testPageExpirationIndex() throws Exception {
+        final Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        TilePage page1 = new TilePage(testTileSet.getId(), 0, 1, 2);
+        TilePage page2 = new TilePage(testTileSet.getId(), 1, 1, 2);
+
+        PageStatsPayload payload1 = new PageStatsPayload(page1, testTileSet);
+        PageStatsPayload payload2 = new PageStatsPayload(page2, testTileSet);
+        payload1.setNumTiles(1);
+        payload2.setNumTiles(1);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB),
+                Arrays.asList(payload1, payload2));
+        payload1.setNumHits(100);
+        payload2.setNumHits(10);
+        store.addHitsAndSetAccesTime(Arrays.asList(payload1, payload2)).get();
+
+        // loaded from the store on first use
+        PageExpirationIndex index = new PageExpirationIndex(store);
+        assertEquals(-1, index.size());
+        assertEquals(Arrays.asList(page2, page1),
+                index.getExpirationCandidates(layerNames, ExpirationPolicy.LFU, 10));
+        assertEquals(2, index.size());
+        assertEquals(Arrays.asList(page2),
+                index.getExpirationCandidates(layerNames, ExpirationPolicy.LFU, 1));
+        assertTrue(index.getExpirationCandidates(Collections.singleton("topp:states"),
+                ExpirationPolicy.LFU, 10).isEmpty());
+
+        // kept up to date with the updates sent to the store
+        payload2.setNumHits(1000);
+        List<PageStatsPayload> updates = Collections.singletonList(payload2);
+        store.addHitsAndSetAccesTime(updates).get();
+        index.addHitsAndSetAccessTime(updates);
+        assertEquals(Arrays.asList(page1, page2),
+                index.getExpirationCandidates(layerNames, ExpirationPolicy.LFU, 10));
+        assertEquals(page1, store.getLeastFrequentlyUsedPage(layerNames));
+
+        // the pages the index hands out can be truncated in the store
+        PageStats truncated = store.setTruncated(new TilePage(testTileSet.getId(), 0, 1, 2));
+        assertNotNull(truncated);
+        assertEquals(0f, truncated.getFillFactor());
+        index.setTruncated(page1);
+        assertEquals(Arrays.asList(page2),
+                index.getExpirationCandidates(layerNames, ExpirationPolicy.LRU, 10));
+
+        index.invalidate();
+        assertEquals(-1, index.size());
+        assertEquals(Arrays.asList(page2),
+                index.getExpirationCandidates(layerNames, ExpirationPolicy.LFU, 10));
+    }
+
     public void testCreatesVersion() throws Exception {
         File versionFile = new File(targetDir, "diskquota_page_store/version.txt");
         assertTrue(versionFile.exists());
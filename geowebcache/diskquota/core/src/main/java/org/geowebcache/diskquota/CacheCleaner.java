@@ -18,7 +18,23 @@
 package org.geowebcache.diskquota;
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +49,8 @@ import org.geowebcache.seed.GWCTask;
 import org.geowebcache.seed.TileBreeder;
 import org.geowebcache.storage.TileRange;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
 
 /**
  * 
@@ -43,10 +61,19 @@ public class CacheCleaner implements DisposableBean {
 
     private static final Log log = LogFactory.getLog(CacheCleaner.class);
 
+    /**
+     * Number of pages taken at once from the {@link PageExpirationIndex}
+     */
+    private static final int EXPIRATION_BATCH_SIZE = 100;
+
     private final TileBreeder tileBreeder;
 
     private boolean shutDown;
 
+    private ExecutorService truncateExecutorService;
+
+    private final CleanUpStats stats = new CleanUpStats();
+
     public static interface QuotaResolver {
         ExpirationPolicy getExpirationPolicy();
 
@@ -125,6 +152,11 @@ public class CacheCleaner implements DisposableBean {
      */
     public void destroy() throws Exception {
         this.shutDown = true;
+        synchronized (this) {
+            if (truncateExecutorService != null) {
+                truncateExecutorService.shutdownNow();
+            }
+        }
     }
 
     /**
@@ -141,68 +173,376 @@ public class CacheCleaner implements DisposableBean {
      */
     public void expireByLayerNames(final Set<String> layerNames, final QuotaResolver quotaResolver, final QuotaStore pageStore)
             throws InterruptedException {
+        expireByLayerNames(layerNames, quotaResolver, pageStore, null);
+    }
+
+    /**
+     * Same as {@link #expireByLayerNames(Set, QuotaResolver, QuotaStore)}, but taking the pages to
+     * expire in batches from the given index instead of querying the store for each one. The store
+     * is still queried when the index has no more pages to offer, as it may lag behind.
+     * 
+     * @param layerNames
+     *            the layers to expire tile pages from
+     * @param quotaResolver
+     *            live limit and used quota to monitor until it reaches its limit
+     * @param pageStore
+     *            the quota store
+     * @param expirationIndex
+     *            the index to take the pages to expire from, or {@code null} to query the store
+     *            for each page
+     * @throws InterruptedException
+     */
+    public void expireByLayerNames(final Set<String> layerNames,
+            final QuotaResolver quotaResolver, final QuotaStore pageStore,
+            final PageExpirationIndex expirationIndex) throws InterruptedException {
+        expireByLayerNames(layerNames, quotaResolver, pageStore, expirationIndex, 1, 1);
+    }
+
+    /**
+     * Same as {@link #expireByLayerNames(Set, QuotaResolver, QuotaStore, PageExpirationIndex)},
+     * but expiring up to {@code batchSize} pages at a time, taken from the index or, when it has
+     * none to offer, from a {@link QuotaStore#getPagesToExpire cursor} over the store pages. The
+     * pages of a batch are truncated concurrently, using up to {@code maxConcurrentTruncates}
+     * threads split evenly among the blob stores the pages belong to, and are then marked as
+     * truncated with a single {@link QuotaStore#setTruncated(Collection) store transaction}.
+     * 
+     * @param layerNames
+     *            the layers to expire tile pages from
+     * @param quotaResolver
+     *            live limit and used quota to monitor until it reaches its limit
+     * @param pageStore
+     *            the quota store
+     * @param expirationIndex
+     *            the index to take the pages to expire from, or {@code null} to walk the store
+     *            pages with a cursor
+     * @param batchSize
+     *            maximum number of pages to expire at once
+     * @param maxConcurrentTruncates
+     *            maximum number of pages to truncate concurrently
+     * @throws InterruptedException
+     */
+    public void expireByLayerNames(final Set<String> layerNames,
+            final QuotaResolver quotaResolver, final QuotaStore pageStore,
+            final PageExpirationIndex expirationIndex, final int batchSize,
+            final int maxConcurrentTruncates) throws InterruptedException {
+
+        Assert.isTrue(batchSize > 0, "batchSize shall be a positive integer");
+        Assert.isTrue(maxConcurrentTruncates > 0,
+                "maxConcurrentTruncates shall be a positive integer");
 
         Quota limit;
         Quota used;
-        Quota excess;
 
-        while (true) {
-            if (shutDown || Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            // get it everytime in case the admin changed it while we're processsing
-            limit = quotaResolver.getLimit();
-            used = quotaResolver.getUsed();
-            excess = used.difference(limit);
-            if (excess.getBytes().compareTo(BigInteger.ZERO) <= 0) {
-                log.info("Reached back Quota: " + limit.toNiceString() + " (" + used.toNiceString() + ") for layers "
-                        + layerNames);
-                return;
+        // pages taken from the index and not yet expired, and the policy they are sorted by
+        final Deque<TilePage> candidates = new ArrayDeque<TilePage>();
+        ExpirationPolicy candidatesPolicy = null;
+        // pages that couldn't be truncated, still in the index but not to be offered again
+        final Set<TilePage> failed = new HashSet<TilePage>();
+        // cursor over the store pages, used when the index has no pages to offer
+        PageCursor cursor = null;
+        ExpirationPolicy cursorPolicy = null;
+
+        final long startTime = System.currentTimeMillis();
+        long usedAtStart = -1;
+        long usedAtEnd = -1;
+        long pagesExpired = 0;
+        try {
+            while (true) {
+                if (shutDown || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                // get it everytime in case the admin changed it while we're processsing
+                limit = quotaResolver.getLimit();
+                used = quotaResolver.getUsed();
+                usedAtEnd = used.getBytes().longValue();
+                if (usedAtStart == -1) {
+                    usedAtStart = usedAtEnd;
+                }
+                if (used.compareTo(limit) <= 0) {
+                    log.info("Reached back Quota: " + limit.toNiceString() + " ("
+                            + used.toNiceString() + ") for layers " + layerNames);
+                    return;
+                }
+                // same thing, check it every time
+                ExpirationPolicy expirationPolicy = quotaResolver.getExpirationPolicy();
+                if (null == expirationPolicy) {
+                    log.warn("Aborting disk quota enforcement task, no expiration policy defined for layers "
+                            + layerNames);
+                    return;
+                }
+
+                final List<TilePage> tilePages = new ArrayList<TilePage>(batchSize);
+                boolean fromIndex = false;
+                if (expirationIndex != null) {
+                    if (!expirationPolicy.equals(candidatesPolicy)) {
+                        candidates.clear();
+                        candidatesPolicy = expirationPolicy;
+                    }
+                    if (candidates.isEmpty()) {
+                        for (TilePage page : expirationIndex.getExpirationCandidates(layerNames,
+                                expirationPolicy, Math.max(batchSize, EXPIRATION_BATCH_SIZE)
+                                        + failed.size())) {
+                            if (!failed.contains(page)) {
+                                candidates.add(page);
+                            }
+                        }
+                    }
+                    while (tilePages.size() < batchSize && !candidates.isEmpty()) {
+                        tilePages.add(candidates.poll());
+                    }
+                    fromIndex = !tilePages.isEmpty();
+                }
+                if (tilePages.isEmpty()) {
+                    if (cursor == null || !expirationPolicy.equals(cursorPolicy)) {
+                        cursor = pageStore.getPagesToExpire(layerNames, expirationPolicy,
+                                batchSize);
+                        cursorPolicy = expirationPolicy;
+                    }
+                    if (cursor.hasNext()) {
+                        tilePages.addAll(cursor.next());
+                    }
+                }
+
+                if (tilePages.isEmpty()) {
+                    limit = quotaResolver.getLimit();
+                    Quota usedQuota = quotaResolver.getUsed();
+                    if (usedQuota.compareTo(limit) > 0) {
+                        log.warn("No more pages to expire, check if youd disk quota"
+                                + " database is out of date with your blob store. Quota: "
+                                + limit.toNiceString() + " used: " + usedQuota.toNiceString());
+                    }
+                    return;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Expiring tile pages " + tilePages + " based on the global "
+                            + expirationPolicy + " expiration policy");
+                }
+                if (shutDown || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                final Collection<TilePage> truncated;
+                if (batchSize > 1) {
+                    truncated = expirePages(pageStore, tilePages, maxConcurrentTruncates,
+                            expirationIndex);
+                } else {
+                    final TilePage tilePage = tilePages.get(0);
+                    boolean expired = false;
+                    if (fromIndex) {
+                        try {
+                            expired = expirePage(pageStore, tilePage, expirationIndex);
+                        } catch (IllegalArgumentException e) {
+                            // the tile set was deleted after the page was taken from the index
+                            log.debug("Skipping expiration of " + tilePage + ": "
+                                    + e.getMessage());
+                        }
+                    } else {
+                        expired = expirePage(pageStore, tilePage, expirationIndex);
+                    }
+                    truncated = expired ? tilePages : Collections.<TilePage> emptyList();
+                }
+                pagesExpired += truncated.size();
+                if (fromIndex && truncated.size() < tilePages.size()) {
+                    failed.addAll(tilePages);
+                    failed.removeAll(truncated);
+                }
             }
-            // same thing, check it every time
-            ExpirationPolicy expirationPolicy = quotaResolver.getExpirationPolicy();
-            if (null == expirationPolicy) {
-                log.warn("Aborting disk quota enforcement task, no expiration policy defined for layers "
-                        + layerNames);
-                return;
+        } finally {
+            if (pagesExpired > 0) {
+                long bytesReclaimed = Math.max(0, usedAtStart - usedAtEnd);
+                stats.record(pagesExpired, bytesReclaimed, System.currentTimeMillis() - startTime);
             }
+        }
+    }
 
-            TilePage tilePage = null;
-            if (ExpirationPolicy.LFU.equals(expirationPolicy)) {
-                tilePage = pageStore.getLeastFrequentlyUsedPage(layerNames);
-            } else if (ExpirationPolicy.LRU.equals(expirationPolicy)) {
-                tilePage = pageStore.getLeastRecentlyUsedPage(layerNames);
-            } else {
-                throw new IllegalStateException("Unrecognized expiration policy: "
-                        + expirationPolicy);
+    /**
+     * @return the throughput figures of the expiration runs performed so far
+     */
+    public CleanUpStats getStats() {
+        return stats.clone();
+    }
+
+    /**
+     * Truncates the page and marks it as truncated in the store and the index, if given
+     * 
+     * @return whether the page was truncated
+     */
+    private boolean expirePage(QuotaStore pageStore, TilePage tilePage,
+            PageExpirationIndex expirationIndex) throws InterruptedException {
+        final TileSet tileSet = pageStore.getTileSetById(tilePage.getTileSetId());
+        GWCTask truncateTask = createTruncateTaskForPage(pageStore, tileSet, tilePage);
+
+        // truncate synchronously. We're already inside the interested thread
+        try {
+            truncateTask.doAction();
+        } catch (InterruptedException e) {
+            log.debug("Truncate task interrupted");
+            return false;
+        } catch (GeoWebCacheException e) {
+            throw new RuntimeException(e);
+        }
+        if (truncateTask.getState() == GWCTask.STATE.DEAD) {
+            log.warn("Failed to truncate " + tilePage + ", it won't be marked as truncated");
+            return false;
+        }
+        pageStore.setTruncated(tilePage);
+        if (expirationIndex != null) {
+            expirationIndex.setTruncated(tilePage);
+        }
+        return true;
+    }
+
+    /**
+     * Truncates the given pages concurrently and marks the ones truncated in a single store
+     * transaction, and in the index if given. Pages whose tile set no longer exists, or whose
+     * truncation failed, are skipped.
+     * 
+     * @return the pages truncated
+     */
+    private Collection<TilePage> expirePages(final QuotaStore pageStore,
+            final List<TilePage> tilePages, final int maxConcurrentTruncates,
+            final PageExpirationIndex expirationIndex) throws InterruptedException {
+
+        // group the pages by blob store, so that a slow store doesn't take all the threads
+        final Map<String, Queue<PageTruncation>> byBlobStore = new HashMap<String, Queue<PageTruncation>>();
+        for (TilePage tilePage : tilePages) {
+            final TileSet tileSet;
+            try {
+                tileSet = pageStore.getTileSetById(tilePage.getTileSetId());
+            } catch (IllegalArgumentException e) {
+                // the tile set was deleted after the page was selected for expiration
+                log.debug("Skipping expiration of " + tilePage + ": " + e.getMessage());
+                continue;
             }
+            GWCTask truncateTask = createTruncateTaskForPage(pageStore, tileSet, tilePage);
+            final String blobStoreId = getBlobStoreId(tileSet.getLayerName());
+            Queue<PageTruncation> queue = byBlobStore.get(blobStoreId);
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<PageTruncation>();
+                byBlobStore.put(blobStoreId, queue);
+            }
+            queue.add(new PageTruncation(tilePage, truncateTask));
+        }
+        if (byBlobStore.isEmpty()) {
+            return Collections.emptyList();
+        }
 
-            if (tilePage == null) {
-                limit = quotaResolver.getLimit();
-                Quota usedQuota = quotaResolver.getUsed();
-                if (excess.getBytes().compareTo(BigInteger.ZERO) > 0) {
-                    log.warn("No more pages to expire, check if youd disk quota"
-                            + " database is out of date with your blob store. Quota: "
-                            + limit.toNiceString() + " used: " + usedQuota.toNiceString());
+        final int threadsPerBlobStore = Math.max(1, maxConcurrentTruncates / byBlobStore.size());
+        final Queue<TilePage> truncated = new ConcurrentLinkedQueue<TilePage>();
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        final ExecutorService executor = getTruncateExecutorService();
+        Throwable failure = null;
+        try {
+            for (Queue<PageTruncation> queue : byBlobStore.values()) {
+                final int threads = Math.min(threadsPerBlobStore, queue.size());
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(new PageTruncator(queue, truncated)));
                 }
-                return;
             }
-            if (log.isDebugEnabled()) {
-                log.debug("Expiring tile page " + tilePage + " based on the global "
-                        + expirationPolicy + " expiration policy");
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
             }
-            if (shutDown || Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
             }
+            // whatever happened, the truncated pages no longer hold tiles
+            if (!truncated.isEmpty()) {
+                pageStore.setTruncated(new ArrayList<TilePage>(truncated));
+                if (expirationIndex != null) {
+                    for (TilePage tilePage : truncated) {
+                        expirationIndex.setTruncated(tilePage);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+        return truncated;
+    }
+
+    private String getBlobStoreId(final String layerName) {
+        try {
+            return tileBreeder.findTileLayer(layerName).getBlobStoreId();
+        } catch (GeoWebCacheException e) {
+            // the layer is gone, its truncate task will be a no-op anyway
+            return null;
+        }
+    }
+
+    private synchronized ExecutorService getTruncateExecutorService() {
+        if (truncateExecutorService == null) {
+            CustomizableThreadFactory tf = new CustomizableThreadFactory(
+                    "GWC DiskQuota truncate thread-");
+            tf.setDaemon(true);
+            truncateExecutorService = Executors.newCachedThreadPool(tf);
+        }
+        return truncateExecutorService;
+    }
+
+    /**
+     * A page and the task that truncates it
+     */
+    private static class PageTruncation {
+
+        private final TilePage tilePage;
 
-            expirePage(pageStore, tilePage);
+        private final GWCTask truncateTask;
 
+        PageTruncation(TilePage tilePage, GWCTask truncateTask) {
+            this.tilePage = tilePage;
+            this.truncateTask = truncateTask;
         }
     }
 
-    private void expirePage(QuotaStore pageStore, TilePage tilePage) throws InterruptedException {
-        final String tileSetId = tilePage.getTileSetId();
-        final TileSet tileSet = pageStore.getTileSetById(tileSetId);
+    /**
+     * Runs the truncate tasks of a blob store queue until it's empty, shared by all the threads
+     * assigned to the blob store
+     */
+    private class PageTruncator implements Callable<Void> {
+
+        private final Queue<PageTruncation> queue;
+
+        private final Queue<TilePage> truncated;
+
+        PageTruncator(Queue<PageTruncation> queue, Queue<TilePage> truncated) {
+            this.queue = queue;
+            this.truncated = truncated;
+        }
+
+        public Void call() throws Exception {
+            PageTruncation truncation;
+            while ((truncation = queue.poll()) != null) {
+                if (shutDown || Thread.currentThread().isInterrupted()) {
+                    log.debug("Truncate task interrupted");
+                    return null;
+                }
+                try {
+                    truncation.truncateTask.doAction();
+                } catch (InterruptedException e) {
+                    log.debug("Truncate task interrupted");
+                    return null;
+                }
+                if (truncation.truncateTask.getState() == GWCTask.STATE.DEAD) {
+                    log.warn("Failed to truncate " + truncation.tilePage
+                            + ", it won't be marked as truncated");
+                } else {
+                    truncated.add(truncation.tilePage);
+                }
+            }
+            return null;
+        }
+    }
+
+    private GWCTask createTruncateTaskForPage(final QuotaStore pageStore, final TileSet tileSet,
+            final TilePage tilePage) throws InterruptedException {
         final String layerName = tileSet.getLayerName();
         final String gridSetId = tileSet.getGridsetId();
         final String blobFormat = tileSet.getBlobFormat();
@@ -224,19 +564,8 @@ public class CacheCleaner implements DisposableBean {
                 log.trace("Expiring page " + tilePage + "/" + mimeType.getFormat());
             }
         }
-        GWCTask truncateTask = createTruncateTaskForPage(layerName, gridSetId, zoomLevel,
-                pageGridCoverage, mimeType, parametersId);
-
-        // truncate synchronously. We're already inside the interested thread
-        try {
-            truncateTask.doAction();
-            pageStore.setTruncated(tilePage);
-        } catch (InterruptedException e) {
-            log.debug("Truncate task interrupted");
-            return;
-        } catch (GeoWebCacheException e) {
-            throw new RuntimeException(e);
-        }
+        return createTruncateTaskForPage(layerName, gridSetId, zoomLevel, pageGridCoverage,
+                mimeType, parametersId);
     }
 
     // FRD , Long parameterId
@@ -0,0 +1,152 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Throughput figures of the page expiration runs performed by the {@link CacheCleaner}, both
+ * accumulated since start up and for the last run.
+ * <p>
+ * The bytes reclaimed by a run are the decrease of the used quota observed by the cleaner while
+ * expiring pages, so they may lag behind the actual disk usage until the pending quota updates
+ * are processed.
+ * </p>
+ */
+public class CleanUpStats implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = -2587245961423207387L;
+
+    private long runs;
+
+    private long pagesExpired;
+
+    private long bytesReclaimed;
+
+    private long expirationTimeMillis;
+
+    private long bytesPerSecond;
+
+    private Date lastRunTime;
+
+    private long lastRunPagesExpired;
+
+    private long lastRunBytesReclaimed;
+
+    private long lastRunTimeMillis;
+
+    private long lastRunBytesPerSecond;
+
+    /**
+     * Accounts for an expiration run
+     *
+     * @param pages
+     *            number of pages expired
+     * @param bytes
+     *            number of bytes reclaimed
+     * @param millis
+     *            time taken by the run
+     */
+    synchronized void record(final long pages, final long bytes, final long millis) {
+        runs++;
+        pagesExpired += pages;
+        bytesReclaimed += bytes;
+        expirationTimeMillis += millis;
+        bytesPerSecond = perSecond(bytesReclaimed, expirationTimeMillis);
+
+        lastRunTime = new Date();
+        lastRunPagesExpired = pages;
+        lastRunBytesReclaimed = bytes;
+        lastRunTimeMillis = millis;
+        lastRunBytesPerSecond = perSecond(bytes, millis);
+    }
+
+    private static long perSecond(final long bytes, final long millis) {
+        return millis <= 0 ? bytes : (long) (bytes * 1000D / millis);
+    }
+
+    /**
+     * @return number of expiration runs that expired at least one page
+     */
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    public synchronized long getPagesExpired() {
+        return pagesExpired;
+    }
+
+    public synchronized long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    public synchronized long getExpirationTimeMillis() {
+        return expirationTimeMillis;
+    }
+
+    /**
+     * @return the overall bytes reclaimed per second of expiration time
+     */
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return when the last run finished, or {@code null} if no page was expired yet
+     */
+    public synchronized Date getLastRunTime() {
+        return lastRunTime == null ? null : new Date(lastRunTime.getTime());
+    }
+
+    public synchronized long getLastRunPagesExpired() {
+        return lastRunPagesExpired;
+    }
+
+    public synchronized long getLastRunBytesReclaimed() {
+        return lastRunBytesReclaimed;
+    }
+
+    public synchronized long getLastRunTimeMillis() {
+        return lastRunTimeMillis;
+    }
+
+    public synchronized long getLastRunBytesPerSecond() {
+        return lastRunBytesPerSecond;
+    }
+
+    /**
+     * @return a consistent copy of these stats
+     */
+    @Override
+    public synchronized CleanUpStats clone() {
+        CleanUpStats clone;
+        try {
+            clone = (CleanUpStats) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.lastRunTime = getLastRunTime();
+        return clone;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new StringBuilder(getClass().getSimpleName()).append("[runs: ").append(runs)
+                .append(", pages: ").append(pagesExpired).append(", bytes: ")
+                .append(bytesReclaimed).append(", bytes/s: ").append(bytesPerSecond)
+                .append("]").toString();
+    }
+}
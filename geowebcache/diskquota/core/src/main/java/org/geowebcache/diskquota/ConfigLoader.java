@@ -366,6 +366,23 @@ public class ConfigLoader {
         return new File(storageFinder.getDefaultPath());
     }
 
+    /**
+     * @return the directory holding the {@code geowebcache-diskquota.xml} configuration file, or
+     *         the cache directory if the configuration is not stored in a file
+     * @throws ConfigurationException
+     */
+    public File getConfigDir() throws ConfigurationException {
+        if (resourceProvider instanceof XMLFileResourceProvider) {
+            try {
+                return new File(resourceProvider.getLocation()).getParentFile();
+            } catch (IOException e) {
+                throw new ConfigurationException("Unable to locate the disk quota configuration "
+                        + "directory", e);
+            }
+        }
+        return getRootCacheDir();
+    }
+
     /**
      * Handles XStream conversion of {@link Quota}s to persist them as
      * {@code <value>value</value><units>StorageUnit</units>} instead of plain byte count.
@@ -51,6 +51,8 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
 
     static final int DEFAULT_MAX_CONCURRENT_CLEANUPS = 2;
 
+    static final int DEFAULT_EXPIRATION_BATCH_SIZE = 1;
+
     static ExpirationPolicy DEFAULT_GLOBAL_POLICY_NAME = ExpirationPolicy.LFU;
     
     private Boolean enabled;
@@ -64,6 +66,8 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
 
     private Integer maxConcurrentCleanUps;
 
+    private Integer expirationBatchSize;
+
     private ExpirationPolicy globalExpirationPolicyName;
 
     private Quota globalQuota;
@@ -88,6 +92,9 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
         if (maxConcurrentCleanUps == null) {
             maxConcurrentCleanUps = DEFAULT_MAX_CONCURRENT_CLEANUPS;
         }
+        if (expirationBatchSize == null) {
+            expirationBatchSize = DEFAULT_EXPIRATION_BATCH_SIZE;
+        }
         if (cacheCleanUpUnits == null) {
             cacheCleanUpUnits = DEFAULT_CLEANUP_UNITS;
         }
@@ -109,6 +116,7 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
         this.layerQuotas = other.layerQuotas == null ? null : new ArrayList<LayerQuota>(
                 other.layerQuotas);
         this.maxConcurrentCleanUps = other.maxConcurrentCleanUps;
+        this.expirationBatchSize = other.expirationBatchSize;
         this.quotaStore = other.quotaStore;
     }
 
@@ -226,6 +234,22 @@ public class DiskQuotaConfig implements Cloneable, Serializable {
         this.maxConcurrentCleanUps = nThreads;
     }
 
+    /**
+     * @return the number of tile pages the cache cleaner expires at once, truncating them
+     *         concurrently and committing them to the quota store in a single transaction
+     */
+    public Integer getExpirationBatchSize() {
+        return expirationBatchSize;
+    }
+
+    public void setExpirationBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException(
+                    "expirationBatchSize shall be a positive integer: " + batchSize);
+        }
+        this.expirationBatchSize = batchSize;
+    }
+
     /**
      * @return the global quota, or {@code null} if not set
      */
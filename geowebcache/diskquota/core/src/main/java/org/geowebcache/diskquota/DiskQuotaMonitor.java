@@ -89,6 +89,11 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
 
     private QuotaStore quotaStore;
 
+    /**
+     * In memory index of the {@link #quotaStore} tile pages used to find the pages to expire
+     */
+    private PageExpirationIndex expirationIndex;
+
     /**
      * Executor service for the periodic clean up of layers caches that exceed its quota
      * 
@@ -244,8 +249,12 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
         
         quotaStore = quotaStoreProvider.getQuotaStore();
 
-        quotaUsageMonitor = new QuotaUpdatesMonitor(quotaConfig, storageBroker, quotaStore);
-        usageStatsMonitor = new UsageStatsMonitor(quotaStore, tileLayerDispatcher);
+        expirationIndex = new PageExpirationIndex(quotaStore);
+
+        quotaUsageMonitor = new QuotaUpdatesMonitor(quotaConfig, storageBroker, quotaStore,
+                expirationIndex);
+        usageStatsMonitor = new UsageStatsMonitor(quotaStore, tileLayerDispatcher,
+                expirationIndex);
 
         if (cleanUpExecutorService != null) {
             log.info("Shutting down clean up executor service...");
@@ -258,6 +267,7 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
 
         quotaUsageMonitor.startUp();
 
+        usageStatsMonitor.setRecomputationService(quotaUsageMonitor.getRecomputationService());
         usageStatsMonitor.startUp();
 
         // the tasks that poll the status of the used quotas periodically and performs the clean up
@@ -386,18 +396,30 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
 
         LayerCacheInfoBuilder cacheInfoBuilder;
         File cacheRoot;
+        File checkpointDir;
         try {
             cacheRoot = new File(storageFinder.getDefaultPath());
+            checkpointDir = new File(configLoader.getConfigDir(),
+                    LayerCacheInfoBuilder.CHECKPOINT_DIR);
         } catch (ConfigurationException e) {
             throw new RuntimeException(e);
         }
-        cacheInfoBuilder = new LayerCacheInfoBuilder(cacheRoot, cleanUpExecutorService,
-                quotaUsageMonitor);
+        cacheInfoBuilder = new LayerCacheInfoBuilder(cacheRoot, checkpointDir,
+                cleanUpExecutorService, quotaUsageMonitor);
 
         for (String layerName : tileLayerDispatcher.getLayerNames()) {
 
             Quota usedQuota = quotaStore.getUsedQuotaByLayerName(layerName);
-            if (usedQuota.getBytes().compareTo(BigInteger.ZERO) > 0) {
+            final boolean hasUsedQuota = usedQuota.getBytes().compareTo(BigInteger.ZERO) > 0;
+            if (hasUsedQuota && cacheInfoBuilder.isScanPending(layerName)) {
+                log.info("Resuming the interrupted disk usage scan of layer " + layerName);
+                try {
+                    cacheInfoBuilder.buildCacheInfo(tileLayerDispatcher.getTileLayer(layerName),
+                            true);
+                } catch (GeoWebCacheException e) {
+                    log.warn("Unable to resume the disk usage scan of layer " + layerName, e);
+                }
+            } else if (hasUsedQuota) {
                 log.debug("Using saved quota information for layer " + layerName + ": "
                         + usedQuota.toNiceString());
             } else {
@@ -524,10 +546,44 @@ public class DiskQuotaMonitor implements InitializingBean, DisposableBean {
      * </ul>
      * </p>
      * 
-     * @see CacheCleaner#expireByLayerNames(Set, QuotaResolver)
+     * @see CacheCleaner#expireByLayerNames(Set, QuotaResolver, QuotaStore, PageExpirationIndex,
+     *      int, int)
      */
     public void expireByLayerNames(Set<String> layerNames, QuotaResolver quotaResolver)
             throws InterruptedException {
-        cacheCleaner.expireByLayerNames(layerNames, quotaResolver, quotaStore);
+        Integer batchSize = quotaConfig.getExpirationBatchSize();
+        cacheCleaner.expireByLayerNames(layerNames, quotaResolver, quotaStore, expirationIndex,
+                batchSize == null ? 1 : batchSize.intValue(),
+                quotaConfig.getMaxConcurrentCleanUps());
+    }
+
+    /**
+     * @return the throughput figures of the cache clean ups performed so far
+     */
+    public CleanUpStats getCleanUpStats() {
+        return cacheCleaner.getStats();
+    }
+
+    /**
+     * @return the status of the background application of layer deletes and renames to the quota
+     *         store, or {@code null} if disk quota is not running or they're applied synchronously
+     */
+    public QuotaRecomputationStatus getRecomputationStatus() {
+        QuotaUpdatesMonitor monitor = quotaUsageMonitor;
+        return monitor == null ? null : monitor.getRecomputationStatus();
+    }
+
+    /**
+     * @return the quota updates monitor, or {@code null} if disk quota is not running
+     */
+    public QuotaUpdatesMonitor getQuotaUpdatesMonitor() {
+        return quotaUsageMonitor;
+    }
+
+    /**
+     * @return the usage statistics monitor, or {@code null} if disk quota is not running
+     */
+    public UsageStatsMonitor getUsageStatsMonitor() {
+        return usageStatsMonitor;
     }
 }
@@ -19,6 +19,13 @@ package org.geowebcache.diskquota;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,11 +36,12 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.geowebcache.diskquota.storage.LayerQuota;
+import org.geowebcache.diskquota.storage.PagePyramid;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TileSet;
@@ -42,10 +50,16 @@ import org.geowebcache.layer.TileLayer;
 import org.geowebcache.mime.MimeException;
 import org.geowebcache.mime.MimeType;
 import org.geowebcache.storage.blobstore.file.FilePathUtils;
-import org.geowebcache.util.FileUtils;
 
 /**
  * Gathers information about the cache of a layer, such as its size and available {@link TilePage}s.
+ * <p>
+ * Each zoom level directory is scanned by a separate task of the thread pool, which walks its tile
+ * directories reading the file sizes from the directory listing attributes, aggregates the tile
+ * counts per tile page, and commits them to the quota store once per tile directory. The
+ * completed directories are recorded in a {@link ScanCheckpoint} per layer, so that a scan
+ * interrupted by a shut down is resumed where it was left on the next start up.
+ * </p>
  * 
  * @author groldan
  */
@@ -53,38 +67,66 @@ final class LayerCacheInfoBuilder {
 
     private static final Log log = LogFactory.getLog(LayerCacheInfoBuilder.class);
 
+    /**
+     * Name of the directory, under the disk quota configuration directory, holding the layer scan
+     * checkpoints
+     */
+    static final String CHECKPOINT_DIR = "diskquota_scan";
+
     private final File rootCacheDir;
 
+    private final File checkpointDir;
+
     private final ExecutorService threadPool;
 
     private final Map<String, List<Future<ZoomLevelVisitor.Stats>>> perLayerRunningTasks;
 
     private final QuotaUpdatesMonitor quotaUsageMonitor;
 
-    private boolean closed = false;
+    private volatile boolean closed = false;
 
-    public LayerCacheInfoBuilder(final File rootCacheDir, final ExecutorService threadPool,
-            QuotaUpdatesMonitor quotaUsageMonitor) {
+    /**
+     * @param rootCacheDir
+     *            the cache directory holding the layer directories to scan
+     * @param checkpointDir
+     *            the directory where the layer scan checkpoints are kept
+     * @param threadPool
+     * @param quotaUsageMonitor
+     */
+    public LayerCacheInfoBuilder(final File rootCacheDir, final File checkpointDir,
+            final ExecutorService threadPool, QuotaUpdatesMonitor quotaUsageMonitor) {
         this.rootCacheDir = rootCacheDir;
+        this.checkpointDir = checkpointDir;
         this.threadPool = threadPool;
         this.quotaUsageMonitor = quotaUsageMonitor;
         this.perLayerRunningTasks = new HashMap<String, List<Future<ZoomLevelVisitor.Stats>>>();
     }
 
+    /**
+     * @return whether a previous scan of the layer's cache was interrupted before finishing, and
+     *         can be resumed with {@link #buildCacheInfo(TileLayer, boolean)}
+     */
+    public boolean isScanPending(final String layerName) {
+        return checkpointFile(layerName).exists();
+    }
+
+    private File checkpointFile(final String layerName) {
+        return new File(checkpointDir, FilePathUtils.filteredLayerName(layerName) + ".checkpoint");
+    }
+
+    /**
+     * Same as {@link #buildCacheInfo(TileLayer, boolean) buildCacheInfo(tileLayer, false)}
+     */
+    public void buildCacheInfo(final TileLayer tileLayer) {
+        buildCacheInfo(tileLayer, false);
+    }
+
     /**
      * Asynchronously collects cache usage information for the given {@code tileLayer} into the
-     * given {@code layerQuota} by using the provided {@link ExecutorService} at construction time.
+     * quota store by using the provided {@link ExecutorService} at construction time.
      * <p>
-     * This method discards any {@link LayerQuota#getUsedQuota() used quota} information available
-     * for {@code layerQuota} and updates it by collecting the usage information for the layer.
-     * </p>
-     * <p>
-     * In addition to collecting the cache usage information for the layer, the {@code layerQuota}'s
-     * {@link ExpirationPolicy expiration policy} will be given the opportunity to gather any
-     * additional information by calling the
-     * {@link ExpirationPolicy#createInfoFor(LayerQuota, String, long[], File)
-     * createInforFor(layerQuota, gridSetId, tileXYZ, file)} method for each available tile on the
-     * layer's cache.
+     * Unless {@code resume} is {@code true}, the layer is expected to have no used quota
+     * information in the quota store, as the collected usage is added to it.
      * </p>
      * <p>
      * Note the cache information gathering is performed asynchronously and hence this method
@@ -93,8 +135,11 @@ final class LayerCacheInfoBuilder {
      * </p>
      * 
      * @param tileLayer
+     * @param resume
+     *            if {@code true} and a previous scan of the layer was interrupted, skips the
+     *            directories it already accounted for, otherwise scans the whole layer cache
      */
-    public void buildCacheInfo(final TileLayer tileLayer) {
+    public void buildCacheInfo(final TileLayer tileLayer, final boolean resume) {
 
         final String layerName = tileLayer.getName();
         final String layerDirName = FilePathUtils.filteredLayerName(layerName);
@@ -102,13 +147,28 @@ final class LayerCacheInfoBuilder {
         final File layerDir = new File(rootCacheDir, layerDirName);
 
         if (!layerDir.exists()) {
+            checkpointFile(layerName).delete();
             return;
         }
 
+        ScanCheckpoint checkpoint = null;
+        try {
+            checkpoint = ScanCheckpoint.open(checkpointFile(layerName), resume);
+            if (checkpoint.size() > 0) {
+                log.info("Resuming the disk usage scan of layer " + layerName + ", "
+                        + checkpoint.size() + " directories were already accounted for");
+            }
+        } catch (IOException e) {
+            log.warn("Unable to open the disk usage scan checkpoint for layer " + layerName
+                    + ", the scan will start over if interrupted", e);
+        }
+
         perLayerRunningTasks.put(layerName, new ArrayList<Future<ZoomLevelVisitor.Stats>>());
 
         final Set<TileSet> onDiskTileSets = findOnDiskTileSets(tileLayer, layerDir);
 
+        List<ZoomLevelVisitor> visitors = new ArrayList<ZoomLevelVisitor>();
+        final LayerScan layerScan = new LayerScan(layerName, checkpoint);
         for (TileSet tileSet : onDiskTileSets) {
             final String gridSetId = tileSet.getGridsetId();
             // final String blobFormat = tileSet.getBlobFormat();
@@ -126,20 +186,97 @@ final class LayerCacheInfoBuilder {
                 }
                 final File gridsetZLevelDir = new File(layerDir, gridsetZLevelParamsDirName);
 
-                if (gridsetZLevelDir.exists()) {
-                    ZoomLevelVisitor cacheInfoBuilder;
-                    cacheInfoBuilder = new ZoomLevelVisitor(layerName, gridsetZLevelDir, gridSetId,
-                            zoomLevel, parametersId, quotaUsageMonitor);
+                if (gridsetZLevelDir.exists()
+                        && !layerScan.isCompleted(gridsetZLevelParamsDirName)) {
+                    visitors.add(new ZoomLevelVisitor(layerName, gridsetZLevelDir, gridSetId,
+                            zoomLevel, parametersId, quotaUsageMonitor, layerScan));
+                }
+            }
+        }
+
+        layerScan.setPendingTasks(visitors.size());
+        for (ZoomLevelVisitor cacheInfoBuilder : visitors) {
+            Future<ZoomLevelVisitor.Stats> cacheTask;
+            cacheTask = threadPool.submit(cacheInfoBuilder);
+
+            perLayerRunningTasks.get(layerName).add(cacheTask);
+            log.debug("Submitted background task to gather cache info for '" + layerName + "'/"
+                    + cacheInfoBuilder.gridSetId + "/" + cacheInfoBuilder.tileZ);
+        }
+    }
+
+    /**
+     * Tracks the zoom level tasks of a layer scan, deleting its checkpoint once all of them
+     * finished successfully
+     */
+    private final class LayerScan {
+
+        private final String layerName;
+
+        private final ScanCheckpoint checkpoint;
+
+        private final AtomicInteger pendingTasks = new AtomicInteger();
+
+        private volatile boolean failed;
 
-                    Future<ZoomLevelVisitor.Stats> cacheTask;
-                    cacheTask = threadPool.submit(cacheInfoBuilder);
+        LayerScan(final String layerName, final ScanCheckpoint checkpoint) {
+            this.layerName = layerName;
+            this.checkpoint = checkpoint;
+        }
+
+        void setPendingTasks(final int count) {
+            pendingTasks.set(count);
+            if (count == 0) {
+                finished();
+            }
+        }
+
+        boolean isCompleted(final String entry) {
+            return checkpoint != null && checkpoint.isCompleted(entry);
+        }
 
-                    perLayerRunningTasks.get(layerName).add(cacheTask);
-                    log.debug("Submitted background task to gather cache info for '" + layerName
-                            + "'/" + gridSetId + "/" + zoomLevel);
+        /**
+         * Commits the usage of a walked tile directory and records it as completed. Holds the
+         * layer lock so that the tile directories of the layer are committed and checkpointed one
+         * at a time, in the same order
+         */
+        synchronized void commit(final ZoomLevelVisitor visitor, final String entry)
+                throws InterruptedException {
+            visitor.commit();
+            complete(entry);
+        }
+
+        synchronized void complete(final String entry) {
+            if (checkpoint != null) {
+                try {
+                    checkpoint.complete(entry);
+                } catch (IOException e) {
+                    log.warn("Unable to update the disk usage scan checkpoint of layer "
+                            + layerName, e);
                 }
             }
         }
+
+        void taskFinished(final boolean success) {
+            if (!success) {
+                failed = true;
+            }
+            if (pendingTasks.decrementAndGet() == 0) {
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (checkpoint == null) {
+                return;
+            }
+            if (failed || closed) {
+                // keep it to resume the scan on the next start up
+                checkpoint.close();
+            } else {
+                checkpoint.delete();
+            }
+        }
     }
 
     private Set<TileSet> findOnDiskTileSets(final TileLayer tileLayer, final File layerDir) {
@@ -184,7 +321,7 @@ final class LayerCacheInfoBuilder {
      * @author groldan
      * 
      */
-    private final class ZoomLevelVisitor implements FileFilter,
+    private final class ZoomLevelVisitor extends SimpleFileVisitor<Path> implements
             Callable<ZoomLevelVisitor.Stats> {
 
         private final String gridSetId;
@@ -201,6 +338,18 @@ final class LayerCacheInfoBuilder {
 
         private final String parametersId;
 
+        private final LayerScan layerScan;
+
+        /**
+         * Aggregated tile counts of the tile directory being walked, per blob format
+         */
+        private final Map<String, PageAggregate> aggregates = new HashMap<String, PageAggregate>();
+
+        /**
+         * Blob formats per file extension, to avoid looking up the mime type for each tile
+         */
+        private final Map<String, String> formats = new HashMap<String, String>();
+
         private class Stats {
             long runTimeMillis;
 
@@ -211,13 +360,14 @@ final class LayerCacheInfoBuilder {
 
         public ZoomLevelVisitor(final String layerName, final File zoomLevelPath,
                 final String gridsetId, final int zoomLevel, String parametersId,
-                final QuotaUpdatesMonitor quotaUsageMonitor) {
+                final QuotaUpdatesMonitor quotaUsageMonitor, final LayerScan layerScan) {
             this.layerName = layerName;
             this.zoomLevelPath = zoomLevelPath;
             this.gridSetId = gridsetId;
             this.parametersId = parametersId;
             this.quotaUsageMonitor = quotaUsageMonitor;
             this.tileZ = zoomLevel;
+            this.layerScan = layerScan;
             this.stats = new Stats();
         }
 
@@ -227,20 +377,42 @@ final class LayerCacheInfoBuilder {
         public Stats call() throws Exception {
             final String zLevelKey = layerName + "'/" + gridSetId + "/paramId:"
                     + (parametersId == null ? "default" : parametersId) + "/zlevel:" + tileZ;
+            boolean success = false;
             try {
                 log.debug("Gathering cache information for '" + zLevelKey);
                 stats.numTiles = 0L;
                 stats.runTimeMillis = 0L;
                 long runTime = System.currentTimeMillis();
-                FileUtils.traverseDepth(zoomLevelPath, this);
+                final String zoomDirName = zoomLevelPath.getName();
+                DirectoryStream<Path> tileDirs = Files.newDirectoryStream(zoomLevelPath.toPath());
+                try {
+                    for (Path tileDir : tileDirs) {
+                        final String entry = zoomDirName + "/" + tileDir.getFileName();
+                        if (layerScan.isCompleted(entry)) {
+                            continue;
+                        }
+                        Files.walkFileTree(tileDir, this);
+                        if (closed) {
+                            throw new TraversalCanceledException();
+                        }
+                        // commit the tile directory's usage before recording it as completed
+                        layerScan.commit(this, entry);
+                    }
+                } finally {
+                    tileDirs.close();
+                }
+                layerScan.complete(zoomDirName);
                 runTime = System.currentTimeMillis() - runTime;
                 stats.runTimeMillis = runTime;
+                success = true;
             } catch (TraversalCanceledException cancel) {
                 log.debug("Gathering cache information for " + zLevelKey + " was canceled.");
                 return null;
             } catch (Exception e) {
-                e.printStackTrace();
+                log.error("Error gathering cache information for " + zLevelKey, e);
                 throw (e);
+            } finally {
+                layerScan.taskFinished(success);
             }
             log.debug("Cache information for " + zLevelKey + " collected in " + stats.runTimeMillis
                     / 1000D + "s. Counted " + stats.numTiles + " tiles for a storage space of "
@@ -248,46 +420,102 @@ final class LayerCacheInfoBuilder {
             return stats;
         }
 
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if (closed) {
+                return FileVisitResult.TERMINATE;
+            }
+            log.trace("Processing files in " + dir);
+            return FileVisitResult.CONTINUE;
+        }
+
         /**
-         * @see java.io.FileFilter#accept(java.io.File)
+         * Accounts for a tile file, its size comes from the attributes read along with the
+         * directory listing so no extra file system call is needed
          */
-        public boolean accept(final File file) {
-            if(closed) {
-                throw new TraversalCanceledException();
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+            if (closed) {
+                return FileVisitResult.TERMINATE;
             }
-            if (file.isDirectory()) {
-                log.trace("Processing files in " + file.getAbsolutePath());
-                return true;
+            final long length = attrs.size();
+            if (!attrs.isRegularFile() || length == 0) {
+                return FileVisitResult.CONTINUE;
             }
 
-            final long length = file.length();
-
-            // we know path is a direct child of processingDir and represents a tile file...
-            final String path = file.getPath();
-
-            final int fileNameIdx = 1 + path.lastIndexOf(File.separatorChar);
-            final int coordSepIdx = path.lastIndexOf('_');
-            final int dotIdx = path.lastIndexOf('.');
-            final String extension = FilenameUtils.getExtension(file.getName());
-            String blobFormat;
+            // tile file names are <x>_<y>.<extension>
+            final String name = file.getFileName().toString();
+            final int coordSepIdx = name.lastIndexOf('_');
+            final int dotIdx = name.lastIndexOf('.');
+            if (coordSepIdx <= 0 || dotIdx < coordSepIdx) {
+                log.debug("Ignoring non tile file " + file);
+                return FileVisitResult.CONTINUE;
+            }
+            final String blobFormat = getBlobFormat(name.substring(dotIdx + 1));
+            final long x;
+            final long y;
             try {
-                blobFormat = MimeType.createFromExtension(extension).getFormat();
-            } catch (MimeException e) {
-                throw new RuntimeException(e);
+                x = Long.parseLong(name.substring(0, coordSepIdx));
+                y = Long.parseLong(name.substring(1 + coordSepIdx, dotIdx));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring non tile file " + file);
+                return FileVisitResult.CONTINUE;
+            }
+            if (blobFormat == null) {
+                log.debug("Ignoring file of unknown format " + file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            PageAggregate aggregate = aggregates.get(blobFormat);
+            if (aggregate == null) {
+                TileSet tileSet = new TileSet(layerName, gridSetId, blobFormat, parametersId);
+                aggregate = new PageAggregate(tileSet);
+                aggregates.put(blobFormat, aggregate);
             }
-            final long x = Long.valueOf(path.substring(fileNameIdx, coordSepIdx));
-            final long y = Long.valueOf(path.substring(1 + coordSepIdx, dotIdx));
+            aggregate.add(x, y, tileZ, length);
 
-            this.quotaUsageMonitor.tileStored(layerName, gridSetId, blobFormat, parametersId, x, y,
-                    (int) tileZ, length);
             stats.numTiles++;
             stats.collectedQuota.addBytes(length);
-            return true;
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // the file may have been removed while walking the tree
+            log.debug("Unable to read the attributes of " + file + ": " + e.getMessage());
+            return FileVisitResult.CONTINUE;
+        }
+
+        private String getBlobFormat(final String extension) {
+            if (!formats.containsKey(extension)) {
+                String format;
+                try {
+                    format = MimeType.createFromExtension(extension).getFormat();
+                } catch (MimeException e) {
+                    format = null;
+                } catch (RuntimeException e) {
+                    format = null;
+                }
+                formats.put(extension, format);
+            }
+            return formats.get(extension);
         }
 
         /**
-         * Used to brute-force cancel a cache inspection (as InterruptedException is checked and
-         * hence can't use it in accept(File) above
+         * Commits the aggregated tile counts and sizes of the walked tiles to the quota store
+         */
+        private void commit() throws InterruptedException {
+            for (PageAggregate aggregate : aggregates.values()) {
+                if (aggregate.pages.size() > 0) {
+                    quotaUsageMonitor.addToQuotaAndTileCounts(aggregate.tileSet, new Quota(
+                            aggregate.bytes), aggregate.pages.values());
+                }
+            }
+            aggregates.clear();
+        }
+
+        /**
+         * Used to brute-force cancel a cache inspection
          * 
          * @author groldan
          * 
@@ -298,6 +526,48 @@ final class LayerCacheInfoBuilder {
         }
     }
 
+    /**
+     * Tile counts per page and total size of the tiles of a tile set found while walking a tile
+     * directory
+     */
+    private final class PageAggregate {
+
+        private final TileSet tileSet;
+
+        private final PagePyramid pagePyramid;
+
+        private final Map<String, PageStatsPayload> pages = new HashMap<String, PageStatsPayload>();
+
+        private final int[] pageIndexTarget = new int[3];
+
+        private final StringBuilder pageIdTarget = new StringBuilder(128);
+
+        private long bytes;
+
+        PageAggregate(final TileSet tileSet) {
+            this.tileSet = tileSet;
+            this.pagePyramid = quotaUsageMonitor.getTilePageCalculator().getPagePyramid(tileSet);
+        }
+
+        void add(final long x, final long y, final int z, final long size) {
+            pagePyramid.pageIndexForTile(x, y, z, pageIndexTarget);
+            final int pageX = pageIndexTarget[0];
+            final int pageY = pageIndexTarget[1];
+            final int pageZ = pageIndexTarget[2];
+
+            pageIdTarget.setLength(0);
+            TilePage.computeId(tileSet.getId(), pageX, pageY, pageZ, pageIdTarget);
+            final String pageKey = pageIdTarget.toString();
+            PageStatsPayload payload = pages.get(pageKey);
+            if (payload == null) {
+                payload = new PageStatsPayload(new TilePage(tileSet.getId(), pageX, pageY, pageZ));
+                pages.put(pageKey, payload);
+            }
+            payload.setNumTiles(payload.getNumTiles() + 1);
+            bytes += size;
+        }
+    }
+
     /**
      * Returns whether cache information is still being gathered for the layer named after
      * {@code layerName}.
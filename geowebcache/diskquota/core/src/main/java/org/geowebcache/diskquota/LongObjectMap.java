@@ -0,0 +1,136 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal open addressing hash map with primitive {@code long} keys, used to aggregate values by
+ * {@link org.geowebcache.diskquota.storage.TilePage#packKey packed tile page key} without boxing
+ * the keys nor allocating an entry per mapping.
+ * <p>
+ * Supports only the operations needed by the disk quota aggregation: no removals, and
+ * {@code null} values are not allowed. Instances are <b>not</b> thread safe.
+ * </p>
+ */
+final class LongObjectMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private int size;
+
+    /**
+     * Number of mappings at which the tables are doubled, keeps the load factor at 0.5
+     */
+    private int resizeThreshold;
+
+    public LongObjectMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeThreshold = capacity / 2;
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or {@code null} if there's none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final int mask = keys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            Object value = values[i];
+            if (value == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    /**
+     * Maps {@code value} to {@code key}, replacing any previous mapping
+     */
+    public void put(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+        final int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeThreshold) {
+            resize();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the mapped values
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = new ArrayList<V>(size);
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+        return list;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        final int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Spreads the key bits before masking, as packed keys differ mostly in their low bits
+     */
+    private static int slot(final long key, final int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
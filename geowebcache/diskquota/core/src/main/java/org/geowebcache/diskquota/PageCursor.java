@@ -0,0 +1,45 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.util.List;
+import java.util.Set;
+
+import org.geowebcache.diskquota.storage.TilePage;
+
+/**
+ * Walks the pages with tiles of a set of layers in expiration order, a chunk at a time.
+ * <p>
+ * Each chunk starts after the last page of the previous one, so pages that are still there after
+ * being expired, for example because their truncation failed, are not returned again.
+ * </p>
+ *
+ * @see QuotaStore#getPagesToExpire(Set, ExpirationPolicy, int)
+ */
+public interface PageCursor {
+
+    /**
+     * @return whether there might be more pages to return
+     */
+    public boolean hasNext();
+
+    /**
+     * Fetches the next chunk of pages
+     *
+     * @return up to the chunk size pages, an empty list once there are no more pages
+     * @throws InterruptedException
+     */
+    public List<TilePage> next() throws InterruptedException;
+}
@@ -0,0 +1,478 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+import org.springframework.util.Assert;
+
+/**
+ * In memory index of the tile pages ordered by frequency of use and by last access time, used by
+ * the {@link CacheCleaner} to pick batches of pages to expire without querying the
+ * {@link QuotaStore} once per page.
+ * <p>
+ * The index is loaded from the quota store the first time it's asked for expiration candidates,
+ * outside of its lock so that the updates aren't held back meanwhile; they're queued and applied
+ * to the loaded contents before these replace the empty ones, and other requests for candidates
+ * get none until then. From then on it's kept up to date by the
+ * {@link QueuedQuotaUpdatesConsumer} and the
+ * {@link QueuedUsageStatsConsumer}, which apply to it the same page statistics updates they send
+ * to the store. The store is still the source of truth, the index only provides candidates and
+ * may slightly lag behind it; it's discarded with {@link #invalidate()} when layers are deleted or
+ * renamed, and reloaded on the next request.
+ * </p>
+ *
+ * @see CacheCleaner#expireByLayerNames(Set, CacheCleaner.QuotaResolver, QuotaStore,
+ *      PageExpirationIndex)
+ */
+public class PageExpirationIndex {
+
+    private static final Log log = LogFactory.getLog(PageExpirationIndex.class);
+
+    private static final Comparator<IndexedPage> LFU_ORDER = new Comparator<IndexedPage>() {
+
+        public int compare(IndexedPage p1, IndexedPage p2) {
+            int c = Float.compare(p1.stats.getFrequencyOfUsePerMinute(),
+                    p2.stats.getFrequencyOfUsePerMinute());
+            return c != 0 ? c : p1.page.getKey().compareTo(p2.page.getKey());
+        }
+    };
+
+    private static final Comparator<IndexedPage> LRU_ORDER = new Comparator<IndexedPage>() {
+
+        public int compare(IndexedPage p1, IndexedPage p2) {
+            int c = Integer.compare(p1.stats.getLastAccessTimeMinutes(),
+                    p2.stats.getLastAccessTimeMinutes());
+            return c != 0 ? c : p1.page.getKey().compareTo(p2.page.getKey());
+        }
+    };
+
+    /**
+     * A tile page and its statistics. The statistics are mutable, so a page must be removed from
+     * the sorted sets before updating them and added back afterwards.
+     */
+    private static class IndexedPage {
+
+        private final TilePage page;
+
+        private final String layerName;
+
+        private final PageStats stats;
+
+        IndexedPage(TilePage page, String layerName, PageStats stats) {
+            this.page = page;
+            this.layerName = layerName;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * The pages of a layer that hold tiles, by LFU and LRU expiration order
+     */
+    private static class LayerPages {
+
+        private final NavigableSet<IndexedPage> byFrequency = new TreeSet<IndexedPage>(
+                LFU_ORDER);
+
+        private final NavigableSet<IndexedPage> byAccessTime = new TreeSet<IndexedPage>(
+                LRU_ORDER);
+
+        NavigableSet<IndexedPage> get(final ExpirationPolicy expirationPolicy) {
+            return ExpirationPolicy.LFU.equals(expirationPolicy) ? byFrequency : byAccessTime;
+        }
+
+        void add(final IndexedPage indexed) {
+            byFrequency.add(indexed);
+            byAccessTime.add(indexed);
+        }
+
+        void remove(final IndexedPage indexed) {
+            byFrequency.remove(indexed);
+            byAccessTime.remove(indexed);
+        }
+    }
+
+    /**
+     * The contents of the index, swapped as a whole once loaded
+     */
+    private static class Contents {
+
+        /**
+         * All the known pages by {@link TilePage#getKey() key}
+         */
+        private final Map<String, IndexedPage> pages = new HashMap<String, IndexedPage>();
+
+        /**
+         * The pages that hold tiles by layer name, so that the candidates of a layer or quota
+         * group are found without walking the pages of all the other layers
+         */
+        private final Map<String, LayerPages> layers = new HashMap<String, LayerPages>();
+
+        /**
+         * Layer names by tile set id, for the tile sets known at load time
+         */
+        private final Map<String, String> layerNames = new HashMap<String, String>();
+
+        /**
+         * Removes the page from the sorted sets, so that its stats can be updated, creating it if
+         * it doesn't exist
+         */
+        IndexedPage remove(final TilePage page, final String layerName) {
+            IndexedPage indexed = pages.get(page.getKey());
+            if (indexed == null) {
+                indexed = new IndexedPage(page, layerName, new PageStats(0));
+                pages.put(page.getKey(), indexed);
+            } else {
+                unsort(indexed);
+            }
+            return indexed;
+        }
+
+        void add(final IndexedPage indexed) {
+            pages.put(indexed.page.getKey(), indexed);
+            if (indexed.stats.getFillFactor() > 0f) {
+                LayerPages layerPages = layers.get(indexed.layerName);
+                if (layerPages == null) {
+                    layerPages = new LayerPages();
+                    layers.put(indexed.layerName, layerPages);
+                }
+                layerPages.add(indexed);
+            }
+        }
+
+        void unsort(final IndexedPage indexed) {
+            LayerPages layerPages = layers.get(indexed.layerName);
+            if (layerPages != null) {
+                layerPages.remove(indexed);
+            }
+        }
+    }
+
+    /**
+     * An update received while the index was being loaded, to apply to the loaded contents
+     */
+    private interface PendingUpdate {
+
+        void applyTo(Contents contents);
+    }
+
+    /**
+     * Iterates over the sorted pages of a layer, keeping the current one to compare it with the
+     * ones of the other layers
+     */
+    private static class LayerCursor {
+
+        private final Iterator<IndexedPage> pages;
+
+        private IndexedPage head;
+
+        LayerCursor(Iterator<IndexedPage> pages) {
+            this.pages = pages;
+        }
+
+        boolean next() {
+            head = pages.hasNext() ? pages.next() : null;
+            return head != null;
+        }
+    }
+
+    private final QuotaStore quotaStore;
+
+    private final TilePageCalculator tilePageCalculator;
+
+    private Contents contents = new Contents();
+
+    private boolean loaded;
+
+    /**
+     * The updates received while the index is being loaded, {@code null} if it's not being loaded
+     */
+    private List<PendingUpdate> pendingUpdates;
+
+    /**
+     * Incremented by {@link #invalidate()}, so that a load that started before is discarded
+     */
+    private long generation;
+
+    /**
+     * Whether the quota store can't {@link QuotaStore#accept(TilePageVisitor) list its pages}, in
+     * which case the index stays empty
+     */
+    private boolean unsupported;
+
+    public PageExpirationIndex(final QuotaStore quotaStore) {
+        Assert.notNull(quotaStore, "quotaStore can't be null");
+        this.quotaStore = quotaStore;
+        this.tilePageCalculator = quotaStore.getTilePageCalculator();
+    }
+
+    /**
+     * Returns up to {@code maxPages} pages holding tiles of the given layers, in expiration order
+     * for the given policy, loading the index from the quota store if needed.
+     *
+     * @param layerNames
+     *            the layers to expire tile pages from
+     * @param expirationPolicy
+     *            {@link ExpirationPolicy#LFU} or {@link ExpirationPolicy#LRU}
+     * @param maxPages
+     *            the maximum number of pages to return
+     * @return the expiration candidates, empty if no page of the given layers holds tiles or the
+     *         index is being loaded by another thread
+     * @throws InterruptedException
+     */
+    public List<TilePage> getExpirationCandidates(final Set<String> layerNames,
+            final ExpirationPolicy expirationPolicy, final int maxPages)
+            throws InterruptedException {
+
+        final Comparator<IndexedPage> order;
+        if (ExpirationPolicy.LFU.equals(expirationPolicy)) {
+            order = LFU_ORDER;
+        } else if (ExpirationPolicy.LRU.equals(expirationPolicy)) {
+            order = LRU_ORDER;
+        } else {
+            throw new IllegalStateException("Unrecognized expiration policy: " + expirationPolicy);
+        }
+        final long loadGeneration;
+        synchronized (this) {
+            if (unsupported || pendingUpdates != null) {
+                return Collections.emptyList();
+            }
+            if (loaded) {
+                return getExpirationCandidates(layerNames, order, expirationPolicy, maxPages);
+            }
+            pendingUpdates = new ArrayList<PendingUpdate>();
+            loadGeneration = generation;
+        }
+
+        Contents loadedContents = null;
+        try {
+            loadedContents = load();
+        } catch (UnsupportedOperationException e) {
+            log.warn("The page expiration index can't be loaded, the quota store will be "
+                    + "queried for each page to expire: " + e.getMessage());
+            synchronized (this) {
+                unsupported = true;
+            }
+        } finally {
+            synchronized (this) {
+                if (loadedContents != null && loadGeneration == generation) {
+                    for (PendingUpdate update : pendingUpdates) {
+                        update.applyTo(loadedContents);
+                    }
+                    contents = loadedContents;
+                    loaded = true;
+                }
+                pendingUpdates = null;
+            }
+        }
+        synchronized (this) {
+            if (!loaded) {
+                return Collections.emptyList();
+            }
+            return getExpirationCandidates(layerNames, order, expirationPolicy, maxPages);
+        }
+    }
+
+    private List<TilePage> getExpirationCandidates(final Set<String> layerNames,
+            final Comparator<IndexedPage> order, final ExpirationPolicy expirationPolicy,
+            final int maxPages) {
+        // merge the sorted pages of the layers, taking the next page from the layer whose first
+        // remaining page comes first
+        final PriorityQueue<LayerCursor> cursors = new PriorityQueue<LayerCursor>(Math.max(1,
+                layerNames.size()), new Comparator<LayerCursor>() {
+            public int compare(LayerCursor c1, LayerCursor c2) {
+                return order.compare(c1.head, c2.head);
+            }
+        });
+        for (String layerName : layerNames) {
+            LayerPages layerPages = contents.layers.get(layerName);
+            if (layerPages != null) {
+                LayerCursor cursor = new LayerCursor(layerPages.get(expirationPolicy).iterator());
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+            }
+        }
+        List<TilePage> candidates = new ArrayList<TilePage>(maxPages);
+        while (candidates.size() < maxPages && !cursors.isEmpty()) {
+            LayerCursor cursor = cursors.poll();
+            candidates.add(cursor.head.page);
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Applies the tile count changes the {@link QueuedQuotaUpdatesConsumer} committed to the quota
+     * store for the pages of the given tile set.
+     */
+    public synchronized void addTiles(final TileSet tileSet,
+            final Collection<PageStatsPayload> tileCountDiffs) {
+        if (pendingUpdates != null) {
+            pendingUpdates.add(new PendingUpdate() {
+                public void applyTo(Contents contents) {
+                    addTiles(contents, tileSet, tileCountDiffs);
+                }
+            });
+        } else if (loaded) {
+            addTiles(contents, tileSet, tileCountDiffs);
+        }
+    }
+
+    private void addTiles(final Contents contents, final TileSet tileSet,
+            final Collection<PageStatsPayload> tileCountDiffs) {
+        for (PageStatsPayload payload : tileCountDiffs) {
+            final TilePage page = payload.getPage();
+            final long tilesPerPage = tilePageCalculator.getTilesPerPageCount(tileSet,
+                    page.getZoomLevel());
+
+            IndexedPage indexed = contents.remove(page, tileSet.getLayerName());
+            indexed.stats.addTiles(payload.getNumTiles(), tilesPerPage);
+            contents.add(indexed);
+        }
+    }
+
+    /**
+     * Applies the usage statistics the {@link QueuedUsageStatsConsumer} committed to the quota
+     * store.
+     */
+    public synchronized void addHitsAndSetAccessTime(
+            final Collection<PageStatsPayload> statsUpdates) {
+        if (pendingUpdates != null) {
+            pendingUpdates.add(new PendingUpdate() {
+                public void applyTo(Contents contents) {
+                    addHitsAndSetAccessTime(contents, statsUpdates);
+                }
+            });
+        } else if (loaded) {
+            addHitsAndSetAccessTime(contents, statsUpdates);
+        }
+    }
+
+    private static void addHitsAndSetAccessTime(final Contents contents,
+            final Collection<PageStatsPayload> statsUpdates) {
+        for (PageStatsPayload payload : statsUpdates) {
+            final TilePage page = payload.getPage();
+            String layerName = payload.getTileSet() == null ? contents.layerNames.get(page
+                    .getTileSetId()) : payload.getTileSet().getLayerName();
+            if (layerName == null) {
+                continue;
+            }
+            IndexedPage indexed = contents.remove(page, layerName);
+            final int lastAccessTimeMinutes = (int) (payload.getLastAccessTime() / 1000 / 60);
+            indexed.stats.addHitsAndAccessTime(payload.getNumHits(), lastAccessTimeMinutes,
+                    indexed.page.getCreationTimeMinutes());
+            contents.add(indexed);
+        }
+    }
+
+    /**
+     * Marks the page as holding no tiles, after it was {@link QuotaStore#setTruncated truncated}
+     */
+    public synchronized void setTruncated(final TilePage page) {
+        if (pendingUpdates != null) {
+            pendingUpdates.add(new PendingUpdate() {
+                public void applyTo(Contents contents) {
+                    setTruncated(contents, page);
+                }
+            });
+        } else {
+            setTruncated(contents, page);
+        }
+    }
+
+    private static void setTruncated(final Contents contents, final TilePage page) {
+        IndexedPage indexed = contents.pages.get(page.getKey());
+        if (indexed != null) {
+            contents.unsort(indexed);
+            indexed.stats.setFillFactor(0f);
+        }
+    }
+
+    /**
+     * Discards the index contents, they'll be loaded again from the quota store the next time
+     * expiration candidates are requested. A load in progress is discarded as well.
+     */
+    public synchronized void invalidate() {
+        contents = new Contents();
+        loaded = false;
+        generation++;
+    }
+
+    /**
+     * @return the number of pages holding tiles in the index, or {@code -1} if it's not loaded
+     */
+    public synchronized int size() {
+        if (!loaded) {
+            return -1;
+        }
+        int size = 0;
+        for (LayerPages layerPages : contents.layers.values()) {
+            size += layerPages.byFrequency.size();
+        }
+        return size;
+    }
+
+    /**
+     * Reads the pages from the quota store into new contents, without holding the lock
+     */
+    private Contents load() throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final Contents loading = new Contents();
+        quotaStore.accept(new TileSetVisitor() {
+
+            public void visit(TileSet tileSet, QuotaStore quotaStore) {
+                loading.layerNames.put(tileSet.getId(), tileSet.getLayerName());
+            }
+        });
+        quotaStore.accept(new TilePageVisitor() {
+
+            public void visit(TilePage page, PageStats stats) {
+                String layerName = loading.layerNames.get(page.getTileSetId());
+                if (layerName != null) {
+                    loading.add(new IndexedPage(page, layerName, stats));
+                }
+            }
+        });
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + loading.pages.size()
+                    + " tile pages in the page expiration index in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+        return loading;
+    }
+}
@@ -1,7 +1,6 @@
 package org.geowebcache.diskquota;
 
 import java.io.Serializable;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -43,6 +42,17 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
 
     private final BlockingQueue<QuotaUpdate> queue;
 
+    /**
+     * Optional index to keep up to date with the page tile counts committed to the store
+     */
+    private final PageExpirationIndex expirationIndex;
+
+    /**
+     * Optional service applying layer deletes and renames in the background, the updates of the
+     * layers it has pending changes for are held back until they're applied
+     */
+    private final QuotaRecomputationService recomputationService;
+
     /**
      * Tracks aggregated quota size diffs per TileSet until committed by
      * {@link #commit(TimedQuotaUpdate)} as the result of {@link #checkAggregatedTimeouts()} or
@@ -76,16 +86,27 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
         private int numAggregations;
 
         /**
-         * Tracks accumulated quota difference per TileSet
+         * Tracks accumulated quota difference per TileSet, in bytes
          */
-        private Quota accumQuotaDiff;
+        private long accumBytes;
 
         /**
-         * Tracks accumulated number of tiles per TilePage id
+         * Holds the part of the accumulated quota difference that didn't fit in
+         * {@link #accumBytes}, {@code null} unless it ever overflowed
          */
-        private Map<String, PageStatsPayload> tilePages;
+        private Quota overflowedQuotaDiff;
 
-        private StringBuilder pageIdTarget;
+        /**
+         * Tracks accumulated number of tiles per {@link TilePage#packKey packed page key}, the
+         * tile set ordinal is always zero as all the pages belong to {@link #tileSet}
+         */
+        private LongObjectMap<PageStatsPayload> tilePages;
+
+        /**
+         * Tracks accumulated number of tiles per TilePage id for the pages whose coordinates
+         * don't fit in a packed key, {@code null} unless there's any
+         */
+        private Map<String, PageStatsPayload> unpackedTilePages;
 
         private int[] pageIndexTarget;
 
@@ -93,34 +114,45 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
             this.tileSet = tileSet;
             this.tpc = tpc;
             this.creationTime = System.currentTimeMillis();
-            tilePages = new HashMap<String, PageStatsPayload>();
+            tilePages = new LongObjectMap<PageStatsPayload>();
             pageIndexTarget = new int[3];
-            pageIdTarget = new StringBuilder(128);
-            accumQuotaDiff = new Quota();
         }
 
         public void add(QuotaUpdate quotaUpdate) {
             final String tileSetId = tileSet.getId();
 
             long size = quotaUpdate.getSize();
-            this.accumQuotaDiff.addBytes(quotaUpdate.getSize());
+            try {
+                this.accumBytes = Math.addExact(accumBytes, size);
+            } catch (ArithmeticException overflow) {
+                if (overflowedQuotaDiff == null) {
+                    overflowedQuotaDiff = new Quota();
+                }
+                overflowedQuotaDiff.addBytes(accumBytes);
+                this.accumBytes = size;
+            }
 
             long[] tileIndex = quotaUpdate.getTileIndex();
             tpc.pageIndexForTile(tileSet, tileIndex, pageIndexTarget);
             int pageX = pageIndexTarget[0];
             int pageY = pageIndexTarget[1];
             byte pageZ = (byte) pageIndexTarget[2];
-            pageIdTarget.setLength(0);
-            TilePage.computeId(tileSetId, pageX, pageY, pageZ, pageIdTarget);
-            String pageIdForTile = pageIdTarget.toString();
 
             final int tileCountDiff = size > 0 ? 1 : -1;
-            PageStatsPayload payload = tilePages.get(pageIdForTile);
-            if (payload == null) {
-                TilePage page;
-                page = new TilePage(tileSetId, pageX, pageY, pageZ);
-                payload = new PageStatsPayload(page);
-                tilePages.put(pageIdForTile, payload);
+            // the page (and its string key) is only created the first time one of its tiles is
+            // seen, the rest of the lookups use the packed key
+            final long packedKey = TilePage.packKey(0, pageX, pageY, pageZ);
+            PageStatsPayload payload;
+            if (packedKey == -1) {
+                payload = getUnpackedPage(tileSetId, pageX, pageY, pageZ);
+            } else {
+                payload = tilePages.get(packedKey);
+                if (payload == null) {
+                    TilePage page;
+                    page = new TilePage(tileSetId, pageX, pageY, pageZ);
+                    payload = new PageStatsPayload(page);
+                    tilePages.put(packedKey, payload);
+                }
             }
             int previousCount = payload.getNumTiles();
             payload.setNumTiles(previousCount + tileCountDiff);
@@ -128,16 +160,43 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
             ++numAggregations;
         }
 
+        private PageStatsPayload getUnpackedPage(final String tileSetId, int pageX, int pageY,
+                byte pageZ) {
+            if (unpackedTilePages == null) {
+                unpackedTilePages = new HashMap<String, PageStatsPayload>();
+            }
+            TilePage page = new TilePage(tileSetId, pageX, pageY, pageZ);
+            PageStatsPayload payload = unpackedTilePages.get(page.getKey());
+            if (payload == null) {
+                payload = new PageStatsPayload(page);
+                unpackedTilePages.put(page.getKey(), payload);
+            }
+            return payload;
+        }
+
         public TileSet getTileSet() {
             return tileSet;
         }
 
         public Quota getAccummulatedQuotaDifference() {
+            Quota accumQuotaDiff = new Quota(accumBytes);
+            if (overflowedQuotaDiff != null) {
+                accumQuotaDiff.add(overflowedQuotaDiff);
+            }
             return accumQuotaDiff;
         }
 
         public Collection<PageStatsPayload> getAccummulatedTilePageCounts() {
-            return tilePages.values();
+            List<PageStatsPayload> pages = tilePages.values();
+            if (unpackedTilePages != null) {
+                pages.addAll(unpackedTilePages.values());
+            }
+            return pages;
+        }
+
+        public int getNumPages() {
+            return tilePages.size()
+                    + (unpackedTilePages == null ? 0 : unpackedTilePages.size());
         }
 
         @Override
@@ -145,8 +204,9 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
             StringBuilder sb = new StringBuilder('[');
             sb.append(tileSet);
             sb.append(numAggregations).append(" aggregated updates, ");
-            sb.append(tilePages.size()).append(" different pages, ");
-            sb.append("accum quota diff: ").append(accumQuotaDiff.toNiceString());
+            sb.append(getNumPages()).append(" different pages, ");
+            sb.append("accum quota diff: ").append(
+                    getAccummulatedQuotaDifference().toNiceString());
             sb.append(", created ").append((System.currentTimeMillis() - creationTime))
                     .append("ms ago").append(']');
             return sb.toString();
@@ -154,12 +214,39 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
     }
 
     public QueuedQuotaUpdatesConsumer(QuotaStore quotaStore, BlockingQueue<QuotaUpdate> queue) {
+        this(quotaStore, queue, null);
+    }
+
+    /**
+     * @param quotaStore
+     * @param queue
+     * @param expirationIndex
+     *            the page expiration index to update along with the store, may be {@code null}
+     */
+    public QueuedQuotaUpdatesConsumer(QuotaStore quotaStore, BlockingQueue<QuotaUpdate> queue,
+            PageExpirationIndex expirationIndex) {
+        this(quotaStore, queue, expirationIndex, null);
+    }
+
+    /**
+     * @param quotaStore
+     * @param queue
+     * @param expirationIndex
+     *            the page expiration index to update along with the store, may be {@code null}
+     * @param recomputationService
+     *            the service applying layer deletes and renames in the background, may be
+     *            {@code null}
+     */
+    public QueuedQuotaUpdatesConsumer(QuotaStore quotaStore, BlockingQueue<QuotaUpdate> queue,
+            PageExpirationIndex expirationIndex, QuotaRecomputationService recomputationService) {
         Assert.notNull(quotaStore, "quotaStore can't be null");
         Assert.notNull(queue, "queue can't be null");
 
         this.quotaStore = quotaStore;
         this.tilePageCalculator = quotaStore.getTilePageCalculator();
         this.queue = queue;
+        this.expirationIndex = expirationIndex;
+        this.recomputationService = recomputationService;
         aggregatedDelayedUpdates = new HashMap<TileSet, TimedQuotaUpdate>();
     }
 
@@ -281,8 +368,13 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
         final int numAggregations = timedUpadte.numAggregations;
         boolean tooManyPendingCommits = numAggregations >= MAX_AGGREGATES_BEFORE_COMMIT;
         boolean canWaitABitLonger = timeSinceLastCommit < 2000
-                && timedUpadte.tilePages.size() < 1000;
+                && timedUpadte.getNumPages() < 1000;
         if (!canWaitABitLonger && (timeout || tooManyPendingCommits)) {
+            if (recomputationService != null
+                    && recomputationService.isPending(timedUpadte.getTileSet().getLayerName())) {
+                // keep aggregating until the layer delete or rename submitted before is applied
+                return false;
+            }
             if (log.isDebugEnabled()) {
                 log.debug("Committing "
                         + timedUpadte
@@ -302,14 +394,16 @@ public class QueuedQuotaUpdatesConsumer implements Callable<Long>, Serializable
         final Quota quotaDiff = aggregatedUpadte.getAccummulatedQuotaDifference();
 
         Collection<PageStatsPayload> tileCountDiffs;
-        tileCountDiffs = new ArrayList<PageStatsPayload>(
-                aggregatedUpadte.getAccummulatedTilePageCounts());
+        tileCountDiffs = aggregatedUpadte.getAccummulatedTilePageCounts();
 
-        if (quotaDiff.getBytes().compareTo(BigInteger.ZERO) == 0 && tileCountDiffs.size() == 0) {
+        if (quotaDiff.getBytes().signum() == 0 && tileCountDiffs.size() == 0) {
             return;
         }
 
         quotaStore.addToQuotaAndTileCounts(tileSet, quotaDiff, tileCountDiffs);
+        if (expirationIndex != null && tileCountDiffs.size() > 0) {
+            expirationIndex.addTiles(tileSet, tileCountDiffs);
+        }
     }
     
     public void shutdown() {
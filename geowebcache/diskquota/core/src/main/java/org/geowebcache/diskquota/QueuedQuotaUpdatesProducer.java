@@ -52,6 +52,10 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
     private boolean cancelled;
 
     private final QuotaStore quotaStore;
+
+    private final PageExpirationIndex expirationIndex;
+
+    private final QuotaRecomputationService recomputationService;
     
     int updateOfferTimeoutSeconds;
 
@@ -67,12 +71,31 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
      */
     public QueuedQuotaUpdatesProducer(final DiskQuotaConfig quotaConfig,
             final BlockingQueue<QuotaUpdate> queuedUpdates, QuotaStore quotaStore) {
+        this(quotaConfig, queuedUpdates, quotaStore, null, null);
+    }
+
+    /**
+     * @param quotaConfig
+     * @param queuedUpdates
+     * @param quotaStore
+     * @param expirationIndex
+     *            page expiration index to invalidate when layers are deleted or renamed, may be
+     *            {@code null}
+     * @param recomputationService
+     *            service to hand layer deletes and renames to, if {@code null} they're applied to
+     *            the quota store on the calling thread
+     */
+    public QueuedQuotaUpdatesProducer(final DiskQuotaConfig quotaConfig,
+            final BlockingQueue<QuotaUpdate> queuedUpdates, QuotaStore quotaStore,
+            PageExpirationIndex expirationIndex, QuotaRecomputationService recomputationService) {
         Assert.notNull(quotaConfig, "quotaConfig can't be null");
         Assert.notNull(queuedUpdates, "queuedUpdates can't be null");
 
         this.quotaConfig = quotaConfig;
         this.queuedUpdates = queuedUpdates;
         this.quotaStore = quotaStore;
+        this.expirationIndex = expirationIndex;
+        this.recomputationService = recomputationService;
         
         String timeoutStr = GeoWebCacheExtensions.getProperty("GEOWEBCACHE_QUOTA_DIFF_TIMEOUT");
         this.updateOfferTimeoutSeconds = 5 * 60; // by default five minutes
@@ -131,19 +154,40 @@ class QueuedQuotaUpdatesProducer implements BlobStoreListener {
      * @see QuotaStore#deleteLayer(String)
      */
     public void layerDeleted(final String layerName) {
+        if (recomputationService != null) {
+            recomputationService.deleteLayer(layerName);
+            return;
+        }
         quotaStore.deleteLayer(layerName);
+        invalidateExpirationIndex();
     }
 
     public void gridSubsetDeleted(String layerName, String gridSetId) {
+        if (recomputationService != null) {
+            recomputationService.deleteGridSubset(layerName, gridSetId);
+            return;
+        }
         quotaStore.deleteGridSubset(layerName, gridSetId);
+        invalidateExpirationIndex();
     }
 
     public void layerRenamed(String oldLayerName, String newLayerName) {
+        if (recomputationService != null) {
+            recomputationService.renameLayer(oldLayerName, newLayerName);
+            return;
+        }
         try {
             quotaStore.renameLayer(oldLayerName, newLayerName);
         } catch (InterruptedException e) {
             log.error("Can't rename " + oldLayerName + " to " + newLayerName + " in quota store", e);
         }
+        invalidateExpirationIndex();
+    }
+
+    private void invalidateExpirationIndex() {
+        if (expirationIndex != null) {
+            expirationIndex.invalidate();
+        }
     }
 
     /**
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -47,6 +48,17 @@ public class QueuedUsageStatsConsumer implements Callable<Long>, Serializable {
 
     private final TimedUsageUpdate aggregatedPendingUpdates;
 
+    /**
+     * Optional index to keep up to date with the page usage stats committed to the store
+     */
+    private final PageExpirationIndex expirationIndex;
+
+    /**
+     * Optional service applying layer deletes and renames in the background, the usage
+     * statistics of the layers it has pending changes for are held back until they're applied
+     */
+    private final QuotaRecomputationService recomputationService;
+
     /**
      * 
      * @author groldan
@@ -82,6 +94,38 @@ public class QueuedUsageStatsConsumer implements Callable<Long>, Serializable {
      */
     public QueuedUsageStatsConsumer(final QuotaStore quotaStore,
             final BlockingQueue<UsageStats> queue, final TilePageCalculator tilePageCalculator) {
+        this(quotaStore, queue, tilePageCalculator, null);
+    }
+
+    /**
+     * 
+     * @param quotaStore
+     * @param queue
+     * @param tilePageCalculator
+     * @param expirationIndex
+     *            the page expiration index to update along with the store, may be {@code null}
+     */
+    public QueuedUsageStatsConsumer(final QuotaStore quotaStore,
+            final BlockingQueue<UsageStats> queue, final TilePageCalculator tilePageCalculator,
+            final PageExpirationIndex expirationIndex) {
+        this(quotaStore, queue, tilePageCalculator, expirationIndex, null);
+    }
+
+    /**
+     * 
+     * @param quotaStore
+     * @param queue
+     * @param tilePageCalculator
+     * @param expirationIndex
+     *            the page expiration index to update along with the store, may be {@code null}
+     * @param recomputationService
+     *            the service applying layer deletes and renames in the background, may be
+     *            {@code null}
+     */
+    public QueuedUsageStatsConsumer(final QuotaStore quotaStore,
+            final BlockingQueue<UsageStats> queue, final TilePageCalculator tilePageCalculator,
+            final PageExpirationIndex expirationIndex,
+            final QuotaRecomputationService recomputationService) {
 
         Assert.notNull(quotaStore, "quotaStore can't be null");
         Assert.notNull(queue, "queue can't be null");
@@ -90,6 +134,8 @@ public class QueuedUsageStatsConsumer implements Callable<Long>, Serializable {
         this.quotaStore = quotaStore;
         this.usageStatsQueue = queue;
         this.tilePageCalculator = tilePageCalculator;
+        this.expirationIndex = expirationIndex;
+        this.recomputationService = recomputationService;
         aggregatedPendingUpdates = new TimedUsageUpdate();
     }
 
@@ -185,9 +231,9 @@ public class QueuedUsageStatsConsumer implements Callable<Long>, Serializable {
 
             aggregatedPendingUpdates.pages.put(pageKeyForTile, timedUpdate);
         } else {
-            timedUpdate.setNumHits(timedUpdate.getNumHits() + 1);
+            timedUpdate.setNumHits(timedUpdate.getNumHits() + requestedTile.getNumHits());
         }
-        timedUpdate.setNumHits(timedUpdate.getNumHits() + 1);
+        timedUpdate.setNumHits(timedUpdate.getNumHits() + requestedTile.getNumHits());
         timedUpdate.setLastAccessTime(System.currentTimeMillis());
         aggregatedPendingUpdates.numAggregations++;
 
@@ -227,10 +273,32 @@ public class QueuedUsageStatsConsumer implements Callable<Long>, Serializable {
     private void commit() {
         Collection<PageStatsPayload> pendingCommits;
         pendingCommits = new ArrayList<PageStatsPayload>(aggregatedPendingUpdates.pages.values());
-        quotaStore.addHitsAndSetAccesTime(pendingCommits);
+        // the pages of layers with a delete or rename not yet applied wait for the next commit
+        Map<String, PageStatsPayload> heldBack = null;
+        if (recomputationService != null) {
+            for (Iterator<PageStatsPayload> it = pendingCommits.iterator(); it.hasNext();) {
+                PageStatsPayload payload = it.next();
+                if (recomputationService.isPending(payload.getTileSet().getLayerName())) {
+                    if (heldBack == null) {
+                        heldBack = new HashMap<String, PageStatsPayload>();
+                    }
+                    heldBack.put(payload.getPage().getKey(), payload);
+                    it.remove();
+                }
+            }
+        }
+        if (!pendingCommits.isEmpty()) {
+            quotaStore.addHitsAndSetAccesTime(pendingCommits);
+            if (expirationIndex != null) {
+                expirationIndex.addHitsAndSetAccessTime(pendingCommits);
+            }
+        }
         aggregatedPendingUpdates.lastCommitTime = System.currentTimeMillis();
         aggregatedPendingUpdates.numAggregations = 0;
         aggregatedPendingUpdates.pages.clear();
+        if (heldBack != null) {
+            aggregatedPendingUpdates.pages.putAll(heldBack);
+        }
     }
     
     public void shutdown() {
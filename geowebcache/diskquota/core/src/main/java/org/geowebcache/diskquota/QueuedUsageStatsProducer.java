@@ -1,6 +1,8 @@
 package org.geowebcache.diskquota;
 
+import java.util.Random;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -15,6 +17,15 @@ import org.springframework.util.Assert;
  * <p>
  * This {@link TileLayerListener} is thread safe and can be called by any thread requesting a tile
  * from a {@link TileLayer}
+ * </p>
+ * <p>
+ * With a {@link #getSampleRate() sample rate} {@code N} greater than one, only one in {@code N}
+ * randomly chosen tile requests is put on the queue, accounting for {@code N} hits. This keeps the
+ * expected hit counts, and hence the LFU order, of the tile pages while reducing the work of the
+ * consumer and the quota store by a factor of {@code N}. Pages requested less than {@code N} times
+ * may miss hits and access time updates, so the sampling error is concentrated on the least used
+ * pages.
+ * </p>
  * 
  * @author groldan
  * 
@@ -25,11 +36,43 @@ public class QueuedUsageStatsProducer implements TileLayerListener {
 
     private final BlockingQueue<UsageStats> usageStatsQueue;
 
+    private final int sampleRate;
+
+    /**
+     * Source of the samples, {@code null} to use the {@link ThreadLocalRandom} of the requesting
+     * thread
+     */
+    private final Random random;
+
     private volatile boolean cancelled;
 
     public QueuedUsageStatsProducer(BlockingQueue<UsageStats> usageStatsQueue) {
+        this(usageStatsQueue, 1);
+    }
+
+    /**
+     * @param usageStatsQueue
+     * @param sampleRate
+     *            record one in {@code sampleRate} tile requests, {@code 1} to record all of them
+     */
+    public QueuedUsageStatsProducer(BlockingQueue<UsageStats> usageStatsQueue, int sampleRate) {
+        this(usageStatsQueue, sampleRate, null);
+    }
+
+    /**
+     * Allows tests to draw the samples from a seeded source
+     */
+    QueuedUsageStatsProducer(BlockingQueue<UsageStats> usageStatsQueue, int sampleRate,
+            Random random) {
         Assert.notNull(usageStatsQueue, "usageStatsQueue can't be null");
+        Assert.isTrue(sampleRate > 0, "sampleRate shall be a positive integer: " + sampleRate);
         this.usageStatsQueue = usageStatsQueue;
+        this.sampleRate = sampleRate;
+        this.random = random;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
     }
 
     /**
@@ -40,12 +83,15 @@ public class QueuedUsageStatsProducer implements TileLayerListener {
         if (cancelled(layerName)) {
             return;
         }
+        if (sampleRate > 1 && !sampled()) {
+            return;
+        }
         String gridsetId = tile.getGridSetId();
         String blobFormat = tile.getMimeType().getFormat();
         String parametersId = tile.getParametersId();
         TileSet tileSet = new TileSet(layerName, gridsetId, blobFormat, parametersId);
         long[] tileIndex = tile.getTileIndex().clone();
-        UsageStats usageLog = new UsageStats(tileSet, tileIndex);
+        UsageStats usageLog = new UsageStats(tileSet, tileIndex, sampleRate);
         try {
             usageStatsQueue.put(usageLog);
         } catch (InterruptedException e) {
@@ -57,6 +103,11 @@ public class QueuedUsageStatsProducer implements TileLayerListener {
         }
     }
 
+    private boolean sampled() {
+        Random source = random == null ? ThreadLocalRandom.current() : random;
+        return source.nextInt(sampleRate) == 0;
+    }
+
     public void setCancelled(boolean cancelled) {
         this.cancelled = cancelled;
     }
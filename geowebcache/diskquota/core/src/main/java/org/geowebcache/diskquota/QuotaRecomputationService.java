@@ -0,0 +1,370 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Applies layer and grid subset deletes and layer renames to the {@link QuotaStore} on a
+ * background thread, so that the blob store operation that triggered them (usually a REST call)
+ * does not wait for the quota store to drop the tile pages and recompute the used quotas.
+ * <p>
+ * Pending changes are coalesced as they are submitted: a layer delete supersedes the pending
+ * deletes of the same layer and of its grid subsets, and a grid subset delete supersedes a pending
+ * delete of the same grid subset. Renames are never coalesced, and no change is coalesced across a
+ * pending rename of its layer, so the changes are always applied in submission order.
+ * </p>
+ * <p>
+ * The worker thread drains all the pending changes at once and applies them as a batch,
+ * invalidating the {@link PageExpirationIndex} once per batch rather than once per change.
+ * </p>
+ * <p>
+ * The {@link QueuedQuotaUpdatesConsumer} and {@link QueuedUsageStatsConsumer} check
+ * {@link #isPending(String)} before committing the updates of a layer and hold them back until
+ * its changes are applied, so that they don't reach the store ahead of a delete or rename
+ * submitted before them.
+ * </p>
+ */
+public class QuotaRecomputationService {
+
+    private static final Log log = LogFactory.getLog(QuotaRecomputationService.class);
+
+    private static final CustomizableThreadFactory tf = new CustomizableThreadFactory(
+            "GWC DiskQuota Recomputation Thread-");
+
+    static enum Kind {
+        DELETE_LAYER, DELETE_GRID_SUBSET, RENAME_LAYER
+    }
+
+    /**
+     * A pending layer change
+     */
+    static final class LayerChange {
+
+        final Kind kind;
+
+        final String layerName;
+
+        /**
+         * The grid set id of grid subset deletes, the new layer name of renames
+         */
+        final String argument;
+
+        LayerChange(Kind kind, String layerName, String argument) {
+            this.kind = kind;
+            this.layerName = layerName;
+            this.argument = argument;
+        }
+
+        boolean affects(final String layer) {
+            return layerName.equals(layer) || (kind == Kind.RENAME_LAYER && argument.equals(layer));
+        }
+
+        /**
+         * @return whether applying {@code newer} afterwards makes applying this change useless
+         */
+        boolean supersededBy(final LayerChange newer) {
+            if (!layerName.equals(newer.layerName) || kind == Kind.RENAME_LAYER) {
+                return false;
+            }
+            switch (newer.kind) {
+            case DELETE_LAYER:
+                return true;
+            case DELETE_GRID_SUBSET:
+                return kind == Kind.DELETE_GRID_SUBSET && argument.equals(newer.argument);
+            default:
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind + "[" + layerName + (argument == null ? "" : ", " + argument) + "]";
+        }
+    }
+
+    private final QuotaStore quotaStore;
+
+    private final PageExpirationIndex expirationIndex;
+
+    private final ExecutorService executorService;
+
+    /**
+     * The pending changes in submission order, guarded by {@code this}
+     */
+    private final LinkedList<LayerChange> pending = new LinkedList<LayerChange>();
+
+    /**
+     * The batch of changes being applied, guarded by {@code this}
+     */
+    private List<LayerChange> applying = Collections.emptyList();
+
+    /**
+     * Whether a drain task is submitted or running, guarded by {@code this}
+     */
+    private boolean draining;
+
+    private long submitted;
+
+    private long coalesced;
+
+    private long applied;
+
+    private long failed;
+
+    private long batches;
+
+    private Date lastBatchTime;
+
+    private long lastBatchSize;
+
+    private long lastBatchTimeMillis;
+
+    /**
+     * @param quotaStore
+     * @param expirationIndex
+     *            page expiration index to invalidate after each batch, may be {@code null}
+     */
+    public QuotaRecomputationService(final QuotaStore quotaStore,
+            final PageExpirationIndex expirationIndex) {
+        Assert.notNull(quotaStore, "quotaStore can't be null");
+        this.quotaStore = quotaStore;
+        this.expirationIndex = expirationIndex;
+        this.executorService = Executors.newSingleThreadExecutor(tf);
+    }
+
+    /**
+     * Schedules the deletion of the layer from the quota store
+     *
+     * @see QuotaStore#deleteLayer(String)
+     */
+    public void deleteLayer(final String layerName) {
+        submit(new LayerChange(Kind.DELETE_LAYER, layerName, null));
+    }
+
+    /**
+     * Schedules the deletion of the grid subset from the quota store
+     *
+     * @see QuotaStore#deleteGridSubset(String, String)
+     */
+    public void deleteGridSubset(final String layerName, final String gridSetId) {
+        submit(new LayerChange(Kind.DELETE_GRID_SUBSET, layerName, gridSetId));
+    }
+
+    /**
+     * Schedules the rename of the layer in the quota store
+     *
+     * @see QuotaStore#renameLayer(String, String)
+     */
+    public void renameLayer(final String oldLayerName, final String newLayerName) {
+        submit(new LayerChange(Kind.RENAME_LAYER, oldLayerName, newLayerName));
+    }
+
+    synchronized void submit(final LayerChange change) {
+        Assert.notNull(change.layerName, "layerName can't be null");
+        Assert.isTrue(change.kind == Kind.DELETE_LAYER || change.argument != null,
+                "the grid set id or new layer name can't be null");
+        submitted++;
+        for (Iterator<LayerChange> it = pending.descendingIterator(); it.hasNext();) {
+            LayerChange older = it.next();
+            if (older.supersededBy(change)) {
+                it.remove();
+                coalesced++;
+            } else if (older.kind == Kind.RENAME_LAYER && older.affects(change.layerName)) {
+                break;
+            }
+        }
+        pending.add(change);
+        if (!draining) {
+            try {
+                executorService.submit(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                });
+                draining = true;
+            } catch (RejectedExecutionException e) {
+                log.warn("Quota recomputation service is shut down, discarding " + change);
+                pending.removeLast();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final List<LayerChange> batch;
+            synchronized (this) {
+                applying = Collections.emptyList();
+                if (pending.isEmpty()) {
+                    draining = false;
+                    notifyAll();
+                    return;
+                }
+                batch = new ArrayList<LayerChange>(pending);
+                pending.clear();
+                applying = batch;
+            }
+            applyBatch(batch);
+        }
+    }
+
+    private void applyBatch(final List<LayerChange> batch) {
+        final long start = System.currentTimeMillis();
+        int batchApplied = 0;
+        int batchFailed = 0;
+        for (LayerChange change : batch) {
+            if (Thread.currentThread().isInterrupted()) {
+                log.info("Quota recomputation interrupted, discarding " + batch.size()
+                        + " pending layer changes");
+                return;
+            }
+            try {
+                apply(change);
+                batchApplied++;
+            } catch (InterruptedException e) {
+                log.info("Quota recomputation interrupted while applying " + change);
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Error applying " + change + " to the quota store", e);
+                batchFailed++;
+            }
+        }
+        if (expirationIndex != null) {
+            expirationIndex.invalidate();
+        }
+        final long millis = System.currentTimeMillis() - start;
+        synchronized (this) {
+            applied += batchApplied;
+            failed += batchFailed;
+            batches++;
+            lastBatchTime = new Date();
+            lastBatchSize = batch.size();
+            lastBatchTimeMillis = millis;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Applied " + batch.size() + " layer changes to the quota store in " + millis
+                    + "ms");
+        }
+    }
+
+    private void apply(final LayerChange change) throws InterruptedException {
+        switch (change.kind) {
+        case DELETE_LAYER:
+            quotaStore.deleteLayer(change.layerName);
+            break;
+        case DELETE_GRID_SUBSET:
+            quotaStore.deleteGridSubset(change.layerName, change.argument);
+            break;
+        case RENAME_LAYER:
+            quotaStore.renameLayer(change.layerName, change.argument);
+            break;
+        }
+    }
+
+    /**
+     * @return whether the layer has changes not yet applied to the quota store, either waiting or
+     *         being applied
+     */
+    public synchronized boolean isPending(final String layerName) {
+        for (LayerChange change : pending) {
+            if (change.affects(layerName)) {
+                return true;
+            }
+        }
+        for (LayerChange change : applying) {
+            if (change.affects(layerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until all the submitted changes are applied
+     *
+     * @return {@code true} if there are no changes left to apply, {@code false} if the timeout
+     *         elapsed first
+     */
+    public synchronized boolean awaitIdle(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (draining) {
+            final long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return true;
+    }
+
+    /**
+     * @return a snapshot of the service status
+     */
+    public synchronized QuotaRecomputationStatus getStatus() {
+        Set<String> layers = new LinkedHashSet<String>();
+        for (LayerChange change : pending) {
+            layers.add(change.layerName);
+        }
+        return new QuotaRecomputationStatus(draining, pending.size(), new ArrayList<String>(
+                layers), submitted, coalesced, applied, failed, batches, lastBatchTime,
+                lastBatchSize, lastBatchTimeMillis);
+    }
+
+    /**
+     * Stops accepting changes, letting the pending ones be applied
+     */
+    public void shutDown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Stops right away, discarding the pending changes
+     */
+    public void shutDownNow() {
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                log.warn("Discarding " + pending.size()
+                        + " layer changes not yet applied to the quota store");
+                pending.clear();
+            }
+            applying = Collections.emptyList();
+            draining = false;
+            notifyAll();
+        }
+        executorService.shutdownNow();
+    }
+
+    public void awaitTermination(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        executorService.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Snapshot of the status of the {@link QuotaRecomputationService}: the layer changes waiting to
+ * be applied to the quota store, and the figures of the changes applied since start up.
+ */
+public class QuotaRecomputationStatus implements Serializable {
+
+    private static final long serialVersionUID = 3329046514530915417L;
+
+    private final boolean running;
+
+    private final int pendingChanges;
+
+    private final List<String> pendingLayers;
+
+    private final long submittedChanges;
+
+    private final long coalescedChanges;
+
+    private final long appliedChanges;
+
+    private final long failedChanges;
+
+    private final long batches;
+
+    private final Date lastBatchTime;
+
+    private final long lastBatchSize;
+
+    private final long lastBatchTimeMillis;
+
+    QuotaRecomputationStatus(boolean running, int pendingChanges, List<String> pendingLayers,
+            long submittedChanges, long coalescedChanges, long appliedChanges,
+            long failedChanges, long batches, Date lastBatchTime, long lastBatchSize,
+            long lastBatchTimeMillis) {
+        this.running = running;
+        this.pendingChanges = pendingChanges;
+        this.pendingLayers = pendingLayers;
+        this.submittedChanges = submittedChanges;
+        this.coalescedChanges = coalescedChanges;
+        this.appliedChanges = appliedChanges;
+        this.failedChanges = failedChanges;
+        this.batches = batches;
+        this.lastBatchTime = lastBatchTime == null ? null : new Date(lastBatchTime.getTime());
+        this.lastBatchSize = lastBatchSize;
+        this.lastBatchTimeMillis = lastBatchTimeMillis;
+    }
+
+    /**
+     * @return whether changes are being applied, or are about to be
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPendingChanges() {
+        return pendingChanges;
+    }
+
+    /**
+     * @return the names of the layers with pending changes, in submission order
+     */
+    public List<String> getPendingLayers() {
+        return pendingLayers;
+    }
+
+    public long getSubmittedChanges() {
+        return submittedChanges;
+    }
+
+    /**
+     * @return number of submitted changes dropped because a later change superseded them
+     */
+    public long getCoalescedChanges() {
+        return coalescedChanges;
+    }
+
+    public long getAppliedChanges() {
+        return appliedChanges;
+    }
+
+    public long getFailedChanges() {
+        return failedChanges;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return when the last batch of changes was applied, or {@code null} if none was yet
+     */
+    public Date getLastBatchTime() {
+        return lastBatchTime == null ? null : new Date(lastBatchTime.getTime());
+    }
+
+    public long getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getLastBatchTimeMillis() {
+        return lastBatchTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(getClass().getSimpleName()).append("[running: ")
+                .append(running).append(", pending: ").append(pendingChanges)
+                .append(", applied: ").append(appliedChanges).append(", coalesced: ")
+                .append(coalescedChanges).append("]").toString();
+    }
+}
@@ -1,6 +1,7 @@
 package org.geowebcache.diskquota;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -10,6 +11,7 @@ import org.geowebcache.diskquota.storage.PageStatsPayload;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
 import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.diskquota.storage.TileSetVisitor;
 
@@ -45,6 +47,23 @@ public interface QuotaStore {
 
     public abstract void accept(TileSetVisitor visitor);
 
+    /**
+     * Visits all the stored tile pages along with their statistics, in no particular order.
+     * <p>
+     * Used to load the {@link PageExpirationIndex}; stores that can't list their pages don't need
+     * to implement it, the {@link CacheCleaner} then queries them for each page to expire instead.
+     * </p>
+     * 
+     * @param visitor
+     * @throws InterruptedException
+     * @throws UnsupportedOperationException
+     *             if the store can't list its tile pages
+     */
+    public default void accept(TilePageVisitor visitor) throws InterruptedException {
+        throw new UnsupportedOperationException(getClass().getName()
+                + " does not support visiting its tile pages");
+    }
+
     public abstract TilePageCalculator getTilePageCalculator();
 
     /**
@@ -88,8 +107,78 @@ public interface QuotaStore {
     public abstract TilePage getLeastRecentlyUsedPage(final Set<String> layerNames)
             throws InterruptedException;
 
+    /**
+     * Returns a cursor over the pages holding tiles of the given layers, in expiration order for
+     * the given policy, fetching up to {@code chunkSize} pages at a time. The default
+     * implementation returns the {@link #getLeastFrequentlyUsedPage(Set) least frequently} or
+     * {@link #getLeastRecentlyUsedPage(Set) least recently} used page on each call, and stops
+     * once the store returns the same page twice in a row; stores that can carry on from the last
+     * page returned should override it.
+     * 
+     * @param layerNames
+     *            the layers to expire tile pages from
+     * @param expirationPolicy
+     *            {@link ExpirationPolicy#LFU} or {@link ExpirationPolicy#LRU}
+     * @param chunkSize
+     *            the maximum number of pages returned by each {@link PageCursor#next()} call
+     * @return the cursor over the pages to expire
+     */
+    public default PageCursor getPagesToExpire(final Set<String> layerNames,
+            final ExpirationPolicy expirationPolicy, final int chunkSize) {
+        if (!ExpirationPolicy.LFU.equals(expirationPolicy)
+                && !ExpirationPolicy.LRU.equals(expirationPolicy)) {
+            throw new IllegalStateException("Unrecognized expiration policy: "
+                    + expirationPolicy);
+        }
+        return new PageCursor() {
+
+            private TilePage last;
+
+            private boolean exhausted;
+
+            public boolean hasNext() {
+                return !exhausted;
+            }
+
+            public List<TilePage> next() throws InterruptedException {
+                if (exhausted) {
+                    return Collections.emptyList();
+                }
+                final TilePage page;
+                if (ExpirationPolicy.LFU.equals(expirationPolicy)) {
+                    page = getLeastFrequentlyUsedPage(layerNames);
+                } else {
+                    page = getLeastRecentlyUsedPage(layerNames);
+                }
+                // the previous page was not expired, the store would keep returning it
+                if (page == null || page.equals(last)) {
+                    exhausted = true;
+                    return Collections.emptyList();
+                }
+                last = page;
+                return Collections.singletonList(page);
+            }
+        };
+    }
+
     public abstract PageStats setTruncated(final TilePage tilePage) throws InterruptedException;
 
+    /**
+     * Marks all the given pages as truncated, in a single transaction if the store supports it.
+     * The default implementation marks them one at a time.
+     * 
+     * @param tilePages
+     *            the pages whose tiles were removed from the cache
+     * @throws InterruptedException
+     * @see #setTruncated(TilePage)
+     */
+    public default void setTruncated(final Collection<TilePage> tilePages)
+            throws InterruptedException {
+        for (TilePage tilePage : tilePages) {
+            setTruncated(tilePage);
+        }
+    }
+
     public abstract void deleteGridSubset(String layerName, String gridSetId);
 
     /**
@@ -15,6 +15,7 @@
  */
 package org.geowebcache.diskquota;
 
+import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -24,6 +25,11 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.diskquota.RingBufferQueue.OverflowPolicy;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.storage.StorageBroker;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
@@ -35,6 +41,25 @@ public class QuotaUpdatesMonitor {
     private static final CustomizableThreadFactory tf = new CustomizableThreadFactory(
             "GWC DiskQuota Updates Gathering Thread-");
 
+    /**
+     * System/environment property enabling the lock free {@link RingBufferQueue} instead of a
+     * {@link LinkedBlockingQueue} to hand quota and usage updates to their consumer threads
+     */
+    static final String RING_BUFFER_PROPERTY = "GEOWEBCACHE_QUOTA_RING_BUFFER";
+
+    /**
+     * System/environment property with the {@link OverflowPolicy} of the ring buffer queues,
+     * defaults to {@link OverflowPolicy#BLOCK}
+     */
+    static final String OVERFLOW_POLICY_PROPERTY = "GEOWEBCACHE_QUOTA_OVERFLOW_POLICY";
+
+    /**
+     * System/environment property that, set to {@code false}, makes layer deletes and renames
+     * update the quota store on the thread performing them instead of handing them to the
+     * {@link QuotaRecomputationService}
+     */
+    static final String ASYNC_LAYER_CHANGES_PROPERTY = "GEOWEBCACHE_QUOTA_ASYNC_LAYER_CHANGES";
+
     private final DiskQuotaConfig quotaConfig;
 
     private final StorageBroker storageBroker;
@@ -45,12 +70,35 @@ public class QuotaUpdatesMonitor {
 
     private BlockingQueue<QuotaUpdate> sharedQueue;
 
+    /**
+     * Same as {@link #sharedQueue} but kept after shut down, for the queue metrics
+     */
+    private final BlockingQueue<QuotaUpdate> queue;
+
     private QueuedQuotaUpdatesProducer quotaDiffsProducer;
 
     private QueuedQuotaUpdatesConsumer quotaUsageUpdatesConsumer;
 
+    private final PageExpirationIndex expirationIndex;
+
+    private QuotaRecomputationService recomputationService;
+
     public QuotaUpdatesMonitor(final DiskQuotaConfig quotaConfig,
             final StorageBroker storageBroker, final QuotaStore quotaStore) {
+        this(quotaConfig, storageBroker, quotaStore, null);
+    }
+
+    /**
+     * @param quotaConfig
+     * @param storageBroker
+     * @param quotaStore
+     * @param expirationIndex
+     *            the page expiration index to keep up to date with the tile counts, may be
+     *            {@code null}
+     */
+    public QuotaUpdatesMonitor(final DiskQuotaConfig quotaConfig,
+            final StorageBroker storageBroker, final QuotaStore quotaStore,
+            final PageExpirationIndex expirationIndex) {
         Assert.notNull(quotaConfig, "quotaConfig is null");
         Assert.notNull(storageBroker, "storageBroker is null");
         Assert.notNull(quotaStore, "quotaStore is null");
@@ -58,26 +106,114 @@ public class QuotaUpdatesMonitor {
         this.quotaConfig = quotaConfig;
         this.storageBroker = storageBroker;
         this.quotaStore = quotaStore;
+        this.expirationIndex = expirationIndex;
         
         String sizeStr = GeoWebCacheExtensions.getProperty("GEOWEBCACHE_QUOTA_QUEUE_SIZE");
         int quotaQueueSize = 1000;
         if(sizeStr != null) {
             quotaQueueSize = Integer.parseInt(sizeStr);
         }
-        if(quotaQueueSize > 0) {
-            this.sharedQueue = new LinkedBlockingQueue<QuotaUpdate>(quotaQueueSize);
-        } else {
-            this.sharedQueue = new LinkedBlockingQueue<QuotaUpdate>();
+        // quota updates can't be dropped nor merged without losing their tile counts, DROP and
+        // MERGE block instead
+        this.sharedQueue = createQueue(quotaQueueSize, null, false);
+        this.queue = sharedQueue;
+    }
+
+    /**
+     * Creates the queue to hand updates from the producers to the consumer thread, a
+     * {@link RingBufferQueue} if the {@link #RING_BUFFER_PROPERTY} is {@code true} or a
+     * {@link LinkedBlockingQueue} otherwise
+     *
+     * @param size
+     *            the queue capacity, unbounded if {@code <= 0} and the ring buffer is disabled
+     * @param merger
+     *            how to merge elements when the ring buffer is full under the
+     *            {@link OverflowPolicy#MERGE} policy, if {@code null} {@code MERGE} falls back to
+     *            {@link OverflowPolicy#BLOCK}
+     * @param droppable
+     *            whether elements can be discarded when the ring buffer is full under the
+     *            {@link OverflowPolicy#DROP} policy, if {@code false} {@code DROP} falls back to
+     *            {@link OverflowPolicy#BLOCK}
+     */
+    static <E> BlockingQueue<E> createQueue(final int size, final RingBufferQueue.Merger<E> merger,
+            final boolean droppable) {
+        final boolean ringBuffer = Boolean.valueOf(GeoWebCacheExtensions
+                .getProperty(RING_BUFFER_PROPERTY));
+        if (!ringBuffer) {
+            return size > 0 ? new LinkedBlockingQueue<E>(size) : new LinkedBlockingQueue<E>();
+        }
+        OverflowPolicy policy = OverflowPolicy.BLOCK;
+        String policyStr = GeoWebCacheExtensions.getProperty(OVERFLOW_POLICY_PROPERTY);
+        if (policyStr != null) {
+            try {
+                policy = OverflowPolicy.valueOf(policyStr.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid " + OVERFLOW_POLICY_PROPERTY + " value '" + policyStr
+                        + "', using " + policy);
+            }
+        }
+        if ((policy == OverflowPolicy.MERGE && merger == null)
+                || (policy == OverflowPolicy.DROP && !droppable)) {
+            policy = OverflowPolicy.BLOCK;
         }
+        return new RingBufferQueue<E>(size > 0 ? size : 1000, policy, merger);
+    }
+
+    public TilePageCalculator getTilePageCalculator() {
+        return quotaStore.getTilePageCalculator();
+    }
+
+    /**
+     * Commits already aggregated quota and page tile count differences straight to the quota
+     * store, bypassing the updates queue, keeping the page expiration index up to date.
+     * 
+     * @see QuotaStore#addToQuotaAndTileCounts(TileSet, Quota, Collection)
+     */
+    public void addToQuotaAndTileCounts(final TileSet tileSet, final Quota quotaDiff,
+            final Collection<PageStatsPayload> tileCountDiffs) throws InterruptedException {
+        quotaStore.addToQuotaAndTileCounts(tileSet, quotaDiff, tileCountDiffs);
+        if (expirationIndex != null && tileCountDiffs.size() > 0) {
+            expirationIndex.addTiles(tileSet, tileCountDiffs);
+        }
+    }
+
+    /**
+     * @return the number of quota updates waiting to be processed
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the status of the background application of layer deletes and renames, or
+     *         {@code null} if they're applied synchronously
+     */
+    public QuotaRecomputationStatus getRecomputationStatus() {
+        return recomputationService == null ? null : recomputationService.getStatus();
+    }
+
+    /**
+     * @return the service applying layer deletes and renames, or {@code null} if they're applied
+     *         synchronously
+     */
+    public QuotaRecomputationService getRecomputationService() {
+        return recomputationService;
     }
 
     public void startUp() {
         executorService = Executors.newSingleThreadExecutor(tf);
 
-        quotaDiffsProducer = new QueuedQuotaUpdatesProducer(quotaConfig, sharedQueue, quotaStore);
+        String asyncStr = GeoWebCacheExtensions.getProperty(ASYNC_LAYER_CHANGES_PROPERTY);
+        if (asyncStr == null || Boolean.valueOf(asyncStr)) {
+            recomputationService = new QuotaRecomputationService(quotaStore, expirationIndex);
+        }
+
+        quotaDiffsProducer = new QueuedQuotaUpdatesProducer(quotaConfig, sharedQueue, quotaStore,
+                expirationIndex, recomputationService);
 
         // the task that takes quota updates from the queue and saves them to the store
-        quotaUsageUpdatesConsumer = new QueuedQuotaUpdatesConsumer(quotaStore, sharedQueue);
+        quotaUsageUpdatesConsumer = new QueuedQuotaUpdatesConsumer(quotaStore, sharedQueue,
+                expirationIndex, recomputationService);
 
         // the listener that puts quota updates on the queue
         storageBroker.addBlobStoreListener(quotaDiffsProducer);
@@ -99,8 +235,14 @@ public class QuotaUpdatesMonitor {
         if (cancel) {
             quotaDiffsProducer.setCancelled(true);
             executorService.shutdownNow();
+            if (recomputationService != null) {
+                recomputationService.shutDownNow();
+            }
         } else {
             executorService.shutdown();
+            if (recomputationService != null) {
+                recomputationService.shutDown();
+            }
         }
         sharedQueue = null;
     }
@@ -154,6 +296,9 @@ public class QuotaUpdatesMonitor {
                     + "UsageStatsMonitor is not shutting down");
         }
         executorService.awaitTermination(timeout, units);
+        if (recomputationService != null) {
+            recomputationService.awaitTermination(timeout, units);
+        }
     }
 
 }
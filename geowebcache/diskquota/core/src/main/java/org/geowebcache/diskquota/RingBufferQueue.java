@@ -0,0 +1,431 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded, lock free, multiple producers single consumer {@link BlockingQueue} backed by a
+ * pre-allocated ring buffer, used as an alternative to {@link java.util.concurrent.LinkedBlockingQueue}
+ * to hand quota and usage updates from the request and seeding threads to the single disk quota
+ * consumer thread without allocating a node per element nor contending on a lock.
+ * <p>
+ * Producers claim slots with a compare and set on the tail sequence, and publish them through a
+ * per slot sequence number the consumer waits on. Only one thread shall take elements from the
+ * queue, {@link #poll()}, {@link #take()} and {@link #drainTo} are not safe for concurrent use.
+ * </p>
+ * <p>
+ * What {@link #put(Object)} and {@link #offer(Object, long, TimeUnit)} do when the queue is full
+ * is given by the {@link OverflowPolicy}. The number of dropped and merged elements and the queue
+ * depth are available to monitor whether the queue is undersized.
+ * </p>
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * What producers do when the ring buffer is full
+     */
+    public static enum OverflowPolicy {
+        /** wait until the consumer makes room, same as a bounded {@link BlockingQueue} */
+        BLOCK,
+        /** discard the element, accounting for it in {@link RingBufferQueue#getDropCount()} */
+        DROP,
+        /**
+         * merge the element with a pending one with the same {@link Merger#key key} in an
+         * overflow area the consumer drains along with the ring buffer, blocking if the overflow
+         * area is full too
+         */
+        MERGE
+    }
+
+    /**
+     * Combines elements for the {@link OverflowPolicy#MERGE} policy
+     */
+    public static interface Merger<E> {
+
+        /**
+         * @return the key identifying which elements can be merged together
+         */
+        Object key(E element);
+
+        /**
+         * @return an element equivalent to both arguments, which have the same key
+         */
+        E merge(E pending, E element);
+    }
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Object[] buffer;
+
+    /**
+     * Per slot sequence: equal to the slot's next write sequence while free, and to it plus one
+     * once published and until consumed
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next sequence to consume, only written by the consumer thread
+     */
+    private volatile long head;
+
+    /**
+     * The consumer thread while it's parked waiting for elements
+     */
+    private volatile Thread waitingConsumer;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Merger<E> merger;
+
+    private final ConcurrentMap<Object, E> overflow;
+
+    private final AtomicInteger overflowSize = new AtomicInteger();
+
+    private final AtomicLong dropCount = new AtomicLong();
+
+    private final AtomicLong mergeCount = new AtomicLong();
+
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            minimum number of elements the queue can hold, rounded up to the next power of
+     *            two
+     * @param overflowPolicy
+     *            what to do when the queue is full
+     * @param merger
+     *            how to merge elements, required if {@code overflowPolicy} is
+     *            {@link OverflowPolicy#MERGE}
+     */
+    public RingBufferQueue(final int capacity, final OverflowPolicy overflowPolicy,
+            final Merger<E> merger) {
+        Assert.isTrue(capacity > 0 && capacity <= 1 << 30, "capacity out of range: " + capacity);
+        Assert.notNull(overflowPolicy, "overflowPolicy can't be null");
+        Assert.isTrue(merger != null || overflowPolicy != OverflowPolicy.MERGE,
+                "the MERGE overflow policy requires a merger");
+
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.buffer = new Object[Math.max(1, size)];
+        this.mask = buffer.length - 1;
+        this.sequences = new AtomicLongArray(buffer.length);
+        for (int i = 0; i < buffer.length; i++) {
+            sequences.set(i, i);
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.merger = merger;
+        this.overflow = overflowPolicy == OverflowPolicy.MERGE ? new ConcurrentHashMap<Object, E>()
+                : null;
+    }
+
+    public RingBufferQueue(final int capacity, final OverflowPolicy overflowPolicy) {
+        this(capacity, overflowPolicy, null);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return number of elements discarded because the queue was full
+     */
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+    /**
+     * @return number of elements merged into pending ones because the queue was full
+     */
+    public long getMergeCount() {
+        return mergeCount.get();
+    }
+
+    /**
+     * @return the maximum number of elements the ring buffer held at once
+     */
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Inserts the element if there's room for it without waiting, regardless of the overflow
+     * policy
+     */
+    @Override
+    public boolean offer(final E e) {
+        Assert.notNull(e, "null elements are not supported");
+        while (true) {
+            final long t = tail.get();
+            final int index = (int) t & mask;
+            final long sequence = sequences.get(index);
+            if (sequence == t) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    buffer[index] = e;
+                    sequences.set(index, t + 1);
+                    updateMaxDepth(t + 1 - head);
+                    signalConsumer();
+                    return true;
+                }
+            } else if (sequence < t) {
+                // the slot wasn't consumed yet, the ring is full
+                return false;
+            }
+            // else another producer claimed the slot, retry
+        }
+    }
+
+    /**
+     * Inserts the element applying the overflow policy if the queue is full
+     */
+    public void put(final E e) throws InterruptedException {
+        insert(e, Long.MAX_VALUE);
+    }
+
+    /**
+     * Inserts the element applying the overflow policy if the queue is full, waiting for up to
+     * the given time if it's {@link OverflowPolicy#BLOCK}.
+     *
+     * @return {@code false} if the time elapsed before the element could be inserted,
+     *         {@code true} if it was inserted, merged or dropped
+     */
+    public boolean offer(final E e, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        return insert(e, unit.toNanos(timeout));
+    }
+
+    private boolean insert(final E e, final long timeoutNanos) throws InterruptedException {
+        if (offer(e)) {
+            return true;
+        }
+        switch (overflowPolicy) {
+        case DROP:
+            dropCount.incrementAndGet();
+            return true;
+        case MERGE:
+            if (merge(e)) {
+                return true;
+            }
+            break;
+        default:
+            break;
+        }
+        final long deadline = System.nanoTime() + timeoutNanos;
+        long parkNanos = 1000;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final long remaining = timeoutNanos == Long.MAX_VALUE ? MAX_PARK_NANOS : deadline
+                    - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(parkNanos, remaining));
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Merges the element into the overflow area, as long as it doesn't hold more elements than
+     * the ring buffer capacity
+     */
+    private boolean merge(final E e) {
+        final Object key = merger.key(e);
+        while (true) {
+            E pending = overflow.get(key);
+            if (pending == null) {
+                if (overflowSize.get() >= buffer.length) {
+                    return false;
+                }
+                if (overflow.putIfAbsent(key, e) == null) {
+                    overflowSize.incrementAndGet();
+                    signalConsumer();
+                    return true;
+                }
+            } else if (overflow.replace(key, pending, merger.merge(pending, e))) {
+                mergeCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long h = head;
+        final int index = (int) h & mask;
+        if (sequences.get(index) == h + 1) {
+            E e = (E) buffer[index];
+            buffer[index] = null;
+            // free the slot for the producer that will write sequence h + capacity
+            sequences.set(index, h + buffer.length);
+            head = h + 1;
+            return e;
+        }
+        return pollOverflow();
+    }
+
+    private E pollOverflow() {
+        if (overflow == null || overflowSize.get() == 0) {
+            return null;
+        }
+        for (Object key : overflow.keySet()) {
+            E e = overflow.remove(key);
+            if (e != null) {
+                overflowSize.decrementAndGet();
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while (true) {
+                // check again after publishing the waiting thread, producers signal it after
+                // publishing their elements
+                e = poll();
+                if (e != null) {
+                    return e;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) == null) {
+            // keep waiting
+        }
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E peek() {
+        final long h = head;
+        final int index = (int) h & mask;
+        if (sequences.get(index) == h + 1) {
+            return (E) buffer[index];
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of elements in the queue, including the ones merged in the overflow area
+     */
+    @Override
+    public int size() {
+        long depth = tail.get() - head;
+        // producers may have claimed slots they didn't publish yet
+        depth = Math.max(0, Math.min(depth, buffer.length));
+        return (int) depth + overflowSize.get();
+    }
+
+    public int remainingCapacity() {
+        return buffer.length - (int) Math.min(buffer.length, Math.max(0, tail.get() - head));
+    }
+
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        Assert.isTrue(c != this, "can't drain a queue to itself");
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return a weakly consistent snapshot of the elements in the ring buffer
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>();
+        final long t = tail.get();
+        for (long s = head; s < t; s++) {
+            final int index = (int) s & mask;
+            Object e = buffer[index];
+            if (sequences.get(index) == s + 1 && e != null) {
+                snapshot.add((E) e);
+            }
+        }
+        if (overflow != null) {
+            snapshot.addAll(overflow.values());
+        }
+        return snapshot.iterator();
+    }
+
+    private void signalConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void updateMaxDepth(final long depth) {
+        long max;
+        while (depth > (max = maxDepth.get())) {
+            if (maxDepth.compareAndSet(max, depth)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Records which parts of a layer's cache were already accounted for by the
+ * {@link LayerCacheInfoBuilder}, so that a disk usage scan interrupted by a shut down can be
+ * resumed instead of started over.
+ * <p>
+ * The checkpoint is a plain text file with one completed entry (a cache directory path relative
+ * to the layer directory) per line, appended and flushed as soon as the entry's quota is committed
+ * to the quota store. Its existence means the scan of the layer is not finished, so it's deleted
+ * once the whole layer has been scanned.
+ * </p>
+ */
+final class ScanCheckpoint {
+
+    private static final Log log = LogFactory.getLog(ScanCheckpoint.class);
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File file;
+
+    private final Set<String> completed = new HashSet<String>();
+
+    private Writer writer;
+
+    private ScanCheckpoint(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the checkpoint stored at {@code file}, creating it if it doesn't exist
+     *
+     * @param resume
+     *            whether to keep the entries already recorded in the file or discard them to
+     *            start the scan over
+     */
+    public static ScanCheckpoint open(final File file, final boolean resume) throws IOException {
+        ScanCheckpoint checkpoint = new ScanCheckpoint(file);
+        if (resume && file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    file), ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        checkpoint.completed.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent.getAbsolutePath());
+        }
+        checkpoint.writer = new OutputStreamWriter(new FileOutputStream(file, resume), ENCODING);
+        return checkpoint;
+    }
+
+    /**
+     * @return whether {@code entry} was recorded as {@link #complete(String) completed}
+     */
+    public synchronized boolean isCompleted(final String entry) {
+        return completed.contains(entry);
+    }
+
+    /**
+     * @return the number of completed entries
+     */
+    public synchronized int size() {
+        return completed.size();
+    }
+
+    /**
+     * Records {@code entry} as completed
+     */
+    public synchronized void complete(final String entry) throws IOException {
+        if (writer == null) {
+            throw new IOException("Checkpoint " + file.getAbsolutePath() + " is closed");
+        }
+        writer.write(entry);
+        writer.write('\n');
+        writer.flush();
+        completed.add(entry);
+    }
+
+    /**
+     * Closes the checkpoint, keeping the file so that the scan is resumed the next time
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Error closing disk usage scan checkpoint " + file.getAbsolutePath(), e);
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Closes the checkpoint and deletes its file, to be called once the scan is finished
+     */
+    public synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            log.warn("Unable to delete disk usage scan checkpoint " + file.getAbsolutePath());
+        }
+    }
+}
@@ -10,9 +10,34 @@ public class UsageStats {
 
     private final long[] tileIndex;
 
+    private final int numHits;
+
+    /**
+     * Merges the usage statistics of the same tile, adding up their hits, for the
+     * {@link RingBufferQueue.OverflowPolicy#MERGE} queue overflow policy
+     */
+    static final RingBufferQueue.Merger<UsageStats> MERGER = new RingBufferQueue.Merger<UsageStats>() {
+
+        public Object key(UsageStats stats) {
+            long[] idx = stats.getTileIndex();
+            return new StringBuilder(stats.getTileSet().getId()).append('/').append(idx[0])
+                    .append('/').append(idx[1]).append('/').append(idx[2]).toString();
+        }
+
+        public UsageStats merge(UsageStats pending, UsageStats stats) {
+            return new UsageStats(pending.getTileSet(), pending.getTileIndex(),
+                    pending.getNumHits() + stats.getNumHits());
+        }
+    };
+
     public UsageStats(TileSet tileset, long[] tileIndex) {
+        this(tileset, tileIndex, 1);
+    }
+
+    public UsageStats(TileSet tileset, long[] tileIndex, int numHits) {
         this.tileSet = tileset;
         this.tileIndex = tileIndex;
+        this.numHits = numHits;
     }
 
     public TileSet getTileSet() {
@@ -23,6 +48,14 @@ public class UsageStats {
         return tileIndex;
     }
 
+    /**
+     * @return the number of times the tile was requested, more than one if several requests were
+     *         merged
+     */
+    public int getNumHits() {
+        return numHits;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder("[").append(tileSet.toString()).append(", ")
@@ -3,11 +3,11 @@ package org.geowebcache.diskquota;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.layer.TileLayerDispatcher;
@@ -22,6 +22,14 @@ public class UsageStatsMonitor {
     private static final CustomizableThreadFactory tf = new CustomizableThreadFactory(
             "GWC DiskQuota Usage Stats Gathering Thread-");
 
+    /**
+     * System/environment property with the usage statistics sample rate, one in how many tile
+     * requests are recorded. Defaults to {@code 1}, recording all of them.
+     * 
+     * @see QueuedUsageStatsProducer
+     */
+    static final String SAMPLE_RATE_PROPERTY = "GEOWEBCACHE_QUOTA_USAGE_SAMPLE_RATE";
+
     private final QuotaStore quotaStore;
 
     private final TileLayerDispatcher tileLayerDispatcher;
@@ -38,6 +46,11 @@ public class UsageStatsMonitor {
      */
     private BlockingQueue<UsageStats> sharedQueue;
 
+    /**
+     * Same as {@link #sharedQueue} but kept after shut down, for the queue metrics
+     */
+    private BlockingQueue<UsageStats> queue;
+
     /**
      * Listens to all {@link TileLayer layers}
      * {@link TileLayerListener#tileRequested(TileLayer, org.geowebcache.conveyor.ConveyorTile)
@@ -53,8 +66,25 @@ public class UsageStatsMonitor {
      */
     private QueuedUsageStatsConsumer usageStatsConsumer;
 
+    private final PageExpirationIndex expirationIndex;
+
+    private QuotaRecomputationService recomputationService;
+
     public UsageStatsMonitor(final QuotaStore quotaStore,
             final TileLayerDispatcher tileLayerDispatcher) {
+        this(quotaStore, tileLayerDispatcher, null);
+    }
+
+    /**
+     * @param quotaStore
+     * @param tileLayerDispatcher
+     * @param expirationIndex
+     *            the page expiration index to keep up to date with the usage statistics, may be
+     *            {@code null}
+     */
+    public UsageStatsMonitor(final QuotaStore quotaStore,
+            final TileLayerDispatcher tileLayerDispatcher,
+            final PageExpirationIndex expirationIndex) {
 
         Assert.notNull(quotaStore, "quotaStore is null");
         Assert.notNull(tileLayerDispatcher, "tileLayerDispatcher is null");
@@ -62,24 +92,81 @@ public class UsageStatsMonitor {
         this.quotaStore = quotaStore;
         this.tileLayerDispatcher = tileLayerDispatcher;
         this.tilePageCalculator = quotaStore.getTilePageCalculator();
+        this.expirationIndex = expirationIndex;
+    }
+
+    /**
+     * Sets the service applying layer deletes and renames in the background, so that the usage
+     * statistics of a layer are not committed ahead of its pending changes. Takes effect on the
+     * next {@link #startUp()}.
+     * 
+     * @param recomputationService
+     *            the service, or {@code null} if the changes are applied synchronously
+     */
+    public void setRecomputationService(QuotaRecomputationService recomputationService) {
+        this.recomputationService = recomputationService;
     }
 
     public void startUp() {
         executorService = Executors.newSingleThreadExecutor(tf);
 
-        sharedQueue = new LinkedBlockingQueue<UsageStats>(1000);
+        sharedQueue = QuotaUpdatesMonitor.createQueue(1000, UsageStats.MERGER, true);
+        queue = sharedQueue;
 
         usageStatsConsumer = new QueuedUsageStatsConsumer(quotaStore, sharedQueue,
-                tilePageCalculator);
+                tilePageCalculator, expirationIndex, recomputationService);
         executorService.submit(usageStatsConsumer);
 
-        usageStatsProducer = new QueuedUsageStatsProducer(sharedQueue);
+        usageStatsProducer = new QueuedUsageStatsProducer(sharedQueue, getSampleRate());
         Iterable<TileLayer> allLayers = tileLayerDispatcher.getLayerList();
         for (TileLayer layer : allLayers) {
             layer.addLayerListener(usageStatsProducer);
         }
     }
 
+    private static int getSampleRate() {
+        String rateStr = GeoWebCacheExtensions.getProperty(SAMPLE_RATE_PROPERTY);
+        int sampleRate = 1;
+        if (rateStr != null) {
+            try {
+                sampleRate = Integer.parseInt(rateStr.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + SAMPLE_RATE_PROPERTY + " value '" + rateStr + "'");
+            }
+            if (sampleRate < 1) {
+                log.warn("Invalid " + SAMPLE_RATE_PROPERTY + " value " + rateStr
+                        + ", it shall be a positive integer. Recording all tile requests.");
+                sampleRate = 1;
+            } else if (sampleRate > 1) {
+                log.info("Recording the usage statistics of one in " + sampleRate
+                        + " tile requests");
+            }
+        }
+        return sampleRate;
+    }
+
+    /**
+     * @return the number of usage statistics waiting to be processed
+     */
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return the number of usage statistics discarded because the queue was full
+     */
+    public long getDroppedUpdates() {
+        return queue instanceof RingBufferQueue ? ((RingBufferQueue<?>) queue).getDropCount() : 0;
+    }
+
+    /**
+     * @return the number of usage statistics merged into pending ones because the queue was full
+     */
+    public long getMergedUpdates() {
+        return queue instanceof RingBufferQueue ? ((RingBufferQueue<?>) queue).getMergeCount()
+                : 0;
+    }
+
     /**
      * Calls for a shut down and waits until any remaining task finishes before returning
      */
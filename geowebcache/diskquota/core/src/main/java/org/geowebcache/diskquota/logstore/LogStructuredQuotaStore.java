@@ -0,0 +1,1244 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota.logstore;
+
+import static org.geowebcache.diskquota.DiskQuotaMonitor.GWC_DISKQUOTA_DISABLED;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.config.ConfigurationException;
+import org.geowebcache.diskquota.ExpirationPolicy;
+import org.geowebcache.diskquota.PageCursor;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+import org.geowebcache.storage.DefaultStorageFinder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Embedded {@link QuotaStore} keeping the whole quota and page statistics state in memory, as
+ * primitive arrays, and persisting it as an append-only log of changes plus periodic snapshots.
+ * <p>
+ * Each change is first appended to the {@link QuotaLog write-ahead log} and then applied to the
+ * in memory state by the very same code that replays the log at start up. The log is flushed to
+ * disk every second, and once it grows over {@link #COMPACTION_SIZE_PROPERTY} bytes the whole
+ * state is written to a memory mapped snapshot file and the log is started over. The snapshot and
+ * the log carry a generation number, so that a crash between writing the snapshot and resetting
+ * the log does not apply the log twice.
+ * </p>
+ * <p>
+ * Finding the least frequently or recently used page is a linear scan over the page statistics
+ * arrays, which for the page counts handled by the disk quota module is still faster than walking
+ * a secondary index on disk, and costs no index maintenance on each usage update.
+ * </p>
+ */
+public class LogStructuredQuotaStore implements QuotaStore {
+
+    private static final Log log = LogFactory.getLog(LogStructuredQuotaStore.class);
+
+    /**
+     * Name of the system property, environment variable, or servlet context parameter setting the
+     * size in bytes the log can reach before it's compacted into a new snapshot
+     */
+    public static final String COMPACTION_SIZE_PROPERTY =
+            "GEOWEBCACHE_QUOTA_LOG_STORE_COMPACTION_SIZE";
+
+    static final long DEFAULT_COMPACTION_SIZE = 64 * 1024 * 1024;
+
+    static final String STORE_DIRECTORY = "diskquota_log_store";
+
+    static final String SNAPSHOT_FILE = "snapshot.dat";
+
+    static final String LOG_FILE = "wal.log";
+
+    private static final int SNAPSHOT_MAGIC = 0x47575153; // GWQS
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final int SNAPSHOT_PAGE_SIZE = 4 + 4 + 4 + 1 + 4 + 4 + 4 + 4 + 8;
+
+    /**
+     * Size of the buffers the snapshots are written and read through
+     */
+    private static final int SNAPSHOT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of pages copied at once while holding the lock when visiting the pages
+     */
+    private static final int VISIT_CHUNK_SIZE = 1024;
+
+    /**
+     * Minimum number of pages the {@link #getPagesToExpire expiration cursor} picks with each pass
+     * over the pages, so that expiring pages one at a time doesn't take a pass per page
+     */
+    static final int EXPIRATION_CHUNK_SIZE = 1024;
+
+    private static final byte CREATE_TILESET = 1;
+
+    private static final byte DELETE_TILESETS = 2;
+
+    private static final byte RENAME_TILESET = 3;
+
+    private static final byte ADD_QUOTA = 4;
+
+    private static final byte ADD_TILES = 5;
+
+    private static final byte ADD_HITS = 6;
+
+    private static final byte TRUNCATE = 7;
+
+    private final String cacheRootDir;
+
+    private final TilePageCalculator tilePageCalculator;
+
+    private final boolean diskQuotaEnabled;
+
+    private final long compactionSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Lock readLock = lock.readLock();
+
+    private final Lock writeLock = lock.writeLock();
+
+    /**
+     * Tile sets by ordinal, {@code null} for the deleted ones
+     */
+    private TileSet[] tileSets = new TileSet[16];
+
+    /**
+     * Bytes used by each tile set, by ordinal
+     */
+    private long[] usedBytes = new long[16];
+
+    private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+
+    private int nextOrdinal;
+
+    private PageTable pages = new PageTable();
+
+    private final QuotaLog.RecordHandler applier = new QuotaLog.RecordHandler() {
+        public void apply(byte type, ByteBuffer payload) {
+            LogStructuredQuotaStore.this.apply(type, payload);
+        }
+    };
+
+    private File storeDirectory;
+
+    private QuotaLog quotaLog;
+
+    private ScheduledExecutorService maintenance;
+
+    private volatile boolean open;
+
+    public LogStructuredQuotaStore(final DefaultStorageFinder cacheDirFinder,
+            TilePageCalculator tilePageCalculator) throws ConfigurationException {
+
+        Assert.notNull(cacheDirFinder, "cacheDirFinder can't be null");
+        Assert.notNull(tilePageCalculator, "tilePageCalculator can't be null");
+
+        this.tilePageCalculator = tilePageCalculator;
+        this.cacheRootDir = cacheDirFinder.getDefaultPath();
+
+        boolean disabled = Boolean.valueOf(cacheDirFinder.findEnvVar(GWC_DISKQUOTA_DISABLED))
+                .booleanValue();
+        if (disabled) {
+            log.warn(" -- Found environment variable " + GWC_DISKQUOTA_DISABLED
+                    + " set to true. DiskQuotaMonitor is disabled.");
+        }
+        this.diskQuotaEnabled = !disabled;
+        this.compactionSize = getCompactionSize();
+    }
+
+    private static long getCompactionSize() {
+        String sizeStr = GeoWebCacheExtensions.getProperty(COMPACTION_SIZE_PROPERTY);
+        if (sizeStr != null) {
+            try {
+                long size = Long.parseLong(sizeStr.trim());
+                if (size > 0) {
+                    return size;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            log.warn("Invalid " + COMPACTION_SIZE_PROPERTY + " value '" + sizeStr
+                    + "', it shall be a positive number of bytes. Using the default of "
+                    + DEFAULT_COMPACTION_SIZE);
+        }
+        return DEFAULT_COMPACTION_SIZE;
+    }
+
+    /**
+     * Loads the latest snapshot, replays the log on top of it, and syncs the stored tile sets with
+     * the configured layers
+     *
+     * @see {@link #close()}
+     */
+    public void startUp() throws InterruptedException, IOException {
+        if (!diskQuotaEnabled) {
+            log.info(getClass().getName() + " won't start, got env variable "
+                    + GWC_DISKQUOTA_DISABLED + "=true");
+            return;
+        }
+        storeDirectory = new File(cacheRootDir, STORE_DIRECTORY);
+        storeDirectory.mkdirs();
+
+        writeLock.lock();
+        try {
+            // start from scratch in case the store is being restarted
+            Arrays.fill(tileSets, null);
+            Arrays.fill(usedBytes, 0);
+            ordinals.clear();
+            nextOrdinal = 0;
+            pages = new PageTable();
+
+            long generation = 0;
+            File snapshot = new File(storeDirectory, SNAPSHOT_FILE);
+            if (snapshot.exists()) {
+                generation = loadSnapshot(snapshot);
+            }
+            quotaLog = QuotaLog.open(new File(storeDirectory, LOG_FILE), generation, applier);
+        } finally {
+            writeLock.unlock();
+        }
+        open = true;
+
+        CustomizableThreadFactory tf = new CustomizableThreadFactory("GWC DiskQuota Log Store-");
+        tf.setDaemon(true);
+        maintenance = Executors.newSingleThreadScheduledExecutor(tf);
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                flushAndCompact();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        deleteStaleLayersAndCreateMissingTileSets();
+
+        log.info("Log structured disk quota store configured at "
+                + storeDirectory.getAbsolutePath() + " with " + pages.size() + " pages");
+        log.info("Quota Store initialized. Global quota: " + getGloballyUsedQuota().toNiceString());
+    }
+
+    private void deleteStaleLayersAndCreateMissingTileSets() throws InterruptedException {
+        final Set<String> layerNames = tilePageCalculator.getLayerNames();
+        final Set<String> layersToDelete = new HashSet<String>();
+        for (TileSet tileSet : getTileSets()) {
+            layersToDelete.add(tileSet.getLayerName());
+        }
+        layersToDelete.removeAll(layerNames);
+        for (String layerName : layersToDelete) {
+            log.info("Deleting disk quota information for layer '" + layerName
+                    + "' as it does not exist anymore...");
+            deleteLayer(layerName);
+        }
+        // add any missing tileset
+        for (String layerName : layerNames) {
+            createLayer(layerName);
+        }
+    }
+
+    /**
+     * Flushes the log to disk, and compacts it if it grew too much. Run periodically.
+     */
+    private void flushAndCompact() {
+        try {
+            quotaLog.force();
+            if (quotaLog.size() > compactionSize) {
+                writeLock.lock();
+                try {
+                    if (open) {
+                        compact();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error flushing the disk quota log", e);
+        } catch (RuntimeException e) {
+            log.error("Error compacting the disk quota log", e);
+        }
+    }
+
+    public void close() throws Exception {
+        if (!diskQuotaEnabled) {
+            return;
+        }
+        log.info("Requesting to close quota store...");
+        open = false;
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            log.error("Time out shutting down the quota store maintenance thread, "
+                    + "compacting the log as is.", ie);
+        }
+        writeLock.lock();
+        try {
+            compact();
+        } finally {
+            try {
+                quotaLog.close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        log.info("Quota store closed.");
+    }
+
+    private void checkOpen() {
+        if (!open) {
+            throw new IllegalStateException("QuotaStore is closed.");
+        }
+    }
+
+    /**
+     * Appends the batch of changes to the log and applies them to the in memory state. To be
+     * called while holding the write lock.
+     */
+    private void commit(final QuotaLog.Batch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            quotaLog.append(batch);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error writing to the disk quota log", e);
+        }
+        QuotaLog.readRecords(batch.records(), applier);
+    }
+
+    /**
+     * Applies a change read from the log, or just appended to it
+     */
+    private void apply(final byte type, final ByteBuffer payload) {
+        switch (type) {
+        case CREATE_TILESET: {
+            final int ordinal = payload.getInt();
+            final String layerName = QuotaLog.Batch.getString(payload);
+            final String gridsetId = QuotaLog.Batch.getString(payload);
+            final String blobFormat = QuotaLog.Batch.getString(payload);
+            final String parametersId = QuotaLog.Batch.getString(payload);
+            putTileSet(ordinal, new TileSet(layerName, gridsetId, blobFormat, parametersId), 0);
+            break;
+        }
+        case DELETE_TILESETS: {
+            final int count = payload.getInt();
+            for (int i = 0; i < count; i++) {
+                final int ordinal = payload.getInt();
+                if (isLive(ordinal)) {
+                    ordinals.remove(tileSets[ordinal].getId());
+                    tileSets[ordinal] = null;
+                    usedBytes[ordinal] = 0;
+                }
+            }
+            pages.retain(getLiveTileSets());
+            break;
+        }
+        case RENAME_TILESET: {
+            final int ordinal = payload.getInt();
+            final String newLayerName = QuotaLog.Batch.getString(payload);
+            if (isLive(ordinal)) {
+                TileSet old = tileSets[ordinal];
+                ordinals.remove(old.getId());
+                TileSet renamed = new TileSet(newLayerName, old.getGridsetId(),
+                        old.getBlobFormat(), old.getParametersId());
+                putTileSet(ordinal, renamed, usedBytes[ordinal]);
+            }
+            break;
+        }
+        case ADD_QUOTA: {
+            final int ordinal = payload.getInt();
+            final long bytes = payload.getLong();
+            if (isLive(ordinal)) {
+                usedBytes[ordinal] += bytes;
+            }
+            break;
+        }
+        case ADD_TILES: {
+            final int ordinal = payload.getInt();
+            final int x = payload.getInt();
+            final int y = payload.getInt();
+            final int z = payload.getInt();
+            final int creationTimeMinutes = payload.getInt();
+            final long numTiles = payload.getLong();
+            final long tilesPerPage = payload.getLong();
+            if (isLive(ordinal)) {
+                int slot = pages.findOrAdd(ordinal, x, y, z, creationTimeMinutes);
+                pages.addTiles(slot, numTiles, tilesPerPage);
+            }
+            break;
+        }
+        case ADD_HITS: {
+            final int ordinal = payload.getInt();
+            final int x = payload.getInt();
+            final int y = payload.getInt();
+            final int z = payload.getInt();
+            final int creationTimeMinutes = payload.getInt();
+            final long hits = payload.getLong();
+            final int lastAccessTimeMinutes = payload.getInt();
+            if (isLive(ordinal)) {
+                int slot = pages.findOrAdd(ordinal, x, y, z, creationTimeMinutes);
+                pages.addHitsAndAccessTime(slot, hits, lastAccessTimeMinutes);
+            }
+            break;
+        }
+        case TRUNCATE: {
+            final int ordinal = payload.getInt();
+            final int slot = pages.find(ordinal, payload.getInt(), payload.getInt(),
+                    payload.getInt());
+            if (slot != -1) {
+                pages.setFillFactor(slot, 0f);
+            }
+            break;
+        }
+        default:
+            log.warn("Ignoring unknown disk quota log record type " + type);
+        }
+    }
+
+    private void putTileSet(final int ordinal, final TileSet tileSet, final long bytes) {
+        if (ordinal >= tileSets.length) {
+            final int capacity = Math.max(ordinal + 1, 2 * tileSets.length);
+            tileSets = Arrays.copyOf(tileSets, capacity);
+            usedBytes = Arrays.copyOf(usedBytes, capacity);
+        }
+        tileSets[ordinal] = tileSet;
+        usedBytes[ordinal] = bytes;
+        ordinals.put(tileSet.getId(), Integer.valueOf(ordinal));
+        nextOrdinal = Math.max(nextOrdinal, ordinal + 1);
+    }
+
+    private boolean isLive(final int ordinal) {
+        return ordinal >= 0 && ordinal < tileSets.length && tileSets[ordinal] != null;
+    }
+
+    private boolean[] getLiveTileSets() {
+        boolean[] live = new boolean[tileSets.length];
+        for (int i = 0; i < tileSets.length; i++) {
+            live[i] = tileSets[i] != null;
+        }
+        return live;
+    }
+
+    /**
+     * @return the ordinals of the tile sets of the given layers, flagged by ordinal
+     */
+    private boolean[] getLayerTileSets(final Set<String> layerNames) {
+        boolean[] flags = new boolean[tileSets.length];
+        for (int i = 0; i < tileSets.length; i++) {
+            flags[i] = tileSets[i] != null && layerNames.contains(tileSets[i].getLayerName());
+        }
+        return flags;
+    }
+
+    private List<Integer> getLayerOrdinals(final String layerName, final String gridSetId) {
+        List<Integer> layerOrdinals = new ArrayList<Integer>();
+        for (int i = 0; i < tileSets.length; i++) {
+            TileSet tileSet = tileSets[i];
+            if (tileSet != null && tileSet.getLayerName().equals(layerName)
+                    && (gridSetId == null || tileSet.getGridsetId().equals(gridSetId))) {
+                layerOrdinals.add(Integer.valueOf(i));
+            }
+        }
+        return layerOrdinals;
+    }
+
+    private int getOrCreateTileSet(final QuotaLog.Batch batch, final TileSet tileSet) {
+        Integer ordinal = ordinals.get(tileSet.getId());
+        if (ordinal != null) {
+            return ordinal.intValue();
+        }
+        log.debug("Creating TileSet for quota tracking: " + tileSet);
+        final int newOrdinal = nextOrdinal++;
+        batch.start(CREATE_TILESET).putInt(newOrdinal).putString(tileSet.getLayerName())
+                .putString(tileSet.getGridsetId()).putString(tileSet.getBlobFormat())
+                .putString(tileSet.getParametersId()).end();
+        return newOrdinal;
+    }
+
+    private void deleteTileSets(final QuotaLog.Batch batch, final List<Integer> deleted) {
+        if (deleted.isEmpty()) {
+            return;
+        }
+        batch.start(DELETE_TILESETS).putInt(deleted.size());
+        for (Integer ordinal : deleted) {
+            batch.putInt(ordinal.intValue());
+        }
+        batch.end();
+    }
+
+    private TilePage toTilePage(final int slot) {
+        String tileSetId = tileSets[pages.getTileSet(slot)].getId();
+        return new TilePage(tileSetId, pages.getPageX(slot), pages.getPageY(slot),
+                pages.getPageZ(slot), pages.getCreationTime(slot));
+    }
+
+    private int findPage(final TilePage page) {
+        Integer ordinal = ordinals.get(page.getTileSetId());
+        if (ordinal == null) {
+            return -1;
+        }
+        return pages.find(ordinal.intValue(), page.getPageX(), page.getPageY(),
+                page.getZoomLevel());
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#createLayer(java.lang.String)
+     */
+    public void createLayer(final String layerName) throws InterruptedException {
+        Set<TileSet> layerTileSets = tilePageCalculator.getTileSetsFor(layerName);
+        writeLock.lockInterruptibly();
+        try {
+            checkOpen();
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            for (TileSet tileSet : layerTileSets) {
+                getOrCreateTileSet(batch, tileSet);
+            }
+            commit(batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getGloballyUsedQuota()
+     */
+    public Quota getGloballyUsedQuota() throws InterruptedException {
+        readLock.lockInterruptibly();
+        try {
+            long bytes = 0;
+            for (int i = 0; i < tileSets.length; i++) {
+                bytes += usedBytes[i];
+            }
+            return new Quota(bytes);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getUsedQuotaByTileSetId(java.lang.String)
+     */
+    public Quota getUsedQuotaByTileSetId(final String tileSetId) throws InterruptedException {
+        readLock.lockInterruptibly();
+        try {
+            Integer ordinal = ordinals.get(tileSetId);
+            if (ordinal == null) {
+                return new Quota();
+            }
+            Quota quota = new Quota(usedBytes[ordinal.intValue()]);
+            quota.setTileSetId(tileSetId);
+            return quota;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getUsedQuotaByLayerName(java.lang.String)
+     */
+    public Quota getUsedQuotaByLayerName(final String layerName) throws InterruptedException {
+        readLock.lockInterruptibly();
+        try {
+            long bytes = 0;
+            for (Integer ordinal : getLayerOrdinals(layerName, null)) {
+                bytes += usedBytes[ordinal.intValue()];
+            }
+            return new Quota(bytes);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#deleteLayer(java.lang.String)
+     */
+    public void deleteLayer(final String layerName) {
+        Assert.notNull(layerName);
+        writeLock.lock();
+        try {
+            checkOpen();
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            deleteTileSets(batch, getLayerOrdinals(layerName, null));
+            commit(batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#deleteGridSubset(java.lang.String,
+     *      java.lang.String)
+     */
+    public void deleteGridSubset(final String layerName, final String gridSetId) {
+        writeLock.lock();
+        try {
+            checkOpen();
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            deleteTileSets(batch, getLayerOrdinals(layerName, gridSetId));
+            commit(batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the tile sets, their used quota and pages, from the old layer to the new one. Any tile
+     * set the new layer already had in common with the old one is replaced.
+     *
+     * @see org.geowebcache.diskquota.QuotaStore#renameLayer(java.lang.String, java.lang.String)
+     */
+    public void renameLayer(final String oldLayerName, final String newLayerName)
+            throws InterruptedException {
+        Assert.notNull(oldLayerName);
+        Assert.notNull(newLayerName);
+        writeLock.lockInterruptibly();
+        try {
+            checkOpen();
+            final List<Integer> renamed = getLayerOrdinals(oldLayerName, null);
+            final List<Integer> replaced = new ArrayList<Integer>();
+            for (Integer ordinal : renamed) {
+                TileSet old = tileSets[ordinal.intValue()];
+                String newId = new TileSet(newLayerName, old.getGridsetId(), old.getBlobFormat(),
+                        old.getParametersId()).getId();
+                Integer existing = ordinals.get(newId);
+                if (existing != null) {
+                    replaced.add(existing);
+                }
+            }
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            deleteTileSets(batch, replaced);
+            for (Integer ordinal : renamed) {
+                batch.start(RENAME_TILESET).putInt(ordinal.intValue()).putString(newLayerName)
+                        .end();
+            }
+            commit(batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTilesForPage(org.geowebcache.diskquota.storage.TilePage)
+     */
+    public long[][] getTilesForPage(TilePage page) throws InterruptedException {
+        TileSet tileSet = getTileSetById(page.getTileSetId());
+        long[][] gridCoverage = tilePageCalculator.toGridCoverage(tileSet, page);
+        return gridCoverage;
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTileSets()
+     */
+    public Set<TileSet> getTileSets() {
+        readLock.lock();
+        try {
+            Set<TileSet> live = new HashSet<TileSet>();
+            for (TileSet tileSet : tileSets) {
+                if (tileSet != null) {
+                    live.add(tileSet);
+                }
+            }
+            return live;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTileSetById(java.lang.String)
+     */
+    public TileSet getTileSetById(final String tileSetId) throws InterruptedException {
+        readLock.lockInterruptibly();
+        try {
+            Integer ordinal = ordinals.get(tileSetId);
+            if (ordinal == null) {
+                throw new IllegalArgumentException("TileSet does not exist: " + tileSetId);
+            }
+            return tileSets[ordinal.intValue()];
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#accept(org.geowebcache.diskquota.storage.TileSetVisitor)
+     */
+    public void accept(TileSetVisitor visitor) {
+        for (TileSet tileSet : getTileSets()) {
+            visitor.visit(tileSet, this);
+        }
+    }
+
+    /**
+     * Visits the pages in chunks, without holding the lock while calling the visitor
+     *
+     * @see org.geowebcache.diskquota.QuotaStore#accept(org.geowebcache.diskquota.storage.TilePageVisitor)
+     */
+    public void accept(TilePageVisitor visitor) throws InterruptedException {
+        List<TilePage> chunkPages = new ArrayList<TilePage>(VISIT_CHUNK_SIZE);
+        List<PageStats> chunkStats = new ArrayList<PageStats>(VISIT_CHUNK_SIZE);
+        for (int start = 0;; start += VISIT_CHUNK_SIZE) {
+            readLock.lockInterruptibly();
+            try {
+                final int end = Math.min(pages.size(), start + VISIT_CHUNK_SIZE);
+                for (int slot = start; slot < end; slot++) {
+                    chunkPages.add(toTilePage(slot));
+                    chunkStats.add(pages.getStats(slot));
+                }
+            } finally {
+                readLock.unlock();
+            }
+            if (chunkPages.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < chunkPages.size(); i++) {
+                visitor.visit(chunkPages.get(i), chunkStats.get(i));
+            }
+            chunkPages.clear();
+            chunkStats.clear();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getTilePageCalculator()
+     */
+    public TilePageCalculator getTilePageCalculator() {
+        return tilePageCalculator;
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#addToQuotaAndTileCounts(org.geowebcache.diskquota.storage.TileSet,
+     *      org.geowebcache.diskquota.storage.Quota, java.util.Collection)
+     */
+    public void addToQuotaAndTileCounts(final TileSet tileSet, final Quota quotaDiff,
+            final Collection<PageStatsPayload> tileCountDiffs) throws InterruptedException {
+
+        // resolve the page sizes before taking the lock, it requires looking up the layer
+        final long[] tilesPerPage = new long[tileCountDiffs.size()];
+        final Map<Byte, Long> tilesPerPageByLevel = new HashMap<Byte, Long>();
+        int i = 0;
+        for (PageStatsPayload payload : tileCountDiffs) {
+            final Byte level = Byte.valueOf(payload.getPage().getZoomLevel());
+            Long levelTilesPerPage = tilesPerPageByLevel.get(level);
+            if (levelTilesPerPage == null) {
+                levelTilesPerPage = Long.valueOf(tilePageCalculator.getTilesPerPageCount(tileSet,
+                        level.intValue()));
+                tilesPerPageByLevel.put(level, levelTilesPerPage);
+            }
+            tilesPerPage[i++] = levelTilesPerPage.longValue();
+        }
+
+        writeLock.lockInterruptibly();
+        try {
+            checkOpen();
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            final int ordinal = getOrCreateTileSet(batch, tileSet);
+            batch.start(ADD_QUOTA).putInt(ordinal).putLong(quotaDiff.getBytes().longValue())
+                    .end();
+            i = 0;
+            for (PageStatsPayload payload : tileCountDiffs) {
+                TilePage page = payload.getPage();
+                batch.start(ADD_TILES).putInt(ordinal).putInt(page.getPageX())
+                        .putInt(page.getPageY()).putInt(page.getZoomLevel())
+                        .putInt(page.getCreationTimeMinutes()).putLong(payload.getNumTiles())
+                        .putLong(tilesPerPage[i++]).end();
+            }
+            commit(batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Updates the page statistics right away, the returned future is already completed.
+     *
+     * @see org.geowebcache.diskquota.QuotaStore#addHitsAndSetAccesTime(java.util.Collection)
+     */
+    public Future<List<PageStats>> addHitsAndSetAccesTime(
+            final Collection<PageStatsPayload> statsUpdates) {
+
+        Assert.notNull(statsUpdates);
+
+        CompletableFuture<List<PageStats>> result = new CompletableFuture<List<PageStats>>();
+        writeLock.lock();
+        try {
+            checkOpen();
+            List<TilePage> updated = new ArrayList<TilePage>(statsUpdates.size());
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            for (PageStatsPayload payload : statsUpdates) {
+                TilePage page = payload.getPage();
+                Integer ordinal = ordinals.get(page.getTileSetId());
+                if (ordinal == null) {
+                    log.info("Can't add usage stats. TileSet does not exist. Was it deleted? "
+                            + page.getTileSetId());
+                    continue;
+                }
+                final int lastAccessTimeMinutes = (int) (payload.getLastAccessTime() / 1000 / 60);
+                batch.start(ADD_HITS).putInt(ordinal.intValue()).putInt(page.getPageX())
+                        .putInt(page.getPageY()).putInt(page.getZoomLevel())
+                        .putInt(page.getCreationTimeMinutes()).putLong(payload.getNumHits())
+                        .putInt(lastAccessTimeMinutes).end();
+                updated.add(page);
+            }
+            commit(batch);
+
+            List<PageStats> allStats = new ArrayList<PageStats>(updated.size());
+            for (TilePage page : updated) {
+                allStats.add(pages.getStats(findPage(page)));
+            }
+            result.complete(allStats);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        } finally {
+            writeLock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastFrequentlyUsedPage(java.util.Set)
+     */
+    public TilePage getLeastFrequentlyUsedPage(final Set<String> layerNames)
+            throws InterruptedException {
+        return findPageToExpire(layerNames, false);
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#getLeastRecentlyUsedPage(java.util.Set)
+     */
+    public TilePage getLeastRecentlyUsedPage(final Set<String> layerNames)
+            throws InterruptedException {
+        return findPageToExpire(layerNames, true);
+    }
+
+    private TilePage findPageToExpire(final Set<String> layerNames, final boolean byAccessTime)
+            throws InterruptedException {
+        readLock.lockInterruptibly();
+        try {
+            checkOpen();
+            final int slot = pages.findLeastUsed(getLayerTileSets(layerNames), byAccessTime);
+            return slot == -1 ? null : toTilePage(slot);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a cursor that picks the pages to expire with a single pass over the pages for each
+     * {@link #EXPIRATION_CHUNK_SIZE} of them, starting after the last page picked by the previous
+     * pass. Picked pages truncated before being returned are skipped.
+     * 
+     * @see org.geowebcache.diskquota.QuotaStore#getPagesToExpire(Set, ExpirationPolicy, int)
+     */
+    @Override
+    public PageCursor getPagesToExpire(final Set<String> layerNames,
+            final ExpirationPolicy expirationPolicy, final int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunkSize shall be a positive integer");
+        if (!ExpirationPolicy.LFU.equals(expirationPolicy)
+                && !ExpirationPolicy.LRU.equals(expirationPolicy)) {
+            throw new IllegalStateException("Unrecognized expiration policy: "
+                    + expirationPolicy);
+        }
+        final boolean byAccessTime = ExpirationPolicy.LRU.equals(expirationPolicy);
+        final int pickSize = Math.max(chunkSize, EXPIRATION_CHUNK_SIZE);
+        return new PageCursor() {
+
+            private final Deque<TilePage> picked = new ArrayDeque<TilePage>();
+
+            private final PageTable.Position last = new PageTable.Position();
+
+            private boolean started;
+
+            private boolean exhausted;
+
+            public boolean hasNext() {
+                return !picked.isEmpty() || !exhausted;
+            }
+
+            public List<TilePage> next() throws InterruptedException {
+                final List<TilePage> chunk = new ArrayList<TilePage>(chunkSize);
+                readLock.lockInterruptibly();
+                try {
+                    checkOpen();
+                    while (chunk.size() < chunkSize) {
+                        if (picked.isEmpty()) {
+                            if (exhausted) {
+                                break;
+                            }
+                            pick();
+                            continue;
+                        }
+                        TilePage page = picked.poll();
+                        final int slot = findPage(page);
+                        if (slot != -1 && pages.getFillFactor(slot) > 0f) {
+                            chunk.add(page);
+                        }
+                    }
+                } finally {
+                    readLock.unlock();
+                }
+                return chunk;
+            }
+
+            private void pick() {
+                final int[] slots = pages.findLeastUsed(getLayerTileSets(layerNames),
+                        byAccessTime, pickSize, started ? last : null);
+                for (int slot : slots) {
+                    picked.add(toTilePage(slot));
+                }
+                if (slots.length > 0) {
+                    last.set(pages, slots[slots.length - 1], byAccessTime);
+                    started = true;
+                }
+                if (slots.length < pickSize) {
+                    exhausted = true;
+                }
+            }
+        };
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#setTruncated(org.geowebcache.diskquota.storage.TilePage)
+     */
+    public PageStats setTruncated(final TilePage tilePage) throws InterruptedException {
+        writeLock.lockInterruptibly();
+        try {
+            checkOpen();
+            final int slot = findPage(tilePage);
+            if (slot == -1) {
+                return null;
+            }
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            truncate(batch, slot);
+            commit(batch);
+            return pages.getStats(slot);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @see org.geowebcache.diskquota.QuotaStore#setTruncated(java.util.Collection)
+     */
+    public void setTruncated(final Collection<TilePage> tilePages) throws InterruptedException {
+        writeLock.lockInterruptibly();
+        try {
+            checkOpen();
+            QuotaLog.Batch batch = new QuotaLog.Batch();
+            for (TilePage tilePage : tilePages) {
+                final int slot = findPage(tilePage);
+                if (slot != -1) {
+                    truncate(batch, slot);
+                }
+            }
+            commit(batch);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void truncate(final QuotaLog.Batch batch, final int slot) {
+        batch.start(TRUNCATE).putInt(pages.getTileSet(slot)).putInt(pages.getPageX(slot))
+                .putInt(pages.getPageY(slot)).putInt(pages.getPageZ(slot)).end();
+    }
+
+    /**
+     * @return the number of pages in the store
+     */
+    public int getPageCount() {
+        readLock.lock();
+        try {
+            return pages.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the whole state to a new snapshot and starts the log over. To be called while
+     * holding the write lock.
+     */
+    private void compact() throws IOException {
+        final long generation = quotaLog.getGeneration() + 1;
+        final File snapshot = new File(storeDirectory, SNAPSHOT_FILE);
+        final File tmp = new File(storeDirectory, SNAPSHOT_FILE + ".tmp");
+        writeSnapshot(tmp, generation);
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        quotaLog.reset(generation);
+        log.debug("Compacted the disk quota log into snapshot generation " + generation + " with "
+                + pages.size() + " pages");
+    }
+
+    private void writeSnapshot(final File file, final long generation) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            int tileSetCount = 0;
+            for (int i = 0; i < tileSets.length; i++) {
+                if (tileSets[i] != null) {
+                    tileSetCount++;
+                }
+            }
+            writer.reserve(4 + 4 + 8 + 4 + 4).putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION)
+                    .putLong(generation).putInt(nextOrdinal).putInt(tileSetCount);
+            for (int i = 0; i < tileSets.length; i++) {
+                TileSet tileSet = tileSets[i];
+                if (tileSet != null) {
+                    writer.reserve(4).putInt(i);
+                    writer.putString(utf8(tileSet.getLayerName()));
+                    writer.putString(utf8(tileSet.getGridsetId()));
+                    writer.putString(utf8(tileSet.getBlobFormat()));
+                    writer.putString(utf8(tileSet.getParametersId()));
+                    writer.reserve(8).putLong(usedBytes[i]);
+                }
+            }
+            final int pageCount = pages.size();
+            writer.reserve(4).putInt(pageCount);
+            for (int slot = 0; slot < pageCount; slot++) {
+                writer.reserve(SNAPSHOT_PAGE_SIZE).putInt(pages.getTileSet(slot))
+                        .putInt(pages.getPageX(slot)).putInt(pages.getPageY(slot))
+                        .put((byte) pages.getPageZ(slot)).putInt(pages.getCreationTime(slot))
+                        .putFloat(pages.getFillFactor(slot))
+                        .putFloat(pages.getFrequency(slot))
+                        .putInt(pages.getAccessTime(slot)).putLong(pages.getNumHits(slot));
+            }
+            writer.finish();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the generation of the loaded snapshot
+     */
+    private long loadSnapshot(final File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            SnapshotReader reader = new SnapshotReader(channel);
+            if (size < 4 + 4 + 8 + 4 + 4 + 4 + 4 || reader.require(4).getInt() != SNAPSHOT_MAGIC
+                    || reader.require(4).getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a disk quota snapshot: " + file.getAbsolutePath());
+            }
+            // check the whole snapshot before loading anything from it
+            ByteBuffer stored = ByteBuffer.allocate(4);
+            readFully(channel, stored, size - 4);
+            if (checksum(channel, size - 4) != stored.getInt(0)) {
+                throw new IOException("Corrupted disk quota snapshot: " + file.getAbsolutePath());
+            }
+            final long generation = reader.require(8).getLong();
+            final int snapshotNextOrdinal = reader.require(4).getInt();
+            final int tileSetCount = reader.require(4).getInt();
+            for (int i = 0; i < tileSetCount; i++) {
+                final int ordinal = reader.require(4).getInt();
+                TileSet tileSet = new TileSet(reader.getString(), reader.getString(),
+                        reader.getString(), reader.getString());
+                putTileSet(ordinal, tileSet, reader.require(8).getLong());
+            }
+            nextOrdinal = Math.max(nextOrdinal, snapshotNextOrdinal);
+            final int pageCount = reader.require(4).getInt();
+            for (int i = 0; i < pageCount; i++) {
+                ByteBuffer buffer = reader.require(SNAPSHOT_PAGE_SIZE);
+                final int slot = pages.add(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                        buffer.get() & 0xFF, buffer.getInt());
+                pages.setStats(slot, buffer.getFloat(), buffer.getFloat(), buffer.getInt(),
+                        buffer.getLong());
+            }
+            log.debug("Loaded disk quota snapshot generation " + generation + " with "
+                    + pageCount + " pages");
+            return generation;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the checksum of the first {@code end} bytes of the channel
+     */
+    private static int checksum(final FileChannel channel, final long end) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_SIZE);
+        long position = 0;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+            crc.update(buffer.array(), 0, buffer.limit());
+            position += buffer.limit();
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+            long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes a snapshot through a heap buffer, followed by the checksum of its contents. Mapping
+     * the file instead would keep it open until the mapping is garbage collected, preventing the
+     * snapshot from being moved over the previous one on Windows.
+     */
+    private static class SnapshotWriter {
+
+        private final FileChannel channel;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_SIZE);
+
+        private final CRC32 crc = new CRC32();
+
+        SnapshotWriter(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return the buffer to put the next {@code bytes} bytes into
+         */
+        ByteBuffer reserve(final int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocate(bytes);
+                }
+            }
+            return buffer;
+        }
+
+        void putString(final byte[] string) throws IOException {
+            if (string == null) {
+                reserve(4).putInt(-1);
+            } else {
+                reserve(4 + string.length).putInt(string.length).put(string);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes the checksum and syncs the file to disk
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads a snapshot sequentially through a heap buffer
+     */
+    private static class SnapshotReader {
+
+        private final FileChannel channel;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_SIZE);
+
+        SnapshotReader(final FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /**
+         * @return the buffer holding at least the next {@code bytes} bytes of the snapshot
+         */
+        ByteBuffer require(final int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocate(bytes).put(buffer);
+                } else {
+                    buffer.compact();
+                }
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                buffer.flip();
+            }
+            return buffer;
+        }
+
+        String getString() throws IOException {
+            final int length = require(4).getInt();
+            if (length == -1) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            require(length).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] utf8(final String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
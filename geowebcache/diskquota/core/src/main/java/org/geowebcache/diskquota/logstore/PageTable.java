@@ -0,0 +1,486 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota.logstore;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.geowebcache.diskquota.storage.PageStats;
+
+/**
+ * The tile pages of a {@link LogStructuredQuotaStore} and their statistics, kept as parallel
+ * primitive arrays indexed by page slot instead of as one object per page.
+ * <p>
+ * Pages are identified by the ordinal of their tile set in the store plus their x, y and z page
+ * indexes, looked up through an open addressing hash index of slots. Pages are never removed
+ * individually, {@link #retain(boolean[])} drops all the pages of deleted tile sets at once
+ * rebuilding the arrays.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the store guards them with its read/write lock.
+ * </p>
+ */
+final class PageTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+
+    private int[] tileSetOrdinals;
+
+    private int[] pageXs;
+
+    private int[] pageYs;
+
+    private byte[] pageZs;
+
+    private int[] creationTimes;
+
+    private float[] fillFactors;
+
+    private float[] frequencies;
+
+    private int[] accessTimes;
+
+    private long[] numHits;
+
+    /**
+     * Hash index of page slots plus one, zero meaning an empty bucket
+     */
+    private int[] index;
+
+    PageTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(final int capacity) {
+        tileSetOrdinals = new int[capacity];
+        pageXs = new int[capacity];
+        pageYs = new int[capacity];
+        pageZs = new byte[capacity];
+        creationTimes = new int[capacity];
+        fillFactors = new float[capacity];
+        frequencies = new float[capacity];
+        accessTimes = new int[capacity];
+        numHits = new long[capacity];
+        index = new int[2 * capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot of the page, or {@code -1} if it doesn't exist
+     */
+    public int find(final int tileSet, final int x, final int y, final int z) {
+        final int mask = index.length - 1;
+        for (int b = bucket(tileSet, x, y, z, mask);; b = (b + 1) & mask) {
+            final int slot = index[b] - 1;
+            if (slot == -1) {
+                return -1;
+            }
+            if (matches(slot, tileSet, x, y, z)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the page, adding it with empty statistics if it doesn't exist
+     *
+     * @param creationTimeMinutes
+     *            the page creation time, only used if the page is added
+     */
+    public int findOrAdd(final int tileSet, final int x, final int y, final int z,
+            final int creationTimeMinutes) {
+        int slot = find(tileSet, x, y, z);
+        if (slot == -1) {
+            slot = add(tileSet, x, y, z, creationTimeMinutes);
+            // mimic a new PageStats, whose access time is its creation time
+            accessTimes[slot] = creationTimeMinutes;
+        }
+        return slot;
+    }
+
+    /**
+     * Adds a page without checking whether it exists
+     */
+    int add(final int tileSet, final int x, final int y, final int z,
+            final int creationTimeMinutes) {
+        if (size == tileSetOrdinals.length) {
+            grow();
+        }
+        final int slot = size++;
+        tileSetOrdinals[slot] = tileSet;
+        pageXs[slot] = x;
+        pageYs[slot] = y;
+        pageZs[slot] = (byte) z;
+        creationTimes[slot] = creationTimeMinutes;
+        insertIntoIndex(slot);
+        return slot;
+    }
+
+    private boolean matches(final int slot, final int tileSet, final int x, final int y,
+            final int z) {
+        return pageXs[slot] == x && pageYs[slot] == y && tileSetOrdinals[slot] == tileSet
+                && pageZs[slot] == (byte) z;
+    }
+
+    private void insertIntoIndex(final int slot) {
+        final int mask = index.length - 1;
+        int b = bucket(tileSetOrdinals[slot], pageXs[slot], pageYs[slot], pageZs[slot], mask);
+        while (index[b] != 0) {
+            b = (b + 1) & mask;
+        }
+        index[b] = slot + 1;
+    }
+
+    private static int bucket(final int tileSet, final int x, final int y, final int z,
+            final int mask) {
+        long h = ((long) tileSet * 31 + z) * 0x9E3779B97F4A7C15L;
+        h = (h ^ x) * 0x9E3779B97F4A7C15L;
+        h = (h ^ y) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        final int capacity = tileSetOrdinals.length * 2;
+        tileSetOrdinals = Arrays.copyOf(tileSetOrdinals, capacity);
+        pageXs = Arrays.copyOf(pageXs, capacity);
+        pageYs = Arrays.copyOf(pageYs, capacity);
+        pageZs = Arrays.copyOf(pageZs, capacity);
+        creationTimes = Arrays.copyOf(creationTimes, capacity);
+        fillFactors = Arrays.copyOf(fillFactors, capacity);
+        frequencies = Arrays.copyOf(frequencies, capacity);
+        accessTimes = Arrays.copyOf(accessTimes, capacity);
+        numHits = Arrays.copyOf(numHits, capacity);
+        rebuildIndex(2 * capacity);
+    }
+
+    private void rebuildIndex(final int buckets) {
+        index = new int[buckets];
+        for (int slot = 0; slot < size; slot++) {
+            insertIntoIndex(slot);
+        }
+    }
+
+    /**
+     * Drops the pages whose tile set ordinal is not flagged in {@code liveTileSets}
+     *
+     * @return the number of pages dropped
+     */
+    public int retain(final boolean[] liveTileSets) {
+        int kept = 0;
+        for (int slot = 0; slot < size; slot++) {
+            final int tileSet = tileSetOrdinals[slot];
+            if (tileSet < liveTileSets.length && liveTileSets[tileSet]) {
+                if (kept != slot) {
+                    tileSetOrdinals[kept] = tileSet;
+                    pageXs[kept] = pageXs[slot];
+                    pageYs[kept] = pageYs[slot];
+                    pageZs[kept] = pageZs[slot];
+                    creationTimes[kept] = creationTimes[slot];
+                    fillFactors[kept] = fillFactors[slot];
+                    frequencies[kept] = frequencies[slot];
+                    accessTimes[kept] = accessTimes[slot];
+                    numHits[kept] = numHits[slot];
+                }
+                kept++;
+            }
+        }
+        final int dropped = size - kept;
+        if (dropped > 0) {
+            size = kept;
+            rebuildIndex(index.length);
+        }
+        return dropped;
+    }
+
+    /**
+     * Applies {@link PageStats#addTiles(long, long)} to the page
+     */
+    public void addTiles(final int slot, final long numTiles, final long tilesPerPage) {
+        PageStats stats = getStats(slot);
+        stats.addTiles(numTiles, tilesPerPage);
+        setStats(slot, stats);
+    }
+
+    /**
+     * Applies {@link PageStats#addHitsAndAccessTime(long, int, int)} to the page
+     */
+    public PageStats addHitsAndAccessTime(final int slot, final long hits,
+            final int lastAccessTimeMinutes) {
+        PageStats stats = getStats(slot);
+        stats.addHitsAndAccessTime(hits, lastAccessTimeMinutes, creationTimes[slot]);
+        setStats(slot, stats);
+        return stats;
+    }
+
+    /**
+     * @return a copy of the page statistics
+     */
+    public PageStats getStats(final int slot) {
+        PageStats stats = new PageStats(0);
+        stats.setFillFactor(fillFactors[slot]);
+        stats.setFrequencyOfUsePerMinute(frequencies[slot]);
+        stats.setLastAccessMinutes(accessTimes[slot]);
+        stats.setNumHits(BigInteger.valueOf(numHits[slot]));
+        return stats;
+    }
+
+    private void setStats(final int slot, final PageStats stats) {
+        fillFactors[slot] = stats.getFillFactor();
+        frequencies[slot] = stats.getFrequencyOfUsePerMinute();
+        accessTimes[slot] = stats.getLastAccessTimeMinutes();
+        BigInteger hits = stats.getNumHits();
+        numHits[slot] = hits.bitLength() < Long.SIZE ? hits.longValue() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Sets all the page statistics at once, used when loading a snapshot
+     */
+    void setStats(final int slot, final float fillFactor, final float frequency,
+            final int accessTime, final long hits) {
+        fillFactors[slot] = fillFactor;
+        frequencies[slot] = frequency;
+        accessTimes[slot] = accessTime;
+        numHits[slot] = hits;
+    }
+
+    public void setFillFactor(final int slot, final float fillFactor) {
+        fillFactors[slot] = fillFactor;
+    }
+
+    /**
+     * Finds the page with tiles of one of the given tile sets with the lowest frequency of use, or
+     * the oldest access time if {@code byAccessTime} is {@code true}
+     *
+     * @param tileSets
+     *            flags the tile set ordinals to consider
+     * @return the page slot, or {@code -1} if none of the given tile sets has pages with tiles
+     */
+    public int findLeastUsed(final boolean[] tileSets, final boolean byAccessTime) {
+        int found = -1;
+        float minFrequency = Float.MAX_VALUE;
+        int minAccessTime = Integer.MAX_VALUE;
+        for (int slot = 0; slot < size; slot++) {
+            if (fillFactors[slot] <= 0f) {
+                continue;
+            }
+            final int tileSet = tileSetOrdinals[slot];
+            if (tileSet >= tileSets.length || !tileSets[tileSet]) {
+                continue;
+            }
+            if (byAccessTime) {
+                if (found == -1 || accessTimes[slot] < minAccessTime) {
+                    found = slot;
+                    minAccessTime = accessTimes[slot];
+                }
+            } else if (found == -1 || frequencies[slot] < minFrequency) {
+                found = slot;
+                minFrequency = frequencies[slot];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds, with a single pass over the pages, the up to {@code limit} pages with tiles of the
+     * given tile sets that come first in expiration order after {@code after}. The expiration order
+     * is by ascending frequency of use, or access time if {@code byAccessTime} is {@code true}, and
+     * then by tile set ordinal and z, x and y page indexes.
+     *
+     * @param tileSets
+     *            flags the tile set ordinals to consider
+     * @param after
+     *            the position of the last page returned by the previous call, or {@code null} to
+     *            start from the first page
+     * @return the page slots in expiration order, fewer than {@code limit} once there are no more
+     */
+    public int[] findLeastUsed(final boolean[] tileSets, final boolean byAccessTime,
+            final int limit, final Position after) {
+        // bounded max heap of the first pages found so far, its root is the last one of them
+        final int[] heap = new int[limit];
+        int count = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (fillFactors[slot] <= 0f) {
+                continue;
+            }
+            final int tileSet = tileSetOrdinals[slot];
+            if (tileSet >= tileSets.length || !tileSets[tileSet]) {
+                continue;
+            }
+            if (after != null && after.compareTo(this, slot, byAccessTime) >= 0) {
+                continue;
+            }
+            if (count < limit) {
+                heap[count] = slot;
+                siftUp(heap, count++, byAccessTime);
+            } else if (compare(slot, heap[0], byAccessTime) < 0) {
+                heap[0] = slot;
+                siftDown(heap, count, byAccessTime);
+            }
+        }
+        final int[] found = new int[count];
+        while (count > 0) {
+            found[count - 1] = heap[0];
+            heap[0] = heap[--count];
+            siftDown(heap, count, byAccessTime);
+        }
+        return found;
+    }
+
+    private void siftUp(final int[] heap, int i, final boolean byAccessTime) {
+        final int slot = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (compare(heap[parent], slot, byAccessTime) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = slot;
+    }
+
+    private void siftDown(final int[] heap, final int count, final boolean byAccessTime) {
+        if (count == 0) {
+            return;
+        }
+        final int slot = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && compare(heap[child + 1], heap[child], byAccessTime) > 0) {
+                child++;
+            }
+            if (compare(slot, heap[child], byAccessTime) >= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = slot;
+    }
+
+    private double orderValue(final int slot, final boolean byAccessTime) {
+        return byAccessTime ? accessTimes[slot] : frequencies[slot];
+    }
+
+    /**
+     * Compares two pages by expiration order
+     */
+    private int compare(final int slot1, final int slot2, final boolean byAccessTime) {
+        int c = Double.compare(orderValue(slot1, byAccessTime), orderValue(slot2, byAccessTime));
+        if (c == 0) {
+            c = comparePage(slot1, tileSetOrdinals[slot2], pageZs[slot2] & 0xFF, pageXs[slot2],
+                    pageYs[slot2]);
+        }
+        return c;
+    }
+
+    private int comparePage(final int slot, final int tileSet, final int z, final int x,
+            final int y) {
+        int c = Integer.compare(tileSetOrdinals[slot], tileSet);
+        if (c == 0) {
+            c = Integer.compare(pageZs[slot] & 0xFF, z);
+        }
+        if (c == 0) {
+            c = Integer.compare(pageXs[slot], x);
+        }
+        if (c == 0) {
+            c = Integer.compare(pageYs[slot], y);
+        }
+        return c;
+    }
+
+    /**
+     * The position of a page in expiration order, kept by value so that it stays valid when the
+     * pages are moved to other slots
+     *
+     * @see PageTable#findLeastUsed(boolean[], boolean, int, Position)
+     */
+    static final class Position {
+
+        private double value;
+
+        private int tileSet;
+
+        private int z;
+
+        private int x;
+
+        private int y;
+
+        void set(final PageTable pages, final int slot, final boolean byAccessTime) {
+            value = pages.orderValue(slot, byAccessTime);
+            tileSet = pages.tileSetOrdinals[slot];
+            z = pages.pageZs[slot] & 0xFF;
+            x = pages.pageXs[slot];
+            y = pages.pageYs[slot];
+        }
+
+        /**
+         * Compares this position with the one of a page
+         */
+        int compareTo(final PageTable pages, final int slot, final boolean byAccessTime) {
+            int c = Double.compare(value, pages.orderValue(slot, byAccessTime));
+            if (c == 0) {
+                c = -pages.comparePage(slot, tileSet, z, x, y);
+            }
+            return c;
+        }
+    }
+
+    public int getTileSet(final int slot) {
+        return tileSetOrdinals[slot];
+    }
+
+    public int getPageX(final int slot) {
+        return pageXs[slot];
+    }
+
+    public int getPageY(final int slot) {
+        return pageYs[slot];
+    }
+
+    public int getPageZ(final int slot) {
+        return pageZs[slot] & 0xFF;
+    }
+
+    public int getCreationTime(final int slot) {
+        return creationTimes[slot];
+    }
+
+    public float getFillFactor(final int slot) {
+        return fillFactors[slot];
+    }
+
+    public float getFrequency(final int slot) {
+        return frequencies[slot];
+    }
+
+    public int getAccessTime(final int slot) {
+        return accessTimes[slot];
+    }
+
+    public long getNumHits(final int slot) {
+        return numHits[slot];
+    }
+}
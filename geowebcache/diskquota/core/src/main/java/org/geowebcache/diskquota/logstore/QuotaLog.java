@@ -0,0 +1,306 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota.logstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only write-ahead log of a {@link LogStructuredQuotaStore}.
+ * <p>
+ * The log starts with a header holding the generation of the snapshot it applies to, followed by
+ * records framed as {@code length, type, payload, crc32}. Records are only ever appended, and a
+ * torn or corrupted record at the end of the log, as left by a crash in the middle of a write, is
+ * discarded along with anything after it when the log is opened.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the store serializes the calls to {@link #append(Batch)}.
+ * </p>
+ */
+final class QuotaLog {
+
+    private static final Log log = LogFactory.getLog(QuotaLog.class);
+
+    private static final int MAGIC = 0x47574351; // GWCQ
+
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of the frame around each record payload: length, type, and crc
+     */
+    private static final int FRAME_SIZE = 4 + 1 + 4;
+
+    /**
+     * Receives the records read from the log
+     */
+    interface RecordHandler {
+        void apply(byte type, ByteBuffer payload);
+    }
+
+    private final File file;
+
+    private FileChannel channel;
+
+    private long generation;
+
+    private QuotaLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the log file, creating it if it does not exist, and replays the records appended after
+     * the snapshot of the given generation to {@code handler}
+     *
+     * @param generation
+     *            the generation of the snapshot the store was loaded from
+     */
+    public static QuotaLog open(final File file, final long generation,
+            final RecordHandler handler) throws IOException {
+        QuotaLog quotaLog = new QuotaLog(file);
+        quotaLog.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            quotaLog.replay(generation, handler);
+        } catch (IOException e) {
+            quotaLog.channel.close();
+            throw e;
+        }
+        return quotaLog;
+    }
+
+    private void replay(final long snapshotGeneration, final RecordHandler handler)
+            throws IOException {
+        final long size = channel.size();
+        if (size < HEADER_SIZE) {
+            reset(snapshotGeneration);
+            return;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Quota store log is too big: " + file.getAbsolutePath());
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        while (contents.hasRemaining() && channel.read(contents, contents.position()) >= 0)
+            ;
+        contents.flip();
+
+        if (contents.getInt() != MAGIC || contents.getInt() != VERSION) {
+            throw new IOException("Not a quota store log: " + file.getAbsolutePath());
+        }
+        final long logGeneration = contents.getLong();
+        if (logGeneration < snapshotGeneration) {
+            // the store crashed right after writing the snapshot, the log is already applied
+            log.info("Discarding quota store log " + file.getAbsolutePath()
+                    + ", it's older than the snapshot");
+            reset(snapshotGeneration);
+            return;
+        }
+        if (logGeneration > snapshotGeneration) {
+            log.warn("Quota store log " + file.getAbsolutePath() + " is newer than the snapshot, "
+                    + "replaying it anyway, the quota usage may be inaccurate");
+        }
+        this.generation = logGeneration;
+
+        final int end = readRecords(contents, handler);
+        if (end < size) {
+            log.warn("Discarding " + (size - end) + " bytes of corrupted or incomplete records "
+                    + "at the end of quota store log " + file.getAbsolutePath());
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+    }
+
+    /**
+     * Reads the records from the current position of the buffer up to its limit, or up to the
+     * first invalid record
+     *
+     * @return the position right after the last valid record
+     */
+    static int readRecords(final ByteBuffer buffer, final RecordHandler handler) {
+        final CRC32 crc = new CRC32();
+        int end = buffer.position();
+        try {
+            while (buffer.remaining() >= FRAME_SIZE) {
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining() - 1 - 4) {
+                    break;
+                }
+                final int start = buffer.position();
+                ByteBuffer record = buffer.duplicate();
+                record.limit(start + 1 + length);
+                crc.reset();
+                crc.update(record);
+                buffer.position(start + 1 + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+                final byte type = buffer.get(start);
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(start + 1).limit(start + 1 + length);
+                handler.apply(type, payload.slice());
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // record shorter than expected, stop here
+        }
+        return end;
+    }
+
+    /**
+     * Appends the batch of records to the log. The records are handed to the operating system
+     * right away, but only get to the disk when the log is {@link #force() forced}.
+     */
+    public void append(final Batch batch) throws IOException {
+        ByteBuffer records = batch.records();
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+    }
+
+    /**
+     * Flushes the appended records to the disk
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Truncates the log, once its records are part of the snapshot of the given generation
+     */
+    public void reset(final long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        channel.truncate(0);
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        this.generation = generation;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    public void close() throws IOException {
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * A set of records appended to the log at once
+     */
+    static final class Batch {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        private int recordStart = -1;
+
+        private final CRC32 crc = new CRC32();
+
+        public Batch start(final byte type) {
+            ensure(FRAME_SIZE);
+            recordStart = buffer.position();
+            buffer.putInt(0).put(type);
+            return this;
+        }
+
+        public Batch putInt(final int value) {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        public Batch putLong(final long value) {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        public Batch putString(final String value) {
+            if (value == null) {
+                return putInt(-1);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+            return this;
+        }
+
+        public void end() {
+            final int payloadLength = buffer.position() - recordStart - 4 - 1;
+            buffer.putInt(recordStart, payloadLength);
+            ByteBuffer record = buffer.duplicate();
+            record.position(recordStart + 4).limit(buffer.position());
+            crc.reset();
+            crc.update(record);
+            putInt((int) crc.getValue());
+            recordStart = -1;
+        }
+
+        public boolean isEmpty() {
+            return buffer.position() == 0;
+        }
+
+        /**
+         * @return a read only view of the framed records
+         */
+        public ByteBuffer records() {
+            ByteBuffer records = buffer.asReadOnlyBuffer();
+            records.flip();
+            return records;
+        }
+
+        private void ensure(final int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(),
+                        buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+        static String getString(final ByteBuffer payload) {
+            final int length = payload.getInt();
+            if (length == -1) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            payload.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
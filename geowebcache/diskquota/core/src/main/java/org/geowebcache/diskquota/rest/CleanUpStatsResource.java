@@ -0,0 +1,92 @@
+package org.geowebcache.diskquota.rest;
+
+import org.geowebcache.diskquota.CleanUpStats;
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.io.GeoWebCacheXStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+import org.restlet.resource.StringRepresentation;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.json.JsonHierarchicalStreamDriver;
+
+/**
+ * REST resource exposing the DiskQuota cache clean up {@link CleanUpStats throughput figures}.
+ * <p>
+ * Allows the GET method for JSON and XML formats.
+ * <p>
+ */
+public class CleanUpStatsResource extends Resource {
+
+    private DiskQuotaMonitor monitor;
+
+    /**
+     * Set by {@link CleanUpStatsFinder}
+     */
+    public void setMonitor(DiskQuotaMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public boolean allowGet() {
+        return true;
+    }
+
+    @Override
+    public void handleGet() {
+        final Request request = getRequest();
+        final Response response = getResponse();
+        final String formatExtension = (String) request.getAttributes().get("extension");
+        final CleanUpStats stats = monitor.getCleanUpStats();
+
+        Representation representation;
+        if ("json".equals(formatExtension)) {
+            try {
+                representation = getJsonRepresentation(stats);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        } else if ("xml".equals(formatExtension)) {
+            representation = getXmlRepresentation(stats);
+        } else {
+            response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST,
+                    "Unknown or missing format extension : " + formatExtension);
+            return;
+        }
+
+        response.setEntity(representation);
+        response.setStatus(Status.SUCCESS_OK);
+    }
+
+    @Override
+    public Representation getPreferredRepresentation() {
+        try {
+            return getJsonRepresentation(monitor.getCleanUpStats());
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private JsonRepresentation getJsonRepresentation(CleanUpStats stats) throws JSONException {
+        XStream xs = configure(new GeoWebCacheXStream(new JsonHierarchicalStreamDriver()));
+        JSONObject obj = new JSONObject(xs.toXML(stats));
+        return new JsonRepresentation(obj);
+    }
+
+    private Representation getXmlRepresentation(CleanUpStats stats) {
+        XStream xs = configure(new GeoWebCacheXStream());
+        return new StringRepresentation(xs.toXML(stats), MediaType.TEXT_XML);
+    }
+
+    private static XStream configure(XStream xs) {
+        xs.alias("cleanUpStats", CleanUpStats.class);
+        return xs;
+    }
+}
@@ -124,6 +124,7 @@ public class DiskQuotaConfigurationResource extends Resource {
      *             as per {@link DiskQuotaConfig#setCacheCleanUpFrequency},
      *             {@link DiskQuotaConfig#setDiskBlockSize},
      *             {@link DiskQuotaConfig#setMaxConcurrentCleanUps} ,
+     *             {@link DiskQuotaConfig#setExpirationBatchSize} ,
      *             {@link DiskQuotaConfig#setCacheCleanUpUnits}
      */
     private void applyDiff(DiskQuotaConfig config, DiskQuotaConfig newConfig)
@@ -142,6 +143,9 @@ public class DiskQuotaConfigurationResource extends Resource {
             if (null != newConfig.getMaxConcurrentCleanUps()) {
                 config.setMaxConcurrentCleanUps(newConfig.getMaxConcurrentCleanUps());
             }
+            if (null != newConfig.getExpirationBatchSize()) {
+                config.setExpirationBatchSize(newConfig.getExpirationBatchSize());
+            }
             if (null != newConfig.getCacheCleanUpUnits()) {
                 config.setCacheCleanUpUnits(newConfig.getCacheCleanUpUnits());
             }
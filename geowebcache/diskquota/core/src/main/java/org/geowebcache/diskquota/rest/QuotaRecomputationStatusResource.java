@@ -0,0 +1,91 @@
+package org.geowebcache.diskquota.rest;
+
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.diskquota.QuotaRecomputationStatus;
+import org.geowebcache.io.GeoWebCacheXStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+import org.restlet.resource.StringRepresentation;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.json.JsonHierarchicalStreamDriver;
+
+/**
+ * REST resource exposing the {@link QuotaRecomputationStatus status} of the layer deletes and
+ * renames being applied to the quota store in the background.
+ * <p>
+ * Allows the GET method for JSON and XML formats.
+ * <p>
+ */
+public class QuotaRecomputationStatusResource extends Resource {
+
+    private DiskQuotaMonitor monitor;
+
+    /**
+     * Set by {@link QuotaRecomputationStatusFinder}
+     */
+    public void setMonitor(DiskQuotaMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public boolean allowGet() {
+        return true;
+    }
+
+    @Override
+    public void handleGet() {
+        final Request request = getRequest();
+        final Response response = getResponse();
+        final String formatExtension = (String) request.getAttributes().get("extension");
+        final QuotaRecomputationStatus status = monitor.getRecomputationStatus();
+        if (status == null) {
+            response.setStatus(Status.CLIENT_ERROR_NOT_FOUND,
+                    "Disk quota is not running or applies layer changes synchronously");
+            return;
+        }
+
+        Representation representation;
+        if ("json".equals(formatExtension)) {
+            try {
+                representation = getJsonRepresentation(status);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        } else if ("xml".equals(formatExtension)) {
+            representation = getXmlRepresentation(status);
+        } else {
+            response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST,
+                    "Unknown or missing format extension : " + formatExtension);
+            return;
+        }
+
+        response.setEntity(representation);
+        response.setStatus(Status.SUCCESS_OK);
+    }
+
+    private JsonRepresentation getJsonRepresentation(QuotaRecomputationStatus status)
+            throws JSONException {
+        XStream xs = configure(new GeoWebCacheXStream(new JsonHierarchicalStreamDriver()));
+        JSONObject obj = new JSONObject(xs.toXML(status));
+        return new JsonRepresentation(obj);
+    }
+
+    private Representation getXmlRepresentation(QuotaRecomputationStatus status) {
+        XStream xs = configure(new GeoWebCacheXStream());
+        return new StringRepresentation(xs.toXML(status), MediaType.TEXT_XML);
+    }
+
+    private static XStream configure(XStream xs) {
+        xs.alias("recomputationStatus", QuotaRecomputationStatus.class);
+        xs.alias("layer", String.class);
+        return xs;
+    }
+}
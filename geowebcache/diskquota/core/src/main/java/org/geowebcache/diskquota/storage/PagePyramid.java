@@ -30,12 +30,14 @@ import org.springframework.util.Assert;
 /**
  * Pyramid of tile pages for a given {@link GridSubset}
  * <p>
- * This is a support class for {@link TilePageCalculator}, hence package visible.
+ * This is a support class for {@link TilePageCalculator}, use
+ * {@link TilePageCalculator#getPagePyramid(TileSet)} to compute the pages of many tiles of the same
+ * tile set without looking up its grid subset for each of them.
  * </p>
  * 
  * @author groldan
  */
-class PagePyramid {
+public class PagePyramid {
 
     /**
      * {@code [level][numTilesPerPageX, numTilesPerPageY, numPagesX, numPagesY]}
@@ -18,9 +18,7 @@
 package org.geowebcache.diskquota.storage;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 
 /**
  * Collects statistics about a tile page, including its frequency of use, the last access time,
@@ -79,33 +77,62 @@ public class PageStats implements Serializable {
             fillFactor = Float.MIN_VALUE;
         }
 
-        this.numHits = this.numHits.add(BigInteger.valueOf(addedHits));
-        BigDecimal age = new BigDecimal(1 + lastAccessTimeMinutes - creationTimeMinutes);
+        final double hits = addHits(addedHits);
+        final int age = 1 + lastAccessTimeMinutes - creationTimeMinutes;
 
-        this.frequencyOfUse = new BigDecimal(this.numHits).divide(age, 7, RoundingMode.CEILING)
-                .multiply(new BigDecimal(fillFactor)).floatValue();
+        this.frequencyOfUse = (float) (hits / age * fillFactor);
 
         this.lastAccessTimeMinutes = lastAccessTimeMinutes;
     }
 
+    /**
+     * Adds to {@link #numHits} using long arithmetic, the field is kept as a {@link BigInteger}
+     * for compatibility with the stored statistics, but only needs big integer arithmetic once
+     * the total no longer fits in a long.
+     * 
+     * @return the new number of hits
+     */
+    private double addHits(final long addedHits) {
+        if (numHits.bitLength() < Long.SIZE) {
+            try {
+                final long total = Math.addExact(numHits.longValue(), addedHits);
+                this.numHits = BigInteger.valueOf(total);
+                return total;
+            } catch (ArithmeticException overflow) {
+                // fall back to BigInteger
+            }
+        }
+        this.numHits = this.numHits.add(BigInteger.valueOf(addedHits));
+        return this.numHits.doubleValue();
+    }
+
     public void addTiles(long numTiles, BigInteger maxTiles) {
+        addTiles(numTiles, maxTiles.bitLength() < Long.SIZE ? maxTiles.longValue()
+                : Long.MAX_VALUE);
+    }
+
+    /**
+     * Updates the fill factor of the page with the added, or removed if negative, tiles
+     * 
+     * @param numTiles
+     *            number of tiles added or removed from the page
+     * @param maxTiles
+     *            number of tiles the page can hold
+     */
+    public void addTiles(long numTiles, long maxTiles) {
         if (fillFactor == 1.0f && numTiles >= 0) {
             return;
         }
         if (fillFactor == 0.0f && numTiles <= 0) {
             return;
         }
-        // trading some computational overhead by storage savings here...
-        BigDecimal currFillFactor = new BigDecimal(fillFactor);
-        BigDecimal addedTiles = new BigDecimal(numTiles);
-        BigDecimal addedFillFactor = addedTiles.divide(new BigDecimal(maxTiles), 7,
-                RoundingMode.CEILING);
-        currFillFactor = currFillFactor.add(addedFillFactor);
-        this.fillFactor = currFillFactor.floatValue();
-        if (fillFactor > 1f) {
+        final double newFillFactor = fillFactor + (double) numTiles / maxTiles;
+        if (newFillFactor > 1d) {
             fillFactor = 1f;
-        } else if (fillFactor < 0f) {
+        } else if (newFillFactor < 0d) {
             fillFactor = 0f;
+        } else {
+            fillFactor = (float) newFillFactor;
         }
     }
 
@@ -56,6 +56,10 @@ public class Quota implements Cloneable, Comparable<Quota>, Serializable {
         this.bytes = bytes;
     }
 
+    public Quota(long bytes) {
+        this(BigInteger.valueOf(bytes));
+    }
+
     public Quota(Quota quota) {
         id = quota.id;
         tileSetId = quota.tileSetId;
@@ -128,7 +132,9 @@ public class Quota implements Cloneable, Comparable<Quota>, Serializable {
      * Shorthand for {@link #add(BigInteger) add(BigInteger.valueOf(bytes))}
      */
     public void addBytes(long bytes) {
-        this.bytes = this.bytes.add(BigInteger.valueOf(bytes));
+        if (bytes != 0) {
+            this.bytes = this.bytes.add(BigInteger.valueOf(bytes));
+        }
     }
 
     /**
@@ -63,6 +63,55 @@ public class TilePage {
         this(tileSetId, pageX, pageY, zoomLevel, SystemUtils.get().currentTimeMinutes());
     }
 
+    /**
+     * Number of bits used for each of the page x and y indexes in a {@link #packKey packed key}
+     */
+    public static final int PACKED_XY_BITS = 20;
+
+    /**
+     * Number of bits used for the tile set ordinal in a {@link #packKey packed key}, the sign bit
+     * is left unused so that valid keys are never negative
+     */
+    public static final int PACKED_TILESET_BITS = Long.SIZE - 1 - 2 * PACKED_XY_BITS - Byte.SIZE;
+
+    private static final long PACKED_XY_MASK = (1L << PACKED_XY_BITS) - 1;
+
+    /**
+     * Packs the page coordinates and an ordinal identifying its tile set into a single long, as
+     * {@code tileSetOrdinal | pageZ | pageX | pageY} bit fields. Unlike the string
+     * {@link #computeId id}, computing a packed key allocates nothing, but tile set ordinals are
+     * only meaningful to the code assigning them.
+     * 
+     * @return the packed key, or {@code -1} if the values don't fit in the packed key fields, see
+     *         {@link #PACKED_XY_BITS} and {@link #PACKED_TILESET_BITS}
+     */
+    public static long packKey(int tileSetOrdinal, int pageX, int pageY, int pageZ) {
+        if (tileSetOrdinal < 0 || tileSetOrdinal >= (1 << PACKED_TILESET_BITS) || pageZ < 0
+                || pageZ > 0xFF || (pageX & ~PACKED_XY_MASK) != 0
+                || (pageY & ~PACKED_XY_MASK) != 0) {
+            return -1;
+        }
+        return ((long) tileSetOrdinal << (2 * PACKED_XY_BITS + Byte.SIZE))
+                | ((long) pageZ << (2 * PACKED_XY_BITS)) | ((long) pageX << PACKED_XY_BITS)
+                | pageY;
+    }
+
+    public static int unpackTileSetOrdinal(long packedKey) {
+        return (int) (packedKey >>> (2 * PACKED_XY_BITS + Byte.SIZE));
+    }
+
+    public static int unpackZ(long packedKey) {
+        return (int) (packedKey >>> (2 * PACKED_XY_BITS)) & 0xFF;
+    }
+
+    public static int unpackX(long packedKey) {
+        return (int) ((packedKey >>> PACKED_XY_BITS) & PACKED_XY_MASK);
+    }
+
+    public static int unpackY(long packedKey) {
+        return (int) (packedKey & PACKED_XY_MASK);
+    }
+
     public static void computeId(String tileSetId, int pageX, int pageY, int pageZ,
             StringBuilder target) {
 
@@ -67,7 +67,11 @@ public class TilePageCalculator {
         return pageIndexTarget;
     }
 
-    private PagePyramid getPagePyramid(TileSet tileSet) {
+    /**
+     * @return the page pyramid of the tile set's grid subset, it doesn't reflect later changes to
+     *         the layer's grid subsets so it's meant to be used for short lived batch operations
+     */
+    public PagePyramid getPagePyramid(TileSet tileSet) {
         PagePyramid pagePyramid = newPagePyramid(tileSet);
         return pagePyramid;
     }
@@ -79,6 +83,16 @@ public class TilePageCalculator {
         return tilesPerPage;
     }
 
+    /**
+     * Same as {@link #getTilesPerPage(TileSet, int)}, as a primitive long to be used in
+     * {@link PageStats#addTiles(long, long)}
+     */
+    public long getTilesPerPageCount(TileSet tileSet, int zoomLevel) {
+        PagePyramid pagePyramid = getPagePyramid(tileSet);
+        PageLevelInfo pageInfo = pagePyramid.getPageInfo(zoomLevel);
+        return (long) pageInfo.tilesPerPageX * pageInfo.tilesPerPageY;
+    }
+
     /**
      * Returns a grid subset coverage range suitable for {@link TileRange}
      * 
@@ -179,4 +179,8 @@ public class ConfigLoaderTest extends TestCase {
         assertEquals(cacheDir.getAbsolutePath(), loader.getRootCacheDir().getAbsolutePath());
     }
 
+    public void testGetConfigDir() throws Exception {
+        assertEquals(cacheDir.getCanonicalPath(), loader.getConfigDir().getCanonicalPath());
+    }
+
 }
@@ -118,4 +118,17 @@ public class DiskQuotaConfigTest extends TestCase {
         assertEquals(10, config.getMaxConcurrentCleanUps().intValue());
     }
 
+    public void testSetExpirationBatchSize() {
+        assertEquals(DiskQuotaConfig.DEFAULT_EXPIRATION_BATCH_SIZE, config
+                .getExpirationBatchSize().intValue());
+        try {
+            config.setExpirationBatchSize(0);
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        config.setExpirationBatchSize(50);
+        assertEquals(50, config.getExpirationBatchSize().intValue());
+    }
+
 }
@@ -0,0 +1,49 @@
+package org.geowebcache.diskquota;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class LongObjectMapTest extends TestCase {
+
+    public void testPutGet() {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+        assertNull(map.get(0));
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        map.put(Long.MAX_VALUE, "max");
+        assertEquals("zero", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertNull(map.get(1));
+        assertEquals(3, map.size());
+
+        map.put(0, "cero");
+        assertEquals("cero", map.get(0));
+        assertEquals(3, map.size());
+    }
+
+    public void testResize() {
+        LongObjectMap<Long> map = new LongObjectMap<Long>();
+        final int count = 10000;
+        for (long i = 0; i < count; i++) {
+            map.put(i << 20, Long.valueOf(i));
+        }
+        assertEquals(count, map.size());
+        for (long i = 0; i < count; i++) {
+            assertEquals(Long.valueOf(i), map.get(i << 20));
+        }
+        Set<Long> values = new HashSet<Long>(map.values());
+        assertEquals(count, values.size());
+    }
+
+    public void testNullValue() {
+        try {
+            new LongObjectMap<String>().put(1, null);
+            fail("Expected NPE");
+        } catch (NullPointerException e) {
+            assertTrue(true);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.geowebcache.diskquota;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.diskquota.storage.TileSetVisitor;
+
+public class PageExpirationIndexTest extends TestCase {
+
+    private final TileSet tileSet = new TileSet("layer1", "EPSG:4326", "image/png", null);
+
+    private final Set<String> layerNames = Collections.singleton("layer1");
+
+    private final TilePage page1 = new TilePage(tileSet.getId(), 0, 0, 1);
+
+    private final TilePage page2 = new TilePage(tileSet.getId(), 1, 0, 1);
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testUpdatesDontWaitForTheLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        TilePageCalculator calculator = org.easymock.classextension.EasyMock
+                .createMock(TilePageCalculator.class);
+        EasyMock.expect(calculator.getTilesPerPageCount(tileSet, 1)).andReturn(4L).anyTimes();
+        org.easymock.classextension.EasyMock.replay(calculator);
+
+        QuotaStore store = EasyMock.createMock(QuotaStore.class);
+        EasyMock.expect(store.getTilePageCalculator()).andReturn(calculator).anyTimes();
+        store.accept(EasyMock.<TileSetVisitor> anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                TileSetVisitor visitor = (TileSetVisitor) EasyMock.getCurrentArguments()[0];
+                visitor.visit(tileSet, null);
+                return null;
+            }
+        });
+        store.accept(EasyMock.<TilePageVisitor> anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                started.countDown();
+                release.await();
+                PageStats stats = new PageStats(0);
+                stats.setFillFactor(0.5f);
+                ((TilePageVisitor) EasyMock.getCurrentArguments()[0]).visit(page1, stats);
+                return null;
+            }
+        });
+        EasyMock.replay(store);
+
+        final PageExpirationIndex index = new PageExpirationIndex(store);
+        Future<List<TilePage>> loading = executor.submit(new Callable<List<TilePage>>() {
+            public List<TilePage> call() throws Exception {
+                return index.getExpirationCandidates(layerNames, ExpirationPolicy.LFU, 10);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // neither the updates nor the other requests wait for the load to end
+        final PageStatsPayload payload = new PageStatsPayload(page2, tileSet);
+        payload.setNumTiles(1);
+        executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                index.addTiles(tileSet, Collections.singletonList(payload));
+                return null;
+            }
+        }).get(10, TimeUnit.SECONDS);
+        assertTrue(index.getExpirationCandidates(layerNames, ExpirationPolicy.LFU, 10).isEmpty());
+        assertEquals(-1, index.size());
+
+        // the update received meanwhile is applied to the loaded pages
+        release.countDown();
+        assertEquals(Arrays.asList(page1, page2), loading.get(10, TimeUnit.SECONDS));
+        assertEquals(2, index.size());
+        EasyMock.verify(store);
+    }
+
+    public void testInvalidateDiscardsTheLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        QuotaStore store = EasyMock.createMock(QuotaStore.class);
+        EasyMock.expect(store.getTilePageCalculator()).andReturn(null).anyTimes();
+        store.accept(EasyMock.<TileSetVisitor> anyObject());
+        EasyMock.expectLastCall().times(2);
+        store.accept(EasyMock.<TilePageVisitor> anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        });
+        store.accept(EasyMock.<TilePageVisitor> anyObject());
+        EasyMock.replay(store);
+
+        final PageExpirationIndex index = new PageExpirationIndex(store);
+        Future<List<TilePage>> loading = executor.submit(new Callable<List<TilePage>>() {
+            public List<TilePage> call() throws Exception {
+                return index.getExpirationCandidates(layerNames, ExpirationPolicy.LRU, 10);
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        index.invalidate();
+        release.countDown();
+        assertTrue(loading.get(10, TimeUnit.SECONDS).isEmpty());
+        assertEquals(-1, index.size());
+
+        // loaded again on the next request
+        assertTrue(index.getExpirationCandidates(layerNames, ExpirationPolicy.LRU, 10).isEmpty());
+        assertEquals(0, index.size());
+        EasyMock.verify(store);
+    }
+}
@@ -0,0 +1,146 @@
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.conveyor.ConveyorTile;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.MimeType;
+
+/**
+ * Compares the LFU expiration decisions taken from sampled usage statistics against the ones
+ * taken from exact hit counts
+ */
+public class QueuedUsageStatsProducerTest extends TestCase {
+
+    private static final int NUM_TILES = 500;
+
+    private static final int NUM_REQUESTS = 500000;
+
+    private static final int SAMPLE_RATE = 10;
+
+    /**
+     * Number of least frequently used tiles to expire
+     */
+    private static final int NUM_EXPIRED = NUM_TILES / 5;
+
+    private TileLayer layer;
+
+    private ConveyorTile[] tiles;
+
+    @Override
+    protected void setUp() throws Exception {
+        layer = EasyMock.createMock(TileLayer.class);
+        EasyMock.expect(layer.getName()).andReturn("layer").anyTimes();
+        EasyMock.replay(layer);
+
+        MimeType png = MimeType.createFromFormat("image/png");
+        tiles = new ConveyorTile[NUM_TILES];
+        for (int i = 0; i < NUM_TILES; i++) {
+            tiles[i] = new ConveyorTile(null, "layer", "EPSG:4326", new long[] { i, 0, 10 }, png,
+                    null, null, null);
+        }
+    }
+
+    public void testNoSampling() {
+        LinkedBlockingQueue<UsageStats> queue = new LinkedBlockingQueue<UsageStats>();
+        QueuedUsageStatsProducer producer = new QueuedUsageStatsProducer(queue);
+        assertEquals(1, producer.getSampleRate());
+        for (int i = 0; i < 100; i++) {
+            producer.tileRequested(layer, tiles[i]);
+        }
+        assertEquals(100, queue.size());
+        for (UsageStats stats : queue) {
+            assertEquals(1, stats.getNumHits());
+        }
+    }
+
+    public void testSampledExpirationMatchesExact() {
+        final long[] exactHits = new long[NUM_TILES];
+        final long[] sampledHits = new long[NUM_TILES];
+
+        LinkedBlockingQueue<UsageStats> queue = new LinkedBlockingQueue<UsageStats>();
+        // seeded, so that the outcome doesn't change from run to run
+        QueuedUsageStatsProducer producer = new QueuedUsageStatsProducer(queue, SAMPLE_RATE,
+                new Random(2));
+
+        // zipf distributed requests, as usual for map tiles
+        final double[] cumulative = new double[NUM_TILES];
+        double sum = 0;
+        for (int i = 0; i < NUM_TILES; i++) {
+            sum += 1d / (i + 1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(1);
+        for (int r = 0; r < NUM_REQUESTS; r++) {
+            double p = random.nextDouble() * sum;
+            int tile = 0;
+            while (cumulative[tile] < p) {
+                tile++;
+            }
+            exactHits[tile]++;
+            producer.tileRequested(layer, tiles[tile]);
+        }
+
+        // an order of magnitude less work for the consumer
+        final int recorded = queue.size();
+        assertTrue("recorded " + recorded, recorded < 2 * NUM_REQUESTS / SAMPLE_RATE);
+        assertTrue("recorded " + recorded, recorded > NUM_REQUESTS / SAMPLE_RATE / 2);
+
+        long sampledTotal = 0;
+        for (UsageStats stats : queue) {
+            assertEquals(SAMPLE_RATE, stats.getNumHits());
+            sampledHits[(int) stats.getTileIndex()[0]] += stats.getNumHits();
+            sampledTotal += stats.getNumHits();
+        }
+        // the total hit count estimate is within 5%
+        assertEquals(NUM_REQUESTS, sampledTotal, NUM_REQUESTS * 0.05);
+
+        List<Integer> exactExpired = leastFrequentlyUsed(exactHits);
+        List<Integer> sampledExpired = leastFrequentlyUsed(sampledHits);
+
+        // the hits lost by expiring the tiles chosen from the sampled statistics are close to the
+        // hits lost by the optimal choice
+        long exactLoss = 0;
+        long sampledLoss = 0;
+        for (int i = 0; i < NUM_EXPIRED; i++) {
+            exactLoss += exactHits[exactExpired.get(i)];
+            sampledLoss += exactHits[sampledExpired.get(i)];
+        }
+        assertTrue(sampledLoss >= exactLoss);
+        assertTrue("exact: " + exactLoss + ", sampled: " + sampledLoss,
+                sampledLoss < exactLoss * 1.25);
+
+        // and most of the expired tiles are the same
+        Set<Integer> common = new HashSet<Integer>(exactExpired);
+        common.retainAll(sampledExpired);
+        assertTrue("common: " + common.size(), common.size() > NUM_EXPIRED / 2);
+
+        // the most used tiles are never expired
+        for (int i = 0; i < NUM_TILES / 4; i++) {
+            assertFalse(sampledExpired.contains(i));
+        }
+    }
+
+    private List<Integer> leastFrequentlyUsed(final long[] hits) {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < hits.length; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer t1, Integer t2) {
+                return Long.compare(hits[t1], hits[t2]);
+            }
+        });
+        return order.subList(0, NUM_EXPIRED);
+    }
+}
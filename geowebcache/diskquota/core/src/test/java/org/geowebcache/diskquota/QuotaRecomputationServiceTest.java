@@ -0,0 +1,177 @@
+package org.geowebcache.diskquota;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+
+public class QuotaRecomputationServiceTest extends TestCase {
+
+    private QuotaStore store;
+
+    private QuotaRecomputationService service;
+
+    private CountDownLatch started;
+
+    private CountDownLatch release;
+
+    @Override
+    protected void setUp() throws Exception {
+        store = EasyMock.createStrictMock(QuotaStore.class);
+        service = new QuotaRecomputationService(store, null);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.shutDownNow();
+    }
+
+    /**
+     * Expects a delete of the layer that blocks the worker thread until {@link #release} is
+     * counted down
+     */
+    private void expectBlockingDelete(final String layerName) {
+        store.deleteLayer(layerName);
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() throws Throwable {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        });
+    }
+
+    public void testCoalescesPendingDeletes() throws Exception {
+        expectBlockingDelete("blocker");
+        store.deleteGridSubset("layer2", "EPSG:4326");
+        store.deleteLayer("layer1");
+        EasyMock.replay(store);
+
+        service.deleteLayer("blocker");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        service.deleteGridSubset("layer1", "EPSG:4326");
+        service.deleteGridSubset("layer1", "EPSG:900913");
+        service.deleteGridSubset("layer2", "EPSG:4326");
+        service.deleteGridSubset("layer2", "EPSG:4326");
+        service.deleteLayer("layer1");
+        assertTrue(service.isPending("layer1"));
+        assertTrue(service.isPending("layer2"));
+        // being applied
+        assertTrue(service.isPending("blocker"));
+        assertFalse(service.isPending("layer3"));
+
+        QuotaRecomputationStatus status = service.getStatus();
+        assertTrue(status.isRunning());
+        assertEquals(2, status.getPendingChanges());
+        assertEquals(Arrays.asList("layer2", "layer1"), status.getPendingLayers());
+        assertEquals(6, status.getSubmittedChanges());
+        assertEquals(3, status.getCoalescedChanges());
+
+        release.countDown();
+        assertTrue(service.awaitIdle(10, TimeUnit.SECONDS));
+        EasyMock.verify(store);
+
+        status = service.getStatus();
+        assertFalse(status.isRunning());
+        assertEquals(0, status.getPendingChanges());
+        assertEquals(3, status.getAppliedChanges());
+        assertEquals(2, status.getBatches());
+        assertEquals(2, status.getLastBatchSize());
+        assertNotNull(status.getLastBatchTime());
+    }
+
+    public void testNoCoalescingAcrossRenames() throws Exception {
+        expectBlockingDelete("blocker");
+        store.deleteLayer("old");
+        store.renameLayer("old", "new");
+        store.deleteLayer("new");
+        store.deleteLayer("old");
+        EasyMock.replay(store);
+
+        service.deleteLayer("blocker");
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        service.deleteLayer("old");
+        service.renameLayer("old", "new");
+        service.deleteLayer("new");
+        service.deleteLayer("old");
+        assertTrue(service.isPending("new"));
+        assertEquals(0, service.getStatus().getCoalescedChanges());
+
+        release.countDown();
+        assertTrue(service.awaitIdle(10, TimeUnit.SECONDS));
+        EasyMock.verify(store);
+    }
+
+    public void testUsageStatsWaitForPendingLayerChanges() throws Exception {
+        final TileSet tileSet = new TileSet("layer1", "EPSG:4326", "image/png", null);
+        final CountDownLatch committed = new CountDownLatch(1);
+        expectBlockingDelete("layer1");
+        // the strict mock fails if the usage statistics are committed before the delete ends
+        EasyMock.expect(
+                store.addHitsAndSetAccesTime(EasyMock.<Collection<PageStatsPayload>> anyObject()))
+                .andAnswer(new IAnswer<Future<List<PageStats>>>() {
+                    public Future<List<PageStats>> answer() throws Throwable {
+                        committed.countDown();
+                        return null;
+                    }
+                });
+        EasyMock.replay(store);
+
+        BlockingQueue<UsageStats> queue = new LinkedBlockingQueue<UsageStats>();
+        TilePageCalculator calculator = org.easymock.classextension.EasyMock
+                .createNiceMock(TilePageCalculator.class);
+        QueuedUsageStatsConsumer consumer = new QueuedUsageStatsConsumer(store, queue,
+                calculator, null, service);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(consumer);
+            service.deleteLayer("layer1");
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            queue.add(new UsageStats(tileSet, new long[] { 0, 0, 0 }));
+            // several commit timeouts elapse while the delete is being applied
+            assertFalse(committed.await(500, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertTrue(committed.await(10, TimeUnit.SECONDS));
+            EasyMock.verify(store);
+        } finally {
+            consumer.shutdown();
+            executor.shutdownNow();
+        }
+    }
+
+    public void testFailedChangeDoesNotStopTheBatch() throws Exception {
+        store.deleteLayer("layer1");
+        EasyMock.expectLastCall().andThrow(new IllegalStateException("expected"));
+        store.deleteLayer("layer2");
+        EasyMock.replay(store);
+
+        service.deleteLayer("layer1");
+        service.deleteLayer("layer2");
+        assertTrue(service.awaitIdle(10, TimeUnit.SECONDS));
+        EasyMock.verify(store);
+
+        QuotaRecomputationStatus status = service.getStatus();
+        assertEquals(1, status.getAppliedChanges());
+        assertEquals(1, status.getFailedChanges());
+    }
+}
@@ -0,0 +1,157 @@
+package org.geowebcache.diskquota;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.geowebcache.diskquota.RingBufferQueue.OverflowPolicy;
+import org.geowebcache.diskquota.storage.TileSet;
+
+public class RingBufferQueueTest extends TestCase {
+
+    public void testCapacity() {
+        assertEquals(1, new RingBufferQueue<Object>(1, OverflowPolicy.BLOCK).getCapacity());
+        assertEquals(8, new RingBufferQueue<Object>(8, OverflowPolicy.BLOCK).getCapacity());
+        assertEquals(1024, new RingBufferQueue<Object>(1000, OverflowPolicy.BLOCK).getCapacity());
+        try {
+            new RingBufferQueue<Object>(10, OverflowPolicy.MERGE);
+            fail("Expected IAE, MERGE requires a merger");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    public void testOfferPoll() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4, OverflowPolicy.BLOCK);
+        assertNull(queue.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(Integer.valueOf(0), queue.peek());
+        assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.size());
+        assertEquals(4, queue.getMaxDepth());
+
+        // wrap around
+        for (int i = 0; i < 10; i++) {
+            queue.put(i);
+            assertEquals(Integer.valueOf(i), queue.take());
+        }
+    }
+
+    public void testDrop() throws Exception {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(2, OverflowPolicy.DROP);
+        for (int i = 0; i < 5; i++) {
+            queue.put(i);
+        }
+        assertEquals(2, queue.size());
+        assertEquals(3, queue.getDropCount());
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(0, drained.get(0).intValue());
+        assertEquals(1, drained.get(1).intValue());
+    }
+
+    public void testDropUsageStatsOnly() throws Exception {
+        System.setProperty(QuotaUpdatesMonitor.RING_BUFFER_PROPERTY, "true");
+        System.setProperty(QuotaUpdatesMonitor.OVERFLOW_POLICY_PROPERTY, "drop");
+        try {
+            RingBufferQueue<?> usageStats = (RingBufferQueue<?>) QuotaUpdatesMonitor.createQueue(
+                    2, UsageStats.MERGER, true);
+            assertEquals(OverflowPolicy.DROP, usageStats.getOverflowPolicy());
+            // quota updates must not be lost
+            RingBufferQueue<?> quotaUpdates = (RingBufferQueue<?>) QuotaUpdatesMonitor
+                    .createQueue(2, null, false);
+            assertEquals(OverflowPolicy.BLOCK, quotaUpdates.getOverflowPolicy());
+        } finally {
+            System.clearProperty(QuotaUpdatesMonitor.RING_BUFFER_PROPERTY);
+            System.clearProperty(QuotaUpdatesMonitor.OVERFLOW_POLICY_PROPERTY);
+        }
+    }
+
+    public void testMerge() throws Exception {
+        RingBufferQueue<UsageStats> queue = new RingBufferQueue<UsageStats>(2,
+                OverflowPolicy.MERGE, UsageStats.MERGER);
+        TileSet tileSet = new TileSet("layer", "EPSG:4326", "image/png", null);
+
+        queue.put(new UsageStats(tileSet, new long[] { 0, 0, 0 }));
+        queue.put(new UsageStats(tileSet, new long[] { 1, 0, 0 }));
+        // ring full, these go to the overflow area
+        for (int i = 0; i < 5; i++) {
+            queue.put(new UsageStats(tileSet, new long[] { 2, 0, 0 }));
+        }
+        queue.put(new UsageStats(tileSet, new long[] { 3, 0, 0 }));
+        assertEquals(4, queue.size());
+        assertEquals(4, queue.getMergeCount());
+
+        int hits = 0;
+        UsageStats stats;
+        while ((stats = queue.poll()) != null) {
+            hits += stats.getNumHits();
+        }
+        assertEquals(8, hits);
+        assertEquals(0, queue.getDropCount());
+    }
+
+    public void testMultipleProducers() throws Exception {
+        final RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(16,
+                OverflowPolicy.BLOCK);
+        final int producers = 8;
+        final int perProducer = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.put(producer * perProducer + i);
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+
+        boolean[] seen = new boolean[producers * perProducer];
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < seen.length; i++) {
+            Integer e = queue.poll(10, TimeUnit.SECONDS);
+            assertNotNull("timed out waiting for element " + i, e);
+            assertFalse("duplicate element " + e, seen[e]);
+            seen[e] = true;
+            // elements from the same producer come out in order
+            int producer = e / perProducer;
+            assertTrue(e > last[producer]);
+            last[producer] = e;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, failures.get());
+        assertNull(queue.poll());
+        assertEquals(0, queue.getDropCount());
+    }
+}
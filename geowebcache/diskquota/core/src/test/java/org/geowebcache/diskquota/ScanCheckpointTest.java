@@ -0,0 +1,65 @@
+package org.geowebcache.diskquota;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class ScanCheckpointTest extends TestCase {
+
+    private File dir;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File("target", getClass().getSimpleName());
+        FileUtils.deleteDirectory(dir);
+        file = new File(new File(dir, LayerCacheInfoBuilder.CHECKPOINT_DIR), "layer.checkpoint");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    public void testResume() throws Exception {
+        ScanCheckpoint checkpoint = ScanCheckpoint.open(file, true);
+        assertTrue(file.exists());
+        assertEquals(0, checkpoint.size());
+        checkpoint.complete("EPSG_4326_01/00_00");
+        checkpoint.complete("EPSG_4326_00");
+        assertTrue(checkpoint.isCompleted("EPSG_4326_00"));
+        checkpoint.close();
+
+        checkpoint = ScanCheckpoint.open(file, true);
+        assertEquals(2, checkpoint.size());
+        assertTrue(checkpoint.isCompleted("EPSG_4326_01/00_00"));
+        assertTrue(checkpoint.isCompleted("EPSG_4326_00"));
+        assertFalse(checkpoint.isCompleted("EPSG_4326_01"));
+        checkpoint.complete("EPSG_4326_01");
+        checkpoint.close();
+
+        checkpoint = ScanCheckpoint.open(file, true);
+        assertEquals(3, checkpoint.size());
+        checkpoint.delete();
+        assertFalse(file.exists());
+    }
+
+    public void testStartOver() throws Exception {
+        ScanCheckpoint checkpoint = ScanCheckpoint.open(file, true);
+        checkpoint.complete("EPSG_4326_00");
+        checkpoint.close();
+
+        checkpoint = ScanCheckpoint.open(file, false);
+        assertEquals(0, checkpoint.size());
+        checkpoint.complete("EPSG_4326_01");
+        checkpoint.close();
+
+        checkpoint = ScanCheckpoint.open(file, true);
+        assertEquals(1, checkpoint.size());
+        assertFalse(checkpoint.isCompleted("EPSG_4326_00"));
+        checkpoint.close();
+    }
+}
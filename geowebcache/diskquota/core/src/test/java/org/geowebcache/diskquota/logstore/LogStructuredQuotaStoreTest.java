@@ -0,0 +1,417 @@
+package org.geowebcache.diskquota.logstore;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.config.Configuration;
+import org.geowebcache.config.XMLConfiguration;
+import org.geowebcache.config.XMLConfigurationBackwardsCompatibilityTest;
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.diskquota.ExpirationPolicy;
+import org.geowebcache.diskquota.PageCursor;
+import org.geowebcache.diskquota.storage.MockSystemUtils;
+import org.geowebcache.diskquota.storage.PageStats;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.StorageUnit;
+import org.geowebcache.diskquota.storage.SystemUtils;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.storage.DefaultStorageFinder;
+
+public class LogStructuredQuotaStoreTest extends TestCase {
+
+    private LogStructuredQuotaStore store;
+
+    private TilePageCalculator tilePageCalculator;
+
+    private TileSet testTileSet;
+
+    private File targetDir;
+
+    @Override
+    public void setUp() throws Exception {
+        targetDir = new File("target", "logStore" + Math.random());
+        FileUtils.deleteDirectory(targetDir);
+        targetDir.mkdirs();
+
+        InputStream is = XMLConfiguration.class
+                .getResourceAsStream(XMLConfigurationBackwardsCompatibilityTest.LATEST_FILENAME);
+        LinkedList<Configuration> configList = new LinkedList<Configuration>();
+        configList.add(new XMLConfiguration(is));
+        TileLayerDispatcher layerDispatcher = new TileLayerDispatcher(new GridSetBroker(true,
+                true), configList);
+        tilePageCalculator = new TilePageCalculator(layerDispatcher);
+
+        store = newStore(targetDir);
+        testTileSet = tilePageCalculator.getTileSetsFor("topp:states2").iterator().next();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        SystemUtils.set(new SystemUtils());
+        try {
+            store.close();
+        } catch (Exception e) {
+            // already closed
+        }
+        FileUtils.deleteDirectory(targetDir);
+    }
+
+    private LogStructuredQuotaStore newStore(File cacheDir) throws Exception {
+        DefaultStorageFinder cacheDirFinder = EasyMock.createMock(DefaultStorageFinder.class);
+        EasyMock.expect(cacheDirFinder.getDefaultPath()).andReturn(cacheDir.getAbsolutePath())
+                .anyTimes();
+        EasyMock.expect(
+                cacheDirFinder.findEnvVar(EasyMock.eq(DiskQuotaMonitor.GWC_DISKQUOTA_DISABLED)))
+                .andReturn(null).anyTimes();
+        EasyMock.replay(cacheDirFinder);
+
+        LogStructuredQuotaStore newStore = new LogStructuredQuotaStore(cacheDirFinder,
+                tilePageCalculator);
+        newStore.startUp();
+        return newStore;
+    }
+
+    /**
+     * Simulates a crash copying the store files while the store is still open
+     */
+    private File crashCopy() throws Exception {
+        File copy = new File(targetDir, "crashed");
+        FileUtils.copyDirectory(new File(targetDir, LogStructuredQuotaStore.STORE_DIRECTORY),
+                new File(copy, LogStructuredQuotaStore.STORE_DIRECTORY));
+        return copy;
+    }
+
+    private List<PageStatsPayload> addPages() throws Exception {
+        TilePage page1 = new TilePage(testTileSet.getId(), 0, 1, 2);
+        TilePage page2 = new TilePage(testTileSet.getId(), 1, 1, 2);
+        PageStatsPayload payload1 = new PageStatsPayload(page1, testTileSet);
+        PageStatsPayload payload2 = new PageStatsPayload(page2, testTileSet);
+        payload1.setNumTiles(1);
+        payload2.setNumTiles(1);
+        List<PageStatsPayload> payloads = Arrays.asList(payload1, payload2);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB), payloads);
+        payload1.setNumHits(100);
+        payload2.setNumHits(10);
+        store.addHitsAndSetAccesTime(payloads).get();
+        return payloads;
+    }
+
+    private void assertPagesRestored(LogStructuredQuotaStore restored) throws Exception {
+        Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        assertEquals(store.getTileSets(), restored.getTileSets());
+        assertEquals(store.getGloballyUsedQuota().getBytes(), restored.getGloballyUsedQuota()
+                .getBytes());
+        assertEquals(2, restored.getPageCount());
+        assertEquals(new TilePage(testTileSet.getId(), 1, 1, 2),
+                restored.getLeastFrequentlyUsedPage(layerNames));
+        assertEquals(statsOf(store), statsOf(restored));
+    }
+
+    private List<String> statsOf(LogStructuredQuotaStore quotaStore) throws Exception {
+        final List<String> stats = new ArrayList<String>();
+        quotaStore.accept(new TilePageVisitor() {
+            public void visit(TilePage page, PageStats pageStats) {
+                stats.add(page.getKey() + " " + pageStats.getFillFactor() + " "
+                        + pageStats.getFrequencyOfUsePerMinute() + " "
+                        + pageStats.getLastAccessTimeMinutes() + " " + pageStats.getNumHits());
+            }
+        });
+        Collections.sort(stats);
+        return stats;
+    }
+
+    public void testInitialization() throws Exception {
+        Set<TileSet> tileSets = store.getTileSets();
+        assertEquals(10, tileSets.size());
+        assertTrue(tileSets.contains(new TileSet("topp:states", "EPSG:4326", "image/png", null)));
+        assertTrue(tileSets.contains(new TileSet("topp:states2", "EPSG:2163", "image/jpeg",
+                null)));
+        assertTrue(new File(targetDir, LogStructuredQuotaStore.STORE_DIRECTORY + "/"
+                + LogStructuredQuotaStore.LOG_FILE).exists());
+
+        // restarting does not duplicate anything
+        store.close();
+        store.startUp();
+        assertEquals(tileSets, store.getTileSets());
+    }
+
+    public void testPageStatsGathering() throws Exception {
+        final MockSystemUtils sysUtils = new MockSystemUtils();
+        sysUtils.setCurrentTimeMinutes(10);
+        sysUtils.setCurrentTimeMillis(10 * 60 * 1000);
+        SystemUtils.set(sysUtils);
+
+        TilePage page = new TilePage(testTileSet.getId(), 0, 0, (byte) 0);
+        PageStatsPayload payload = new PageStatsPayload(page);
+        payload.setLastAccessTime(sysUtils.currentTimeMillis() - 1 * 60 * 1000);
+        payload.setNumHits(100);
+        payload.setNumTiles(1);
+
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB),
+                Collections.singleton(payload));
+        PageStats stats = store.addHitsAndSetAccesTime(Collections.singleton(payload)).get()
+                .get(0);
+        assertEquals(1.0f, stats.getFillFactor(), 1e-6);
+        assertEquals(10, stats.getLastAccessTimeMinutes());
+        assertEquals(100f, stats.getFrequencyOfUsePerMinute());
+
+        sysUtils.setCurrentTimeMillis(sysUtils.currentTimeMillis() + 2 * 60 * 1000);
+        payload.setLastAccessTime(sysUtils.currentTimeMillis() - 1 * 60 * 1000);
+        payload.setNumHits(10);
+        stats = store.addHitsAndSetAccesTime(Collections.singleton(payload)).get().get(0);
+        assertEquals(11, stats.getLastAccessTimeMinutes());
+        // the 100 previous + the 10 added now / the 2 minutes that elapsed
+        assertEquals(55f, stats.getFrequencyOfUsePerMinute(), 1e-6f);
+        assertEquals(BigInteger.valueOf(110), stats.getNumHits());
+    }
+
+    public void testGetGloballyUsedQuota() throws Exception {
+        assertEquals(0, store.getGloballyUsedQuota().getBytes().intValue());
+
+        List<PageStatsPayload> none = Collections.emptyList();
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(BigInteger.valueOf(1000)), none);
+        assertEquals(1000, store.getGloballyUsedQuota().getBytes().intValue());
+        assertEquals(1000, store.getUsedQuotaByTileSetId(testTileSet.getId()).getBytes()
+                .intValue());
+
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(BigInteger.valueOf(-500)), none);
+        assertEquals(500, store.getGloballyUsedQuota().getBytes().intValue());
+        assertEquals(500, store.getUsedQuotaByLayerName(testTileSet.getLayerName()).getBytes()
+                .intValue());
+    }
+
+    public void testGetLeastUsedPage() throws Exception {
+        final Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        assertNull(store.getLeastFrequentlyUsedPage(layerNames));
+        assertNull(store.getLeastRecentlyUsedPage(layerNames));
+
+        List<PageStatsPayload> payloads = addPages();
+        TilePage page1 = payloads.get(0).getPage();
+        TilePage page2 = payloads.get(1).getPage();
+        assertEquals(page2, store.getLeastFrequentlyUsedPage(layerNames));
+        assertNull(store.getLeastFrequentlyUsedPage(Collections.singleton("topp:states")));
+
+        payloads.get(1).setNumHits(1000);
+        store.addHitsAndSetAccesTime(payloads).get();
+        assertEquals(page1, store.getLeastFrequentlyUsedPage(layerNames));
+
+        payloads.get(0).setLastAccessTime(System.currentTimeMillis() + 10 * 60 * 1000);
+        store.addHitsAndSetAccesTime(Collections.singleton(payloads.get(0))).get();
+        assertEquals(page2, store.getLeastRecentlyUsedPage(layerNames));
+
+        store.setTruncated(Arrays.asList(page1, page2));
+        assertNull(store.getLeastFrequentlyUsedPage(layerNames));
+        assertNull(store.getLeastRecentlyUsedPage(layerNames));
+    }
+
+    public void testGetPagesToExpire() throws Exception {
+        final Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        // more pages than picked at once, with pairs of pages sharing their number of hits
+        final int numPages = 2 * LogStructuredQuotaStore.EXPIRATION_CHUNK_SIZE + 100;
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>();
+        for (int x = 0; x < numPages; x++) {
+            PageStatsPayload payload = new PageStatsPayload(new TilePage(testTileSet.getId(), x,
+                    1, 2), testTileSet);
+            payload.setNumTiles(1);
+            payloads.add(payload);
+        }
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB), payloads);
+        for (int x = 0; x < numPages; x++) {
+            payloads.get(x).setNumHits(1 + (numPages - 1 - x) / 2);
+        }
+        store.addHitsAndSetAccesTime(payloads).get();
+
+        // least hits first, then by x
+        List<PageStatsPayload> sorted = new ArrayList<PageStatsPayload>(payloads);
+        Collections.sort(sorted, new Comparator<PageStatsPayload>() {
+            public int compare(PageStatsPayload p1, PageStatsPayload p2) {
+                int c = Integer.compare(p1.getNumHits(), p2.getNumHits());
+                return c != 0 ? c : Integer.compare(p1.getPage().getPageX(), p2.getPage()
+                        .getPageX());
+            }
+        });
+        List<TilePage> expected = new ArrayList<TilePage>();
+        for (PageStatsPayload payload : sorted) {
+            expected.add(payload.getPage());
+        }
+        assertEquals(numPages, expected.size());
+
+        PageCursor cursor = store.getPagesToExpire(layerNames, ExpirationPolicy.LFU, 100);
+        List<TilePage> pages = new ArrayList<TilePage>(cursor.next());
+        assertEquals(expected.subList(0, 100), pages);
+        // picked already, but truncated before being returned
+        TilePage truncated = expected.get(150);
+        store.setTruncated(truncated);
+        expected.remove(150);
+
+        while (cursor.hasNext()) {
+            List<TilePage> chunk = cursor.next();
+            assertTrue(chunk.size() <= 100);
+            pages.addAll(chunk);
+        }
+        // the pages of the first chunk are not returned again, even if they were not truncated
+        assertEquals(expected, pages);
+        assertTrue(cursor.next().isEmpty());
+
+        cursor = store.getPagesToExpire(layerNames, ExpirationPolicy.LRU, 5000);
+        assertEquals(numPages - 1, cursor.next().size());
+        assertFalse(cursor.hasNext());
+
+        cursor = store.getPagesToExpire(Collections.singleton("topp:states"),
+                ExpirationPolicy.LFU, 10);
+        assertTrue(cursor.next().isEmpty());
+    }
+
+    public void testDeleteAndRenameLayer() throws Exception {
+        final String layerName = testTileSet.getLayerName();
+        addPages();
+
+        store.renameLayer(layerName, "renamed_layer");
+        assertNull(store.getLeastFrequentlyUsedPage(Collections.singleton(layerName)));
+        assertEquals(0L, store.getUsedQuotaByLayerName(layerName).getBytes().longValue());
+        assertEquals(1024L * 1024, store.getUsedQuotaByLayerName("renamed_layer").getBytes()
+                .longValue());
+        TilePage renamedPage = store.getLeastFrequentlyUsedPage(Collections
+                .singleton("renamed_layer"));
+        assertEquals(1, renamedPage.getPageX());
+        assertEquals(2, store.getPageCount());
+
+        store.deleteLayer("renamed_layer");
+        assertNull(store.getLeastFrequentlyUsedPage(Collections.singleton("renamed_layer")));
+        assertEquals(0L, store.getGloballyUsedQuota().getBytes().longValue());
+        assertEquals(0, store.getPageCount());
+
+        try {
+            store.getTileSetById(testTileSet.getId());
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    public void testDeleteGridSubset() throws Exception {
+        addPages();
+        int tileSets = store.getTileSets().size();
+        store.deleteGridSubset("topp:states", "EPSG:4326");
+        assertEquals(tileSets - 4, store.getTileSets().size());
+        assertEquals(2, store.getPageCount());
+        store.deleteGridSubset(testTileSet.getLayerName(), testTileSet.getGridsetId());
+        assertEquals(0, store.getPageCount());
+    }
+
+    public void testRecoverFromLog() throws Exception {
+        addPages();
+        LogStructuredQuotaStore recovered = newStore(crashCopy());
+        try {
+            assertPagesRestored(recovered);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    public void testRecoverFromSnapshot() throws Exception {
+        List<PageStatsPayload> payloads = addPages();
+        store.close();
+        File snapshot = new File(targetDir, LogStructuredQuotaStore.STORE_DIRECTORY + "/"
+                + LogStructuredQuotaStore.SNAPSHOT_FILE);
+        assertTrue(snapshot.exists());
+        File wal = new File(targetDir, LogStructuredQuotaStore.STORE_DIRECTORY + "/"
+                + LogStructuredQuotaStore.LOG_FILE);
+        assertEquals(QuotaLog.HEADER_SIZE, wal.length());
+
+        LogStructuredQuotaStore reopened = newStore(targetDir);
+        try {
+            store = reopened;
+            assertEquals(2, reopened.getPageCount());
+            // changes after the snapshot are replayed on top of it
+            payloads.get(1).setNumHits(5);
+            reopened.addHitsAndSetAccesTime(Collections.singleton(payloads.get(1))).get();
+            LogStructuredQuotaStore recovered = newStore(crashCopy());
+            try {
+                assertPagesRestored(recovered);
+            } finally {
+                recovered.close();
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void testLargeSnapshot() throws Exception {
+        // larger than the buffer the snapshot is written and read through
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>();
+        for (int x = 0; x < 5000; x++) {
+            PageStatsPayload payload = new PageStatsPayload(new TilePage(testTileSet.getId(), x,
+                    1, 2), testTileSet);
+            payload.setNumTiles(1);
+            payloads.add(payload);
+        }
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB), payloads);
+        final List<String> stats = statsOf(store);
+        store.close();
+
+        LogStructuredQuotaStore reopened = newStore(targetDir);
+        try {
+            assertEquals(5000, reopened.getPageCount());
+            assertEquals(stats, statsOf(reopened));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void testDiscardsTornRecord() throws Exception {
+        List<PageStatsPayload> payloads = addPages();
+        File crashed = crashCopy();
+        File wal = new File(crashed, LogStructuredQuotaStore.STORE_DIRECTORY + "/"
+                + LogStructuredQuotaStore.LOG_FILE);
+        final long validLength = wal.length();
+        // half written record
+        RandomAccessFile raf = new RandomAccessFile(wal, "rw");
+        try {
+            raf.seek(validLength);
+            raf.writeInt(100);
+            raf.writeByte(5);
+            raf.writeInt(42);
+        } finally {
+            raf.close();
+        }
+
+        List<String> expected;
+        LogStructuredQuotaStore recovered = newStore(crashed);
+        try {
+            assertEquals(validLength, wal.length());
+            assertPagesRestored(recovered);
+            // and keeps appending after the last valid record
+            payloads.get(1).setNumHits(5);
+            recovered.addHitsAndSetAccesTime(Collections.singleton(payloads.get(1))).get();
+            expected = statsOf(recovered);
+        } finally {
+            recovered.close();
+        }
+        recovered = newStore(crashed);
+        try {
+            assertEquals(expected, statsOf(recovered));
+        } finally {
+            recovered.close();
+        }
+    }
+}
@@ -92,4 +92,36 @@ public class PageStatsTest extends TestCase {
         assertEquals(1f, stats.getFillFactor(), 1e-6f);
     }
 
+    public void testAddTilesRemoved() {
+        PageStats stats = new PageStats(1);
+        final long maxTiles = 1000;
+
+        stats.addTiles(500, maxTiles);
+        assertEquals(0.5f, stats.getFillFactor(), 1e-6f);
+
+        stats.addTiles(-250, maxTiles);
+        assertEquals(0.25f, stats.getFillFactor(), 1e-6f);
+
+        stats.addTiles(-1000, maxTiles);
+        assertEquals(0f, stats.getFillFactor());
+
+        stats.addTiles(2000, maxTiles);
+        assertEquals(1f, stats.getFillFactor());
+    }
+
+    public void testAddHitsOverflow() {
+        PageStats stats = new PageStats(1);
+        stats.setFillFactor(1f);
+        stats.setNumHits(BigInteger.valueOf(Long.MAX_VALUE));
+
+        stats.addHitsAndAccessTime(10, CREATION_TIME_MINUTES, CREATION_TIME_MINUTES);
+        BigInteger expected = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.TEN);
+        assertEquals(expected, stats.getNumHits());
+        assertEquals(expected.floatValue(), stats.getFrequencyOfUsePerMinute(),
+                expected.floatValue() * 1e-6f);
+
+        stats.addHitsAndAccessTime(10, CREATION_TIME_MINUTES, CREATION_TIME_MINUTES);
+        assertEquals(expected.add(BigInteger.TEN), stats.getNumHits());
+    }
+
 }
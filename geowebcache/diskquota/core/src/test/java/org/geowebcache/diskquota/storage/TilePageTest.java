@@ -0,0 +1,36 @@
+package org.geowebcache.diskquota.storage;
+
+import junit.framework.TestCase;
+
+public class TilePageTest extends TestCase {
+
+    public void testPackKey() {
+        long key = TilePage.packKey(12, 345, 678, 9);
+        assertTrue(key >= 0);
+        assertEquals(12, TilePage.unpackTileSetOrdinal(key));
+        assertEquals(345, TilePage.unpackX(key));
+        assertEquals(678, TilePage.unpackY(key));
+        assertEquals(9, TilePage.unpackZ(key));
+
+        assertFalse(key == TilePage.packKey(12, 678, 345, 9));
+        assertFalse(key == TilePage.packKey(13, 345, 678, 9));
+        assertFalse(key == TilePage.packKey(12, 345, 678, 10));
+    }
+
+    public void testPackKeyLimits() {
+        final int maxXY = (1 << TilePage.PACKED_XY_BITS) - 1;
+        final int maxOrdinal = (1 << TilePage.PACKED_TILESET_BITS) - 1;
+        long key = TilePage.packKey(maxOrdinal, maxXY, maxXY, 255);
+        assertTrue(key >= 0);
+        assertEquals(maxOrdinal, TilePage.unpackTileSetOrdinal(key));
+        assertEquals(maxXY, TilePage.unpackX(key));
+        assertEquals(maxXY, TilePage.unpackY(key));
+        assertEquals(255, TilePage.unpackZ(key));
+
+        assertEquals(-1, TilePage.packKey(0, maxXY + 1, 0, 0));
+        assertEquals(-1, TilePage.packKey(0, 0, maxXY + 1, 0));
+        assertEquals(-1, TilePage.packKey(0, -1, 0, 0));
+        assertEquals(-1, TilePage.packKey(0, 0, 0, 256));
+        assertEquals(-1, TilePage.packKey(maxOrdinal + 1, 0, 0, 0));
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.diskquota.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geowebcache.diskquota.ExpirationPolicy;
+import org.geowebcache.diskquota.PageCursor;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * {@link PageCursor} fetching the pages in chunks with a single query each.
+ * <p>
+ * Each chunk is selected from where the previous one ended, by order value and page key, instead
+ * of with an offset, so that the database can pick it straight from the expiration order index
+ * (see {@link SQLDialect#getPagesToExpire}). Pages whose statistics change after being returned
+ * may be returned again, or skipped, by the following chunks, which is fine for picking pages to
+ * expire.
+ * </p>
+ *
+ * @see JDBCQuotaStore#getPagesToExpire(Set, ExpirationPolicy, int)
+ */
+class JDBCPageCursor implements PageCursor {
+
+    private final JDBCQuotaStore store;
+
+    private final boolean leastFrequentlyUsed;
+
+    private final int chunkSize;
+
+    private final Map<String, Object> params = new HashMap<String, Object>();
+
+    private final List<String> layerParamNames = new ArrayList<String>();
+
+    private Object lastValue;
+
+    private String lastKey;
+
+    private boolean exhausted;
+
+    JDBCPageCursor(JDBCQuotaStore store, Set<String> layerNames, ExpirationPolicy policy,
+            int chunkSize) {
+        this.store = store;
+        this.leastFrequentlyUsed = ExpirationPolicy.LFU.equals(policy);
+        this.chunkSize = chunkSize;
+        int i = 0;
+        for (String layer : layerNames) {
+            i++;
+            String param = "Layer" + i;
+            params.put(param, layer);
+            layerParamNames.add(param);
+        }
+        this.exhausted = layerNames.isEmpty();
+    }
+
+    public boolean hasNext() {
+        return !exhausted;
+    }
+
+    public List<TilePage> next() {
+        final List<TilePage> pages = new ArrayList<TilePage>(chunkSize);
+        if (exhausted) {
+            return pages;
+        }
+        String sql = store.dialect.getPagesToExpire(store.schema, layerParamNames,
+                leastFrequentlyUsed, lastValue == null ? null : "afterValue", "afterKey", "limit");
+        params.put("afterValue", lastValue);
+        params.put("afterKey", lastKey);
+        params.put("limit", Integer.valueOf(chunkSize));
+        try {
+            store.jt.query(sql, params, new RowCallbackHandler() {
+
+                public void processRow(ResultSet rs) throws SQLException {
+                    pages.add(new JDBCQuotaStore.TilePageRowMapper().mapRow(rs, pages.size()));
+                    if (leastFrequentlyUsed) {
+                        lastValue = Double.valueOf(rs.getDouble(6));
+                    } else {
+                        lastValue = Integer.valueOf(rs.getInt(6));
+                    }
+                    lastKey = rs.getString(7);
+                }
+            });
+        } catch (DataAccessException e) {
+            throw new ParametricDataAccessException(sql, params, e);
+        }
+        if (pages.size() < chunkSize) {
+            exhausted = true;
+        }
+        return pages;
+    }
+}
@@ -40,12 +40,15 @@ import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.geowebcache.diskquota.ExpirationPolicy;
+import org.geowebcache.diskquota.PageCursor;
 import org.geowebcache.diskquota.QuotaStore;
 import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
 import org.geowebcache.diskquota.storage.Quota;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
 import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.diskquota.storage.TileSetVisitor;
 import org.geowebcache.storage.DefaultStorageFinder;
@@ -60,6 +63,7 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
 
 /**
  * An abstract quota store based on a JDBC reachable database, and configurable via a dialect class
@@ -378,6 +382,23 @@ public class JDBCQuotaStore implements QuotaStore {
         });
     }
 
+    public void accept(final TilePageVisitor visitor) {
+        String getPages = dialect.getTilePagesWithStats(schema);
+        final TilePageRowMapper pageMapper = new TilePageRowMapper();
+        jt.query(getPages, new RowCallbackHandler() {
+
+            public void processRow(ResultSet rs) throws SQLException {
+                TilePage page = pageMapper.mapRow(rs, 0);
+                PageStats stats = new PageStats(0);
+                stats.setFrequencyOfUsePerMinute(rs.getFloat(6));
+                stats.setLastAccessMinutes(rs.getInt(7));
+                stats.setFillFactor(rs.getFloat(8));
+                stats.setNumHits(rs.getBigDecimal(9).toBigInteger());
+                visitor.visit(page, stats);
+            }
+        });
+    }
+
     public TileSet getTileSetById(String tileSetId) throws InterruptedException {
         // locate the tileset
         TileSet result = getTileSetByIdInternal(tileSetId);
@@ -491,7 +512,7 @@ public class JDBCQuotaStore implements QuotaStore {
                 // both cases we re-start from zero
                 TilePage page = payload.getPage();
                 final byte level = page.getZoomLevel();
-                final BigInteger tilesPerPage = calculator.getTilesPerPage(tileSet, level);
+                final long tilesPerPage = calculator.getTilesPerPageCount(tileSet, level);
 
                 int modified = 0;
                 int count = 0;
@@ -742,6 +763,21 @@ public class JDBCQuotaStore implements QuotaStore {
         return getSinglePage(layerNames, false);
     }
 
+    /**
+     * Returns a cursor that fetches each chunk of pages with a single sorted and limited query,
+     * starting after the last page of the previous chunk, instead of running the
+     * {@link #getLeastFrequentlyUsedPage(Set)} or {@link #getLeastRecentlyUsedPage(Set)} query
+     * for each page
+     * 
+     * @see org.geowebcache.diskquota.QuotaStore#getPagesToExpire(Set, ExpirationPolicy, int)
+     */
+    @Override
+    public PageCursor getPagesToExpire(Set<String> layerNames, ExpirationPolicy policy,
+            int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunkSize shall be a positive integer");
+        return new JDBCPageCursor(this, layerNames, policy, chunkSize);
+    }
+
     private TilePage getSinglePage(Set<String> layerNames, boolean leastFrequentlyUsed) {
         Map<String, Object> params = new HashMap<String, Object>();
         List<String> layerParamNames = new ArrayList<String>();
@@ -787,6 +823,26 @@ public class JDBCQuotaStore implements QuotaStore {
         });
     }
 
+    public void setTruncated(final Collection<TilePage> pages) throws InterruptedException {
+        tt.execute(new TransactionCallbackWithoutResult() {
+
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                if (log.isDebugEnabled()) {
+                    log.info("Truncating " + pages.size() + " pages");
+                }
+
+                for (TilePage page : pages) {
+                    PageStats stats = getPageStats(page.getKey());
+                    if (stats != null) {
+                        stats.setFillFactor(0);
+                        setPageFillFactor(page, stats);
+                    }
+                }
+            }
+        });
+    }
+
     public void close() throws Exception {
         log.info("Closing up the JDBC quota store ");
 
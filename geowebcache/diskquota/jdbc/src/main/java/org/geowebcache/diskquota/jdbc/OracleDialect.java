@@ -67,8 +67,22 @@ public class OracleDialect extends SQLDialect {
                 "CREATE INDEX TILEPAGE_FILL_FACTOR ON TILEPAGE(FILL_FACTOR)",
                 "CREATE INDEX TILEPAGE_FREQUENCY ON TILEPAGE(FREQUENCY_OF_USE DESC)",
                 "CREATE INDEX TILEPAGE_LAST_ACCESS ON TILEPAGE(LAST_ACCESS_TIME_MINUTES DESC)"));
+        // the frequency and last access indexes above serve the expiration order queries already
+        INDEX_CREATION_MAP.clear();
     }
     
+    @Override
+    public String getPagesToExpire(String schema, List<String> layerParamNames,
+            boolean leastFrequentlyUsed, String afterValueParam, String afterKeyParam,
+            String limitParam) {
+        StringBuilder sb = new StringBuilder("SELECT * FROM (");
+        appendPagesToExpire(sb, schema, layerParamNames, leastFrequentlyUsed, afterValueParam,
+                afterKeyParam);
+        sb.append(") WHERE ROWNUM <= :").append(limitParam);
+
+        return sb.toString();
+    }
+
     @Override
     protected void addEmtpyTableReference(StringBuilder sb) {
         sb.append("FROM DUAL");
@@ -23,4 +23,11 @@ package org.geowebcache.diskquota.jdbc;
  */
 public class PostgreSQLDialect extends SQLDialect {
 
+    public PostgreSQLDialect() {
+        // partial indexes, the truncated pages are never expiration candidates
+        INDEX_CREATION_MAP.put("TILEPAGE_LFU", "CREATE INDEX TILEPAGE_LFU ON "
+                + "${schema}TILEPAGE(FREQUENCY_OF_USE, KEY) WHERE FILL_FACTOR > 0");
+        INDEX_CREATION_MAP.put("TILEPAGE_LRU", "CREATE INDEX TILEPAGE_LRU ON "
+                + "${schema}TILEPAGE(LAST_ACCESS_TIME_MINUTES, KEY) WHERE FILL_FACTOR > 0");
+    }
 }
@@ -95,6 +95,19 @@ public class SQLDialect {
         }
     };
 
+    /**
+     * Indexes backing the expiration order queries, by name. Unlike the table creation commands
+     * these are also added to existing databases, when missing.
+     */
+    protected final Map<String, String> INDEX_CREATION_MAP = new LinkedHashMap<String, String>() {
+        {
+            put("TILEPAGE_LFU",
+                    "CREATE INDEX TILEPAGE_LFU ON ${schema}TILEPAGE(FREQUENCY_OF_USE, KEY)");
+            put("TILEPAGE_LRU",
+                    "CREATE INDEX TILEPAGE_LRU ON ${schema}TILEPAGE(LAST_ACCESS_TIME_MINUTES, KEY)");
+        }
+    };
+
     /**
      * Checks if the database schema is present, if missing it generates it
      * 
@@ -115,6 +128,52 @@ public class SQLDialect {
                 }
             }
         }
+        for (Map.Entry<String, String> index : INDEX_CREATION_MAP.entrySet()) {
+            if (!indexExists(template, schema, "TILEPAGE", index.getKey())) {
+                String command = index.getValue().replace("${schema}", prefix);
+                template.getJdbcOperations().execute(command);
+            }
+        }
+    }
+
+    /**
+     * Checks if the specified index exists on the given table
+     * 
+     * @param template
+     * @param tableName
+     * @param indexName
+     * @return
+     */
+    private boolean indexExists(SimpleJdbcTemplate template, final String schema,
+            final String tableName, final String indexName) {
+        try {
+            DataSource ds = ((JdbcAccessor) template.getJdbcOperations()).getDataSource();
+            return (Boolean) JdbcUtils.extractDatabaseMetaData(ds, new DatabaseMetaDataCallback() {
+
+                public Object processMetaData(DatabaseMetaData dbmd) throws SQLException,
+                        MetaDataAccessException {
+                    return hasIndex(dbmd, tableName.toLowerCase())
+                            || hasIndex(dbmd, tableName);
+                }
+
+                private boolean hasIndex(DatabaseMetaData dbmd, String table)
+                        throws SQLException {
+                    ResultSet rs = dbmd.getIndexInfo(null, schema, table, false, true);
+                    try {
+                        while (rs.next()) {
+                            if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    } finally {
+                        rs.close();
+                    }
+                }
+            });
+        } catch (MetaDataAccessException e) {
+            return false;
+        }
     }
 
     /**
@@ -303,6 +362,18 @@ public class SQLDialect {
         return sb.toString();
     }
 
+    public String getTilePagesWithStats(String schema) {
+        StringBuilder sb = new StringBuilder(
+                "SELECT TILESET_ID, PAGE_X, PAGE_Y, PAGE_Z, CREATION_TIME_MINUTES, "
+                        + "FREQUENCY_OF_USE, LAST_ACCESS_TIME_MINUTES, FILL_FACTOR, NUM_HITS FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILEPAGE");
+
+        return sb.toString();
+    }
+
     public String contionalTilePageInsertStatement(String schema, String keyParam,
             String tileSetIdParam, String zParam, String xParam, String yParam,
             String creationParam, String frequencyParam, String lastAccessParam,
@@ -409,6 +480,72 @@ public class SQLDialect {
 
     }
 
+    /**
+     * Returns the next chunk of pages with tiles of the given layers in expiration order, that is,
+     * by ascending frequency of use or last access time, and then by key. The pages are returned
+     * along with their order value in the sixth column and their key in the seventh, so that the
+     * following chunk can be selected with the {@code afterValueParam} and {@code afterKeyParam}
+     * parameters without an offset.
+     * 
+     * @param schema
+     * @param layerParamNames
+     * @param leastFrequentlyUsed
+     *            whether to sort by frequency of use, or by last access time
+     * @param afterValueParam
+     *            the order value of the last page of the previous chunk, or {@code null} for the
+     *            first chunk
+     * @param afterKeyParam
+     *            the key of the last page of the previous chunk
+     * @param limitParam
+     *            the maximum number of pages to return
+     * @return
+     */
+    public String getPagesToExpire(String schema, List<String> layerParamNames,
+            boolean leastFrequentlyUsed, String afterValueParam, String afterKeyParam,
+            String limitParam) {
+        StringBuilder sb = new StringBuilder();
+        appendPagesToExpire(sb, schema, layerParamNames, leastFrequentlyUsed, afterValueParam,
+                afterKeyParam);
+        sb.append(" LIMIT :").append(limitParam);
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends the ordered, but not limited, query of {@link #getPagesToExpire}
+     */
+    protected void appendPagesToExpire(StringBuilder sb, String schema,
+            List<String> layerParamNames, boolean leastFrequentlyUsed, String afterValueParam,
+            String afterKeyParam) {
+        final String orderColumn = leastFrequentlyUsed ? "FREQUENCY_OF_USE"
+                : "LAST_ACCESS_TIME_MINUTES";
+        sb.append("SELECT TILESET_ID, PAGE_X, PAGE_Y, PAGE_Z, CREATION_TIME_MINUTES, ");
+        sb.append(orderColumn).append(", KEY FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILEPAGE WHERE FILL_FACTOR > 0 ");
+        sb.append("AND TILESET_ID IN (");
+        sb.append("SELECT KEY FROM ");
+        if (schema != null) {
+            sb.append(schema).append(".");
+        }
+        sb.append("TILESET WHERE LAYER_NAME IN (");
+        for (int i = 0; i < layerParamNames.size(); i++) {
+            sb.append(":" + layerParamNames.get(i));
+            if (i < layerParamNames.size() - 1) {
+                sb.append(", ");
+            }
+        }
+        sb.append(")) ");
+        if (afterValueParam != null) {
+            sb.append("AND (").append(orderColumn).append(" > :").append(afterValueParam);
+            sb.append(" OR (").append(orderColumn).append(" = :").append(afterValueParam);
+            sb.append(" AND KEY > :").append(afterKeyParam).append(")) ");
+        }
+        sb.append("ORDER BY ").append(orderColumn).append(" ASC, KEY ASC");
+    }
+
     public String getLeastFrequentlyUsedPage(String schema, List<String> layerParamNames) {
         StringBuilder sb = new StringBuilder(
                 "SELECT TILESET_ID, PAGE_X, PAGE_Y, PAGE_Z, CREATION_TIME_MINUTES FROM ");
@@ -30,6 +30,8 @@ import org.geowebcache.config.Configuration;
 import org.geowebcache.config.XMLConfiguration;
 import org.geowebcache.config.XMLConfigurationBackwardsCompatibilityTest;
 import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.diskquota.ExpirationPolicy;
+import org.geowebcache.diskquota.PageCursor;
 import org.geowebcache.diskquota.QuotaStore;
 import org.geowebcache.diskquota.storage.PageStats;
 import org.geowebcache.diskquota.storage.PageStatsPayload;
@@ -38,6 +40,7 @@ import org.geowebcache.diskquota.storage.StorageUnit;
 import org.geowebcache.diskquota.storage.SystemUtils;
 import org.geowebcache.diskquota.storage.TilePage;
 import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TilePageVisitor;
 import org.geowebcache.diskquota.storage.TileSet;
 import org.geowebcache.diskquota.storage.TileSetVisitor;
 import org.geowebcache.grid.GridSetBroker;
@@ -384,6 +387,33 @@ public abstract class JDBCQuotaStoreTest extends OnlineTestCase {
         assertEquals(tileSets1, tileSets2);
     }
 
+    public void testPageVisitor() throws Exception {
+        TilePage page = new TilePage(testTileSet.getId(), 0, 0, 2);
+        PageStatsPayload payload = new PageStatsPayload(page, testTileSet);
+        payload.setNumHits(100);
+        payload.setNumTiles(5);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB),
+                Collections.singleton(payload));
+        final PageStats expected = store.addHitsAndSetAccesTime(Collections.singleton(payload))
+                .get().get(0);
+
+        final Map<TilePage, PageStats> visited = new HashMap<TilePage, PageStats>();
+        store.accept(new TilePageVisitor() {
+
+            public void visit(TilePage page, PageStats stats) {
+                visited.put(page, stats);
+            }
+        });
+        assertEquals(1, visited.size());
+        PageStats stats = visited.get(page);
+        assertNotNull(stats);
+        assertEquals(expected.getFillFactor(), stats.getFillFactor(), 1e-6f);
+        assertEquals(expected.getFrequencyOfUsePerMinute(), stats.getFrequencyOfUsePerMinute(),
+                1e-6f);
+        assertEquals(expected.getLastAccessTimeMinutes(), stats.getLastAccessTimeMinutes());
+        assertEquals(expected.getNumHits(), stats.getNumHits());
+    }
+
     public void testGetTileSetById() throws Exception {
         TileSet tileSet = store.getTileSetById(testTileSet.getId());
         assertNotNull(tileSet);
@@ -553,6 +583,71 @@ public abstract class JDBCQuotaStoreTest extends OnlineTestCase {
         assertEquals(0f, pageStats.getFillFactor());
     }
 
+    public void testSetTruncatedBatch() throws Exception {
+        final Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        TilePage page1 = new TilePage(testTileSet.getId(), 0, 1, 2);
+        TilePage page2 = new TilePage(testTileSet.getId(), 1, 1, 2);
+
+        PageStatsPayload payload1 = new PageStatsPayload(page1, testTileSet);
+        PageStatsPayload payload2 = new PageStatsPayload(page2, testTileSet);
+        payload1.setNumTiles(1);
+        payload2.setNumTiles(1);
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB),
+                Arrays.asList(payload1, payload2));
+        payload1.setNumHits(100);
+        payload2.setNumHits(10);
+        store.addHitsAndSetAccesTime(Arrays.asList(payload1, payload2)).get();
+        assertEquals(page2, store.getLeastFrequentlyUsedPage(layerNames));
+
+        store.setTruncated(Arrays.asList(page1, page2));
+        assertNull(store.getLeastFrequentlyUsedPage(layerNames));
+        assertNull(store.getLeastRecentlyUsedPage(layerNames));
+    }
+
+    public void testGetPagesToExpire() throws Exception {
+        final Set<String> layerNames = Collections.singleton(testTileSet.getLayerName());
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>();
+        for (int i = 0; i < 5; i++) {
+            PageStatsPayload payload = new PageStatsPayload(new TilePage(testTileSet.getId(), i,
+                    1, 2), testTileSet);
+            payload.setNumTiles(1);
+            payloads.add(payload);
+        }
+        store.addToQuotaAndTileCounts(testTileSet, new Quota(1, StorageUnit.MiB), payloads);
+        // reverse order of use, the last page is the least frequently used
+        for (int i = 0; i < 5; i++) {
+            payloads.get(i).setNumHits(1000 - 100 * i);
+        }
+        store.addHitsAndSetAccesTime(payloads).get();
+        // does not show up, it has no tiles
+        store.setTruncated(payloads.get(2).getPage());
+
+        PageCursor cursor = store.getPagesToExpire(layerNames, ExpirationPolicy.LFU, 2);
+        assertEquals(Arrays.asList(payloads.get(4).getPage(), payloads.get(3).getPage()),
+                cursor.next());
+        // the pages of the first chunk are still there, as if their truncation had failed, but
+        // the next chunk carries on after them
+        assertTrue(cursor.hasNext());
+        assertEquals(Arrays.asList(payloads.get(1).getPage(), payloads.get(0).getPage()),
+                cursor.next());
+        assertTrue(cursor.next().isEmpty());
+        assertFalse(cursor.hasNext());
+
+        cursor = store.getPagesToExpire(layerNames, ExpirationPolicy.LFU, 10);
+        assertEquals(Arrays.asList(payloads.get(4).getPage(), payloads.get(3).getPage(),
+                payloads.get(1).getPage(), payloads.get(0).getPage()), cursor.next());
+        assertFalse(cursor.hasNext());
+
+        cursor = store.getPagesToExpire(layerNames, ExpirationPolicy.LRU, 3);
+        assertEquals(3, cursor.next().size());
+        assertEquals(1, cursor.next().size());
+        assertFalse(cursor.hasNext());
+
+        cursor = store.getPagesToExpire(Collections.singleton("noSuchLayer"),
+                ExpirationPolicy.LFU, 10);
+        assertTrue(cursor.next().isEmpty());
+    }
+
     public void testGetLeastFrequentlyUsedPage() throws Exception {
         final String layerName = testTileSet.getLayerName();
         Set<String> layerNames = Collections.singleton(layerName);
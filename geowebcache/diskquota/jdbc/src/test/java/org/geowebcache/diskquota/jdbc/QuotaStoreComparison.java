@@ -0,0 +1,184 @@
+package org.geowebcache.diskquota.jdbc;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.io.FileUtils;
+import org.easymock.classextension.EasyMock;
+import org.geowebcache.config.Configuration;
+import org.geowebcache.config.XMLConfiguration;
+import org.geowebcache.config.XMLConfigurationBackwardsCompatibilityTest;
+import org.geowebcache.diskquota.DiskQuotaMonitor;
+import org.geowebcache.diskquota.ExpirationPolicy;
+import org.geowebcache.diskquota.PageCursor;
+import org.geowebcache.diskquota.QuotaStore;
+import org.geowebcache.diskquota.bdb.BDBQuotaStore;
+import org.geowebcache.diskquota.logstore.LogStructuredQuotaStore;
+import org.geowebcache.diskquota.storage.PageStatsPayload;
+import org.geowebcache.diskquota.storage.Quota;
+import org.geowebcache.diskquota.storage.TilePage;
+import org.geowebcache.diskquota.storage.TilePageCalculator;
+import org.geowebcache.diskquota.storage.TileSet;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.layer.TileLayerDispatcher;
+import org.geowebcache.storage.DefaultStorageFinder;
+
+/**
+ * Runs the same synthetic workload against the log structured, Berkeley DB and H2 quota stores
+ * and prints how long each phase took:
+ * <ul>
+ * <li>fill: adds tiles to a number of pages, a thousand pages per call</li>
+ * <li>hits: records random hits on all the pages, a thousand pages per call</li>
+ * <li>single: expires some pages one at a time, looking up the least frequently used page for
+ * each</li>
+ * <li>cursor: expires the rest of the pages in chunks taken from a
+ * {@link QuotaStore#getPagesToExpire page cursor}</li>
+ * </ul>
+ * <p>
+ * Not a test, run it by hand with the number of pages and the chunk size as optional arguments,
+ * for example {@code QuotaStoreComparison 100000 100}.
+ * </p>
+ */
+public class QuotaStoreComparison {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int SINGLE_PAGE_EXPIRATIONS = 500;
+
+    public static void main(String[] args) throws Exception {
+        final int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        final File targetDir = new File("target", "storeComparison");
+        InputStream is = XMLConfiguration.class
+                .getResourceAsStream(XMLConfigurationBackwardsCompatibilityTest.LATEST_FILENAME);
+        LinkedList<Configuration> configList = new LinkedList<Configuration>();
+        configList.add(new XMLConfiguration(is));
+        TileLayerDispatcher layerDispatcher = new TileLayerDispatcher(new GridSetBroker(true,
+                true), configList);
+        TilePageCalculator tilePageCalculator = new TilePageCalculator(layerDispatcher);
+
+        System.out.println("Expiring " + numPages + " pages, " + chunkSize + " at a time");
+        System.out.println("store\tfill ms\thits ms\tsingle ms\tcursor ms");
+        for (String name : new String[] { "log", "bdb", "h2" }) {
+            File storeDir = new File(targetDir, name);
+            FileUtils.deleteDirectory(storeDir);
+            storeDir.mkdirs();
+            DefaultStorageFinder cacheDirFinder = EasyMock
+                    .createMock(DefaultStorageFinder.class);
+            EasyMock.expect(cacheDirFinder.getDefaultPath())
+                    .andReturn(storeDir.getAbsolutePath()).anyTimes();
+            EasyMock.expect(
+                    cacheDirFinder.findEnvVar(EasyMock
+                            .eq(DiskQuotaMonitor.GWC_DISKQUOTA_DISABLED))).andReturn(null)
+                    .anyTimes();
+            EasyMock.replay(cacheDirFinder);
+
+            QuotaStore store = createStore(name, storeDir, cacheDirFinder, tilePageCalculator);
+            try {
+                TileSet tileSet = tilePageCalculator.getTileSetsFor("topp:states2").iterator()
+                        .next();
+                long[] times = run(store, tileSet, numPages, chunkSize);
+                System.out.println(name + "\t" + times[0] + "\t" + times[1] + "\t" + times[2]
+                        + "\t" + times[3]);
+            } finally {
+                store.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static QuotaStore createStore(String name, File storeDir,
+            DefaultStorageFinder cacheDirFinder, TilePageCalculator tilePageCalculator)
+            throws Exception {
+        if ("log".equals(name)) {
+            LogStructuredQuotaStore store = new LogStructuredQuotaStore(cacheDirFinder,
+                    tilePageCalculator);
+            store.startUp();
+            return store;
+        } else if ("bdb".equals(name)) {
+            BDBQuotaStore store = new BDBQuotaStore(cacheDirFinder, tilePageCalculator);
+            store.startUp();
+            return store;
+        }
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:" + new File(storeDir, "quota-h2").getAbsolutePath());
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        JDBCQuotaStore store = new JDBCQuotaStore(cacheDirFinder, tilePageCalculator);
+        store.setDataSource(dataSource);
+        store.setDialect(new H2Dialect());
+        store.initialize();
+        return store;
+    }
+
+    /**
+     * @return the milliseconds taken by each phase
+     */
+    private static long[] run(QuotaStore store, TileSet tileSet, int numPages, int chunkSize)
+            throws Exception {
+        final Set<String> layerNames = Collections.singleton(tileSet.getLayerName());
+        final Random random = new Random(42);
+        final long[] times = new long[4];
+
+        List<PageStatsPayload> payloads = new ArrayList<PageStatsPayload>(numPages);
+        for (int i = 0; i < numPages; i++) {
+            PageStatsPayload payload = new PageStatsPayload(new TilePage(tileSet.getId(),
+                    i % 1000, i / 1000, 2), tileSet);
+            payload.setNumTiles(1);
+            payloads.add(payload);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < numPages; i += BATCH_SIZE) {
+            List<PageStatsPayload> batch = payloads.subList(i, Math.min(numPages, i
+                    + BATCH_SIZE));
+            store.addToQuotaAndTileCounts(tileSet, new Quota(batch.size()), batch);
+        }
+        times[0] = System.currentTimeMillis() - start;
+
+        for (PageStatsPayload payload : payloads) {
+            payload.setNumHits(1 + random.nextInt(1000));
+            payload.setLastAccessTime(System.currentTimeMillis());
+        }
+        start = System.currentTimeMillis();
+        for (int i = 0; i < numPages; i += BATCH_SIZE) {
+            store.addHitsAndSetAccesTime(
+                    payloads.subList(i, Math.min(numPages, i + BATCH_SIZE))).get();
+        }
+        times[1] = System.currentTimeMillis() - start;
+
+        int expired = 0;
+        start = System.currentTimeMillis();
+        for (int i = 0; i < Math.min(SINGLE_PAGE_EXPIRATIONS, numPages); i++) {
+            TilePage page = store.getLeastFrequentlyUsedPage(layerNames);
+            store.setTruncated(page);
+            expired++;
+        }
+        times[2] = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        PageCursor cursor = store.getPagesToExpire(layerNames, ExpirationPolicy.LFU, chunkSize);
+        while (cursor.hasNext()) {
+            List<TilePage> chunk = cursor.next();
+            if (!chunk.isEmpty()) {
+                store.setTruncated(chunk);
+                expired += chunk.size();
+            }
+        }
+        times[3] = System.currentTimeMillis() - start;
+
+        if (expired != numPages) {
+            throw new IllegalStateException("Expired " + expired + " pages out of " + numPages);
+        }
+        return times;
+    }
+}
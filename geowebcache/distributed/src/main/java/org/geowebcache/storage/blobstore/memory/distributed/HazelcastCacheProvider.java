@@ -16,6 +16,7 @@ package org.geowebcache.storage.blobstore.memory.distributed;
 
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -54,6 +55,9 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
     /** Fixed name for the Hazelcast map */
     public static final String HAZELCAST_MAP_DEFINITION = "CacheProviderMap";
 
+    /** Attribute of the cached {@link TileObject}s holding the layer name, indexed for fast layer removal */
+    public static final String LAYER_NAME_ATTRIBUTE = "layer_name";
+
     /** Converter from Mb to Bytes */
     public static final long MB_TO_BYTES = 1048576;
 
@@ -144,11 +148,17 @@ public class HazelcastCacheProvider implements CacheProvider, DisposableBean {
             }
             // Creation of the Predicate
             EntryObject e = new PredicateBuilder().getEntryObject();
-            Predicate predicate = e.get("layer_name").equal(layername);
+            Predicate predicate = e.get(LAYER_NAME_ATTRIBUTE).equal(layername);
+            // The query is answered by the layer name index, while executing the processor
+            // with the predicate would evaluate it against every entry in the cluster
+            Set<String> keys = map.keySet(predicate);
+            if (keys.isEmpty()) {
+                return;
+            }
             // Creation of the processor
             CacheEntryProcessor entryProcessor = new CacheEntryProcessor();
             // Execution of the Processor
-            map.executeOnEntries(entryProcessor, predicate);
+            map.executeOnKeys(keys, entryProcessor);
         } else {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Cache not configured");
@@ -23,12 +23,15 @@ import org.apache.commons.io.filefilter.NameFileFilter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Logger;
+import org.geowebcache.storage.TileObject;
 import org.springframework.beans.factory.InitializingBean;
 
 import com.hazelcast.config.Config;
 import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MapIndexConfig;
 import com.hazelcast.config.MaxSizeConfig;
 import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.config.SerializerConfig;
 import com.hazelcast.config.XmlConfigBuilder;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
@@ -87,6 +90,7 @@ public class HazelcastLoader implements InitializingBean {
                             if (LOGGER.isDebugEnabled()) {
                                 LOGGER.debug("Hazelcast instance validated");
                             }
+                            prepareConfig(config);
                             instance = Hazelcast.newHazelcastInstance(config);
                         } else {
                             if (LOGGER.isInfoEnabled()) {
@@ -131,6 +135,39 @@ public class HazelcastLoader implements InitializingBean {
         return isConfigured() ? instance : null;
     }
 
+    /**
+     * Adds to the configuration read from {@code hazelcast.xml} what the {@link HazelcastCacheProvider}
+     * needs to work efficiently, unless already present: the {@link TileObjectSerializer} and an
+     * index on the layer name of the cached tiles, used when removing a whole layer.
+     * 
+     * @param config
+     */
+    static void prepareConfig(Config config) {
+        boolean serializerDefined = false;
+        for (SerializerConfig serializer : config.getSerializationConfig().getSerializerConfigs()) {
+            if (TileObject.class.equals(serializer.getTypeClass())
+                    || TileObject.class.getName().equals(serializer.getTypeClassName())) {
+                serializerDefined = true;
+            }
+        }
+        if (!serializerDefined) {
+            config.getSerializationConfig().addSerializerConfig(
+                    TileObjectSerializer.getSerializerConfig());
+        }
+
+        MapConfig mapConfig = config.getMapConfig(HazelcastCacheProvider.HAZELCAST_MAP_DEFINITION);
+        boolean indexDefined = false;
+        for (MapIndexConfig index : mapConfig.getMapIndexConfigs()) {
+            if (HazelcastCacheProvider.LAYER_NAME_ATTRIBUTE.equals(index.getAttribute())) {
+                indexDefined = true;
+            }
+        }
+        if (!indexDefined) {
+            mapConfig.addMapIndexConfig(new MapIndexConfig(
+                    HazelcastCacheProvider.LAYER_NAME_ATTRIBUTE, false));
+        }
+    }
+
     /**
      * Validation for an input {@link Config} object provided. This method ensures that the input configuration contains a map with name
      * "CacheProviderMap", contains a size configuration in Mb and related to the used Heap size and has an eviction policy equal to LRU or LFU. If a
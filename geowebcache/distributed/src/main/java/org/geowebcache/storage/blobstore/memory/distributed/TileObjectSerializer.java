@@ -0,0 +1,168 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage.blobstore.memory.distributed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.storage.TileObject;
+
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+/**
+ * Hazelcast {@link StreamSerializer} for the {@link TileObject}s stored by the
+ * {@link HazelcastCacheProvider}. The tile identifiers are written as plain strings and longs and
+ * the tile contents as raw bytes, avoiding the Java serialization overhead of class descriptors
+ * and object graphs. Unlike Java serialization it also keeps the format, size and creation time of
+ * the tile.
+ * <p>
+ * It is registered automatically by the {@link HazelcastLoader} when the configuration is read
+ * from {@code hazelcast.xml}, when the Hazelcast instance is injected it can be registered using
+ * the {@code serialization/serializers} section of the instance configuration.
+ */
+public class TileObjectSerializer implements StreamSerializer<TileObject> {
+
+    /** Hazelcast type identifier of this serializer, must be unique in the cluster */
+    public static final int TYPE_ID = 0x6777;
+
+    /** Length written in place of the tile contents when the tile has no blob */
+    private static final int NO_BLOB = -1;
+
+    /**
+     * @return a {@link SerializerConfig} registering this serializer for {@link TileObject}s
+     */
+    public static SerializerConfig getSerializerConfig() {
+        return new SerializerConfig().setTypeClass(TileObject.class).setImplementation(
+                new TileObjectSerializer());
+    }
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(final ObjectDataOutput out, TileObject obj) throws IOException {
+        out.writeUTF(obj.getLayerName());
+        writeNullableString(out, obj.getGridSetId());
+        writeNullableString(out, obj.getBlobFormat());
+        writeNullableString(out, obj.getParametersId());
+        out.writeLongArray(obj.getXYZ());
+
+        Map<String, String> parameters = obj.getParameters();
+        if (parameters == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(parameters.size());
+            for (Map.Entry<String, String> e : parameters.entrySet()) {
+                out.writeUTF(e.getKey());
+                writeNullableString(out, e.getValue());
+            }
+        }
+        out.writeLong(obj.getCreated());
+
+        Resource blob = obj.getBlob();
+        if (blob == null) {
+            out.writeInt(NO_BLOB);
+        } else {
+            out.writeInt((int) blob.getSize());
+            // ByteArrayResource hands its backing array to the channel, no copy is made
+            blob.transferTo(new WritableByteChannel() {
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // nothing to do, the output is owned by Hazelcast
+                }
+
+                @Override
+                public int write(ByteBuffer src) throws IOException {
+                    final int length = src.remaining();
+                    if (src.hasArray()) {
+                        out.write(src.array(), src.arrayOffset() + src.position(), length);
+                        src.position(src.limit());
+                    } else {
+                        byte[] buff = new byte[length];
+                        src.get(buff);
+                        out.write(buff);
+                    }
+                    return length;
+                }
+            });
+        }
+    }
+
+    @Override
+    public TileObject read(ObjectDataInput in) throws IOException {
+        final String layerName = in.readUTF();
+        final String gridSetId = readNullableString(in);
+        final String format = readNullableString(in);
+        final String parametersId = readNullableString(in);
+        final long[] xyz = in.readLongArray();
+
+        Map<String, String> parameters = null;
+        final int parametersSize = in.readInt();
+        if (parametersSize >= 0) {
+            parameters = new HashMap<String, String>();
+            for (int i = 0; i < parametersSize; i++) {
+                parameters.put(in.readUTF(), readNullableString(in));
+            }
+        }
+        final long created = in.readLong();
+
+        Resource blob = null;
+        final int blobSize = in.readInt();
+        if (blobSize != NO_BLOB) {
+            byte[] contents = new byte[blobSize];
+            in.readFully(contents);
+            blob = new ByteArrayResource(contents);
+        }
+
+        TileObject obj = TileObject.createCompleteTileObject(layerName, xyz, gridSetId, format,
+                parameters, blob);
+        obj.setParametersId(parametersId);
+        obj.setCreated(created);
+        return obj;
+    }
+
+    @Override
+    public void destroy() {
+        // nothing to release
+    }
+
+    private static void writeNullableString(ObjectDataOutput out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(ObjectDataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
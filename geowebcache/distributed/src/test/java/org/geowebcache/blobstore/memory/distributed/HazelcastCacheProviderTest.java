@@ -201,6 +201,39 @@ public class HazelcastCacheProviderTest {
         assertNull(to6);
     }
 
+    @Test
+    public void testLayerRemove() throws Exception {
+        // Clearing cache
+        cache1.clear();
+
+        // Put some tiles for two layers
+        for (long x = 0; x < 10; x++) {
+            long[] xyz = { x, 1L, 3L };
+            cache1.putTileObj(TileObject.createCompleteTileObject("removed", xyz, "EPSG:4326",
+                    "image/png", null, new ByteArrayResource(new byte[] { 1, 2, 3 })));
+            cache1.putTileObj(TileObject.createCompleteTileObject("kept", xyz, "EPSG:4326",
+                    "image/png", null, new ByteArrayResource(new byte[] { 4, 5, 6 })));
+        }
+
+        // Remove a layer from the second member
+        cache2.removeLayer("removed");
+
+        for (long x = 0; x < 10; x++) {
+            long[] xyz = { x, 1L, 3L };
+            assertNull(cache1.getTileObj(TileObject.createQueryTileObject("removed", xyz,
+                    "EPSG:4326", "image/png", null)));
+            assertNull(cache2.getTileObj(TileObject.createQueryTileObject("removed", xyz,
+                    "EPSG:4326", "image/png", null)));
+            assertNotNull(cache1.getTileObj(TileObject.createQueryTileObject("kept", xyz,
+                    "EPSG:4326", "image/png", null)));
+            assertNotNull(cache2.getTileObj(TileObject.createQueryTileObject("kept", xyz,
+                    "EPSG:4326", "image/png", null)));
+        }
+
+        // Removing a layer without cached tiles is fine
+        cache1.removeLayer("removed");
+    }
+
     @AfterClass
     public static void afterClass() throws Exception {
         // Blobstore destroy
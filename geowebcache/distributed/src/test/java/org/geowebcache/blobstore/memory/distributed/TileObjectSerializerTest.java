@@ -0,0 +1,107 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package org.geowebcache.blobstore.memory.distributed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.storage.TileObject;
+import org.geowebcache.storage.blobstore.memory.distributed.TileObjectSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.nio.serialization.Data;
+import com.hazelcast.nio.serialization.SerializationService;
+import com.hazelcast.nio.serialization.SerializationServiceBuilder;
+
+/**
+ * This test class is used for testing {@link TileObjectSerializer} functionalities.
+ */
+public class TileObjectSerializerTest {
+
+    private SerializationService service;
+
+    @Before
+    public void setUp() {
+        SerializationConfig config = new SerializationConfig();
+        config.addSerializerConfig(TileObjectSerializer.getSerializerConfig());
+        service = new SerializationServiceBuilder().setConfig(config).build();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("a", "x");
+        parameters.put("b", "ø");
+        byte[] contents = "1 2 3 4 5 6 test".getBytes();
+        TileObject to = TileObject.createCompleteTileObject("test:123123 112",
+                new long[] { 1L, 2L, 3L }, "EPSG:4326", "image/jpeg", parameters,
+                new ByteArrayResource(contents));
+        to.setParametersId("abcdef");
+
+        TileObject result = service.toObject(service.toData(to));
+
+        assertEquals(to.getLayerName(), result.getLayerName());
+        assertEquals(to.getGridSetId(), result.getGridSetId());
+        assertEquals(to.getBlobFormat(), result.getBlobFormat());
+        assertEquals(to.getParametersId(), result.getParametersId());
+        assertArrayEquals(to.getXYZ(), result.getXYZ());
+        assertEquals(parameters, result.getParameters());
+        assertEquals(to.getCreated(), result.getCreated());
+        assertEquals(contents.length, result.getBlobSize());
+        assertArrayEquals(contents, ((ByteArrayResource) result.getBlob()).getContents());
+    }
+
+    @Test
+    public void testRoundTripNoBlobNoParameters() throws Exception {
+        TileObject to = TileObject.createQueryTileObject("test", new long[] { 1L, 2L, 3L },
+                "EPSG:4326", "image/png", null);
+
+        TileObject result = service.toObject(service.toData(to));
+
+        assertEquals(to.getLayerName(), result.getLayerName());
+        assertArrayEquals(to.getXYZ(), result.getXYZ());
+        assertNull(result.getParameters());
+        assertNull(result.getParametersId());
+        assertNull(result.getBlob());
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        TileObject to = TileObject.createCompleteTileObject("test", new long[] { 1L, 2L, 3L },
+                "EPSG:4326", "image/png", null, new ByteArrayResource(new byte[100]));
+
+        Data data = service.toData(to);
+
+        ByteArrayOutputStream javaSerialized = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(javaSerialized);
+        try {
+            oos.writeObject(to);
+        } finally {
+            oos.close();
+        }
+        assertTrue(data.bufferSize() < javaSerialized.size());
+    }
+}
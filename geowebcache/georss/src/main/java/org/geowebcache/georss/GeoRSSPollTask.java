@@ -21,6 +21,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -41,8 +43,9 @@ import org.geowebcache.seed.GWCTask.STATE;
 import org.geowebcache.seed.TileBreeder;
 import org.geowebcache.storage.DiscontinuousTileRange;
 import org.geowebcache.storage.GeometryRasterMaskBuilder;
-import org.geowebcache.storage.RasterMask;
+import org.geowebcache.storage.SparseTileRangeMask;
 import org.geowebcache.storage.StorageBroker;
+import org.geowebcache.storage.TileRangeMask;
 
 /**
  * A task to run a GeoRSS feed poll and launch the seeding process
@@ -80,6 +83,12 @@ class GeoRSSPollTask implements Runnable {
 
     private static final String LAST_UPDATE_URL_TEMPLATE = "${lastUpdate}";
 
+    /**
+     * How many streamed batches may be seeding at the same time, so the next batch of entries is
+     * read and truncated while the previous one is still being seeded
+     */
+    private static final int MAX_BATCHES_IN_FLIGHT = 2;
+
     private final PollDef poll;
 
     private final TileBreeder seeder;
@@ -155,6 +164,11 @@ class GeoRSSPollTask implements Runnable {
         logger.debug("Creating tile range mask based on GeoRSS feed's geometries from "
                 + feedUrl.toExternalForm() + " for " + layerName);
 
+        if (pollDef.getStreamingBatchSize() > 0) {
+            runStreamingPoll(layer, pollDef, matrixBuilder, geoRSSReader, previousUpdatedEntry);
+            return;
+        }
+
         final GeometryRasterMaskBuilder tileRangeMask = matrixBuilder.buildTileRangeMask(
                 geoRSSReader, previousUpdatedEntry);
 
@@ -186,6 +200,72 @@ class GeoRSSPollTask implements Runnable {
                 + " successfully launched.");
     }
 
+    /**
+     * Truncates and seeds the tiles affected by every
+     * {@link GeoRSSFeedDefinition#getStreamingBatchSize() batch} of entries while the feed is
+     * still being read, with at most {@link #MAX_BATCHES_IN_FLIGHT} batches seeding at a time
+     */
+    private void runStreamingPoll(final TileLayer layer, final GeoRSSFeedDefinition pollDef,
+            final GeoRSSTileRangeBuilder matrixBuilder, final GeoRSSReader geoRSSReader,
+            final String previousUpdatedEntry) throws IOException {
+
+        final String layerName = layer.getName();
+        final String gridSetId = pollDef.getGridSetId();
+        final List<MimeType> mimeList = getMimeTypes(layer, pollDef);
+        final int[] batches = { 0 };
+        final LinkedList<List<GWCTask>> batchesInFlight = new LinkedList<List<GWCTask>>();
+
+        GeoRSSTileRangeBuilder.MaskHandler handler = new GeoRSSTileRangeBuilder.MaskHandler() {
+            public void maskReady(SparseTileRangeMask mask) throws InterruptedException {
+                if (batches[0]++ == 0) {
+                    // Ask any existing seed jobs started by this feed to terminate
+                    stopSeeding(true);
+                    logger.info("Launching reseed process " + pollDef + " for " + layerName);
+                } else {
+                    // bound the seeding threads by waiting for the oldest batches to finish
+                    while (batchesInFlight.size() >= MAX_BATCHES_IN_FLIGHT) {
+                        awaitSeeding(batchesInFlight.removeFirst());
+                    }
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Processing batch " + batches[0] + " of " + pollDef + " for "
+                            + layerName + ", " + mask.cardinality() + " tiles affected up to "
+                            + "level " + mask.getMaxMaskLevel());
+                }
+                List<GWCTask> tasks = truncateAndSeed(layer, pollDef, gridSetId, mask, mimeList);
+                if (!tasks.isEmpty()) {
+                    batchesInFlight.addLast(tasks);
+                }
+            }
+        };
+
+        final int entries;
+        try {
+            entries = matrixBuilder.buildTileRangeMasks(geoRSSReader, previousUpdatedEntry,
+                    pollDef.getStreamingBatchSize(), handler);
+        } catch (InterruptedException e) {
+            logger.info("Task abruptly interrupted.");
+            return;
+        }
+
+        if (entries == 0) {
+            logger.info("No new entries in feed, nothing to truncate.");
+            return;
+        }
+
+        // store last updated entry to persist even after a restart
+        seeder.getStorageBroker().putLayerMetadata(layerName, LAST_UPDATED,
+                matrixBuilder.getLastEntryUpdate());
+
+        if (batches[0] == 0) {
+            logger.info(pollDef + " for " + layerName
+                    + " did not affect any tile. No need to reseed.");
+        } else {
+            logger.info("Processed " + entries + " entries of " + pollDef + " for " + layerName
+                    + " in " + batches[0] + " batches.");
+        }
+    }
+
     private String templateFeedUrl(final String feedUrl, final String lastUpdatedEntry) {
         if (feedUrl == null) {
             throw new NullPointerException("feedUrl");
@@ -234,15 +314,27 @@ class GeoRSSPollTask implements Runnable {
     private void launchSeeding(final TileLayer layer, final GeoRSSFeedDefinition pollDef,
             final String gridSetId, final GeometryRasterMaskBuilder tileRangeMask) {
 
-        GridSubset gridSub = layer.getGridSubset(gridSetId);
+        // the sparse mask lets the seeding skip the areas with no tiles set
+        SparseTileRangeMask mask = tileRangeMask.toSparseMask();
+        if (mask == null) {
+            logger.info(pollDef + " for " + layer.getName()
+                    + " did not affect any tile. No need to reseed.");
+            return;
+        }
 
-        long[][] fullCoverage = gridSub.getCoverages();
-        long[][] coveredBounds = tileRangeMask.getCoveredBounds();
+        List<MimeType> mimeList = getMimeTypes(layer, pollDef);
 
-        BufferedImage[] byLevelMasks = tileRangeMask.getByLevelMasks();
+        // Ask any existing seed jobs started by this feed to terminate
+        stopSeeding(true);
 
-        RasterMask rasterMask = new RasterMask(byLevelMasks, fullCoverage, coveredBounds);
+        try {
+            truncateAndSeed(layer, pollDef, gridSetId, mask, mimeList);
+        } catch (InterruptedException e) {
+            logger.info("Task abruptly interrupted.");
+        }
+    }
 
+    private List<MimeType> getMimeTypes(final TileLayer layer, final GeoRSSFeedDefinition pollDef) {
         List<MimeType> mimeList = null;
 
         if (pollDef.getFormat() != null) {
@@ -259,40 +351,47 @@ class GeoRSSPollTask implements Runnable {
         if (mimeList == null) {
             mimeList = layer.getMimeTypes();
         }
+        return mimeList;
+    }
 
-        Iterator<MimeType> mimeIter = mimeList.iterator();
+    /**
+     * @return the seed tasks dispatched, empty if the poll def only truncates
+     */
+    private List<GWCTask> truncateAndSeed(final TileLayer layer,
+            final GeoRSSFeedDefinition pollDef, final String gridSetId,
+            final TileRangeMask tileRangeMask, final List<MimeType> mimeList)
+            throws InterruptedException {
 
-        // Ask any existing seed jobs started by this feed to terminate
-        stopSeeding(true);
+        GridSubset gridSub = layer.getGridSubset(gridSetId);
+
+        Iterator<MimeType> mimeIter = mimeList.iterator();
 
         // We do the truncate synchronously to get rid of stale data as quickly as we can
         while (mimeIter.hasNext()) {
             DiscontinuousTileRange dtr = new DiscontinuousTileRange(layer.getName(), gridSetId,
-                    gridSub.getZoomStart(), gridSub.getZoomStop(), rasterMask, mimeIter.next(),
-                    (Map<String, String>) null);
+                    gridSub.getZoomStart(), gridSub.getZoomStop(), tileRangeMask,
+                    mimeIter.next(), (Map<String, String>) null);
             try {
                 GWCTask[] tasks = seeder.createTasks(dtr, layer, GWCTask.TYPE.TRUNCATE, 1, false);
                 tasks[0].doAction();
             } catch (GeoWebCacheException e) {
                 logger.error("Problem truncating based on GeoRSS feed: " + e.getMessage());
-            } catch (InterruptedException e) {
-                logger.info("Task abruptly interrupted.");
-                return;
             }
         }
 
         // If truncate was all that was needed, we can quit now
         if (pollDef.getOperation() == GWCTask.TYPE.TRUNCATE) {
             logger.info("Truncation succeeded, won't seed as stated by poll def: " + pollDef);
-            return;
+            return Collections.emptyList();
         }
 
         // ... else we seed
+        List<GWCTask> dispatched = new ArrayList<GWCTask>();
         mimeIter = mimeList.iterator();
         while (mimeIter.hasNext()) {
             DiscontinuousTileRange dtr = new DiscontinuousTileRange(layer.getName(), gridSetId,
-                    gridSub.getZoomStart(), gridSub.getZoomStop(), rasterMask, mimeIter.next(),
-                    (Map<String, String>) null);
+                    gridSub.getZoomStart(), gridSub.getZoomStop(), tileRangeMask,
+                    mimeIter.next(), (Map<String, String>) null);
 
             final int seedingThreads = pollDef.getSeedingThreads();
             GWCTask[] tasks;
@@ -306,9 +405,21 @@ class GeoRSSPollTask implements Runnable {
             // Save the handles so we can stop them
             for (GWCTask task : tasks) {
                 seedTasks.add(task);
+                dispatched.add(task);
             }
 
         }
+        return dispatched;
+    }
+
+    /**
+     * Waits for the given seed jobs started by this feed to finish
+     */
+    private void awaitSeeding(final List<GWCTask> tasks) throws InterruptedException {
+        for (GWCTask task : tasks) {
+            task.awaitFinished();
+        }
+        seedTasks.removeAll(tasks);
     }
 
     protected void stopSeeding(boolean checkLiveCount) {
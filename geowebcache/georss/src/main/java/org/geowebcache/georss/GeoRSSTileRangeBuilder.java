@@ -24,6 +24,8 @@ import org.apache.commons.logging.LogFactory;
 import org.geowebcache.grid.GridSubset;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.storage.GeometryRasterMaskBuilder;
+import org.geowebcache.storage.GeometrySparseMaskBuilder;
+import org.geowebcache.storage.SparseTileRangeMask;
 
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -39,6 +41,21 @@ class GeoRSSTileRangeBuilder {
 
     private static final Log logger = LogFactory.getLog(GeoRSSTileRangeBuilder.class);
 
+    /**
+     * Receives the masks built by
+     * {@link GeoRSSTileRangeBuilder#buildTileRangeMasks(GeoRSSReader, String, int, MaskHandler)}
+     * as the feed is being read
+     */
+    interface MaskHandler {
+
+        /**
+         * @param mask
+         *            the tiles affected by the last batch of entries that no previous batch
+         *            affected
+         */
+        void maskReady(SparseTileRangeMask mask) throws InterruptedException;
+    }
+
     private final TileLayer layer;
 
     private final String gridSetId;
@@ -127,6 +144,53 @@ class GeoRSSTileRangeBuilder {
         return matrix;
     }
 
+    /**
+     * Reads the feed and hands the masks of the tiles affected by every {@code batchSize} entries
+     * to the handler as soon as they're read, instead of building a single mask for the whole
+     * feed as {@link #buildTileRangeMask(GeoRSSReader, String)} does.
+     * 
+     * @return the number of entries processed
+     */
+    public int buildTileRangeMasks(final GeoRSSReader reader, final String previousEntryUpdate,
+            final int batchSize, final MaskHandler handler) throws IOException,
+            InterruptedException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize shall be > 0: " + batchSize);
+        }
+        final GridSubset gridSubset = layer.getGridSubset(gridSetId);
+        final GeometrySparseMaskBuilder matrix = new GeometrySparseMaskBuilder(gridSubset,
+                maxMaskLevel);
+
+        int processed = 0;
+        Entry entry;
+        while ((entry = reader.nextEntry()) != null) {
+            if (entry.getUpdated() != null && entry.getUpdated().equals(previousEntryUpdate)) {
+                logger.warn("Skipping entry with id " + entry.getId()
+                        + " since it has the same date as our last feed update.");
+                continue;
+            }
+            if ((entry.getUpdated() != null)
+                    && ((lastEntryUpdate == null) || (lastEntryUpdate.compareTo(entry
+                            .getUpdated()) < 0))) {
+                lastEntryUpdate = entry.getUpdated();
+            }
+            matrix.setMasksForGeometry(entry.getWhere());
+            if (++processed % batchSize == 0) {
+                flush(matrix, handler);
+            }
+        }
+        flush(matrix, handler);
+        return processed;
+    }
+
+    private void flush(final GeometrySparseMaskBuilder matrix, final MaskHandler handler)
+            throws InterruptedException {
+        SparseTileRangeMask mask = matrix.flush();
+        if (mask != null) {
+            handler.maskReady(mask);
+        }
+    }
+
     /**
      * Returns the value of the most recent updated property value out of all the georss entries
      * processed at {@link #buildTileRangeMask(GeoRSSReader)}
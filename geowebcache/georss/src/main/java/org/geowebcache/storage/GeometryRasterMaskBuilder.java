@@ -24,6 +24,7 @@ import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -353,6 +354,53 @@ public class GeometryRasterMaskBuilder {
 
     }
 
+    /**
+     * Copies the masks into a {@link SparseTileRangeMask}, which takes less memory than the
+     * images and lets the seeding skip the areas with no tiles set
+     * 
+     * @return the mask of the tiles set, or {@code null} if none is
+     */
+    public SparseTileRangeMask toSparseMask() {
+        final long[][] coveredBounds = getCoveredBounds();
+        final SparseTileRangeMask mask = new SparseTileRangeMask(gridSubset.getCoverages(),
+                maxMaskLevel);
+        final BufferedImage[] maskedLevels = getByLevelMasks();
+        for (int level = 0; level < maskedLevels.length; level++) {
+            final long[] bounds = coveredBounds[level];
+            if (bounds == null || maskedLevels[level] == null) {
+                continue;
+            }
+            final Raster raster = maskedLevels[level].getRaster();
+            final int width = raster.getWidth();
+            final int[] samples = new int[width];
+            final int minX = (int) Math.max(0, bounds[0]);
+            final int maxX = (int) Math.min(width - 1, bounds[2]);
+            // images have their origin at the top left corner, as in RasterMask
+            for (long y = bounds[1]; y <= bounds[3]; y++) {
+                final long rasy = (raster.getHeight() - 1) - y;
+                if (rasy < 0 || rasy >= raster.getHeight()) {
+                    continue;
+                }
+                raster.getSamples(0, (int) rasy, width, 1, 0, samples);
+                long runStart = -1;
+                for (int x = minX; x <= maxX; x++) {
+                    if (samples[x] != 0) {
+                        if (runStart < 0) {
+                            runStart = x;
+                        }
+                    } else if (runStart >= 0) {
+                        mask.setRange(runStart, x - 1, y, level);
+                        runStart = -1;
+                    }
+                }
+                if (runStart >= 0) {
+                    mask.setRange(runStart, maxX, y, level);
+                }
+            }
+        }
+        return mask.isEmpty() ? null : mask;
+    }
+
     /**
      * Package visible method for testing purposes only!
      * 
@@ -0,0 +1,216 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSubset;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/**
+ * Builds {@link SparseTileRangeMask}s of the tiles affected by geometries, rasterizing them
+ * straight into the mask bitsets with a scanline polygon fill instead of painting them on images
+ * as {@link GeometryRasterMaskBuilder} does.
+ * <p>
+ * The masks can be {@link #flush() flushed} as geometries are added, each flushed mask only
+ * containing the tiles that no previously flushed mask did, so that the affected tiles can be
+ * processed while the geometries are still being read.
+ * </p>
+ *
+ * @see org.geowebcache.georss.GeoRSSTileRangeBuilder
+ */
+public class GeometrySparseMaskBuilder {
+
+    private static final Log logger = LogFactory.getLog(GeometrySparseMaskBuilder.class);
+
+    /**
+     * Same buffer as {@link GeometryRasterMaskBuilder}, in tile units
+     */
+    private static final double TILE_BUFFER_RATIO = 1.5;
+
+    private final long[][] fullCoverage;
+
+    private final int maxMaskLevel;
+
+    /**
+     * By zoom level transforms from the grid subset CRS to tile space, where tile {@code x,y}
+     * covers {@code [x, x+1) x [y, y+1)}
+     */
+    private final AffineTransformation[] worldToGrid;
+
+    /**
+     * Tiles set since the last flush
+     */
+    private SparseTileRangeMask pending;
+
+    /**
+     * Tiles already flushed
+     */
+    private final SparseTileRangeMask flushed;
+
+    /**
+     * @param gridSubset
+     *            the grid subset the geometries are masked for
+     * @param maxMaskLevel
+     *            the last zoom level masked, greater levels are downsampled to it
+     */
+    public GeometrySparseMaskBuilder(final GridSubset gridSubset, final int maxMaskLevel) {
+        this.fullCoverage = gridSubset.getCoverages();
+        this.pending = new SparseTileRangeMask(fullCoverage, maxMaskLevel);
+        this.flushed = new SparseTileRangeMask(fullCoverage, maxMaskLevel);
+        this.maxMaskLevel = pending.getMaxMaskLevel();
+
+        this.worldToGrid = new AffineTransformation[this.maxMaskLevel + 1];
+        for (int level = 0; level <= this.maxMaskLevel; level++) {
+            final long[] coverage = fullCoverage[level];
+            final BoundingBox bounds = gridSubset.boundsFromRectangle(coverage);
+            final double scaleX = (1 + coverage[2] - coverage[0]) / bounds.getWidth();
+            final double scaleY = (1 + coverage[3] - coverage[1]) / bounds.getHeight();
+            worldToGrid[level] = new AffineTransformation(scaleX, 0, coverage[0]
+                    - bounds.getMinX() * scaleX, 0, scaleY, coverage[1] - bounds.getMinY()
+                    * scaleY);
+        }
+    }
+
+    /**
+     * @param geom
+     *            a geometry to mask the affected tiles for, in the grid subset coordinate
+     *            reference system
+     */
+    public void setMasksForGeometry(final Geometry geom) {
+        if (geom == null || geom.isEmpty()) {
+            return;
+        }
+        for (int level = 0; level <= maxMaskLevel; level++) {
+            final Geometry geomInGridCrs = worldToGrid[level].transform(geom);
+            final Geometry buffered = geomInGridCrs.buffer(TILE_BUFFER_RATIO);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Buffered geom in grid CRS at level " + level + ": " + buffered);
+            }
+            for (int i = 0; i < buffered.getNumGeometries(); i++) {
+                Geometry part = buffered.getGeometryN(i);
+                if (part instanceof Polygon && !part.isEmpty()) {
+                    fill((Polygon) part, level);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the tiles whose center falls inside the polygon, walking its rows and filling the
+     * spans between pairs of edge crossings (even-odd rule, so holes are left out)
+     */
+    private void fill(final Polygon polygon, final int level) {
+        final long[] coverage = fullCoverage[level];
+        final Envelope env = polygon.getEnvelopeInternal();
+        final long minRow = Math.max(coverage[1], (long) Math.ceil(env.getMinY() - 0.5));
+        final long maxRow = Math.min(coverage[3], (long) Math.ceil(env.getMaxY() - 0.5) - 1);
+        if (minRow > maxRow) {
+            return;
+        }
+
+        final List<double[]> edges = new ArrayList<double[]>();
+        addEdges(polygon.getExteriorRing().getCoordinates(), edges);
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            addEdges(polygon.getInteriorRingN(i).getCoordinates(), edges);
+        }
+        Collections.sort(edges, new Comparator<double[]>() {
+            public int compare(double[] e1, double[] e2) {
+                return Double.compare(e1[1], e2[1]);
+            }
+        });
+
+        final List<double[]> active = new ArrayList<double[]>();
+        double[] crossings = new double[16];
+        int nextEdge = 0;
+        for (long row = minRow; row <= maxRow; row++) {
+            final double y = row + 0.5;
+            while (nextEdge < edges.size() && edges.get(nextEdge)[1] <= y) {
+                active.add(edges.get(nextEdge++));
+            }
+            int count = 0;
+            for (Iterator<double[]> it = active.iterator(); it.hasNext();) {
+                double[] e = it.next();
+                if (e[3] <= y) {
+                    it.remove();
+                    continue;
+                }
+                if (count == crossings.length) {
+                    crossings = Arrays.copyOf(crossings, 2 * count);
+                }
+                crossings[count++] = e[0] + (y - e[1]) * (e[2] - e[0]) / (e[3] - e[1]);
+            }
+            Arrays.sort(crossings, 0, count);
+            for (int i = 0; i + 1 < count; i += 2) {
+                long from = (long) Math.ceil(crossings[i] - 0.5);
+                long to = (long) Math.ceil(crossings[i + 1] - 0.5) - 1;
+                if (from <= to) {
+                    pending.setRange(from, to, row, level);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the non horizontal edges of a ring as {@code x1, y1, x2, y2} with {@code y1 < y2}
+     */
+    private static void addEdges(final Coordinate[] ring, final List<double[]> edges) {
+        for (int i = 0; i + 1 < ring.length; i++) {
+            Coordinate c1 = ring[i];
+            Coordinate c2 = ring[i + 1];
+            if (c1.y < c2.y) {
+                edges.add(new double[] { c1.x, c1.y, c2.x, c2.y });
+            } else if (c1.y > c2.y) {
+                edges.add(new double[] { c2.x, c2.y, c1.x, c1.y });
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if any tile has been set, flushed or not
+     */
+    public boolean hasTilesSet() {
+        return !pending.isEmpty() || !flushed.isEmpty();
+    }
+
+    /**
+     * Returns the tiles set since the last flush that weren't already returned by a previous one
+     *
+     * @return the newly affected tiles, or {@code null} if there are none
+     */
+    public SparseTileRangeMask flush() {
+        final SparseTileRangeMask mask = pending;
+        pending = new SparseTileRangeMask(fullCoverage, maxMaskLevel);
+        mask.removeAll(flushed);
+        if (mask.isEmpty()) {
+            return null;
+        }
+        flushed.addAll(mask);
+        return mask;
+    }
+}
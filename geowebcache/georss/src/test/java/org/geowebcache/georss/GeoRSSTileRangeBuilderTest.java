@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLStreamException;
@@ -36,6 +38,7 @@ import org.geowebcache.grid.GridSetBroker;
 import org.geowebcache.layer.TileLayer;
 import org.geowebcache.storage.GeometryRasterMaskBuilder;
 import org.geowebcache.storage.RasterMaskTestUtils;
+import org.geowebcache.storage.SparseTileRangeMask;
 import org.geowebcache.util.TestUtils;
 
 public class GeoRSSTileRangeBuilderTest extends TestCase {
@@ -115,6 +118,49 @@ public class GeoRSSTileRangeBuilderTest extends TestCase {
         assertLatestUpdate("2010-08-17T07:02:32Z", "mixedgeometries_feed.xml");
     }
 
+    public void testBuildTileRangeMasksInBatches() throws Exception {
+        final List<SparseTileRangeMask> masks = new ArrayList<SparseTileRangeMask>();
+        GeoRSSTileRangeBuilder.MaskHandler handler = new GeoRSSTileRangeBuilder.MaskHandler() {
+            public void maskReady(SparseTileRangeMask mask) {
+                masks.add(mask);
+            }
+        };
+
+        GeoRSSTileRangeBuilder b = new GeoRSSTileRangeBuilder(layer, gridsetId, 10);
+        int entries = b.buildTileRangeMasks(reader("mixedgeometries_feed.xml"), null, 1, handler);
+        assertEquals("2010-08-17T07:02:32Z", b.getLastEntryUpdate());
+        assertTrue(entries > 1);
+        assertFalse(masks.isEmpty());
+        assertTrue(masks.size() <= entries);
+
+        // every batch only has the tiles no previous batch had
+        SparseTileRangeMask union = new SparseTileRangeMask(layer.getGridSubset(gridsetId)
+                .getCoverages(), 10);
+        long total = 0;
+        for (SparseTileRangeMask mask : masks) {
+            assertFalse(mask.isEmpty());
+            total += mask.cardinality();
+            union.addAll(mask);
+        }
+        assertEquals(total, union.cardinality());
+
+        // a single batch affects the same tiles
+        masks.clear();
+        b = new GeoRSSTileRangeBuilder(layer, gridsetId, 10);
+        b.buildTileRangeMasks(reader("mixedgeometries_feed.xml"), null, 1000, handler);
+        assertEquals(1, masks.size());
+        assertEquals(total, masks.get(0).cardinality());
+    }
+
+    private StaxGeoRSSReader reader(String fileName) throws IOException, XMLStreamException,
+            FactoryConfigurationError {
+        InputStream stream = getClass().getResourceAsStream("test-data/" + fileName);
+        if (stream == null) {
+            throw new FileNotFoundException("test-data/" + fileName);
+        }
+        return new StaxGeoRSSReader(new BufferedReader(new InputStreamReader(stream, "UTF-8")));
+    }
+
     private void assertLatestUpdate(String expected, String fileName) throws IOException,
             XMLStreamException, FactoryConfigurationError {
 
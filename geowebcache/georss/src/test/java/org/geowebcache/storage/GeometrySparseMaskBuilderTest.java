@@ -0,0 +1,101 @@
+package org.geowebcache.storage;
+
+import junit.framework.TestCase;
+
+import org.geowebcache.grid.BoundingBox;
+import org.geowebcache.grid.GridSetBroker;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.util.TestUtils;
+
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeometrySparseMaskBuilderTest extends TestCase {
+
+    private GridSubset gridSubset;
+
+    public void setUp() {
+        TileLayer layer = TestUtils.createWMSLayer("image/png", new GridSetBroker(false, false),
+                3, 3, new BoundingBox(-180, -90, 180, 90));
+        gridSubset = layer.getGridSubset(layer.getGridSubsets().iterator().next());
+    }
+
+    /**
+     * Same samples as {@link RasterMaskTestUtils}
+     */
+    private GeometrySparseMaskBuilder buildSampleMask(int maxMaskLevel) throws Exception {
+        GeometrySparseMaskBuilder builder = new GeometrySparseMaskBuilder(gridSubset,
+                maxMaskLevel);
+        WKTReader reader = new WKTReader();
+        builder.setMasksForGeometry(reader.read("POLYGON ((0 0, 0 -90, 180 -90, 180 0, 0 0))"));
+        builder.setMasksForGeometry(reader.read("POINT(0 45)"));
+        builder.setMasksForGeometry(reader.read("LINESTRING(-90 -45, 90 45)"));
+        return builder;
+    }
+
+    public void testTileIsPresent() throws Exception {
+        SparseTileRangeMask mask = buildSampleMask(10).flush();
+
+        // level 0
+        assertTrue(mask.lookup(0, 0, 0));
+        assertTrue(mask.lookup(1, 0, 0));
+
+        // level 2
+        assertFalse(mask.lookup(0, 0, 2));
+        assertFalse(mask.lookup(0, 3, 2));
+        assertTrue(mask.lookup(7, 0, 2));
+
+        // level 9 (coverage is 0, 0, 1023, 511, 9)
+        assertFalse(mask.lookup(0, 0, 9));// lower left
+        assertFalse(mask.lookup(0, 511, 9));// upper left
+        assertFalse(mask.lookup(1023, 511, 9));// upper right
+        assertTrue(mask.lookup(1023, 0, 9));// lower right
+        assertTrue(mask.lookup(511, 383, 9));// point location
+        assertFalse(mask.lookup(511, 390, 9));// out of the point's buffer
+        assertTrue(mask.lookup(255, 127, 9));// line end point 1
+        assertTrue(mask.lookup(767, 383, 9));// line end point 2
+        assertTrue(mask.lookup(511, 255, 9));// center
+        assertFalse(mask.lookup(511, 300, 9));// off the line
+
+        // the quadrant, point and line bounds
+        TestUtils.assertEquals(new long[] { 255, 0, 1023, 384, 9 }, mask.getGridCoverages()[9]);
+    }
+
+    public void testTileIsPresentWithSubSampling() throws Exception {
+        SparseTileRangeMask mask = buildSampleMask(3).flush();
+
+        // level 5 (coverage is 0, 0, 63, 31)
+        assertFalse(mask.lookup(0, 0, 5));
+        assertFalse(mask.lookup(0, 31, 5));
+        assertFalse(mask.lookup(63, 31, 5));
+        assertTrue(mask.lookup(63, 0, 5));
+
+        assertTrue(mask.lookup(32, 23, 5));// point location
+        assertTrue(mask.lookup(31, 22, 5));
+        assertTrue(mask.lookup(33, 24, 5));
+    }
+
+    public void testFlushOnlyReturnsNewTiles() throws Exception {
+        GeometrySparseMaskBuilder builder = new GeometrySparseMaskBuilder(gridSubset, 5);
+        assertNull(builder.flush());
+        assertFalse(builder.hasTilesSet());
+
+        WKTReader reader = new WKTReader();
+        builder.setMasksForGeometry(reader.read("POINT(0 45)"));
+        SparseTileRangeMask first = builder.flush();
+        assertNotNull(first);
+        assertTrue(first.lookup(32, 23, 5));
+
+        // same geometry again, nothing new
+        builder.setMasksForGeometry(reader.read("POINT(0 45)"));
+        assertNull(builder.flush());
+
+        // overlapping geometry, only the tiles not flushed yet
+        builder.setMasksForGeometry(reader.read("POINT(5.625 45)"));
+        SparseTileRangeMask second = builder.flush();
+        assertNotNull(second);
+        assertFalse(second.lookup(32, 23, 5));
+        assertTrue(second.lookup(33, 23, 5));
+        assertTrue(builder.hasTilesSet());
+    }
+}
@@ -156,4 +156,26 @@ public class RasterMaskTest extends TestCase {
         assertEquals(true, tileRangeMask.lookup(33, 22, 5));// point's bottom right
     }
 
+    /**
+     * {@link GeometryRasterMaskBuilder#toSparseMask()} shall set the same tiles than the images
+     */
+    public void testToSparseMask() throws Exception {
+        GeometryRasterMaskBuilder mask = RasterMaskTestUtils.buildSampleFilterMatrix(layer,
+                gridsetId);
+        RasterMask rasterMask = new RasterMask(mask.getByLevelMasks(), fullCoverage,
+                mask.getCoveredBounds());
+        SparseTileRangeMask sparseMask = mask.toSparseMask();
+        assertNotNull(sparseMask);
+
+        for (int z = 0; z <= 8; z++) {
+            long[] coverage = fullCoverage[z];
+            for (long y = coverage[1]; y <= coverage[3]; y++) {
+                for (long x = coverage[0]; x <= coverage[2]; x++) {
+                    assertEquals("tile " + x + "," + y + "," + z, rasterMask.lookup(x, y, z),
+                            sparseMask.lookup(x, y, z));
+                }
+            }
+        }
+    }
+
 }
@@ -105,58 +105,46 @@ public class KMLDebugGridLayer extends AbstractTileLayer {
         return null;
     }
 
+    /**
+     * The placemark style, same for all the tiles
+     */
+    private static final String STYLE = "<Style id=\"square\">\n"
+            + "<PolyStyle><color>7fffffff</color><colorMode>random</colorMode>\n"
+            + "</PolyStyle>\n"
+            + "<IconStyle><Icon><href>http://icons.opengeo.org/dynamic/circle/aaffaa_aaffaa_2.png</href></Icon></IconStyle>\n"
+            + "<LabelStyle id=\"name\"><color>ffffffff</color><colorMode>normal</colorMode><scale>1.0</scale></LabelStyle>\n"
+            + "</Style>\n";
+
     public ConveyorTile getTile(ConveyorTile tile) throws GeoWebCacheException, IOException {
         long[] gridLoc = tile.getTileIndex();
 
         BoundingBox bbox = tile.getGridSubset().boundsFromIndex(gridLoc);
 
-        String data = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-                + "<kml xmlns=\"http://earth.google.com/kml/2.1\">\n" + "<Document>\n"
+        StringBuilder data = new StringBuilder(1024);
+        data.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<kml xmlns=\"http://earth.google.com/kml/2.1\">\n<Document>\n")
                 // +"<!-- Name>DocumentName</Name --->"
-                + "<Placemark id=\"PlaceMarkId\">\n"
+                .append("<Placemark id=\"PlaceMarkId\">\n")
                 // +"<styleUrl>#square</styleUrl>\n"
-                + "<name>"
-                + gridLoc[0]
-                + ","
-                + gridLoc[1]
-                + ","
-                + gridLoc[2]
-                + "</name>"
-                + "<Style id=\"square\">\n"
-                + "<PolyStyle><color>7fffffff</color><colorMode>random</colorMode>\n"
-                + "</PolyStyle>\n"
-                + "<IconStyle><Icon><href>http://icons.opengeo.org/dynamic/circle/aaffaa_aaffaa_2.png</href></Icon></IconStyle>\n"
-                + "<LabelStyle id=\"name\"><color>ffffffff</color><colorMode>normal</colorMode><scale>1.0</scale></LabelStyle>\n"
-                + "</Style>\n"
-                + "<MultiGeometry>\n"
-                + "<Point><coordinates>"
-                + ((bbox.getMinX() + bbox.getMaxX()) / 2)
-                + ","
-                + ((bbox.getMinY() + bbox.getMaxY()) / 2)
-                + ",0</coordinates></Point>\n"
-                + "<Polygon><outerBoundaryIs><LinearRing>\n"
-                + "<coordinates decimal=\".\" cs=\",\" ts=\" \">\n"
-                + bbox.getMinX()
-                + ","
-                + bbox.getMinY()
-                + " "
-                + bbox.getMaxX()
-                + ","
-                + bbox.getMinY()
-                + " "
-                + bbox.getMaxX()
-                + ","
-                + bbox.getMaxY()
-                + " "
-                + bbox.getMinX()
-                + ","
-                + bbox.getMaxY()
-                + "</coordinates>\n"
-                + "</LinearRing></outerBoundaryIs></Polygon>\n"
-                + "</MultiGeometry>\n"
-                + "</Placemark>\n" + "</Document>\n" + "</kml>";
-
-        tile.setBlob(new ByteArrayResource(data.getBytes()));
+                .append("<name>").append(gridLoc[0]).append(',').append(gridLoc[1])
+                .append(',').append(gridLoc[2]).append("</name>")
+                .append(STYLE)
+                .append("<MultiGeometry>\n<Point><coordinates>")
+                .append((bbox.getMinX() + bbox.getMaxX()) / 2).append(',')
+                .append((bbox.getMinY() + bbox.getMaxY()) / 2)
+                .append(",0</coordinates></Point>\n")
+                .append("<Polygon><outerBoundaryIs><LinearRing>\n")
+                .append("<coordinates decimal=\".\" cs=\",\" ts=\" \">\n")
+                .append(bbox.getMinX()).append(',').append(bbox.getMinY()).append(' ')
+                .append(bbox.getMaxX()).append(',').append(bbox.getMinY()).append(' ')
+                .append(bbox.getMaxX()).append(',').append(bbox.getMaxY()).append(' ')
+                .append(bbox.getMinX()).append(',').append(bbox.getMaxY())
+                .append("</coordinates>\n")
+                .append("</LinearRing></outerBoundaryIs></Polygon>\n")
+                .append("</MultiGeometry>\n")
+                .append("</Placemark>\n</Document>\n</kml>");
+
+        tile.setBlob(new ByteArrayResource(data.toString().getBytes()));
         tile.setStatus(200);
         return tile;
     }
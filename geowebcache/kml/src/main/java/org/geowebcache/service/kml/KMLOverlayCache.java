@@ -0,0 +1,251 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.geowebcache.service.kml;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geowebcache.GeoWebCacheExtensions;
+import org.geowebcache.storage.BlobStoreListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the outcome of the regionated KML overlay generation, so that browsing a layer doesn't
+ * probe the storage for the same child tiles and build the same documents over and over.
+ * <p>
+ * Two kinds of entries are kept, both keyed by layer, grid set, format and tile index:
+ * <ul>
+ * <li>the children of a tile that are worth linking to, as resolved by
+ * {@link KMZHelper#filterGridLocs}</li>
+ * <li>the generated overlay documents, which are also keyed by the URL prefix and wrapper
+ * format</li>
+ * </ul>
+ * Registered as a {@link BlobStoreListener}, it discards the entries of the parent of every tile
+ * stored or deleted, which covers seeding and truncation, and all the entries of a layer when the
+ * layer or one of its grid subsets is deleted or the layer is renamed. Children that couldn't be
+ * looked up are not cached, see {@link KMZHelper#filterGridLocsInPlace}. Entries also expire a
+ * while after being created. The number of entries and their lifetime are set with the
+ * {@code GEOWEBCACHE_KML_CACHE_SIZE} and {@code GEOWEBCACHE_KML_CACHE_EXPIRE} (in seconds) system
+ * properties, environment variables, or servlet context parameters, a size of {@code 0} disables
+ * the cache.
+ * </p>
+ */
+class KMLOverlayCache implements BlobStoreListener {
+
+    private static final Log log = LogFactory.getLog(KMLOverlayCache.class);
+
+    static final String SIZE_PROPERTY = "GEOWEBCACHE_KML_CACHE_SIZE";
+
+    static final String EXPIRE_PROPERTY = "GEOWEBCACHE_KML_CACHE_EXPIRE";
+
+    private final Cache<String, long[][]> children;
+
+    /**
+     * The overlay documents by tile key, and then by the rest of the key
+     */
+    private final Cache<String, ConcurrentMap<String, byte[]>> overlays;
+
+    /**
+     * @param maxEntries
+     *            maximum number of entries of each kind, {@code 0} to disable caching
+     * @param expireSeconds
+     *            seconds an entry is kept after being created
+     */
+    KMLOverlayCache(long maxEntries, long expireSeconds) {
+        if (maxEntries > 0) {
+            this.children = CacheBuilder.newBuilder().maximumSize(maxEntries)
+                    .expireAfterWrite(expireSeconds, TimeUnit.SECONDS).build();
+            this.overlays = CacheBuilder.newBuilder().maximumSize(maxEntries)
+                    .expireAfterWrite(expireSeconds, TimeUnit.SECONDS).build();
+        } else {
+            this.children = null;
+            this.overlays = null;
+        }
+    }
+
+    /**
+     * Creates the cache configured by the {@link #SIZE_PROPERTY} and {@link #EXPIRE_PROPERTY}
+     * properties
+     */
+    static KMLOverlayCache create() {
+        return new KMLOverlayCache(getLongProperty(SIZE_PROPERTY, 2000),
+                getLongProperty(EXPIRE_PROPERTY, 300));
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = GeoWebCacheExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + name + " value '" + value + "', using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    static String tileKey(String layerName, String gridSetId, String format, long[] gridLoc) {
+        return new StringBuilder(layerName).append('/').append(gridSetId).append('/')
+                .append(format).append('/').append(KMLService.gridLocString(gridLoc)).toString();
+    }
+
+    /**
+     * @return a copy of the children to link to, or {@code null} if not cached
+     */
+    long[][] getChildren(String tileKey) {
+        if (children == null) {
+            return null;
+        }
+        return copy(children.getIfPresent(tileKey));
+    }
+
+    void putChildren(String tileKey, long[][] linkGridLocs) {
+        if (children != null) {
+            children.put(tileKey, copy(linkGridLocs));
+        }
+    }
+
+    /**
+     * @param variant
+     *            what the document depends on besides the tile, like the URL prefix
+     * @return the cached overlay document, or {@code null}
+     */
+    byte[] getOverlay(String tileKey, String variant) {
+        if (overlays == null) {
+            return null;
+        }
+        ConcurrentMap<String, byte[]> variants = overlays.getIfPresent(tileKey);
+        return variants == null ? null : variants.get(variant);
+    }
+
+    void putOverlay(String tileKey, String variant, byte[] overlay) {
+        if (overlays != null) {
+            ConcurrentMap<String, byte[]> variants = overlays.getIfPresent(tileKey);
+            if (variants == null) {
+                variants = new ConcurrentHashMap<String, byte[]>();
+                ConcurrentMap<String, byte[]> existing = overlays.asMap().putIfAbsent(tileKey,
+                        variants);
+                if (existing != null) {
+                    variants = existing;
+                }
+            }
+            variants.put(variant, overlay);
+        }
+    }
+
+    boolean isEnabled() {
+        return children != null;
+    }
+
+    /**
+     * Discards the entries of the tile's parent, the only ones that depend on whether the tile
+     * exists
+     */
+    void invalidateParent(String layerName, String gridSetId, String format, long x, long y,
+            int z) {
+        if (children == null || z == 0) {
+            return;
+        }
+        String parentKey = tileKey(layerName, gridSetId, format, new long[] { x / 2, y / 2,
+                z - 1 });
+        children.invalidate(parentKey);
+        overlays.invalidate(parentKey);
+    }
+
+    /**
+     * Discards the entries of a layer
+     * 
+     * @param gridSetId
+     *            the grid set to discard the entries of, or {@code null} for all of them
+     */
+    void invalidate(String layerName, String gridSetId) {
+        if (children == null) {
+            return;
+        }
+        String prefix = layerName + '/' + (gridSetId == null ? "" : gridSetId + '/');
+        invalidate(children.asMap().keySet().iterator(), prefix);
+        invalidate(overlays.asMap().keySet().iterator(), prefix);
+    }
+
+    private static void invalidate(Iterator<String> keys, String prefix) {
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards all the entries
+     */
+    void clear() {
+        if (children != null) {
+            children.invalidateAll();
+            overlays.invalidateAll();
+        }
+    }
+
+    long size() {
+        return children == null ? 0 : children.size() + overlays.size();
+    }
+
+    public void tileStored(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize) {
+        invalidateParent(layerName, gridSetId, blobFormat, x, y, z);
+    }
+
+    public void tileDeleted(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize) {
+        invalidateParent(layerName, gridSetId, blobFormat, x, y, z);
+    }
+
+    public void tileUpdated(String layerName, String gridSetId, String blobFormat,
+            String parametersId, long x, long y, int z, long blobSize, long oldSize) {
+        invalidateParent(layerName, gridSetId, blobFormat, x, y, z);
+    }
+
+    public void layerDeleted(String layerName) {
+        invalidate(layerName, null);
+    }
+
+    public void layerRenamed(String oldLayerName, String newLayerName) {
+        invalidate(oldLayerName, null);
+    }
+
+    public void gridSubsetDeleted(String layerName, String gridSetId) {
+        invalidate(layerName, gridSetId);
+    }
+
+    /**
+     * The grid locations are flagged in place by {@link KMZHelper#filterGridLocs}, so they're
+     * never shared with the callers
+     */
+    private static long[][] copy(long[][] gridLocs) {
+        if (gridLocs == null) {
+            return null;
+        }
+        long[][] copy = new long[gridLocs.length][];
+        for (int i = 0; i < gridLocs.length; i++) {
+            copy[i] = gridLocs[i].clone();
+        }
+        return copy;
+    }
+}
@@ -71,6 +71,8 @@ public class KMLService extends Service {
 
     private RuntimeStats stats;
 
+    private final KMLOverlayCache overlayCache = KMLOverlayCache.create();
+
     /**
      * Protected no-argument constructor to allow run-time instrumentation
      */
@@ -86,6 +88,11 @@ public class KMLService extends Service {
         this.tld = tld;
         this.gsb = gsb;
         this.stats = stats;
+
+        // seeding, truncation and layer changes discard the overlays they affect
+        if (sb != null && overlayCache.isEnabled()) {
+            sb.addBlobStoreListener(overlayCache);
+        }
     }
 
     /**
@@ -406,13 +413,13 @@ public class KMLService extends Service {
 
         // Sigh....
         if (!packageData) {
-            String overlayXml = createOverlay(tile, false);
-            tile.setBlob(new ByteArrayResource(overlayXml.getBytes()));
+            byte[] overlayXml = getOverlay(tile, false);
+            tile.setBlob(new ByteArrayResource(overlayXml));
             tile.setStatus(200);
             // tileLayer.putTile(tile);
         } else {
             // Get the overlay
-            String overlayXml = createOverlay(tile, true);
+            byte[] overlayXml = getOverlay(tile, true);
 
             // Get the data (cheat)
             try {
@@ -432,7 +439,7 @@ public class KMLService extends Service {
             }
 
             byte[] zip = KMZHelper.createZippedKML(gridLocString(tile.getTileIndex()), tile
-                    .getMimeType().getFileExtension(), overlayXml.getBytes(), tile.getBlob());
+                    .getMimeType().getFileExtension(), overlayXml, tile.getBlob());
 
             tile.setBlob(new ByteArrayResource(zip));
             tile.setStatus(200);
@@ -445,6 +452,29 @@ public class KMLService extends Service {
         writeTileResponse(tile, true, stats, mimeStr);
     }
 
+    /**
+     * Returns the overlay document of the tile from the {@link #overlayCache}, creating it if
+     * needed
+     */
+    private byte[] getOverlay(ConveyorKMLTile tile, boolean isPackaged)
+            throws ServiceException, GeoWebCacheException {
+        String tileKey = KMLOverlayCache.tileKey(tile.getLayer().getName(),
+                tile.getGridSubset().getName(), tile.getMimeType().getFormat(),
+                tile.getTileIndex());
+        String variant = tile.getWrapperMimeType().getFormat() + "/" + isPackaged + "/"
+                + tile.getUrlPrefix();
+
+        byte[] overlayXml = overlayCache.getOverlay(tileKey, variant);
+        if (overlayXml == null) {
+            boolean[] complete = { true };
+            overlayXml = createOverlay(tile, isPackaged, overlayCache, complete).getBytes();
+            if (complete[0]) {
+                overlayCache.putOverlay(tileKey, variant, overlayXml);
+            }
+        }
+        return overlayXml;
+    }
+
     private String getMimeTypeOverride(ConveyorKMLTile tile) {
         String mimeStr = null;
         if (tile.getWrapperMimeType() != null) {
@@ -464,11 +494,15 @@ public class KMLService extends Service {
      * @param formatExtension
      * @param isRaster
      * @param response
+     * @param complete
+     *            set to {@code false} if some children couldn't be looked up, in which case the
+     *            overlay shouldn't be cached
      * @return
      * @throws ServiceException
      */
-    private static String createOverlay(ConveyorKMLTile tile, boolean isPackaged)
-            throws ServiceException, GeoWebCacheException {
+    static String createOverlay(ConveyorKMLTile tile, boolean isPackaged,
+            KMLOverlayCache overlayCache, boolean[] complete) throws ServiceException,
+            GeoWebCacheException {
         boolean isRaster = (tile.getMimeType() instanceof ImageMime);
 
         TileLayer tileLayer = tile.getLayer();
@@ -486,7 +520,7 @@ public class KMLService extends Service {
                     + refreshInterval + "</refreshInterval>";
         }
         
-        StringBuffer buf = new StringBuffer();
+        StringBuilder buf = new StringBuilder(4096);
 
         // 1) Header
         boolean setMaxLod = false;
@@ -498,11 +532,21 @@ public class KMLService extends Service {
         buf.append("\n<!-- Network links to subtiles -->\n");
         // 2) Network links, only to tiles getCoverages();within bounds
 
-        long[][] linkGridLocs = gridSubset.getSubGrid(gridLoc);
-
-        // 3) Apply secondary filter against linking to empty tiles
-        linkGridLocs = KMZHelper.filterGridLocs(tile.getStorageBroker(), tileLayer,
-                gridSubset.getName(), tile.getMimeType(), linkGridLocs);
+        // 3) Apply secondary filter against linking to empty tiles, resolving all the children
+        // at once and caching them when it involves looking them up
+        final boolean lookup = tile.getMimeType().equals(XMLMime.kml);
+        final String childrenKey = KMLOverlayCache.tileKey(tileLayer.getName(),
+                gridSubset.getName(), tile.getMimeType().getFormat(), gridLoc);
+        long[][] linkGridLocs = lookup ? overlayCache.getChildren(childrenKey) : null;
+        if (linkGridLocs == null) {
+            linkGridLocs = gridSubset.getSubGrid(gridLoc);
+            complete[0] = KMZHelper.filterGridLocsInPlace(tile.getStorageBroker(), tileLayer,
+                    gridSubset.getName(), tile.getMimeType(), linkGridLocs);
+            // a failed lookup may be transient, don't remember the child as missing
+            if (lookup && complete[0]) {
+                overlayCache.putChildren(childrenKey, linkGridLocs);
+            }
+        }
 
         // int moreData = 0;
         for (int i = 0; i < 4; i++) {
@@ -517,8 +561,8 @@ public class KMLService extends Service {
                         + tile.getMimeType().getFileExtension() + "."
                         + tile.getWrapperMimeType().getFileExtension();
 
-                buf.append(createNetworkLinkElement(tileLayer, linkBbox, gridLocUrl, gridLocStr,
-                        -1, refreshTags));
+                appendNetworkLinkElement(buf, tileLayer, linkBbox, gridLocUrl, gridLocStr, -1,
+                        refreshTags);
                 // moreData++;
             }
         }
@@ -527,8 +571,8 @@ public class KMLService extends Service {
 
         // 5) Overlay, should be relative
         if (isRaster) {
-            buf.append(createGroundOverLayElement(gridLoc, tile.getUrlPrefix(), bbox, tile
-                    .getMimeType().getFileExtension(), refreshTags));
+            appendGroundOverLayElement(buf, gridLoc, tile.getUrlPrefix(), bbox, tile
+                    .getMimeType().getFileExtension(), refreshTags);
         } else {
             // KML
             String gridLocStr = gridLocString(gridLoc);
@@ -543,8 +587,8 @@ public class KMLService extends Service {
                 maxLodPixels = 385;
             }
 
-            buf.append(createNetworkLinkElement(tileLayer, bbox, gridLocUrl, gridLocStr,
-                    maxLodPixels, refreshTags));
+            appendNetworkLinkElement(buf, tileLayer, bbox, gridLocUrl, gridLocStr, maxLodPixels,
+                    refreshTags);
         }
 
         // if(moreData > 0) {
@@ -581,19 +625,18 @@ public class KMLService extends Service {
      * @param gridLoc
      * @param bbox
      * @param extension
-     * @return
      */
-    private static String createNetworkLinkElement(TileLayer layer, BoundingBox bbox,
-            String gridLocUrl, String tileIdx, int maxLodPixels, String refreshTags) {
-
-        String xml = "\n<NetworkLink>" + "\n<name>" + layer.getName() + "</name>" + "\n<Region>"
-                + bbox.toKMLLatLonAltBox() + "\n<Lod><minLodPixels>128</minLodPixels>"
-                + "<maxLodPixels>" + Integer.toString(maxLodPixels) + "</maxLodPixels></Lod>\n"
-                + "</Region>" + "\n<Link>" + "\n<href>" + gridLocUrl + "</href>" + refreshTags
-                + "\n<viewRefreshMode>onRegion</viewRefreshMode>" + "\n</Link>"
-                + "\n</NetworkLink>\n";
-
-        return xml;
+    private static void appendNetworkLinkElement(StringBuilder buf, TileLayer layer,
+            BoundingBox bbox, String gridLocUrl, String tileIdx, int maxLodPixels,
+            String refreshTags) {
+
+        buf.append("\n<NetworkLink>\n<name>").append(layer.getName()).append("</name>\n<Region>")
+                .append(bbox.toKMLLatLonAltBox())
+                .append("\n<Lod><minLodPixels>128</minLodPixels><maxLodPixels>")
+                .append(maxLodPixels).append("</maxLodPixels></Lod>\n</Region>\n<Link>\n<href>")
+                .append(gridLocUrl).append("</href>").append(refreshTags)
+                .append("\n<viewRefreshMode>onRegion</viewRefreshMode>\n</Link>")
+                .append("\n</NetworkLink>\n");
     }
 
     /**
@@ -603,18 +646,15 @@ public class KMLService extends Service {
      * @param urlStr
      * @param bbox
      * @param formatExtension
-     * @return
      */
-    private static String createGroundOverLayElement(long[] gridLoc, String urlStr,
-            BoundingBox bbox, String formatExtension, String refreshTags) {
-
-        String xml = "\n<GroundOverlay>" + "\n<drawOrder>" + gridLoc[2] + "</drawOrder>"
-
-        + "\n<Icon>" + "\n<href>" + gridLocString(gridLoc) + "." + formatExtension + "</href>"
-                + refreshTags + "\n</Icon>\n" + "\n<altitudeMode>clampToGround</altitudeMode>"
-                + bbox.toKMLLatLonBox() + "\n</GroundOverlay>\n";
-
-        return xml;
+    private static void appendGroundOverLayElement(StringBuilder buf, long[] gridLoc,
+            String urlStr, BoundingBox bbox, String formatExtension, String refreshTags) {
+
+        buf.append("\n<GroundOverlay>\n<drawOrder>").append(gridLoc[2])
+                .append("</drawOrder>\n<Icon>\n<href>").append(gridLocString(gridLoc))
+                .append('.').append(formatExtension).append("</href>").append(refreshTags)
+                .append("\n</Icon>\n\n<altitudeMode>clampToGround</altitudeMode>")
+                .append(bbox.toKMLLatLonBox()).append("\n</GroundOverlay>\n");
     }
 
     private static String getLookAt(BoundingBox bbox) {
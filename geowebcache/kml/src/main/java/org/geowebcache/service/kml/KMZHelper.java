@@ -51,6 +51,11 @@ public class KMZHelper {
     /**
      * Filters the given gridlocation 
      * 
+     * All the children are first checked against the layer request filters, and only the ones
+     * that pass are then looked up. For regionated KML, the lookup goes through
+     * {@link TileLayer#getTile(ConveyorTile)}, which renders the tile if it's not cached, so the
+     * outcome is meant to be cached by the caller (see {@link KMLOverlayCache}).
+     * 
      *  Note that this does an actual reques to the WMS backend and then
      *  throws the result way. Some may consider this a bit wasteful ;)
      *
@@ -63,7 +68,23 @@ public class KMZHelper {
     public static long[][] filterGridLocs(StorageBroker sb, TileLayer tileLayer,
             String gridSetId, MimeType mime, long[][] linkGridLocs) 
     throws GeoWebCacheException {
-        
+        filterGridLocsInPlace(sb, tileLayer, gridSetId, mime, linkGridLocs);
+        return linkGridLocs;
+    }
+
+    /**
+     * Filters the given grid locations in place, like
+     * {@link #filterGridLocs(StorageBroker, TileLayer, String, MimeType, long[][])}
+     * 
+     * @return {@code false} if some children were left out because looking them up failed, which
+     *         may be transient
+     */
+    static boolean filterGridLocsInPlace(StorageBroker sb, TileLayer tileLayer,
+            String gridSetId, MimeType mime, long[][] linkGridLocs) throws GeoWebCacheException {
+
+        ConveyorTile[] tiles = new ConveyorTile[linkGridLocs.length];
+
+        // Apply request filters to all the children first, they don't need any lookup
         for(int i=0;i<linkGridLocs.length; i++) {
             if(linkGridLocs[i][2] > 0) {
                 
@@ -73,7 +94,6 @@ public class KMZHelper {
                 
                 tile.setTileLayer(tileLayer);
                 
-                // Apply request filters
                 try {
                     tileLayer.applyRequestFilters(tile);
                 } catch(GreenTileException e) {
@@ -82,31 +102,42 @@ public class KMZHelper {
                     linkGridLocs[i][2] = -1;
                     continue;
                 }
-                
-                // Special treatment for regionated KML
-                if (mime.equals(XMLMime.kml)) {
-                    try {
-                        tileLayer.getTile(tile);
-                    } catch (IOException ioe) {
-                        log.error(ioe.getMessage());
-                        linkGridLocs[i][2] = -1;
-                    } catch (GeoWebCacheException gwce) {
-                        linkGridLocs[i][2] = -1;
-                    }
+                tiles[i] = tile;
+            }
+        }
 
-                    // If it's a 204 it means no content -> don't link to it
-                    if (tile.getStatus() == 204) {
-                        linkGridLocs[i][2] = -1;
-                    } else if (tile.getStatus() != 200) {
-                        throw new GeoWebCacheException(
-                                "Unexpected response code from server "
-                                + tile.getStatus());
-                    }
-                }
+        // Special treatment for regionated KML
+        if (!mime.equals(XMLMime.kml)) {
+            return true;
+        }
+        boolean complete = true;
+        for (int i = 0; i < tiles.length; i++) {
+            ConveyorTile tile = tiles[i];
+            if (tile == null) {
+                continue;
+            }
+            try {
+                tileLayer.getTile(tile);
+            } catch (IOException ioe) {
+                log.error(ioe.getMessage());
+                linkGridLocs[i][2] = -1;
+                complete = false;
+            } catch (GeoWebCacheException gwce) {
+                linkGridLocs[i][2] = -1;
+                complete = false;
+            }
+
+            // If it's a 204 it means no content -> don't link to it
+            if (tile.getStatus() == 204) {
+                linkGridLocs[i][2] = -1;
+            } else if (tile.getStatus() != 200) {
+                throw new GeoWebCacheException(
+                        "Unexpected response code from server "
+                        + tile.getStatus());
             }
         }
         
-        return linkGridLocs;
+        return complete;
     }
     
     /**
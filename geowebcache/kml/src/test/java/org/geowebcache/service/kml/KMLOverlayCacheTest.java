@@ -0,0 +1,110 @@
+package org.geowebcache.service.kml;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.geowebcache.mime.XMLMime;
+
+public class KMLOverlayCacheTest extends TestCase {
+
+    public void testChildrenAreCopied() throws Exception {
+        KMLOverlayCache cache = new KMLOverlayCache(10, 60);
+        String key = KMLOverlayCache.tileKey("layer", "EPSG:4326", "kml", new long[] { 0, 0, 1 });
+        assertNull(cache.getChildren(key));
+
+        long[][] children = { { 0, 0, 2 }, { 1, 0, 2 }, { 0, 1, -1 }, { 1, 1, 2 } };
+        cache.putChildren(key, children);
+        children[0][2] = -1;
+
+        long[][] cached = cache.getChildren(key);
+        assertTrue(Arrays.equals(new long[] { 0, 0, 2 }, cached[0]));
+        assertTrue(Arrays.equals(new long[] { 0, 1, -1 }, cached[2]));
+        cached[3][2] = -1;
+        assertEquals(2, cache.getChildren(key)[3][2]);
+
+        cache.putOverlay(key, "kmz", new byte[] { 1 });
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertNull(cache.getChildren(key));
+        assertNull(cache.getOverlay(key, "kmz"));
+    }
+
+    public void testTileChangesDiscardTheParent() throws Exception {
+        KMLOverlayCache cache = new KMLOverlayCache(10, 60);
+        String parent = KMLOverlayCache.tileKey("layer", "EPSG:4326", "kml",
+                new long[] { 1, 0, 1 });
+        String other = KMLOverlayCache.tileKey("layer", "EPSG:4326", "kml",
+                new long[] { 0, 0, 1 });
+        for (String key : new String[] { parent, other }) {
+            cache.putChildren(key, new long[][] { { 0, 0, 2 } });
+            cache.putOverlay(key, "kml", new byte[] { 1 });
+            cache.putOverlay(key, "kmz", new byte[] { 2 });
+        }
+
+        // a child of the parent being seeded
+        cache.tileStored("layer", "EPSG:4326", "kml", null, 3, 1, 2, 10);
+        assertNull(cache.getChildren(parent));
+        assertNull(cache.getOverlay(parent, "kml"));
+        assertNull(cache.getOverlay(parent, "kmz"));
+        assertNotNull(cache.getChildren(other));
+        assertNotNull(cache.getOverlay(other, "kmz"));
+
+        // truncated
+        cache.tileDeleted("layer", "EPSG:4326", "kml", null, 0, 1, 2, 10);
+        assertNull(cache.getChildren(other));
+        assertNull(cache.getOverlay(other, "kml"));
+
+        // the top level tiles have no parent
+        cache.tileDeleted("layer", "EPSG:4326", "kml", null, 0, 0, 0, 10);
+    }
+
+    public void testLayerChangesDiscardTheLayer() throws Exception {
+        KMLOverlayCache cache = new KMLOverlayCache(10, 60);
+        long[] gridLoc = { 0, 0, 1 };
+        String key1 = KMLOverlayCache.tileKey("layer", "EPSG:4326", "kml", gridLoc);
+        String key2 = KMLOverlayCache.tileKey("layer", "EPSG:900913", "kml", gridLoc);
+        String key3 = KMLOverlayCache.tileKey("layer2", "EPSG:4326", "kml", gridLoc);
+        for (String key : new String[] { key1, key2, key3 }) {
+            cache.putChildren(key, new long[][] { { 0, 0, 2 } });
+            cache.putOverlay(key, "kml", new byte[] { 1 });
+        }
+
+        cache.gridSubsetDeleted("layer", "EPSG:4326");
+        assertNull(cache.getChildren(key1));
+        assertNull(cache.getOverlay(key1, "kml"));
+        assertNotNull(cache.getChildren(key2));
+        assertNotNull(cache.getChildren(key3));
+
+        cache.layerRenamed("layer", "renamed");
+        assertNull(cache.getChildren(key2));
+        assertNull(cache.getOverlay(key2, "kml"));
+        assertNotNull(cache.getChildren(key3));
+
+        cache.layerDeleted("layer2");
+        assertNull(cache.getChildren(key3));
+        assertNull(cache.getOverlay(key3, "kml"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testDisabled() throws Exception {
+        KMLOverlayCache cache = new KMLOverlayCache(0, 60);
+        cache.putChildren("key", new long[][] { { 0, 0, 1 } });
+        cache.putOverlay("key", "kml", new byte[] { 1 });
+        assertNull(cache.getChildren("key"));
+        assertNull(cache.getOverlay("key", "kml"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testFilterGridLocsLinksRegionatedChildren() throws Exception {
+        KMLDebugGridLayer layer = KMLDebugGridLayer.getInstance();
+        String gridSetId = layer.getGridSubsets().iterator().next();
+        long[][] children = layer.getGridSubset(gridSetId).getSubGrid(new long[] { 0, 0, 1 });
+
+        long[][] linked = KMZHelper.filterGridLocs(null, layer, gridSetId, XMLMime.kml,
+                children);
+        for (long[] child : linked) {
+            assertEquals(2, child[2]);
+        }
+    }
+}
@@ -19,14 +19,23 @@ package org.geowebcache.s3;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -62,13 +71,16 @@ import com.amazonaws.services.s3.model.Grant;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class S3BlobStore implements BlobStore {
 
@@ -86,6 +98,65 @@ public class S3BlobStore implements BlobStore {
 
     private final S3Ops s3Ops;
 
+    /**
+     * Default number of S3 client connections, used to size the write-behind thread pool when no
+     * {@link S3BlobStoreConfig#getMaxConnections() maxConnections} is configured
+     */
+    private static final int DEFAULT_MAX_CONNECTIONS = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+
+    /**
+     * How long {@link #destroy()} waits for the pending uploads to finish, in seconds
+     */
+    private static final long PENDING_PUTS_TIMEOUT = 60;
+
+    /**
+     * Executor uploading the tiles when write-behind is enabled, {@code null} if tiles are stored
+     * synchronously
+     */
+    private final ExecutorService putExecutorService;
+
+    /**
+     * Bounds the number of uploads pending in {@link #putExecutorService}
+     */
+    private final Semaphore pendingPutPermits;
+
+    /**
+     * Tiles being uploaded by the write-behind executor by key, so they can be served while their
+     * upload is pending. Only the latest put of a key is kept, replacing the older ones.
+     */
+    private final ConcurrentMap<String, PendingPut> pendingPuts = new ConcurrentHashMap<>();
+
+    /**
+     * Number of write-behind uploads that failed, reported when the blob store is shut down
+     */
+    private final AtomicLong failedPuts = new AtomicLong();
+
+    /**
+     * A tile queued for upload by the write-behind executor
+     */
+    private static class PendingPut {
+
+        final String key;
+
+        final TileObject tile;
+
+        /**
+         * The put of the same key this one replaced, uploaded first so that uploads of a key
+         * happen in order
+         */
+        PendingPut previous;
+
+        /**
+         * Released once the upload is done, skipped, or failed
+         */
+        final CountDownLatch done = new CountDownLatch(1);
+
+        PendingPut(String key, TileObject tile) {
+            this.key = key;
+            this.tile = tile;
+        }
+    }
+
     public S3BlobStore(S3BlobStoreConfig config, TileLayerDispatcher layers,
             LockProvider lockProvider) throws StorageException {
         checkNotNull(config);
@@ -111,6 +182,30 @@ public class S3BlobStore implements BlobStore {
         }
 
         this.s3Ops = new S3Ops(conn, bucketName, keyBuilder, lockProvider);
+
+        final Integer maxPendingPuts = config.getMaxPendingPuts();
+        if (maxPendingPuts != null && maxPendingPuts > 0) {
+            this.pendingPutPermits = new Semaphore(maxPendingPuts);
+            this.putExecutorService = createPutExecutorService(maxPendingPuts,
+                    config.getMaxConnections());
+        } else {
+            this.pendingPutPermits = null;
+            this.putExecutorService = null;
+        }
+    }
+
+    private ExecutorService createPutExecutorService(int maxPendingPuts,
+            @Nullable Integer maxConnections) {
+        // no point in having more threads than connections, they'd just wait for one
+        int connections = maxConnections == null || maxConnections <= 0 ? DEFAULT_MAX_CONNECTIONS
+                : maxConnections;
+        int threads = Math.min(maxPendingPuts, connections);
+        log.info(String.format(
+                "Storing tiles asynchronously on bucket %s, up to %d pending puts, %d threads",
+                bucketName, maxPendingPuts, threads));
+        ThreadFactory tf = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("GWC S3BlobStore put thread-%d. Bucket: " + bucketName).build();
+        return Executors.newFixedThreadPool(threads, tf);
     }
 
     @Override
@@ -119,11 +214,41 @@ public class S3BlobStore implements BlobStore {
         AmazonS3Client conn = this.conn;
         this.conn = null;
         if (conn != null) {
+            if (putExecutorService != null) {
+                awaitPendingPuts();
+                if (failedPuts.get() > 0) {
+                    log.warn(String.format("%d tile uploads to bucket %s failed, see the log "
+                            + "for the tiles", failedPuts.get(), bucketName));
+                }
+            }
             s3Ops.shutDown();
             conn.shutdown();
         }
     }
 
+    private void awaitPendingPuts() {
+        putExecutorService.shutdown();
+        try {
+            if (!putExecutorService.awaitTermination(PENDING_PUTS_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn(String.format("Gave up waiting for %d pending puts on bucket %s",
+                        pendingPuts.size(), bucketName));
+                abandonPendingPuts();
+            }
+        } catch (InterruptedException e) {
+            abandonPendingPuts();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void abandonPendingPuts() {
+        putExecutorService.shutdownNow();
+        // release anyone waiting on uploads that won't run anymore
+        for (PendingPut pending : pendingPuts.values()) {
+            pendingPuts.remove(pending.key, pending);
+            pending.done.countDown();
+        }
+    }
+
     @Override
     public void addListener(BlobStoreListener listener) {
         listeners.addListener(listener);
@@ -141,6 +266,122 @@ public class S3BlobStore implements BlobStore {
         checkNotNull(obj.getBlobFormat());
 
         final String key = keyBuilder.forTile(obj);
+        if (putExecutorService == null) {
+            doPut(obj, key);
+        } else {
+            putAsync(obj, key);
+        }
+    }
+
+    /**
+     * Queues the upload of the tile on the write-behind executor, blocking while the maximum
+     * number of uploads are pending. The tile contents are copied first, as callers such as the
+     * seeding threads reuse their buffers as soon as this method returns.
+     */
+    private void putAsync(final TileObject obj, final String key) throws StorageException {
+        byte[] contents;
+        try (InputStream input = openStream(obj.getBlob())) {
+            contents = ByteStreams.toByteArray(input);
+        } catch (IOException e) {
+            throw new StorageException("Error reading blob contents for " + key, e);
+        }
+        final TileObject pending = TileObject.createCompleteTileObject(obj.getLayerName(),
+                obj.getXYZ().clone(), obj.getGridSetId(), obj.getBlobFormat(),
+                obj.getParameters(), new ByteArrayResource(contents));
+        pending.setParametersId(obj.getParametersId());
+
+        try {
+            pendingPutPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting to store " + key, e);
+        }
+        final PendingPut pendingPut = new PendingPut(key, pending);
+        pendingPut.previous = pendingPuts.put(key, pendingPut);
+        try {
+            putExecutorService.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        upload(pendingPut);
+                    } finally {
+                        pendingPuts.remove(key, pendingPut);
+                        pendingPut.done.countDown();
+                        pendingPutPermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPuts.remove(key, pendingPut);
+            pendingPut.done.countDown();
+            pendingPutPermits.release();
+            throw new StorageException("Blob store is shut down, can't store " + key, e);
+        }
+    }
+
+    /**
+     * Uploads a pending put once the put it replaced is done, unless it was replaced in turn by a
+     * newer put or cancelled by a delete in the meantime
+     */
+    private void upload(final PendingPut pendingPut) {
+        final PendingPut previous = pendingPut.previous;
+        pendingPut.previous = null;
+        if (previous != null) {
+            Uninterruptibles.awaitUninterruptibly(previous.done);
+        }
+        if (pendingPuts.get(pendingPut.key) != pendingPut) {
+            return;
+        }
+        try {
+            doPut(pendingPut.tile, pendingPut.key);
+        } catch (RuntimeException | StorageException e) {
+            // the caller is long gone, the tile is just dropped and rendered again when requested
+            failedPuts.incrementAndGet();
+            log.error("Error storing " + pendingPut.key + " of layer "
+                    + pendingPut.tile.getLayerName() + ", the tile is dropped", e);
+        }
+    }
+
+    /**
+     * Cancels the pending puts whose key starts with the given prefix and are accepted by the
+     * filter, and waits for those already being uploaded, so that a delete doesn't race with
+     * them
+     */
+    private void cancelPendingPuts(final String keyPrefix,
+            final Predicate<TileObject> filter) {
+        if (putExecutorService == null) {
+            return;
+        }
+        List<PendingPut> cancelled = new ArrayList<>();
+        for (PendingPut pending : pendingPuts.values()) {
+            if (pending.key.startsWith(keyPrefix) && filter.apply(pending.tile)
+                    && pendingPuts.remove(pending.key, pending)) {
+                cancelled.add(pending);
+            }
+        }
+        for (PendingPut pending : cancelled) {
+            // also covers the older puts of the key, uploaded before this one
+            Uninterruptibles.awaitUninterruptibly(pending.done);
+        }
+    }
+
+    /**
+     * Waits for the pending puts of a layer to be uploaded
+     */
+    private void awaitPendingPuts(final String layerName) {
+        if (putExecutorService == null) {
+            return;
+        }
+        for (PendingPut pending : pendingPuts.values()) {
+            if (layerName.equals(pending.tile.getLayerName())) {
+                Uninterruptibles.awaitUninterruptibly(pending.done);
+            }
+        }
+    }
+
+    private void doPut(final TileObject obj, final String key) throws StorageException {
+        final Resource blob = obj.getBlob();
         ObjectMetadata objectMetadata = new ObjectMetadata();
         objectMetadata.setContentLength(blob.getSize());
 
@@ -164,12 +405,17 @@ public class S3BlobStore implements BlobStore {
             existed = oldObj != null;
         }
 
-        final ByteArrayInputStream input = toByteArray(blob);
-        PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, input,
-                objectMetadata).withCannedAcl(CannedAccessControlList.PublicRead);
+        // stream the contents straight from the blob, the content length is known so the client
+        // does not need to buffer them
+        try (InputStream input = openStream(blob)) {
+            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, input,
+                    objectMetadata).withCannedAcl(CannedAccessControlList.PublicRead);
 
-        log.trace(log.isTraceEnabled() ? ("Storing " + key) : "");
-        s3Ops.putObject(putObjectRequest);
+            log.trace(log.isTraceEnabled() ? ("Storing " + key) : "");
+            s3Ops.putObject(putObjectRequest);
+        } catch (IOException e) {
+            throw new StorageException("Error reading blob contents for " + key, e);
+        }
 
         /*
          * This is important because listeners may be tracking tile existence
@@ -184,33 +430,31 @@ public class S3BlobStore implements BlobStore {
         }
     }
 
-    private ByteArrayInputStream toByteArray(final Resource blob) throws StorageException {
-        final byte[] bytes;
-        if (blob instanceof ByteArrayResource) {
-            bytes = ((ByteArrayResource) blob).getContents();
-        } else {
-            ByteArrayOutputStream out = new ByteArrayOutputStream((int) blob.getSize());
-            WritableByteChannel channel = Channels.newChannel(out);
-            try {
-                blob.transferTo(channel);
-            } catch (IOException e) {
-                throw new StorageException("Error copying blob contents", e);
-            }
-            bytes = out.toByteArray();
+    private InputStream openStream(final Resource blob) throws IOException {
+        if (blob.getSize() == 0) {
+            // an empty ByteArrayResource may have no backing array and refuse to open a stream
+            return new ByteArrayInputStream(new byte[0]);
         }
-        ByteArrayInputStream input = new ByteArrayInputStream(bytes);
-        return input;
+        return blob.getInputStream();
     }
 
     @Override
     public boolean get(TileObject obj) throws StorageException {
         final String key = keyBuilder.forTile(obj);
+        final PendingPut pendingPut = pendingPuts.get(key);
+        if (pendingPut != null) {
+            final TileObject pending = pendingPut.tile;
+            obj.setBlobSize(pending.getBlobSize());
+            obj.setBlob(pending.getBlob());
+            obj.setCreated(pending.getCreated());
+            return true;
+        }
         final S3Object object = s3Ops.getObject(key);
         if (object == null) {
             return false;
         }
-        try (S3ObjectInputStream in = object.getObjectContent()) {
-            byte[] bytes = ByteStreams.toByteArray(in);
+        try {
+            byte[] bytes = S3Ops.readContents(object);
             obj.setBlobSize(bytes.length);
             obj.setBlob(new ByteArrayResource(bytes));
             obj.setCreated(object.getObjectMetadata().getLastModified().getTime());
@@ -247,6 +491,12 @@ public class S3BlobStore implements BlobStore {
     public boolean delete(final TileRange tileRange) throws StorageException {
 
         final String coordsPrefix = keyBuilder.coordinatesPrefix(tileRange);
+        cancelPendingPuts(coordsPrefix, new Predicate<TileObject>() {
+            @Override
+            public boolean apply(TileObject tile) {
+                return tileRange.contains(tile.getXYZ());
+            }
+        });
         if (!s3Ops.prefixExists(coordsPrefix)) {
             return false;
         }
@@ -305,6 +555,7 @@ public class S3BlobStore implements BlobStore {
         final String metadataKey = keyBuilder.layerMetadata(layerName);
         final String layerPrefix = keyBuilder.forLayer(layerName);
 
+        cancelPendingPuts(layerPrefix, Predicates.<TileObject> alwaysTrue());
         s3Ops.deleteObject(metadataKey);
 
         boolean layerExists;
@@ -328,6 +579,7 @@ public class S3BlobStore implements BlobStore {
 
         final String gridsetPrefix = keyBuilder.forGridset(layerName, gridSetId);
 
+        cancelPendingPuts(gridsetPrefix, Predicates.<TileObject> alwaysTrue());
         boolean prefixExists;
         try {
             prefixExists = s3Ops.scheduleAsyncDelete(gridsetPrefix);
@@ -343,6 +595,7 @@ public class S3BlobStore implements BlobStore {
     @Override
     public boolean delete(TileObject obj) throws StorageException {
         final String key = keyBuilder.forTile(obj);
+        cancelPendingPuts(key, Predicates.<TileObject> alwaysTrue());
 
         // don't bother for the extra call if there are no listeners
         if (listeners.isEmpty()) {
@@ -364,6 +617,8 @@ public class S3BlobStore implements BlobStore {
     @Override
     public boolean rename(String oldLayerName, String newLayerName) throws StorageException {
         log.debug("No need to rename layers, S3BlobStore uses layer id as key root");
+        // the pending uploads notify the listeners with the old name, let them go first
+        awaitPendingPuts(oldLayerName);
         if (s3Ops.prefixExists(oldLayerName)) {
             listeners.sendLayerRenamed(oldLayerName, newLayerName);
         }
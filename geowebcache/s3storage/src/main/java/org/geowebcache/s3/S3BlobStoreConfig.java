@@ -73,6 +73,8 @@ public class S3BlobStoreConfig extends BlobStoreConfig {
 
     private Boolean useGzip;
 
+    private Integer maxPendingPuts;
+
     /**
      * @return the name of the AWS S3 bucket where to store tiles
      */
@@ -285,6 +287,25 @@ public class S3BlobStoreConfig extends BlobStoreConfig {
         this.useGzip = use;
     }
 
+    /**
+     * @return the maximum number of tile uploads that may be pending at any time when tiles are
+     *         stored asynchronously, {@code null} or a non positive value means tiles are stored
+     *         synchronously
+     */
+    @Nullable
+    public Integer getMaxPendingPuts() {
+        return maxPendingPuts;
+    }
+
+    /**
+     * Sets the maximum number of tile uploads that may be pending at any time. A positive value
+     * makes the blob store upload tiles asynchronously (write-behind), {@code null} or a non
+     * positive value makes it store them synchronously.
+     */
+    public void setMaxPendingPuts(Integer maxPendingPuts) {
+        this.maxPendingPuts = maxPendingPuts;
+    }
+
     @Override
     public boolean equals(Object o) {
         return EqualsBuilder.reflectionEquals(this, o);
@@ -55,6 +55,7 @@ public class S3BlobStoreConfigProvider implements XMLConfigurationProvider {
         xs.registerLocalConverter(S3BlobStoreConfig.class, "proxyPort", NullableIntConverter);
         xs.registerLocalConverter(S3BlobStoreConfig.class, "useHTTPS", NullableBooleanConverter);
         xs.registerLocalConverter(S3BlobStoreConfig.class, "useGzip", NullableBooleanConverter);
+        xs.registerLocalConverter(S3BlobStoreConfig.class, "maxPendingPuts", NullableIntConverter);
         return xs;
     }
 
@@ -268,15 +268,31 @@ class S3Ops {
         if (object == null) {
             return null;
         }
-        try (S3ObjectInputStream in = object.getObjectContent()) {
-            byte[] bytes = ByteStreams.toByteArray(in);
-            return bytes;
+        try {
+            return readContents(object);
         } catch (IOException e) {
             throw new StorageException("Error getting " + key, e);
         }
 
     }
 
+    /**
+     * Reads the whole contents of {@code object} and closes its stream. When the content length is
+     * known the contents are read straight into an array of the right size, instead of growing a
+     * buffer and copying it at the end.
+     */
+    static byte[] readContents(S3Object object) throws IOException {
+        try (S3ObjectInputStream in = object.getObjectContent()) {
+            final long length = object.getObjectMetadata().getContentLength();
+            if (length <= 0 || length > Integer.MAX_VALUE) {
+                return ByteStreams.toByteArray(in);
+            }
+            byte[] bytes = new byte[(int) length];
+            ByteStreams.readFully(in, bytes);
+            return bytes;
+        }
+    }
+
     /**
      * Simply checks if there are objects starting with {@code prefix}
      */
@@ -90,13 +90,17 @@ public class S3BlobStoreIntegrationTest {
 
     private S3BlobStore blobStore;
 
+    private TileLayerDispatcher layers;
+
+    private LockProvider lockProvider;
+
     @Before
     public void before() throws Exception {
         Assume.assumeTrue(tempFolder.isConfigured());
         S3BlobStoreConfig config = tempFolder.getConfig();
 
-        TileLayerDispatcher layers = mock(TileLayerDispatcher.class);
-        LockProvider lockProvider = new NoOpLockProvider();
+        layers = mock(TileLayerDispatcher.class);
+        lockProvider = new NoOpLockProvider();
         TileLayer layer = mock(TileLayer.class);
         when(layers.getTileLayer(eq(DEFAULT_LAYER))).thenReturn(layer);
         when(layer.getName()).thenReturn(DEFAULT_LAYER);
@@ -230,6 +234,74 @@ public class S3BlobStoreIntegrationTest {
         //verify(listener, Mockito.atLeastOnce()).layerDeleted(eq(layerName));
     }
 
+    /**
+     * Replaces the blob store by one uploading tiles asynchronously
+     */
+    private S3BlobStore writeBehindBlobStore() throws StorageException {
+        blobStore.destroy();
+        S3BlobStoreConfig config = tempFolder.getConfig();
+        config.setMaxPendingPuts(100);
+        blobStore = new S3BlobStore(config, layers, lockProvider);
+        return blobStore;
+    }
+
+    /**
+     * Waits for the pending uploads by shutting down the write-behind blob store, and replaces it
+     * by a synchronous one
+     */
+    private void flushPendingPuts() throws StorageException {
+        blobStore.destroy();
+        blobStore = new S3BlobStore(tempFolder.getConfig(), layers, lockProvider);
+    }
+
+    @Test
+    public void testWriteBehindPutDelete() throws Exception {
+        writeBehindBlobStore();
+        TileObject tile = put(20, 30, 12);
+        put(21, 30, 12);
+        // the uploads may still be pending
+        assertTrue(blobStore.get(queryTile(20, 30, 12)));
+        blobStore.delete(tile);
+        assertFalse(blobStore.get(queryTile(20, 30, 12)));
+
+        TileRange range = tileRange(DEFAULT_LAYER, DEFAULT_GRIDSET, 12, 12,
+                new long[][] { { 21, 30, 21, 30, 12 } }, MimeType.createFromExtension(
+                        DEFAULT_FORMAT), null);
+        blobStore.delete(range);
+        assertFalse(blobStore.get(queryTile(21, 30, 12)));
+
+        flushPendingPuts();
+        assertFalse(blobStore.get(queryTile(20, 30, 12)));
+        assertFalse(blobStore.get(queryTile(21, 30, 12)));
+    }
+
+    @Test
+    public void testWriteBehindUploadOrder() throws Exception {
+        writeBehindBlobStore();
+        for (int size = 1; size <= 50; size++) {
+            TileObject tile = queryTile(20, 30, 12);
+            tile.setBlob(new ByteArrayResource(new byte[size]));
+            blobStore.put(tile);
+        }
+        flushPendingPuts();
+        TileObject tile = queryTile(20, 30, 12);
+        assertTrue(blobStore.get(tile));
+        assertEquals(50, tile.getBlobSize());
+    }
+
+    @Test
+    public void testWriteBehindPutRename() throws Exception {
+        writeBehindBlobStore();
+        BlobStoreListener listener = mock(BlobStoreListener.class);
+        blobStore.addListener(listener);
+        put(20, 30, 12);
+        blobStore.rename(DEFAULT_LAYER, "renamed");
+
+        // the pending upload was done, and notified with the old name, before renaming
+        verify(listener).tileStored(eq(DEFAULT_LAYER), eq(DEFAULT_GRIDSET), anyString(),
+                anyString(), eq(20L), eq(30L), eq(12), eq(256L));
+    }
+
     @Test
     public void testDeleteGridSubset() throws Exception {
         seed(0, 1, "EPSG:4326", "png", null);
@@ -58,6 +58,7 @@ import org.geowebcache.layer.meta.LayerMetaInformation;
 import org.geowebcache.layer.meta.MetadataURL;
 import org.geowebcache.layer.wms.WMSHttpHelper;
 import org.geowebcache.layer.wms.WMSLayer;
+import org.geowebcache.layer.wms.WMSPooledHttpHelper;
 
 public class GetCapabilitiesConfiguration implements Configuration {
     private static Log log = LogFactory
@@ -189,7 +190,8 @@ public class GetCapabilitiesConfiguration implements Configuration {
             throw new ConfigurationException("Unable to get capabitilies from " + wmsUrl);
         }
 
-        WMSHttpHelper sourceHelper = new WMSHttpHelper();
+        WMSHttpHelper sourceHelper = WMSPooledHttpHelper.isEnabled() ? new WMSPooledHttpHelper()
+                : new WMSHttpHelper();
 
         List<Layer> layerList = capabilities.getLayerList();
         Iterator<Layer> layerIter = layerList.iterator();